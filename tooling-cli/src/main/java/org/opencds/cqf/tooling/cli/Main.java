@@ -35,6 +35,12 @@ package org.opencds.cqf.tooling.cli;
             - This tooling converts an exported VSAC Excel spreadsheet (.xlsx extension) to a FHIR ValueSet resource and prints to output directory
             - This operation is configurable and can be used with spreadsheets that do not conform to VSAC export format (although we suggest using the -XlsxToValueSet operation as it is much more flexible and configurable).
 
+        - VSAC Excel spreadsheet batch to FHIR ValueSet resources conversion
+            - command: mvn exec:java -Dexec.args="[-VsacXlsxToValueSetBatch] [-pathtospreadsheetdir | -ptsd] (-outputpath | -op) (-valuesetsource | -vssrc) (-baseurl | -burl) (-setname | -name) (-threads | -t) (-manifestpath | -mp)"
+            - This tooling converts every .xlsx spreadsheet in a directory ({ vsac, cms, hedis } exports, default vsac) to FHIR ValueSet resources.
+            - Spreadsheets are converted concurrently (-threads, default the number of available processors); a spreadsheet that fails is reported and does not stop the others.
+            - A JSON manifest of the generated ValueSets, with the outcome and time of each spreadsheet, is written to -manifestpath (default valueset-batch-manifest.json in the spreadsheet directory).
+
         - TemplateValuesetGenerator - WAS: XLSX Opioid ValueSet terminology generator
             - command: mvn exec:java -Dexec.args="[-TemplateValuesetGenerator] [-pathtospreadsheet=<path> | -pts] (-outputpath | -op) (-encoding | -e) (-outputprefix | -opp) (-outputversion | -opv)"
             - This tooling converts the CDC Opioid XLSX spreadsheet from MD Partners to valuesets.
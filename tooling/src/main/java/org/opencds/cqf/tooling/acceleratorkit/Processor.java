@@ -7,12 +7,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
 
 import jakarta.annotation.Nonnull;
 
@@ -2719,6 +2721,9 @@ public class Processor extends Operation {
         List<ValueSet.ConceptSetComponent> includes = valueSet.getCompose().getInclude();
 //        ValueSet.ValueSetExpansionComponent targetExpansion = valueSet.getExpansion();
         List<ValueSet.ValueSetExpansionContainsComponent> targetContains = targetExpansion.getContains();
+        // system|code of the codes already in the expansion
+        Set<String> targetCodes = new HashSet<>();
+        targetContains.forEach(c -> targetCodes.add(c.getSystem() + "|" + c.getCode()));
 
         for (ValueSet vs: valueSetsToGroup) {
             // Add source ValueSet URLs to grouper Compose
@@ -2735,7 +2740,7 @@ public class Processor extends Operation {
                 for (ValueSet.ConceptSetComponent sourceInclude : vs.getCompose().getInclude()) {
                     String system = sourceInclude.getSystem();
                     for (ValueSet.ConceptReferenceComponent concept : sourceInclude.getConcept()) {
-                        if (targetContains.stream().noneMatch(c -> c.getSystem().equals(system) && c.getCode().equals(concept.getCode()))) {
+                        if (targetCodes.add(system + "|" + concept.getCode())) {
                             ValueSet.ValueSetExpansionContainsComponent newContains = new ValueSet.ValueSetExpansionContainsComponent();
                             newContains.setSystem(system);
                             newContains.setCode(concept.getCode());
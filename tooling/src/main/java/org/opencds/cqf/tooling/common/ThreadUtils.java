@@ -1,54 +1,190 @@
 package org.opencds.cqf.tooling.common;
 
-import org.opencds.cqf.tooling.utilities.LogUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ThreadUtils {
     protected static final Logger logger = LoggerFactory.getLogger(ThreadUtils.class);
+
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+    private static ForkJoinPool pool;
+
+    /**
+     * Sets the number of threads of the shared pool used by {@link #executeTasks(List)}. Defaults to the number of
+     * available processors.
+     *
+     * @param threads the number of threads, at least 1
+     */
+    public static synchronized void setParallelism(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1");
+        }
+        if (threads != parallelism) {
+            parallelism = threads;
+            if (pool != null) {
+                // running tasks finish on the old pool
+                pool.shutdown();
+                pool = null;
+            }
+        }
+    }
+
+    public static synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    /**
+     * The outcome of {@link #executeTasks(List, boolean)}.
+     */
+    public static class TaskResults {
+        private final int taskCount;
+        private final List<TaskFailure> failures;
+        private final int skippedCount;
+
+        TaskResults(int taskCount, List<TaskFailure> failures, int skippedCount) {
+            this.taskCount = taskCount;
+            this.failures = Collections.unmodifiableList(failures);
+            this.skippedCount = skippedCount;
+        }
+
+        public int getTaskCount() {
+            return taskCount;
+        }
+
+        public List<TaskFailure> getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return The number of tasks that were not run because an earlier task failed
+         */
+        public int getSkippedCount() {
+            return skippedCount;
+        }
+
+        public boolean isSuccessful() {
+            return failures.isEmpty() && skippedCount == 0;
+        }
+    }
+
+    /**
+     * A task that threw an exception.
+     */
+    public static class TaskFailure {
+        private final int index;
+        private final Exception error;
+
+        TaskFailure(int index, Exception error) {
+            this.index = index;
+            this.error = error;
+        }
+
+        /**
+         * @return The position of the task in the list passed to executeTasks
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+    }
+
     /**
-     * Executes a list of tasks concurrently using a thread pool.
+     * Executes a list of tasks concurrently on the shared pool and waits for all of them to complete.
      * <p>
-     * This method takes a list of Callable tasks and executes them concurrently using a thread pool. It utilizes
-     * an ExecutorService with a cached thread pool configuration to manage the execution of the tasks.
-     * The method waits for all tasks to complete before returning.
+     * The pool is a bounded fork/join pool (see {@link #setParallelism(int)}) shared by every caller, so tasks may
+     * themselves call executeTasks: nested tasks run on the same pool, and a task waiting for them helps run them
+     * instead of blocking a thread. A failing task does not stop the others; every failure is logged and returned.
+     *
+     * @param tasks A list of Callable tasks to execute concurrently.
+     * @return The failures of the tasks
+     */
+    public static TaskResults executeTasks(List<Callable<Void>> tasks) {
+        return executeTasks(tasks, false);
+    }
+
+    /**
+     * Executes a list of tasks concurrently on the shared pool and waits for all of them to complete.
      *
      * @param tasks A list of Callable tasks to execute concurrently.
+     * @param cancelOnFailure Whether tasks that have not started yet are skipped once a task fails.
+     * @return The failures of the tasks, and the number of tasks skipped
      */
-    public static void executeTasks(List<Callable<Void>> tasks) {
-        if (tasks == null || tasks.isEmpty()){
-            return;
+    public static TaskResults executeTasks(List<Callable<Void>> tasks, boolean cancelOnFailure) {
+        if (tasks == null || tasks.isEmpty()) {
+            return new TaskResults(0, Collections.emptyList(), 0);
         }
 
-        //let OS handle threading:
-        ExecutorService executorService = Executors.newCachedThreadPool();// Submit tasks and obtain futures
-        try {
-            List<Future<Void>> futures = new ArrayList<>();
-            for (Callable<Void> task : tasks) {
-                futures.add(executorService.submit(task));
+        AtomicBoolean failed = new AtomicBoolean();
+        Exception[] errors = new Exception[tasks.size()];
+        boolean[] skipped = new boolean[tasks.size()];
+        List<ForkJoinTask<?>> forked = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            int index = i;
+            Callable<Void> task = tasks.get(i);
+            ForkJoinTask<?> forkJoinTask = ForkJoinTask.adapt(() -> {
+                if (cancelOnFailure && failed.get()) {
+                    skipped[index] = true;
+                    return;
+                }
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    errors[index] = e;
+                    failed.set(true);
+                }
+            });
+            if (ForkJoinTask.inForkJoinPool()) {
+                // nested call: fork onto the pool the current task runs in
+                forkJoinTask.fork();
+            } else {
+                getPool().execute(forkJoinTask);
             }
+            forked.add(forkJoinTask);
+        }
 
-            // Wait for all tasks to complete
-            for (Future<Void> future : futures) {
-                future.get();
+        List<TaskFailure> failures = new ArrayList<>();
+        int skippedCount = 0;
+        for (int i = 0; i < forked.size(); i++) {
+            // joining lets a pool thread run other tasks while it waits, so nested calls do not deadlock
+            forked.get(i).quietlyJoin();
+            if (forked.get(i).isCompletedAbnormally()) {
+                // an Error rather than an Exception: rethrow it
+                forked.get(i).join();
+            }
+            if (skipped[i]) {
+                skippedCount++;
+            } else if (errors[i] != null) {
+                logger.error("ThreadUtils.executeTasks", errors[i]);
+                failures.add(new TaskFailure(i, errors[i]));
             }
-        } catch (Exception e) {
-            logger.error("ThreadUtils.executeTasks", e);
-        } finally {
-            executorService.shutdown();
         }
+        return new TaskResults(tasks.size(), failures, skippedCount);
     }
 
-    public static void executeTasks(Queue<Callable<Void>> callables) {
+    public static TaskResults executeTasks(Queue<Callable<Void>> callables) {
+        return executeTasks(callables, false);
+    }
 
-        executeTasks(new ArrayList<>(callables));
+    public static TaskResults executeTasks(Queue<Callable<Void>> callables, boolean cancelOnFailure) {
+        return executeTasks(callables == null ? null : new ArrayList<>(callables), cancelOnFailure);
     }
 }
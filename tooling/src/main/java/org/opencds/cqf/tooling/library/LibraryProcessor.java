@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
@@ -128,8 +129,10 @@ public class LibraryProcessor extends BaseProcessor {
                                              Encoding encoding, boolean versioned) {
         try{
             Queue<Callable<Void>> bundleLibraryDependenciesTasks = bundleLibraryDependenciesTasks(path, fhirContext, resources, encoding, versioned);
-            ThreadUtils.executeTasks(bundleLibraryDependenciesTasks);
-            return true;
+            if (bundleLibraryDependenciesTasks == null) {
+                return false;
+            }
+            return ThreadUtils.executeTasks(bundleLibraryDependenciesTasks, true).isSuccessful();
         }catch (Exception e){
             return false;
         }
@@ -137,36 +140,30 @@ public class LibraryProcessor extends BaseProcessor {
     }
 
     /**
-     * Recursively bundles library dependencies for a given FHIR library file and populates the provided resource map.
-     * Each dependency is added as a Callable task to be executed asynchronously.
+     * Bundles the library dependencies, direct and indirect, of a given FHIR library file and populates the provided
+     * resource map. The dependencies are taken from the run-wide library dependency graph (see
+     * {@link ResourceUtils#getTransitiveDepLibraryResources}), so each library is only read once however many
+     * libraries depend on it; each dependency is added as a Callable task to be executed asynchronously.
      *
      * @param path          The path to the FHIR library file.
      * @param fhirContext   The FHIR context to use for processing resources.
      * @param resources     The map to populate with library resources.
      * @param encoding      The encoding to use for reading and processing resources.
      * @param versioned     A boolean indicating whether to consider versioned resources.
-     * @return A queue of Callable tasks, each representing the bundling of a library dependency.
+     * @return A queue of Callable tasks, each representing the bundling of a library dependency, or null if the
+     *         dependencies could not be resolved (e.g. they are circular).
      *         The Callable returns null (Void) and is meant for asynchronous execution.
      */
     public Queue<Callable<Void>> bundleLibraryDependenciesTasks(String path, FhirContext fhirContext, Map<String, IBaseResource> resources,
                                                                 Encoding encoding, boolean versioned) {
 
         Queue<Callable<Void>> returnTasks = new ConcurrentLinkedQueue<>();
-
-        String fileName = FilenameUtils.getName(path);
-        boolean prefixed = fileName.toLowerCase().startsWith("library-");
         try {
-            Map<String, IBaseResource> dependencies = ResourceUtils.getDepLibraryResources(path, fhirContext, encoding, versioned, logger);
-            // String currentResourceID = IOUtils.getTypeQualifiedResourceId(path, fhirContext);
+            Map<String, IBaseResource> dependencies = ResourceUtils.getTransitiveDepLibraryResources(path, fhirContext, encoding, versioned, logger);
             for (IBaseResource resource : dependencies.values()) {
                 returnTasks.add(() -> {
                     resources.putIfAbsent(resource.getIdElement().getIdPart(), resource);
 
-                    // NOTE: Assuming dependency library will be in directory of dependent.
-                    String dependencyPath = IOUtils.getResourceFileName(IOUtils.getResourceDirectory(path), resource, encoding, fhirContext, versioned, prefixed);
-
-                    returnTasks.addAll(bundleLibraryDependenciesTasks(dependencyPath, fhirContext, resources, encoding, versioned));
-
                     //return statement needed for Callable<Void>
                     return null;
                 });
@@ -313,11 +310,17 @@ public class LibraryProcessor extends BaseProcessor {
     private List<Library> internalRefreshGeneratedContent(List<Library> sourceLibraries) {
         getCqlProcessor().execute();
 
+        // the libraries by name, in order, rather than a scan of every library for each CQL file
+        Map<String, List<Library>> sourceLibrariesByName = new HashMap<>();
+        for (Library sourceLibrary : sourceLibraries) {
+            sourceLibrariesByName.computeIfAbsent(sourceLibrary.getName(), name -> new ArrayList<>()).add(sourceLibrary);
+        }
+
         // For each CQL file, ensure that there is a Library resource with a matching name and version
         for (CqlProcessor.CqlSourceFileInformation fileInfo : getCqlProcessor().getAllFileInformation()) {
             if (fileInfo.getIdentifier() != null && fileInfo.getIdentifier().getId() != null && !fileInfo.getIdentifier().getId().equals("")) {
                 Library existingLibrary = null;
-                for (Library sourceLibrary : sourceLibraries) {
+                for (Library sourceLibrary : sourceLibrariesByName.getOrDefault(fileInfo.getIdentifier().getId(), Collections.emptyList())) {
                     if (fileInfo.getIdentifier().getId().equals(sourceLibrary.getName())
                             && (fileInfo.getIdentifier().getVersion() == null || fileInfo.getIdentifier().getVersion().equals(sourceLibrary.getVersion()))
                     ) {
@@ -341,6 +344,7 @@ public class LibraryProcessor extends BaseProcessor {
                     attachments.add(attachment);
                     newLibrary.setContent(attachments);
                     sourceLibraries.add(newLibrary);
+                    sourceLibrariesByName.computeIfAbsent(newLibrary.getName(), name -> new ArrayList<>()).add(newLibrary);
                 }
             }
         }
@@ -143,7 +143,7 @@ public class MeasureProcessor extends AbstractResourceProcessor {
                             IBaseResource resource = IOUtils.readResource(file.getAbsolutePath(), fhirContext, true);
                             //ensure the resource can be posted
                             if (BundleUtils.resourceIsTransactionBundle(resource)) {
-                                BundleUtils.postBundle(encoding, fhirContext, fhirUri, resource);
+                                BundleUtils.postBundle(encoding, fhirContext, fhirUri, file.getAbsolutePath());
                             }
                         } catch (Exception e) {
                             //resource is likely not IBaseResource
@@ -1,7 +1,10 @@
 package org.opencds.cqf.tooling.measure;
 
 import java.io.File;
+import java.math.BigDecimal;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.hl7.fhir.Parameters;
 import org.hl7.fhir.ParametersParameter;
@@ -25,50 +28,72 @@ public class MeasureTestProcessor implements ITestProcessor {
 
     //TODO: Should probably introduce a BaseTestProcessor and this would belong there.
     public static final String TestPassedKey  = "Test Passed";
+    // Prefix of the parameters holding the time, in milliseconds, spent in a phase of the test
+    public static final String TimingKeyPrefix = "Timing.";
+    public static final String LoadContentTiming = "loadContent";
+    public static final String EvaluateTiming = "evaluate";
+    public static final String CompareTiming = "compare";
 
     private FhirContext fhirContext;
+    // shared by the test cases run through this processor, possibly concurrently
+    private final MeasureReportComparer comparer;
+    private final Map<String, IGenericClient> fhirClients = new ConcurrentHashMap<>();
 
     public MeasureTestProcessor(FhirContext fhirContext)
     {
         this.fhirContext = fhirContext;
+        this.comparer = new MeasureReportComparer(fhirContext);
     }
 
     public Parameters executeTest(String testPath, String contentBundlePath, String fhirServer)
     {
-        MeasureTestAdapter adapter = getMeasureTestAdapter(testPath, contentBundlePath, fhirServer);
-        MeasureReportComparer comparer = new MeasureReportComparer(this.fhirContext);
-
-        IMeasureReportAdapter expected = adapter.getExpectedMeasureReportAdapter();
-        String measureId = expected.getMeasureId();
-        logger.info("Testing Measure '{}'", measureId);
-
-        IMeasureReportAdapter actual = adapter.getActualMeasureReportAdapter();
-
-        Parameters results = comparer.compare(actual, expected);
-        logTestResults(measureId, results);
-        return results;
+        return executeTest(getMeasureTestAdapter(testPath, contentBundlePath, fhirServer));
     }
 
     public Parameters executeTest(IBaseResource testBundle, IBaseResource contentBundle, String fhirServer)
     {
-        MeasureTestAdapter adapter = getMeasureTestAdapter(testBundle, contentBundle, fhirServer);
-        MeasureReportComparer comparer = new MeasureReportComparer(this.fhirContext);
+        return executeTest(getMeasureTestAdapter(testBundle, contentBundle, fhirServer));
+    }
 
+    private Parameters executeTest(MeasureTestAdapter adapter)
+    {
         IMeasureReportAdapter expected = adapter.getExpectedMeasureReportAdapter();
         String measureId = expected.getMeasureId();
         logger.info("Testing Measure '{}'", measureId);
 
+        long start = System.nanoTime();
+        adapter.loadContent();
+        long contentLoaded = System.nanoTime();
         IMeasureReportAdapter actual = adapter.getActualMeasureReportAdapter();
-
+        long evaluated = System.nanoTime();
         Parameters results = comparer.compare(actual, expected);
+        long compared = System.nanoTime();
+
+        addTimingParameter(results, LoadContentTiming, contentLoaded - start);
+        addTimingParameter(results, EvaluateTiming, evaluated - contentLoaded);
+        addTimingParameter(results, CompareTiming, compared - evaluated);
         logTestResults(measureId, results);
         return results;
     }
 
+    private static void addTimingParameter(Parameters results, String phase, long nanos) {
+        ParametersParameter parameter = new ParametersParameter();
+        parameter.setName(new org.hl7.fhir.String().withValue(TimingKeyPrefix + phase));
+        parameter.setValueDecimal(new org.hl7.fhir.Decimal().withValue(BigDecimal.valueOf(nanos / 1_000_000.0)));
+        results.getParameter().add(parameter);
+    }
+
     private void logTestResults(String artifactId, Parameters results) {
         logger.info("Test results for Measure '{}':", artifactId);
 
         for (ParametersParameter parameter : results.getParameter()) {
+            if (parameter.getValueBoolean() == null) {
+                // a mismatch detail or a timing
+                if (parameter.getValueString() != null) {
+                    logger.info(parameter.getName().getValue() + ": " + parameter.getValueString().getValue());
+                }
+                continue;
+            }
             String assertionString = "";
 
             if (parameter.getName().getValue().indexOf(TestPassedKey) >= 0) {
@@ -92,7 +117,7 @@ public class MeasureTestProcessor implements ITestProcessor {
             return new CqlEvaluatorMeasureTestAdapter(this.fhirContext, testBundle, contentBundle);
         }
 
-        IGenericClient fhirClient = this.fhirContext.newRestfulGenericClient(fhirServer);
+        IGenericClient fhirClient = fhirClients.computeIfAbsent(fhirServer, this.fhirContext::newRestfulGenericClient);
 
         if (contentBundle == null) {
             return new ReadOnlyFhirServerMeasureTestAdapter(this.fhirContext, fhirClient, testBundle);
@@ -119,7 +144,7 @@ public class MeasureTestProcessor implements ITestProcessor {
             return new CqlEvaluatorMeasureTestAdapter(this.fhirContext, testPath, contentBundlePath);
         }
 
-        IGenericClient fhirClient = this.fhirContext.newRestfulGenericClient(fhirServer);
+        IGenericClient fhirClient = fhirClients.computeIfAbsent(fhirServer, this.fhirContext::newRestfulGenericClient);
 
         if (contentBundlePath == null) {
             return new ReadOnlyFhirServerMeasureTestAdapter(this.fhirContext, fhirClient, testPath);
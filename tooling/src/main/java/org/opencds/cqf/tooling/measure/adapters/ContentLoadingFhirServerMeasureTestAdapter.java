@@ -1,8 +1,15 @@
 package org.opencds.cqf.tooling.measure.adapters;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.opencds.cqf.tooling.utilities.IOUtils;
@@ -13,7 +20,13 @@ import ca.uhn.fhir.util.BundleUtil;
 
 public class ContentLoadingFhirServerMeasureTestAdapter extends FhirServerMeasureTestAdapter {
 
+    // keyed by server base and content hash: identical content (e.g. re-read, or shared by artifacts) is loaded once
+    private static final Map<String, FutureTask<Void>> loadedContent = new ConcurrentHashMap<>();
+    // content hashes, keyed by bundle identity; released with the bundle
+    private static final Map<IBaseResource, String> contentHashes = Collections.synchronizedMap(new WeakHashMap<>());
+
     private IBaseResource contentBundle;
+    private boolean contentLoaded;
 
     public ContentLoadingFhirServerMeasureTestAdapter(FhirContext fhirContext, IGenericClient fhirServer, IBaseResource testBundle, String contentPath) {
         super (fhirContext, fhirServer, testBundle);
@@ -73,12 +86,59 @@ public class ContentLoadingFhirServerMeasureTestAdapter extends FhirServerMeasur
 
     @Override
     public IMeasureReportAdapter getActualMeasureReportAdapter() {
-        this.ensureContentAndData();
+        this.loadContent();
         return this.evaluate();
     }
 
+    @Override
+    public void loadContent() {
+        if (!this.contentLoaded) {
+            this.ensureContentAndData();
+            this.contentLoaded = true;
+        }
+    }
+
     private void ensureContentAndData() {
-        this.postBundle((IBaseBundle)this.contentBundle);
+        this.ensureContent();
         this.postBundle((IBaseBundle)this.testBundle);
     }
-}
\ No newline at end of file
+
+    private void ensureContent() {
+        loadContent(this.fhirServer, (IBaseBundle)this.contentBundle);
+    }
+
+    /**
+     * Loads a content bundle to a server, unless a bundle with the same content has already been loaded to it in this
+     * run. Concurrent calls for the same content wait for the load in progress; a failed load is retried by the next
+     * call.
+     *
+     * @param fhirServer The server to load the content to
+     * @param contentBundle The content bundle (e.g. the Measure, Libraries and ValueSets of an artifact)
+     */
+    public static void loadContent(IGenericClient fhirServer, IBaseBundle contentBundle) {
+        String key = fhirServer.getServerBase() + "|" + getContentHash(fhirServer.getFhirContext(), contentBundle);
+        FutureTask<Void> load = loadedContent.computeIfAbsent(key, k -> new FutureTask<>(() -> {
+            fhirServer.transaction().withBundle(contentBundle).execute();
+            return null;
+        }));
+        // only the first call runs the load; the others wait for it
+        load.run();
+        try {
+            load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading content to " + fhirServer.getServerBase(), e);
+        } catch (ExecutionException e) {
+            loadedContent.remove(key, load);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static String getContentHash(FhirContext fhirContext, IBaseBundle contentBundle) {
+        return contentHashes.computeIfAbsent(contentBundle,
+                bundle -> DigestUtils.sha256Hex(fhirContext.newJsonParser().encodeResourceToString(bundle)));
+    }
+}
@@ -1,38 +1,115 @@
 package org.opencds.cqf.tooling.measure.adapters;
 
-import org.apache.commons.lang3.NotImplementedException;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.stream.Collectors;
+
+import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+import org.opencds.cqf.tooling.measure.evaluation.MeasureEvaluator;
+import org.opencds.cqf.tooling.utilities.IOUtils;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.TemporalPrecisionEnum;
+import ca.uhn.fhir.util.BundleUtil;
 
+/**
+ * Evaluates the measure of a test case in process with the CQL engine, against the resources of the test bundle and
+ * the Measure, Libraries and ValueSets of the content bundle, without a FHIR server.
+ * <p>
+ * One {@link MeasureEvaluator} is kept per content bundle, so the test cases of a measure share its compiled
+ * libraries, resolved terminology and model resolution.
+ */
 public class CqlEvaluatorMeasureTestAdapter extends MeasureTestAdapter {
 
-    // private String contentPath;
-    // private IBaseResource contentBundle;
+    // keyed by content bundle identity; released with the bundle
+    private static final Map<IBaseResource, MeasureEvaluator> evaluators = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final IBaseResource contentBundle;
+    private MeasureEvaluator evaluator;
 
-    /// This guy will eventually run the the cql-evaluator to get the results...
     public CqlEvaluatorMeasureTestAdapter(FhirContext fhirContext, IBaseResource testBundle, IBaseResource contentBundle) {
         super(fhirContext, testBundle);
 
-        // this.contentBundle = contentBundle;
+        this.contentBundle = validateContentBundle(contentBundle);
     }
 
     public CqlEvaluatorMeasureTestAdapter(FhirContext fhirContext, String testPath, String contentPath) {
         super(fhirContext, testPath);
 
-        // this.contentPath = contentPath;
+        Objects.requireNonNull(contentPath, "contentPath can not be null");
+        IBaseResource contentBundle = IOUtils.readResource(contentPath, fhirContext);
+        if (contentBundle == null) {
+            throw new IllegalArgumentException(String.format("FHIR Resource does not exist at %s", contentPath));
+        }
+        this.contentBundle = validateContentBundle(contentBundle);
+    }
+
+    private static IBaseResource validateContentBundle(IBaseResource contentBundle) {
+        Objects.requireNonNull(contentBundle, "contentBundle can not be null");
+        if (!contentBundle.fhirType().equals("Bundle") || !(contentBundle instanceof IBaseBundle)) {
+            throw new IllegalArgumentException("contentBundle is not a Bundle Resource");
+        }
+        return contentBundle;
     }
 
     @Override
     public IMeasureReportAdapter getActualMeasureReportAdapter() {
-        // 1. Get Measure and Patient Ids from Expected
-        // 2. Run evaluator with Measure, Patient, Content context
-        // 3. Parse the result
-        throw new NotImplementedException();
+        return this.evaluate();
+    }
+
+    // The libraries of the measure are compiled by its first evaluation, not here
+    @Override
+    public void loadContent() {
+        if (evaluator == null) {
+            evaluator = evaluators.computeIfAbsent(contentBundle,
+                    bundle -> new MeasureEvaluator(fhirContext, BundleUtil.toListOfResources(fhirContext, (IBaseBundle) bundle)));
+        }
     }
 
     @Override
     protected IMeasureReportAdapter evaluate() {
-        throw new NotImplementedException();
+        loadContent();
+
+        List<IBaseResource> data = BundleUtil.toListOfResources(fhirContext, (IBaseBundle) testBundle).stream()
+                .filter(resource -> !resource.fhirType().equals("MeasureReport"))
+                .collect(Collectors.toList());
+
+        IBaseResource measureReport = evaluator.evaluate(getMeasureId(), getPatientId(),
+                getPeriodBoundary("period.start", false), getPeriodBoundary("period.end", true), data);
+        return getMeasureReportAdapter(fhirContext, measureReport);
+    }
+
+    // A date-only (or coarser) end of the period covers the whole day, as a server evaluating the measure would have it
+    @SuppressWarnings("unchecked")
+    private DateTime getPeriodBoundary(String path, boolean end) {
+        IPrimitiveType<Date> value = fhirContext.newTerser().getSingleValueOrNull(expectedReport, path, IPrimitiveType.class);
+        if (value == null || value.getValue() == null) {
+            throw new IllegalArgumentException(String.format("The expected MeasureReport has no %s", path));
+        }
+        Date date = value.getValue();
+        TemporalPrecisionEnum precision = getPrecision(value);
+        if (end && precision.ordinal() <= TemporalPrecisionEnum.DAY.ordinal()) {
+            date = new Date(precision.add(date, 1).getTime() - 1);
+        }
+        return new DateTime(OffsetDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault()));
+    }
+
+    private static TemporalPrecisionEnum getPrecision(IPrimitiveType<Date> value) {
+        if (value instanceof org.hl7.fhir.r4.model.BaseDateTimeType) {
+            return ((org.hl7.fhir.r4.model.BaseDateTimeType) value).getPrecision();
+        }
+        if (value instanceof org.hl7.fhir.dstu3.model.BaseDateTimeType) {
+            return ((org.hl7.fhir.dstu3.model.BaseDateTimeType) value).getPrecision();
+        }
+        return TemporalPrecisionEnum.MILLI;
     }
-}
\ No newline at end of file
+}
@@ -17,6 +17,7 @@ public abstract class MeasureTestAdapter {
     protected String testPath;
     protected FhirContext fhirContext;
     protected IBaseResource testBundle;
+    protected IBaseResource expectedReport;
     protected IMeasureReportAdapter expectedReportAdapter;
     protected IMeasureReportAdapter actualReportAdapter;
 
@@ -27,7 +28,7 @@ public abstract class MeasureTestAdapter {
     public MeasureTestAdapter(FhirContext fhirContext, IBaseResource testBundle) {
         this.fhirContext = Objects.requireNonNull(fhirContext, "fhirContext can not be null.");
         this.testBundle = Objects.requireNonNull(testBundle, "testBundle can not be null.");
-        var expectedReport = loadExpectedReportFromBundle();
+        this.expectedReport = loadExpectedReportFromBundle();
         this.expectedReportAdapter = getMeasureReportAdapter(fhirContext, expectedReport);
     }
 
@@ -68,6 +69,13 @@ public abstract class MeasureTestAdapter {
 
     protected abstract IMeasureReportAdapter evaluate();
 
+    /**
+     * Loads the content and data the evaluation needs, if any. Called by getActualMeasureReportAdapter when not
+     * called before, so callers may call it first to time loading apart from evaluating.
+     */
+    public void loadContent() {
+    }
+
     public abstract IMeasureReportAdapter getActualMeasureReportAdapter();
 
     public IMeasureReportAdapter getExpectedMeasureReportAdapter() {
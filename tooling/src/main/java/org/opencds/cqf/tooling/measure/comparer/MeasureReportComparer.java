@@ -12,6 +12,9 @@ import ca.uhn.fhir.context.FhirContext;
 
 public class MeasureReportComparer {
 
+    // Suffix of the parameters describing a mismatch, e.g. "PatientId.detail"
+    public static final java.lang.String DetailSuffix = ".detail";
+
     // private FhirContext fhirContext;
 
     public MeasureReportComparer(FhirContext fhirContext) {
@@ -31,6 +34,8 @@ public class MeasureReportComparer {
         //NOTE: Set of groups must be equal. Expected must be a subset of Actual, but not a proper subset.
         if (actual.getGroups().size() != expected.getGroups().size()) {
             addResultParameter("GroupCount", results, false);
+            addDetailParameter("GroupCount", results, java.lang.String.format("expected %d groups but was %d",
+                    expected.getGroups().size(), actual.getGroups().size()));
             overallPassFail = false;
         }
 
@@ -39,15 +44,26 @@ public class MeasureReportComparer {
 
         for (IMeasureReportAdapter.Group expectedGroup : expected.getGroups()) {
             boolean foundMatch = false;
+            IMeasureReportAdapter.Group namedGroup = null;
             for (IMeasureReportAdapter.Group actualGroup : actualGroups) {
                 if (actualGroup.getName().equals(expectedGroup.getName())) {
-                    if (actualGroup.getScore().compareTo(expectedGroup.getScore()) == 0) {
+                    namedGroup = actualGroup;
+                    // a group may have no score (e.g. a cohort measure)
+                    if (actualGroup.getScore() == null || expectedGroup.getScore() == null
+                            ? actualGroup.getScore() == expectedGroup.getScore()
+                            : actualGroup.getScore().compareTo(expectedGroup.getScore()) == 0) {
                         foundMatch = true;
                         break;
                     }
                 }
             }
-            addResultParameter("Group[" + expectedGroup.getName() + "].score", results, foundMatch);
+            java.lang.String groupField = "Group[" + expectedGroup.getName() + "].score";
+            addResultParameter(groupField, results, foundMatch);
+            if (!foundMatch) {
+                addDetailParameter(groupField, results, namedGroup == null
+                        ? "no group " + expectedGroup.getName() + " in the actual report"
+                        : java.lang.String.format("expected %s but was %s", expectedGroup.getScore(), namedGroup.getScore()));
+            }
             overallPassFail = overallPassFail & foundMatch;
         }
 
@@ -63,6 +79,9 @@ public class MeasureReportComparer {
     private boolean compareField(java.lang.String fieldName, java.lang.String actual, java.lang.String expected, Parameters results) {
         boolean matches = actual.equals(expected);
         addResultParameter(fieldName, results, matches);
+        if (!matches) {
+            addDetailParameter(fieldName, results, java.lang.String.format("expected '%s' but was '%s'", expected, actual));
+        }
 
         return matches;
     }
@@ -73,4 +92,11 @@ public class MeasureReportComparer {
         param.setValueBoolean(new org.hl7.fhir.Boolean().withValue(passed));
         results.getParameter().add(param);
     }
-}
\ No newline at end of file
+
+    private void addDetailParameter(java.lang.String fieldName, Parameters results, java.lang.String detail) {
+        ParametersParameter param = new ParametersParameter();
+        param.setName(new String().withValue(fieldName + DetailSuffix));
+        param.setValueString(new String().withValue(detail));
+        results.getParameter().add(param);
+    }
+}
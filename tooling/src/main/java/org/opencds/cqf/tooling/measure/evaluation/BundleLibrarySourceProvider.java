@@ -0,0 +1,83 @@
+package org.opencds.cqf.tooling.measure.evaluation;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import org.cqframework.cql.cql2elm.LibrarySourceProvider;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.FhirTerser;
+
+/**
+ * Provides the CQL source (the text/cql content) of the Library resources of a bundle, by library name and version.
+ */
+public class BundleLibrarySourceProvider implements LibrarySourceProvider {
+
+    // name -> version (or "" when the library has none) -> source
+    private final Map<String, Map<String, byte[]>> sources = new HashMap<>();
+    private String sourceKey;
+
+    public BundleLibrarySourceProvider(FhirContext fhirContext, Iterable<? extends IBaseResource> libraries) {
+        FhirTerser terser = fhirContext.newTerser();
+        for (IBaseResource library : libraries) {
+            byte[] cql = getCql(terser, library);
+            if (cql == null) {
+                continue;
+            }
+            String name = terser.getSinglePrimitiveValueOrNull(library, "name");
+            if (name == null) {
+                name = library.getIdElement().getIdPart();
+            }
+            String version = terser.getSinglePrimitiveValueOrNull(library, "version");
+            sources.computeIfAbsent(name, n -> new HashMap<>()).put(version == null ? "" : version, cql);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static byte[] getCql(FhirTerser terser, IBaseResource library) {
+        for (IBase content : terser.getValues(library, "content")) {
+            if ("text/cql".equals(terser.getSinglePrimitiveValueOrNull(content, "contentType"))) {
+                IPrimitiveType<byte[]> data = terser.getSingleValueOrNull(content, "data", IPrimitiveType.class);
+                if (data != null && data.getValue() != null) {
+                    return data.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public InputStream getLibrarySource(VersionedIdentifier libraryIdentifier) {
+        Map<String, byte[]> versions = sources.get(libraryIdentifier.getId());
+        if (versions == null) {
+            return null;
+        }
+        byte[] cql = libraryIdentifier.getVersion() == null
+                ? versions.values().iterator().next()
+                : versions.get(libraryIdentifier.getVersion());
+        return cql == null ? null : new ByteArrayInputStream(cql);
+    }
+
+    /**
+     * @return A hash of every source provided, equal for bundles with the same libraries (see
+     * {@link org.opencds.cqf.tooling.utilities.CompiledLibraryCache})
+     */
+    public synchronized String getSourceKey() {
+        if (sourceKey == null) {
+            StringBuilder key = new StringBuilder();
+            new TreeMap<>(sources).forEach((name, versions) -> new TreeMap<>(versions).forEach((version, cql) ->
+                    key.append(name).append('|').append(version).append('|').append(DigestUtils.sha256Hex(cql)).append('\n')));
+            sourceKey = DigestUtils.sha256Hex(key.toString());
+        }
+        return sourceKey;
+    }
+}
@@ -0,0 +1,152 @@
+package org.opencds.cqf.tooling.measure.evaluation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseReference;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.opencds.cqf.cql.engine.model.ModelResolver;
+import org.opencds.cqf.cql.engine.retrieve.TerminologyAwareRetrieveProvider;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.cql.engine.terminology.ValueSetInfo;
+
+import ca.uhn.fhir.context.BaseRuntimeElementDefinition;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.FhirTerser;
+
+/**
+ * Retrieves FHIR resources from memory (typically the resources of a test case) for the CQL engine, filtered by
+ * context (e.g. the resources of the patient) and by code or ValueSet.
+ * <p>
+ * Date filters are not supported: the translator leaves them in the where clauses of the queries, where the engine
+ * evaluates them.
+ */
+public class BundleRetrieveProvider extends TerminologyAwareRetrieveProvider {
+
+    private final FhirContext fhirContext;
+    private final ModelResolver modelResolver;
+    private final FhirTerser terser;
+    private final Map<String, List<IBaseResource>> resourcesByType = new HashMap<>();
+
+    public BundleRetrieveProvider(FhirContext fhirContext, ModelResolver modelResolver, Iterable<? extends IBaseResource> resources) {
+        this.fhirContext = fhirContext;
+        this.modelResolver = modelResolver;
+        this.terser = fhirContext.newTerser();
+        for (IBaseResource resource : resources) {
+            resourcesByType.computeIfAbsent(resource.fhirType(), type -> new ArrayList<>()).add(resource);
+        }
+    }
+
+    @Override
+    public Iterable<Object> retrieve(String context, String contextPath, Object contextValue, String dataType,
+                                     String templateId, String codePath, Iterable<Code> codes, String valueSet,
+                                     String datePath, String dateLowPath, String dateHighPath, Interval dateRange) {
+        if (dateRange != null) {
+            throw new UnsupportedOperationException("Date filtered retrieves are not supported");
+        }
+
+        List<Object> result = new ArrayList<>();
+        for (IBaseResource resource : resourcesByType.getOrDefault(dataType, Collections.emptyList())) {
+            if (contextPath != null && contextValue != null && !isInContext(resource, contextPath, contextValue.toString())) {
+                continue;
+            }
+            if (codePath != null && (codes != null || valueSet != null) && !hasCode(resource, codePath, codes, valueSet)) {
+                continue;
+            }
+            result.add(resource);
+        }
+        return result;
+    }
+
+    private boolean isInContext(IBaseResource resource, String contextPath, String contextValue) {
+        for (Object value : asList(modelResolver.resolvePath(resource, contextPath))) {
+            if (contextValue.equals(getIdPart(value))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The id a context path resolves to: the id of a resource, or the id a reference refers to
+    private static String getIdPart(Object value) {
+        String id;
+        if (value instanceof IBaseReference) {
+            id = ((IBaseReference) value).getReferenceElement().getIdPart();
+        } else if (value instanceof IIdType) {
+            id = ((IIdType) value).getIdPart();
+        } else if (value instanceof IPrimitiveType) {
+            id = ((IPrimitiveType<?>) value).getValueAsString();
+        } else {
+            id = value == null ? null : value.toString();
+        }
+        return id != null && id.contains("/") ? id.substring(id.lastIndexOf('/') + 1) : id;
+    }
+
+    private boolean hasCode(IBaseResource resource, String codePath, Iterable<Code> codes, String valueSet) {
+        for (Code code : getCodes(modelResolver.resolvePath(resource, codePath))) {
+            if (valueSet != null && !isExpandValueSets()) {
+                if (terminologyProvider.in(code, new ValueSetInfo().withId(valueSet))) {
+                    return true;
+                }
+                continue;
+            }
+            Iterable<Code> filter = codes != null ? codes : terminologyProvider.expand(new ValueSetInfo().withId(valueSet));
+            for (Code candidate : filter) {
+                if (candidate.getCode() != null && candidate.getCode().equals(code.getCode())
+                        && (candidate.getSystem() == null || candidate.getSystem().equals(code.getSystem()))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // The codes of a CodeableConcept, Coding or code, or of a list of them
+    private List<Code> getCodes(Object value) {
+        List<Code> codes = new ArrayList<>();
+        for (Object item : asList(value)) {
+            if (item instanceof IPrimitiveType) {
+                codes.add(new Code().withCode(((IPrimitiveType<?>) item).getValueAsString()));
+            } else if (item instanceof IBase) {
+                IBase element = (IBase) item;
+                BaseRuntimeElementDefinition<?> definition = fhirContext.getElementDefinition(element.getClass());
+                String type = definition == null ? null : definition.getName();
+                List<IBase> codings;
+                if ("CodeableConcept".equals(type)) {
+                    codings = terser.getValues(element, "coding");
+                } else if ("Coding".equals(type)) {
+                    codings = Collections.singletonList(element);
+                } else {
+                    continue;
+                }
+                for (IBase coding : codings) {
+                    codes.add(new Code()
+                            .withSystem(terser.getSinglePrimitiveValueOrNull(coding, "system"))
+                            .withCode(terser.getSinglePrimitiveValueOrNull(coding, "code")));
+                }
+            } else if (item instanceof String) {
+                codes.add(new Code().withCode((String) item));
+            }
+        }
+        return codes;
+    }
+
+    private static List<Object> asList(Object value) {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        if (value instanceof Iterable) {
+            List<Object> list = new ArrayList<>();
+            ((Iterable<?>) value).forEach(list::add);
+            return list;
+        }
+        return Collections.singletonList(value);
+    }
+}
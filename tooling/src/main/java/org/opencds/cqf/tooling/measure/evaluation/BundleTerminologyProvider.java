@@ -0,0 +1,164 @@
+package org.opencds.cqf.tooling.measure.evaluation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.terminology.CodeSystemInfo;
+import org.opencds.cqf.cql.engine.terminology.TerminologyProvider;
+import org.opencds.cqf.cql.engine.terminology.ValueSetInfo;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.FhirTerser;
+
+/**
+ * Answers membership and expansion of the ValueSet resources of a bundle, without a terminology server.
+ * <p>
+ * The codes of a ValueSet are those of its expansion, if it has one, or else those its compose enumerates (including
+ * the ValueSets it includes, less the concepts it excludes). A ValueSet defined by filters and not expanded cannot be
+ * resolved locally: using it is an error, rather than silently matching nothing. The codes of each ValueSet are
+ * computed once and shared by every evaluation using the provider.
+ */
+public class BundleTerminologyProvider implements TerminologyProvider {
+
+    private final FhirTerser terser;
+    // url (and url|version) -> ValueSet
+    private final Map<String, IBaseResource> valueSets = new HashMap<>();
+    // url -> system|code -> code
+    private final Map<String, Map<String, Code>> codes = new ConcurrentHashMap<>();
+
+    public BundleTerminologyProvider(FhirContext fhirContext, Iterable<? extends IBaseResource> valueSets) {
+        this.terser = fhirContext.newTerser();
+        for (IBaseResource valueSet : valueSets) {
+            String url = terser.getSinglePrimitiveValueOrNull(valueSet, "url");
+            if (url == null) {
+                continue;
+            }
+            this.valueSets.putIfAbsent(url, valueSet);
+            String version = terser.getSinglePrimitiveValueOrNull(valueSet, "version");
+            if (version != null) {
+                this.valueSets.put(url + "|" + version, valueSet);
+            }
+        }
+    }
+
+    @Override
+    public boolean in(Code code, ValueSetInfo valueSet) {
+        return code != null && getCodes(valueSet).containsKey(key(code.getSystem(), code.getCode()));
+    }
+
+    @Override
+    public Iterable<Code> expand(ValueSetInfo valueSet) {
+        return Collections.unmodifiableCollection(getCodes(valueSet).values());
+    }
+
+    @Override
+    public Code lookup(Code code, CodeSystemInfo codeSystem) {
+        throw new UnsupportedOperationException("Code system lookup is not supported without a terminology server");
+    }
+
+    private Map<String, Code> getCodes(ValueSetInfo valueSet) {
+        String url = valueSet.getVersion() == null ? valueSet.getId() : valueSet.getId() + "|" + valueSet.getVersion();
+        return codes.computeIfAbsent(url, u -> computeCodes(u, new HashSet<>()));
+    }
+
+    private Map<String, Code> computeCodes(String url, Set<String> visited) {
+        IBaseResource valueSet = valueSets.get(url);
+        if (valueSet == null && url.contains("|")) {
+            valueSet = valueSets.get(url.substring(0, url.indexOf('|')));
+        }
+        if (valueSet == null) {
+            throw new IllegalArgumentException(String.format("Unknown ValueSet: %s", url));
+        }
+        if (!visited.add(url)) {
+            throw new IllegalArgumentException(String.format("ValueSet %s includes itself", url));
+        }
+
+        Map<String, Code> result = new LinkedHashMap<>();
+        List<IBase> contains = terser.getValues(valueSet, "expansion.contains");
+        if (!contains.isEmpty()) {
+            addContains(contains, result);
+            return result;
+        }
+
+        for (IBase include : terser.getValues(valueSet, "compose.include")) {
+            if (!terser.getValues(include, "filter").isEmpty()) {
+                throw new IllegalArgumentException(String.format(
+                        "ValueSet %s is defined by filters and has no expansion: it cannot be resolved locally", url));
+            }
+            List<Code> included = getConcepts(include);
+            List<String> includedValueSets = getValueSets(include);
+            if (!includedValueSets.isEmpty()) {
+                // the codes of the included ValueSets, restricted to the system and concepts of the include, if any
+                String system = terser.getSinglePrimitiveValueOrNull(include, "system");
+                Set<String> restriction = new HashSet<>();
+                included.forEach(code -> restriction.add(key(code.getSystem(), code.getCode())));
+                for (String includedValueSet : includedValueSets) {
+                    computeCodes(includedValueSet, new HashSet<>(visited)).forEach((key, code) -> {
+                        if ((system == null || system.equals(code.getSystem())) && (restriction.isEmpty() || restriction.contains(key))) {
+                            result.put(key, code);
+                        }
+                    });
+                }
+            } else {
+                included.forEach(code -> result.put(key(code.getSystem(), code.getCode()), code));
+            }
+        }
+        for (IBase exclude : terser.getValues(valueSet, "compose.exclude")) {
+            if (!terser.getValues(exclude, "filter").isEmpty() || !getValueSets(exclude).isEmpty()) {
+                throw new IllegalArgumentException(String.format(
+                        "ValueSet %s excludes codes by filter or ValueSet and has no expansion: it cannot be resolved locally", url));
+            }
+            getConcepts(exclude).forEach(code -> result.remove(key(code.getSystem(), code.getCode())));
+        }
+        return result;
+    }
+
+    private void addContains(List<IBase> contains, Map<String, Code> result) {
+        for (IBase contained : contains) {
+            String code = terser.getSinglePrimitiveValueOrNull(contained, "code");
+            if (code != null) {
+                String system = terser.getSinglePrimitiveValueOrNull(contained, "system");
+                result.put(key(system, code), new Code().withSystem(system).withCode(code)
+                        .withVersion(terser.getSinglePrimitiveValueOrNull(contained, "version"))
+                        .withDisplay(terser.getSinglePrimitiveValueOrNull(contained, "display")));
+            }
+            addContains(terser.getValues(contained, "contains"), result);
+        }
+    }
+
+    private List<Code> getConcepts(IBase include) {
+        String system = terser.getSinglePrimitiveValueOrNull(include, "system");
+        String version = terser.getSinglePrimitiveValueOrNull(include, "version");
+        List<Code> concepts = new ArrayList<>();
+        for (IBase concept : terser.getValues(include, "concept")) {
+            concepts.add(new Code().withSystem(system).withVersion(version)
+                    .withCode(terser.getSinglePrimitiveValueOrNull(concept, "code"))
+                    .withDisplay(terser.getSinglePrimitiveValueOrNull(concept, "display")));
+        }
+        return concepts;
+    }
+
+    private List<String> getValueSets(IBase include) {
+        List<String> urls = new ArrayList<>();
+        for (IBase valueSet : terser.getValues(include, "valueSet")) {
+            // R4 canonical, or DSTU3 uri
+            urls.add(((IPrimitiveType<?>) valueSet).getValueAsString());
+        }
+        return urls;
+    }
+
+    private static String key(String system, String code) {
+        return system + "|" + code;
+    }
+}
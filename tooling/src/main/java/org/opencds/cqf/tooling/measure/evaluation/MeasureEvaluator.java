@@ -0,0 +1,370 @@
+package org.opencds.cqf.tooling.measure.evaluation;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.cqframework.cql.cql2elm.CqlCompilerException;
+import org.cqframework.cql.cql2elm.CqlCompilerOptions;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.quick.FhirLibrarySourceProvider;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseElement;
+import org.hl7.fhir.instance.model.api.IBaseReference;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.opencds.cqf.cql.engine.data.CompositeDataProvider;
+import org.opencds.cqf.cql.engine.data.DataProvider;
+import org.opencds.cqf.cql.engine.execution.CqlEngine;
+import org.opencds.cqf.cql.engine.execution.Environment;
+import org.opencds.cqf.cql.engine.execution.EvaluationResult;
+import org.opencds.cqf.cql.engine.fhir.model.Dstu3FhirModelResolver;
+import org.opencds.cqf.cql.engine.fhir.model.R4FhirModelResolver;
+import org.opencds.cqf.cql.engine.model.CachingModelResolverDecorator;
+import org.opencds.cqf.cql.engine.model.ModelResolver;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.tooling.utilities.CompiledLibraryCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.util.FhirTerser;
+
+/**
+ * Evaluates the Measures of a content bundle for a single patient with the CQL engine, in process, producing an
+ * individual MeasureReport (DSTU3 or R4).
+ * <p>
+ * An evaluator is meant to be created once per content bundle and reused for each test case: the CQL libraries of
+ * the bundle are compiled once (and shared with other translations through {@link CompiledLibraryCache}), the codes
+ * of its ValueSets are resolved once, and the model resolver is shared by every evaluator of the same FHIR version.
+ * Only the data (the resources of the test case) changes between evaluations. Evaluators are thread-safe.
+ * <p>
+ * Population membership follows the population criteria of the measure scoring (proportion, ratio, cohort and
+ * continuous-variable); a population criterion is either boolean, counting the patient, or a list, counting its items.
+ * Scores are computed for proportion and ratio measures only: continuous-variable measure observations are not
+ * evaluated.
+ */
+public class MeasureEvaluator {
+
+    private static final Logger logger = LoggerFactory.getLogger(MeasureEvaluator.class);
+    private static final String FHIR_MODEL_URI = "http://hl7.org/fhir";
+    private static final String MEASUREMENT_PERIOD = "Measurement Period";
+    private static final Map<FhirVersionEnum, ModelResolver> modelResolvers = new ConcurrentHashMap<>();
+
+    static final String INITIAL_POPULATION = "initial-population";
+    static final String NUMERATOR = "numerator";
+    static final String NUMERATOR_EXCLUSION = "numerator-exclusion";
+    static final String DENOMINATOR = "denominator";
+    static final String DENOMINATOR_EXCLUSION = "denominator-exclusion";
+    static final String DENOMINATOR_EXCEPTION = "denominator-exception";
+    static final String MEASURE_POPULATION = "measure-population";
+    static final String MEASURE_POPULATION_EXCLUSION = "measure-population-exclusion";
+
+    private final FhirContext fhirContext;
+    private final FhirTerser terser;
+    private final ModelResolver modelResolver;
+    private final BundleTerminologyProvider terminologyProvider;
+    private final LibraryManager libraryManager;
+    // by id, "Measure/id" and url
+    private final Map<String, IBaseResource> measures = new HashMap<>();
+    // by id, "Library/id", url and url|version
+    private final Map<String, IBaseResource> libraries = new HashMap<>();
+
+    /**
+     * @param contentResources the resources of the content bundle: Measures, Libraries (with CQL content) and ValueSets
+     */
+    public MeasureEvaluator(FhirContext fhirContext, List<? extends IBaseResource> contentResources) {
+        FhirVersionEnum version = fhirContext.getVersion().getVersion();
+        if (version != FhirVersionEnum.DSTU3 && version != FhirVersionEnum.R4) {
+            throw new IllegalArgumentException("Unsupported or unknown fhir version: " + version.getFhirVersionString());
+        }
+        this.fhirContext = fhirContext;
+        this.terser = fhirContext.newTerser();
+        this.modelResolver = modelResolvers.computeIfAbsent(version, v -> new CachingModelResolverDecorator(
+                v == FhirVersionEnum.DSTU3 ? new Dstu3FhirModelResolver() : new R4FhirModelResolver()));
+
+        List<IBaseResource> valueSets = new ArrayList<>();
+        List<IBaseResource> libraryResources = new ArrayList<>();
+        for (IBaseResource resource : contentResources) {
+            switch (resource.fhirType()) {
+                case "Measure":
+                    index(measures, resource);
+                    break;
+                case "Library":
+                    index(libraries, resource);
+                    libraryResources.add(resource);
+                    break;
+                case "ValueSet":
+                    valueSets.add(resource);
+                    break;
+                default:
+                    break;
+            }
+        }
+        this.terminologyProvider = new BundleTerminologyProvider(fhirContext, valueSets);
+
+        CqlCompilerOptions options = CqlCompilerOptions.defaultOptions();
+        BundleLibrarySourceProvider sourceProvider = new BundleLibrarySourceProvider(fhirContext, libraryResources);
+        this.libraryManager = CompiledLibraryCache.createLibraryManager(CompiledLibraryCache.createModelManager(), options,
+                "bundle:" + sourceProvider.getSourceKey());
+        this.libraryManager.getLibrarySourceLoader().registerProvider(sourceProvider);
+        this.libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
+    }
+
+    private void index(Map<String, IBaseResource> index, IBaseResource resource) {
+        String id = resource.getIdElement().getIdPart();
+        if (id != null) {
+            index.put(id, resource);
+            index.put(resource.fhirType() + "/" + id, resource);
+        }
+        String url = terser.getSinglePrimitiveValueOrNull(resource, "url");
+        if (url != null) {
+            index.putIfAbsent(url, resource);
+            String version = terser.getSinglePrimitiveValueOrNull(resource, "version");
+            if (version != null) {
+                index.put(url + "|" + version, resource);
+            }
+        }
+    }
+
+    // Resolves a reference or canonical url, falling back to the url without version and to the id it ends with
+    private static IBaseResource resolve(Map<String, IBaseResource> index, String reference) {
+        IBaseResource resource = index.get(reference);
+        if (resource == null && reference.contains("|")) {
+            reference = reference.substring(0, reference.indexOf('|'));
+            resource = index.get(reference);
+        }
+        if (resource == null && reference.contains("/")) {
+            resource = index.get(reference.substring(reference.lastIndexOf('/') + 1));
+        }
+        return resource;
+    }
+
+    /**
+     * Evaluates a Measure for a patient.
+     *
+     * @param measureId   the id (or url) of the Measure in the content bundle
+     * @param patientId   the id of the Patient
+     * @param periodStart the start of the measurement period
+     * @param periodEnd   the end of the measurement period
+     * @param data        the resources of the patient (e.g. the test case bundle entries)
+     * @return The individual MeasureReport
+     */
+    public IBaseResource evaluate(String measureId, String patientId, DateTime periodStart, DateTime periodEnd,
+                                  Iterable<? extends IBaseResource> data) {
+        IBaseResource measure = resolve(measures, measureId);
+        if (measure == null) {
+            throw new IllegalArgumentException(String.format("Measure %s is not in the content bundle", measureId));
+        }
+        VersionedIdentifier libraryIdentifier = compileLibrary(measure);
+        List<GroupDefinition> groups = getGroups(measure);
+
+        BundleRetrieveProvider retrieveProvider = new BundleRetrieveProvider(fhirContext, modelResolver, data);
+        retrieveProvider.setTerminologyProvider(terminologyProvider);
+        Map<String, DataProvider> dataProviders = Collections.singletonMap(FHIR_MODEL_URI,
+                new CompositeDataProvider(modelResolver, retrieveProvider));
+        CqlEngine engine = new CqlEngine(new Environment(libraryManager, dataProviders, terminologyProvider));
+
+        Set<String> expressions = groups.stream().flatMap(group -> group.criteria.values().stream())
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        Map<String, Object> parameters = Collections.singletonMap(MEASUREMENT_PERIOD, new Interval(periodStart, true, periodEnd, true));
+        EvaluationResult evaluationResult = engine.evaluate(libraryIdentifier, expressions,
+                Pair.<String, Object>of("Patient", patientId), parameters, null);
+
+        String scoring = getCode(terser.getSingleValueOrNull(measure, "scoring", IBase.class));
+        List<GroupResult> results = new ArrayList<>();
+        for (GroupDefinition group : groups) {
+            Map<String, Set<Object>> members = new HashMap<>();
+            group.criteria.forEach((code, expression) ->
+                    members.put(code, getMembers(evaluationResult.forExpression(expression).value(), patientId)));
+            results.add(score(group.id, scoring, members));
+        }
+
+        return fhirContext.getVersion().getVersion() == FhirVersionEnum.DSTU3
+                ? MeasureReportBuilder.buildDstu3(measure, patientId, periodStart, periodEnd, results)
+                : MeasureReportBuilder.buildR4(measure, patientId, periodStart, periodEnd, results);
+    }
+
+    private VersionedIdentifier compileLibrary(IBaseResource measure) {
+        List<IBase> references = terser.getValues(measure, "library");
+        if (references.isEmpty()) {
+            throw new IllegalArgumentException(String.format("Measure %s has no library", measure.getIdElement().getIdPart()));
+        }
+        IBase reference = references.get(0);
+        String libraryReference = reference instanceof IBaseReference
+                ? ((IBaseReference) reference).getReferenceElement().getValue()
+                : ((IPrimitiveType<?>) reference).getValueAsString();
+        IBaseResource library = resolve(libraries, libraryReference);
+        if (library == null) {
+            throw new IllegalArgumentException(String.format("Library %s is not in the content bundle", libraryReference));
+        }
+
+        String name = terser.getSinglePrimitiveValueOrNull(library, "name");
+        VersionedIdentifier identifier = new VersionedIdentifier()
+                .withId(name != null ? name : library.getIdElement().getIdPart())
+                .withVersion(terser.getSinglePrimitiveValueOrNull(library, "version"));
+        List<CqlCompilerException> errors = new ArrayList<>();
+        // compiles the library and its dependencies once; the engine then reads them from the compiled library cache
+        synchronized (libraryManager) {
+            libraryManager.resolveLibrary(identifier, errors);
+        }
+        if (CqlCompilerException.hasErrors(errors)) {
+            throw new IllegalArgumentException(String.format("Library %s could not be compiled: %s", identifier.getId(),
+                    errors.stream().filter(e -> e.getSeverity() == CqlCompilerException.ErrorSeverity.Error)
+                            .map(Throwable::getMessage).collect(Collectors.joining("; "))));
+        }
+        return identifier;
+    }
+
+    private List<GroupDefinition> getGroups(IBaseResource measure) {
+        String criteriaPath = fhirContext.getVersion().getVersion() == FhirVersionEnum.DSTU3 ? "criteria" : "criteria.expression";
+        List<GroupDefinition> groups = new ArrayList<>();
+        for (IBase group : terser.getValues(measure, "group")) {
+            GroupDefinition definition = new GroupDefinition(((IBaseElement) group).getId());
+            for (IBase population : terser.getValues(group, "population")) {
+                String code = getCode(terser.getSingleValueOrNull(population, "code", IBase.class));
+                String expression = terser.getSinglePrimitiveValueOrNull(population, criteriaPath);
+                if (code != null && expression != null && !code.equals("measure-observation")) {
+                    definition.criteria.put(code, expression);
+                }
+            }
+            groups.add(definition);
+        }
+        return groups;
+    }
+
+    private String getCode(IBase codeableConcept) {
+        if (codeableConcept == null) {
+            return null;
+        }
+        return terser.getSinglePrimitiveValueOrNull(codeableConcept, "coding.code");
+    }
+
+    // The members of a population: the patient for a boolean criterion, the items of a list criterion
+    private static Set<Object> getMembers(Object value, String patientId) {
+        Set<Object> members = new LinkedHashSet<>();
+        if (value instanceof Boolean) {
+            if ((Boolean) value) {
+                members.add("Patient/" + patientId);
+            }
+        } else if (value instanceof Iterable) {
+            for (Object item : (Iterable<?>) value) {
+                members.add(getMemberKey(item));
+            }
+        } else if (value != null) {
+            members.add(getMemberKey(value));
+        }
+        return members;
+    }
+
+    private static Object getMemberKey(Object item) {
+        if (item instanceof IBaseResource) {
+            IBaseResource resource = (IBaseResource) item;
+            return resource.getIdElement().getIdPart() != null
+                    ? resource.fhirType() + "/" + resource.getIdElement().getIdPart()
+                    : resource;
+        }
+        return item;
+    }
+
+    static GroupResult score(String groupId, String scoring, Map<String, Set<Object>> criteria) {
+        Map<String, Set<Object>> populations = new LinkedHashMap<>();
+        Set<Object> initialPopulation = criteria.getOrDefault(INITIAL_POPULATION, Collections.emptySet());
+        populations.put(INITIAL_POPULATION, initialPopulation);
+        BigDecimal score = null;
+
+        if ("proportion".equals(scoring) || "ratio".equals(scoring)) {
+            Set<Object> denominator = intersect(initialPopulation, criteria.getOrDefault(DENOMINATOR, initialPopulation));
+            Set<Object> denominatorExclusion = intersect(denominator, criteria.get(DENOMINATOR_EXCLUSION));
+            Set<Object> numerator;
+            Set<Object> denominatorException = Collections.emptySet();
+            if ("proportion".equals(scoring)) {
+                numerator = intersect(subtract(denominator, denominatorExclusion), criteria.get(NUMERATOR));
+                denominatorException = intersect(subtract(subtract(denominator, denominatorExclusion), numerator),
+                        criteria.get(DENOMINATOR_EXCEPTION));
+            } else {
+                numerator = intersect(initialPopulation, criteria.get(NUMERATOR));
+            }
+            Set<Object> numeratorExclusion = intersect(numerator, criteria.get(NUMERATOR_EXCLUSION));
+
+            putIfDefined(populations, criteria, DENOMINATOR, denominator);
+            putIfDefined(populations, criteria, DENOMINATOR_EXCLUSION, denominatorExclusion);
+            putIfDefined(populations, criteria, DENOMINATOR_EXCEPTION, denominatorException);
+            putIfDefined(populations, criteria, NUMERATOR, numerator);
+            putIfDefined(populations, criteria, NUMERATOR_EXCLUSION, numeratorExclusion);
+
+            int scoredDenominator = denominator.size() - denominatorExclusion.size() - denominatorException.size();
+            if (scoredDenominator > 0) {
+                score = BigDecimal.valueOf((double) (numerator.size() - numeratorExclusion.size()) / scoredDenominator);
+            }
+        } else if ("continuous-variable".equals(scoring)) {
+            Set<Object> measurePopulation = intersect(initialPopulation, criteria.get(MEASURE_POPULATION));
+            putIfDefined(populations, criteria, MEASURE_POPULATION, measurePopulation);
+            putIfDefined(populations, criteria, MEASURE_POPULATION_EXCLUSION,
+                    intersect(measurePopulation, criteria.get(MEASURE_POPULATION_EXCLUSION)));
+            logger.warn("Measure observations are not evaluated: group {} of continuous-variable measure has no score", groupId);
+        } else if (!"cohort".equals(scoring)) {
+            logger.warn("Unsupported measure scoring {}: group {} has no score", scoring, groupId);
+        }
+
+        return new GroupResult(groupId, populations, score);
+    }
+
+    private static void putIfDefined(Map<String, Set<Object>> populations, Map<String, Set<Object>> criteria, String code, Set<Object> members) {
+        if (criteria.containsKey(code)) {
+            populations.put(code, members);
+        }
+    }
+
+    private static Set<Object> intersect(Set<Object> population, Set<Object> criterion) {
+        if (criterion == null) {
+            return Collections.emptySet();
+        }
+        Set<Object> result = new LinkedHashSet<>(population);
+        result.retainAll(criterion);
+        return result;
+    }
+
+    private static Set<Object> subtract(Set<Object> population, Set<Object> excluded) {
+        Set<Object> result = new LinkedHashSet<>(population);
+        result.removeAll(excluded);
+        return result;
+    }
+
+    private static class GroupDefinition {
+        private final String id;
+        // population code -> expression
+        private final Map<String, String> criteria = new LinkedHashMap<>();
+
+        GroupDefinition(String id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * The members of each population of a group, and its score (null if the group has none).
+     */
+    static class GroupResult {
+        final String id;
+        final Map<String, Set<Object>> populations;
+        final BigDecimal score;
+
+        GroupResult(String id, Map<String, Set<Object>> populations, BigDecimal score) {
+            this.id = id;
+            this.populations = populations;
+            this.score = score;
+        }
+    }
+}
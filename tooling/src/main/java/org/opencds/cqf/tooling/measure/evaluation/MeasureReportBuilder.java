@@ -0,0 +1,66 @@
+package org.opencds.cqf.tooling.measure.evaluation;
+
+import java.util.List;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+
+/**
+ * Builds the individual MeasureReports of {@link MeasureEvaluator}, one method per FHIR version.
+ */
+class MeasureReportBuilder {
+
+    private static final String R4_POPULATION_SYSTEM = "http://terminology.hl7.org/CodeSystem/measure-population";
+    private static final String DSTU3_POPULATION_SYSTEM = "http://hl7.org/fhir/measure-population";
+
+    private MeasureReportBuilder() {}
+
+    static org.hl7.fhir.r4.model.MeasureReport buildR4(IBaseResource measureResource, String patientId,
+                                                         DateTime periodStart, DateTime periodEnd,
+                                                         List<MeasureEvaluator.GroupResult> groups) {
+        org.hl7.fhir.r4.model.Measure measure = (org.hl7.fhir.r4.model.Measure) measureResource;
+        org.hl7.fhir.r4.model.MeasureReport report = new org.hl7.fhir.r4.model.MeasureReport();
+        report.setStatus(org.hl7.fhir.r4.model.MeasureReport.MeasureReportStatus.COMPLETE);
+        report.setType(org.hl7.fhir.r4.model.MeasureReport.MeasureReportType.INDIVIDUAL);
+        report.setMeasure(measure.hasUrl() ? measure.getUrl() : "Measure/" + measure.getIdElement().getIdPart());
+        report.setSubject(new org.hl7.fhir.r4.model.Reference("Patient/" + patientId));
+        report.setPeriod(new org.hl7.fhir.r4.model.Period().setStart(periodStart.toJavaDate()).setEnd(periodEnd.toJavaDate()));
+
+        for (MeasureEvaluator.GroupResult group : groups) {
+            org.hl7.fhir.r4.model.MeasureReport.MeasureReportGroupComponent reportGroup = report.addGroup();
+            reportGroup.setId(group.id);
+            group.populations.forEach((code, members) -> reportGroup.addPopulation()
+                    .setCode(new org.hl7.fhir.r4.model.CodeableConcept(new org.hl7.fhir.r4.model.Coding(R4_POPULATION_SYSTEM, code, null)))
+                    .setCount(members.size()));
+            if (group.score != null) {
+                reportGroup.setMeasureScore(new org.hl7.fhir.r4.model.Quantity().setValue(group.score));
+            }
+        }
+        return report;
+    }
+
+    static org.hl7.fhir.dstu3.model.MeasureReport buildDstu3(IBaseResource measureResource, String patientId,
+                                                               DateTime periodStart, DateTime periodEnd,
+                                                               List<MeasureEvaluator.GroupResult> groups) {
+        org.hl7.fhir.dstu3.model.MeasureReport report = new org.hl7.fhir.dstu3.model.MeasureReport();
+        report.setStatus(org.hl7.fhir.dstu3.model.MeasureReport.MeasureReportStatus.COMPLETE);
+        report.setType(org.hl7.fhir.dstu3.model.MeasureReport.MeasureReportType.INDIVIDUAL);
+        report.setMeasure(new org.hl7.fhir.dstu3.model.Reference("Measure/" + measureResource.getIdElement().getIdPart()));
+        report.setPatient(new org.hl7.fhir.dstu3.model.Reference("Patient/" + patientId));
+        report.setPeriod(new org.hl7.fhir.dstu3.model.Period().setStart(periodStart.toJavaDate()).setEnd(periodEnd.toJavaDate()));
+
+        for (MeasureEvaluator.GroupResult group : groups) {
+            org.hl7.fhir.dstu3.model.MeasureReport.MeasureReportGroupComponent reportGroup = report.addGroup();
+            reportGroup.setId(group.id);
+            reportGroup.setIdentifier(new org.hl7.fhir.dstu3.model.Identifier().setValue(group.id));
+            group.populations.forEach((code, members) -> reportGroup.addPopulation()
+                    .setCode(new org.hl7.fhir.dstu3.model.CodeableConcept().addCoding(
+                            new org.hl7.fhir.dstu3.model.Coding(DSTU3_POPULATION_SYSTEM, code, null)))
+                    .setCount(members.size()));
+            if (group.score != null) {
+                reportGroup.setMeasureScore(group.score);
+            }
+        }
+        return report;
+    }
+}
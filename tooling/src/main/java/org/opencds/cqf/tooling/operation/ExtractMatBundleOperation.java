@@ -103,6 +103,9 @@ public class ExtractMatBundleOperation extends Operation {
                 case "v":
                     version = value;
                     break;
+                case "threads":
+                    ThreadUtils.setParallelism(Integer.parseInt(value));
+                    break;
                 default:
                     throw new IllegalArgumentException("Unknown flag: " + flag);
             }
@@ -134,7 +137,10 @@ public class ExtractMatBundleOperation extends Operation {
             File[] filesInDir = new File(inputLocation).listFiles();
             if (filesInDir != null && filesInDir.length > 0) {
                 //use recursive calls to build up task list:
-                ThreadUtils.executeTasks(processFilesInDir(filesInDir, version, suppressNarrative));
+                ThreadUtils.TaskResults results = ThreadUtils.executeTasks(processFilesInDir(filesInDir, version, suppressNarrative));
+                if (!results.getFailures().isEmpty()) {
+                    logger.warn(results.getFailures().size() + " of " + results.getTaskCount() + " file(s) could not be extracted");
+                }
             }else{
                 logger.info(ERROR_DIR_IS_EMPTY);
                 return;
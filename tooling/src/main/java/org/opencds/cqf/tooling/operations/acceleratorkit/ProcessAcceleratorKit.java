@@ -8,11 +8,13 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
@@ -2992,6 +2994,9 @@ public class ProcessAcceleratorKit implements ExecutableOperation {
       List<ValueSet.ConceptSetComponent> includes = valueSet.getCompose().getInclude();
 //        ValueSet.ValueSetExpansionComponent targetExpansion = valueSet.getExpansion();
       List<ValueSet.ValueSetExpansionContainsComponent> targetContains = targetExpansion.getContains();
+      // system|code of the codes already in the expansion
+      Set<String> targetCodes = new HashSet<>();
+      targetContains.forEach(c -> targetCodes.add(c.getSystem() + "|" + c.getCode()));
 
       for (ValueSet vs: valueSetsToGroup) {
          // Add source ValueSet URLs to grouper Compose
@@ -3008,7 +3013,7 @@ public class ProcessAcceleratorKit implements ExecutableOperation {
             for (ValueSet.ConceptSetComponent sourceInclude : vs.getCompose().getInclude()) {
                String system = sourceInclude.getSystem();
                for (ValueSet.ConceptReferenceComponent concept : sourceInclude.getConcept()) {
-                  if (targetContains.stream().noneMatch(c -> c.getSystem().equals(system) && c.getCode().equals(concept.getCode()))) {
+                  if (targetCodes.add(system + "|" + concept.getCode())) {
                      ValueSet.ValueSetExpansionContainsComponent newContains = new ValueSet.ValueSetExpansionContainsComponent();
                      newContains.setSystem(system);
                      newContains.setCode(concept.getCode());
@@ -1,5 +1,6 @@
 package org.opencds.cqf.tooling.operations.bundle;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
@@ -9,13 +10,18 @@ import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.opencds.cqf.tooling.operations.ExecutableOperation;
 import org.opencds.cqf.tooling.operations.Operation;
 import org.opencds.cqf.tooling.operations.OperationParam;
+import org.opencds.cqf.tooling.utilities.BatchBundler;
+import org.opencds.cqf.tooling.utilities.BatchUploader;
+import org.opencds.cqf.tooling.utilities.BundleUtils;
 import org.opencds.cqf.tooling.utilities.FhirContextCache;
 import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.UploadJournal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
 import jakarta.annotation.Nonnull;
 
 @Operation(name = "BundleTransaction")
@@ -30,26 +36,69 @@ public class BundleTransaction implements ExecutableOperation {
     @OperationParam(alias = { "v", "version" }, setter = "setVersion", defaultValue = "r4",
             description = "FHIR version { stu3, r4, r5 } (default r4)")
     private String version;
+    @OperationParam(alias = { "uj", "uploadjournal" }, setter = "setUploadJournal",
+            description = "Path of a journal of the bundles posted; bundles it records as posted to the server with identical content are skipped, so an interrupted run can be resumed (optional)")
+    private String uploadJournal;
+    @OperationParam(alias = { "bme", "batchmaxentries" }, setter = "setBatchMaxEntries",
+            description = "If set, the bundles are posted concurrently, and bundles of more entries are split into transactions of at most this many entries where possible; the upload journal does not apply (optional)")
+    private Integer batchMaxEntries;
 
     @Override
     public void execute() {
         FhirContext context = FhirContextCache.getContext(version);
+        if (batchMaxEntries != null) {
+            bundleTransactionInBatches(context);
+            return;
+        }
         List<IBaseBundle> bundles = IOUtils.readResources(
                 IOUtils.getFilePaths(pathToBundles, true), context)
                 .stream().filter(IBaseBundle.class::isInstance)
                 .map(IBaseBundle.class::cast).collect(Collectors.toList());
-        bundleTransaction(bundles, context, fhirServer);
+        if (uploadJournal == null) {
+            bundleTransaction(bundles, context, fhirServer);
+            return;
+        }
+        try (UploadJournal journal = new UploadJournal(uploadJournal)) {
+            bundleTransaction(bundles, context, fhirServer, journal);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to use the upload journal " + uploadJournal + ": " + e.getMessage(), e);
+        }
     }
 
     public static List<IBaseBundle> bundleTransaction(@Nonnull List<IBaseBundle> bundles,
                                                       @Nonnull FhirContext fhirContext,
                                                       @Nonnull String fhirServerUri) {
+        return bundleTransaction(bundles, fhirContext, fhirServerUri, null);
+    }
+
+    /**
+     * Executes the bundles as transactions, skipping those the journal (if any) records as already executed with
+     * identical content, and journaling the outcome of the others. Bundles without an id are not journaled.
+     *
+     * @return the responses of the transactions executed
+     */
+    public static List<IBaseBundle> bundleTransaction(@Nonnull List<IBaseBundle> bundles,
+                                                      @Nonnull FhirContext fhirContext,
+                                                      @Nonnull String fhirServerUri,
+                                                      UploadJournal journal) {
         IGenericClient client = fhirContext.newRestfulGenericClient(fhirServerUri);
         AtomicReference<IBaseBundle> response = new AtomicReference<>();
         List<IBaseBundle> responseBundles = new ArrayList<>();
         bundles.forEach(
                 bundle -> {
-                    response.set(client.transaction().withBundle(bundle).execute());
+                    String key = journal != null ? UploadJournal.getKey(bundle) : null;
+                    String hash = key != null ? hash(bundle, fhirContext) : null;
+                    if (hash != null && journal.isAcknowledged(fhirServerUri, key, hash)) {
+                        logger.info("Skipping bundle {}: already executed", key);
+                        return;
+                    }
+                    try {
+                        response.set(client.transaction().withBundle(bundle).execute());
+                    } catch (BaseServerResponseException e) {
+                        journal(journal, fhirServerUri, key, hash, false, e.getStatusCode());
+                        throw e;
+                    }
+                    journal(journal, fhirServerUri, key, hash, true, 200);
                     responseBundles.add(response.get());
                     logger.info(IOUtils.encodeResourceAsString(response.get(), IOUtils.Encoding.JSON, fhirContext));
                 }
@@ -57,6 +106,39 @@ public class BundleTransaction implements ExecutableOperation {
         return responseBundles;
     }
 
+    private void bundleTransactionInBatches(FhirContext context) {
+        // the bundles are read as the batches are filled
+        List<String> bundlePaths = BundleUtils.getBundlePathsInDir(pathToBundles, true);
+        BatchUploader.Result result = new BatchUploader(context, fhirServer, IOUtils.Encoding.JSON, "transaction",
+                batchMaxEntries, BatchBundler.DEFAULT_MAX_BYTES).uploadFiles(bundlePaths);
+        logger.info("{} of {} entries successfully executed", result.getStatuses().size() - result.getFailures().size(),
+                result.getStatuses().size());
+    }
+
+    private static String hash(IBaseBundle bundle, FhirContext fhirContext) {
+        try {
+            return UploadJournal.hash(bundle, fhirContext);
+        } catch (IOException e) {
+            logger.warn("Unable to hash bundle {}: {}", bundle.getIdElement().getIdPart(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static void journal(UploadJournal journal, String fhirServerUri, String key, String hash, boolean success, int statusCode) {
+        if (hash == null) {
+            return;
+        }
+        try {
+            if (success) {
+                journal.recordSuccess(fhirServerUri, key, hash, statusCode);
+            } else {
+                journal.recordFailure(fhirServerUri, key, hash, statusCode);
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to write to the upload journal {}: {}", journal.getFile(), e.getMessage());
+        }
+    }
+
     public String getPathToBundles() {
         return pathToBundles;
     }
@@ -80,4 +162,20 @@ public class BundleTransaction implements ExecutableOperation {
     public void setVersion(String version) {
         this.version = version;
     }
+
+    public String getUploadJournal() {
+        return uploadJournal;
+    }
+
+    public void setUploadJournal(String uploadJournal) {
+        this.uploadJournal = uploadJournal;
+    }
+
+    public Integer getBatchMaxEntries() {
+        return batchMaxEntries;
+    }
+
+    public void setBatchMaxEntries(Integer batchMaxEntries) {
+        this.batchMaxEntries = batchMaxEntries;
+    }
 }
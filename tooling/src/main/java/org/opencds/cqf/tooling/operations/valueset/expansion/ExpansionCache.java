@@ -0,0 +1,114 @@
+package org.opencds.cqf.tooling.operations.valueset.expansion;
+
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An on-disk cache of ValueSet expansions that survives between runs. An expansion is keyed by the terminology server,
+ * the canonical url and version of the ValueSet, a hash of its compose definition and the other parameters of the
+ * $expand request, so a ValueSet whose definition is unchanged is not expanded again. Each expansion is kept in its
+ * own file, named by the hash of its key and replaced atomically.
+ */
+public class ExpansionCache {
+   private static final Logger logger = LoggerFactory.getLogger(ExpansionCache.class);
+   private static final int FORMAT_VERSION = 1;
+
+   private final File cacheDirectory;
+   private final FhirContext fhirContext;
+   private final AtomicInteger hits = new AtomicInteger();
+   private final AtomicInteger misses = new AtomicInteger();
+
+   public ExpansionCache(String cacheDirectory, FhirContext fhirContext) {
+      IOUtils.ensurePath(cacheDirectory);
+      this.cacheDirectory = new File(cacheDirectory);
+      this.fhirContext = fhirContext;
+   }
+
+   /**
+    * @param fhirServer the url of the terminology server
+    * @param valueSet the ValueSet to expand
+    * @param expansionParameters the parameters of the $expand request other than the ValueSet, encoded (e.g. as JSON)
+    * @return the key of the expansion of the ValueSet with these parameters on this server
+    */
+   public String getKey(String fhirServer, IBaseResource valueSet, String expansionParameters) {
+      return DigestUtils.sha256Hex(String.join("\n", Integer.toString(FORMAT_VERSION), fhirContext.getVersion().getVersion().name(),
+              fhirServer, getPrimitive(valueSet, "url"), getPrimitive(valueSet, "version"), getComposeHash(valueSet),
+              expansionParameters));
+   }
+
+   /**
+    * @return the cached expansion, or null if there is none
+    */
+   public IBaseResource get(String key) {
+      File file = getFile(key);
+      if (!file.exists()) {
+         misses.incrementAndGet();
+         return null;
+      }
+      try {
+         IBaseResource expansion = fhirContext.newJsonParser().parseResource(
+                 new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+         hits.incrementAndGet();
+         return expansion;
+      } catch (IOException | DataFormatException e) {
+         logger.warn("Ignoring unreadable cached expansion {}: {}", file, e.getMessage());
+         misses.incrementAndGet();
+         return null;
+      }
+   }
+
+   public void put(String key, IBaseResource expansion) {
+      File file = getFile(key);
+      try {
+         Path temp = Files.createTempFile(cacheDirectory.toPath(), key, ".tmp");
+         Files.write(temp, fhirContext.newJsonParser().encodeResourceToString(expansion).getBytes(StandardCharsets.UTF_8));
+         Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+         logger.warn("Unable to cache expansion {}: {}", file, e.getMessage());
+      }
+   }
+
+   public String getSummary() {
+      return String.format("Expansion cache: %d of %d expansions served from cache", hits.get(), hits.get() + misses.get());
+   }
+
+   private File getFile(String key) {
+      return new File(cacheDirectory, key + ".json");
+   }
+
+   private String getPrimitive(IBaseResource valueSet, String path) {
+      return fhirContext.newTerser().getSinglePrimitiveValue(valueSet, path).orElse("");
+   }
+
+   // The hash of a ValueSet holding only the compose definition of the given one
+   private String getComposeHash(IBaseResource valueSet) {
+      RuntimeResourceDefinition definition = fhirContext.getResourceDefinition(valueSet);
+      BaseRuntimeChildDefinition compose = definition.getChildByName("compose");
+      List<IBase> values = compose.getAccessor().getValues(valueSet);
+      if (values.isEmpty()) {
+         return "";
+      }
+      IBaseResource holder = definition.newInstance();
+      compose.getMutator().setValue(holder, values.get(0));
+      IParser parser = fhirContext.newJsonParser();
+      return DigestUtils.sha256Hex(parser.encodeResourceToString(holder));
+   }
+}
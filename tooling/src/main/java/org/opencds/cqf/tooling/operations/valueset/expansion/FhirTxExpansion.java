@@ -1,13 +1,17 @@
 package org.opencds.cqf.tooling.operations.valueset.expansion;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
 import ca.uhn.fhir.util.ParametersUtil;
 import org.hl7.fhir.instance.model.api.IBaseParameters;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.opencds.cqf.tooling.common.ThreadUtils;
 import org.opencds.cqf.tooling.operations.ExecutableOperation;
 import org.opencds.cqf.tooling.operations.Operation;
 import org.opencds.cqf.tooling.operations.OperationParam;
+import org.opencds.cqf.tooling.terminology.expansion.LocalValueSetExpander;
 import org.opencds.cqf.tooling.utilities.FhirContextCache;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.slf4j.Logger;
@@ -15,6 +19,10 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 @Operation(name = "FhirTxExpansion")
 public class FhirTxExpansion implements ExecutableOperation {
@@ -37,30 +45,104 @@ public class FhirTxExpansion implements ExecutableOperation {
            defaultValue = "src/main/resources/org/opencds/cqf/tooling/terminology/output",
            description = "The directory path to which the generated FHIR ValueSet resource should be written (default src/main/resources/org/opencds/cqf/tooling/terminology/output)")
    private String outputPath;
+   @OperationParam(alias = { "t", "threads" }, setter = "setThreads",
+           description = "The number of ValueSets expanded concurrently (default the number of available processors)")
+   private Integer threads;
+   @OperationParam(alias = { "cp", "cachepath" }, setter = "setCachePath",
+           description = "The directory of a cache of expansions kept between runs; ValueSets whose definition is unchanged are not expanded again (optional)")
+   private String cachePath;
+   @OperationParam(alias = { "csp", "codesystempath" }, setter = "setCodeSystemPath",
+           description = "The path to CodeSystem resources (file or directory); r4 ValueSets that can be expanded from these and the ValueSets being expanded are expanded locally, without the FHIR server (optional)")
+   private String codeSystemPath;
 
    private FhirContext fhirContext;
    private IGenericClient fhirServerClient;
+   private ExpansionCache expansionCache;
+   private LocalValueSetExpander localExpander;
 
    @Override
    public void execute() {
       fhirContext = FhirContextCache.getContext(version);
       fhirServerClient = fhirContext.newRestfulGenericClient(fhirServer);
+      if (threads != null) {
+         ThreadUtils.setParallelism(threads);
+      }
+      if (cachePath != null) {
+         expansionCache = new ExpansionCache(cachePath, fhirContext);
+      }
+      if (codeSystemPath != null) {
+         if (fhirContext.getVersion().getVersion() != FhirVersionEnum.R4) {
+            throw new IllegalArgumentException("Local expansion (codesystempath) is only supported for r4");
+         }
+         List<IBaseResource> terminology = new ArrayList<>(readResources(codeSystemPath));
+         terminology.addAll(readResources(pathToValueSet));
+         localExpander = new LocalValueSetExpander(terminology);
+      }
 
       if (Files.isDirectory(Paths.get(pathToValueSet))) {
-         for (IBaseResource resource : IOUtils.readResources(IOUtils.getFilePaths(pathToValueSet, true), fhirContext)) {
-            expandAndWriteValueSet(resource);
+         List<IBaseResource> resources = IOUtils.readResources(IOUtils.getFilePaths(pathToValueSet, true), fhirContext);
+         List<Callable<Void>> tasks = new ArrayList<>();
+         for (IBaseResource resource : resources) {
+            tasks.add(() -> {
+               expandAndWriteValueSet(resource);
+               return null;
+            });
+         }
+         ThreadUtils.TaskResults results = ThreadUtils.executeTasks(tasks);
+         if (!results.isSuccessful()) {
+            StringBuilder message = new StringBuilder().append(results.getFailures().size()).append(" of ")
+                    .append(results.getTaskCount()).append(" ValueSet(s) could not be expanded:");
+            for (ThreadUtils.TaskFailure failure : results.getFailures()) {
+               message.append("\n").append(resources.get(failure.getIndex()).getIdElement().getIdPart())
+                       .append(": ").append(failure.getError().getMessage());
+            }
+            throw new RuntimeException(message.toString());
          }
       } else {
          expandAndWriteValueSet(IOUtils.readResource(pathToValueSet, fhirContext));
       }
+
+      if (expansionCache != null) {
+         logger.info(expansionCache.getSummary());
+      }
+   }
+
+   private List<IBaseResource> readResources(String path) {
+      return Files.isDirectory(Paths.get(path))
+              ? IOUtils.readResources(IOUtils.getFilePaths(path, true), fhirContext)
+              : Collections.singletonList(IOUtils.readResource(path, fhirContext));
    }
 
    public IBaseResource expandValueSet(IBaseResource valueSet) {
+      if (localExpander != null) {
+         try {
+            ValueSet expanded = ((ValueSet) valueSet).copy();
+            expanded.setExpansion(localExpander.expand((ValueSet) valueSet));
+            return expanded;
+         } catch (IllegalArgumentException e) {
+            logger.debug("Expanding {} on the FHIR server: {}", valueSet.getIdElement().getValue(), e.getMessage());
+         }
+      }
       try {
          IBaseParameters parameters = ParametersUtil.newInstance(fhirContext);
+         String key = null;
+         if (expansionCache != null) {
+            // the parameters other than the ValueSet are part of the key
+            key = expansionCache.getKey(fhirServer, valueSet, fhirContext.newJsonParser().encodeResourceToString(parameters));
+            IBaseResource cached = expansionCache.get(key);
+            if (cached != null) {
+               return cached;
+            }
+         }
          ParametersUtil.addParameterToParameters(fhirContext, parameters, "valueSet", valueSet);
-         return fhirServerClient.operation().onType("ValueSet")
-                 .named("$expand").withParameters(parameters).execute();
+         // the expanded ValueSet itself, rather than wrapped in a Parameters resource
+         IBaseResource expanded = fhirServerClient.operation().onType("ValueSet")
+                 .named("$expand").withParameters(parameters)
+                 .returnResourceType(fhirContext.getResourceDefinition("ValueSet").getImplementingClass()).execute();
+         if (key != null && expanded != null) {
+            expansionCache.put(key, expanded);
+         }
+         return expanded;
       } catch (Exception e) {
          logger.warn("Unable to expand: {}", valueSet.getIdElement().getValue(), e);
       }
@@ -70,9 +152,10 @@ public class FhirTxExpansion implements ExecutableOperation {
    private void expandAndWriteValueSet(IBaseResource resource) {
       if (resource.fhirType().equalsIgnoreCase("valueset")) {
          IBaseResource expandedVs = expandValueSet(resource);
-         if (expandedVs != null) {
-            IOUtils.writeResource(expandedVs, outputPath, IOUtils.Encoding.valueOf(encoding), fhirContext);
+         if (expandedVs == null) {
+            throw new RuntimeException("Unable to expand ValueSet " + resource.getIdElement().getIdPart());
          }
+         IOUtils.writeResource(expandedVs, outputPath, IOUtils.Encoding.parse(encoding), fhirContext);
       }
    }
 
@@ -116,6 +199,30 @@ public class FhirTxExpansion implements ExecutableOperation {
       this.outputPath = outputPath;
    }
 
+   public Integer getThreads() {
+      return threads;
+   }
+
+   public void setThreads(Integer threads) {
+      this.threads = threads;
+   }
+
+   public String getCachePath() {
+      return cachePath;
+   }
+
+   public void setCachePath(String cachePath) {
+      this.cachePath = cachePath;
+   }
+
+   public String getCodeSystemPath() {
+      return codeSystemPath;
+   }
+
+   public void setCodeSystemPath(String codeSystemPath) {
+      this.codeSystemPath = codeSystemPath;
+   }
+
    public void setFhirContext(FhirContext fhirContext) {
       this.fhirContext = fhirContext;
    }
@@ -8,4 +8,12 @@ public class PostBundlesInDirParameters {
     public String fhirUri;
     public FHIRVersion fhirVersion;
     public IOUtils.Encoding encoding;
+    public Integer maxSimultaneousPosts;
+    public Boolean gzip;
+    public Integer maxPostAttempts;
+    public Boolean postRetryPrompt;
+    public String uploadJournalPath;
+    public String batchType;
+    public Integer batchMaxEntries;
+    public Integer batchMaxSizeKB;
 }
\ No newline at end of file
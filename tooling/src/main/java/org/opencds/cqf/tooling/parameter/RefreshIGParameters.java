@@ -24,4 +24,13 @@ public class RefreshIGParameters {
     public String libraryPath;
     public String libraryOutputPath;
     public String measureOutputPath;
+    public Integer resourceCacheSizeMB;
+    public String persistentCachePath;
+    public Integer cqlTranslationThreads;
+    public Integer threads;
+    public Integer maxSimultaneousPosts;
+    public Boolean gzip;
+    public Integer maxPostAttempts;
+    public Boolean postRetryPrompt;
+    public String uploadJournalPath;
 }
\ No newline at end of file
@@ -43,4 +43,20 @@ public class TestIGParameters {
     Execution engine (i.e., CQF Ruler) to load the test content to and run the evaluation on.
     */
     public String fhirServerUri;
+
+    /*
+    Number of threads the test cases of an artifact are run on. If null, the number of available processors.
+    */
+    public Integer threads;
+
+    /*
+    Whether the content bundles of all the test artifacts are loaded to the FHIR server, concurrently, before the test
+    cases are run.
+    */
+    public Boolean preloadContent;
+
+    /*
+    Directory the test results are written to, as JUnit XML and as a JSON summary. If null, they are only logged.
+    */
+    public String resultsPath;
 }
@@ -15,6 +15,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -184,10 +185,12 @@ public abstract class AbstractResourceProcessor extends BaseProcessor {
                             return null;
                         }
 
+                        // resolved once through the ValueSet index, for the bundle and for its files
+                        Map<String, IBaseResource> valueSets = Collections.emptyMap();
                         if (includeTerminology) {
                             //throws CQLTranslatorException if failed, which will be logged and reported it in the final summary
                             try {
-                                ValueSetsProcessor.bundleValueSets(cqlLibrarySourcePath, igPath, fhirContext, resources, encoding, includeDependencies, includeVersion);
+                                valueSets = ValueSetsProcessor.bundleValueSets(cqlLibrarySourcePath, igPath, fhirContext, resources, encoding, includeDependencies, includeVersion);
                             }catch (CQLTranslatorException warn){
                                 if (translatorWarningMessages.containsKey(primaryLibraryName)){
                                     Set<String> existingMessages = translatorWarningMessages.get(primaryLibraryName);
@@ -227,8 +230,8 @@ public abstract class AbstractResourceProcessor extends BaseProcessor {
                             persistBundle(igPath, bundleDestPath, resourceName, encoding, fhirContext, new ArrayList<IBaseResource>(resources.values()), fhirUri, addBundleTimestamp);
 
                             String possibleBundleTestMessage = bundleFiles(igPath, bundleDestPath, resourceName, binaryPaths, resourceSourcePath,
-                                    primaryLibrarySourcePath, fhirContext, encoding, includeTerminology, includeDependencies, includePatientScenarios,
-                                    includeVersion, addBundleTimestamp, translatorWarningMessages);
+                                    primaryLibrarySourcePath, fhirContext, encoding, valueSets, includeDependencies, includePatientScenarios,
+                                    includeVersion, addBundleTimestamp);
 
                             //Check for test files in bundleDestPath + "-files", loop through if exists,
                             // find all files that start with "tests-", post to fhir server following same folder structure:
@@ -264,7 +267,10 @@ public abstract class AbstractResourceProcessor extends BaseProcessor {
 
             }//end for loop
 
-            ThreadUtils.executeTasks(tasks);
+            ThreadUtils.TaskResults taskResults = ThreadUtils.executeTasks(tasks);
+            for (ThreadUtils.TaskFailure failure : taskResults.getFailures()) {
+                LogUtils.putException("bundleResources: " + getResourceProcessorType(), failure.getError());
+            }
 
             //Test file information:
             String bundleTestFileMessage = bundleTestFileStringBuilder.toString();
@@ -325,8 +331,8 @@ public abstract class AbstractResourceProcessor extends BaseProcessor {
     protected abstract Set<String> getPaths(FhirContext fhirContext);
 
     private String bundleFiles(String igPath, String bundleDestPath, String primaryLibraryName, List<String> binaryPaths, String resourceFocusSourcePath,
-                               String librarySourcePath, FhirContext fhirContext, IOUtils.Encoding encoding, Boolean includeTerminology, Boolean includeDependencies, Boolean includePatientScenarios,
-                               Boolean includeVersion, Boolean addBundleTimestamp, Map<String, Set<String>> translatorWarningMessages) {
+                               String librarySourcePath, FhirContext fhirContext, IOUtils.Encoding encoding, Map<String, IBaseResource> valueSets, Boolean includeDependencies, Boolean includePatientScenarios,
+                               Boolean includeVersion, Boolean addBundleTimestamp) {
         String bundleMessage = "";
 
         String bundleDestFilesPath = FilenameUtils.concat(bundleDestPath, primaryLibraryName + "-" + IGBundleProcessor.bundleFilesPathElement);
@@ -343,21 +349,9 @@ public abstract class AbstractResourceProcessor extends BaseProcessor {
         String cqlDestPath = FilenameUtils.concat(bundleDestFilesPath, cqlFileName);
         IOUtils.copyFile(cqlLibrarySourcePath, cqlDestPath);
 
-        if (includeTerminology) {
-            try {
-                Map<String, IBaseResource> valueSets = ResourceUtils.getDepValueSetResources(cqlLibrarySourcePath, igPath, fhirContext, includeDependencies, includeVersion);
-                if (!valueSets.isEmpty()) {
-                    Object bundle = BundleUtils.bundleArtifacts(ValueSetsProcessor.getId(primaryLibraryName), new ArrayList<IBaseResource>(valueSets.values()), fhirContext, addBundleTimestamp, this.getIdentifiers());
-                    IOUtils.writeBundle(bundle, bundleDestFilesPath, encoding, fhirContext);
-                }
-            }catch (CQLTranslatorException warn){
-                if (translatorWarningMessages.containsKey(primaryLibraryName)){
-                    Set<String> existingMessages = translatorWarningMessages.get(primaryLibraryName);
-                    existingMessages.addAll(warn.getErrors());
-                }else{
-                    translatorWarningMessages.put(primaryLibraryName, warn.getErrors());
-                }
-            }
+        if (!valueSets.isEmpty()) {
+            Object bundle = BundleUtils.bundleArtifacts(ValueSetsProcessor.getId(primaryLibraryName), new ArrayList<IBaseResource>(valueSets.values()), fhirContext, addBundleTimestamp, this.getIdentifiers());
+            IOUtils.writeBundle(bundle, bundleDestFilesPath, encoding, fhirContext);
         }
 
         if (includeDependencies) {
@@ -382,7 +376,9 @@ public abstract class AbstractResourceProcessor extends BaseProcessor {
         Object bundle = BundleUtils.bundleArtifacts(libraryName, resources, fhirContext, addBundleTimestamp, this.getIdentifiers());
         IOUtils.writeBundle(bundle, bundleDestPath, encoding, fhirContext);
 
-        BundleUtils.postBundle(encoding, fhirContext, fhirUri, (IBaseResource) bundle);
+        // post the file just written, so the queued post does not keep the bundle in memory
+        String bundleFileName = IOUtils.formatFileName(((IBaseResource) bundle).getIdElement().getIdPart(), encoding, fhirContext);
+        BundleUtils.postBundle(encoding, fhirContext, fhirUri, FilenameUtils.concat(bundleDestPath, bundleFileName));
     }
 
     protected abstract void persistTestFiles(String bundleDestPath, String libraryName, IOUtils.Encoding encoding, FhirContext fhirContext, String fhirUri);
@@ -148,6 +148,30 @@ public class BaseProcessor implements IProcessorContext, IWorkerContext.ILogging
 
     private CqlProcessor cqlProcessor;
 
+    private int cqlTranslationThreads = 1;
+
+    private CqlTranslationCache cqlTranslationCache;
+
+    /**
+     * Sets the store of previous CQL translations used by the CqlProcessor created by this processor.
+     */
+    public void setCqlTranslationCache(CqlTranslationCache cqlTranslationCache) {
+        this.cqlTranslationCache = cqlTranslationCache;
+        if (cqlProcessor != null) {
+            cqlProcessor.setTranslationCache(cqlTranslationCache);
+        }
+    }
+
+    /**
+     * Sets the number of CQL files translated concurrently by the CqlProcessor created by this processor.
+     */
+    public void setCqlTranslationThreads(int cqlTranslationThreads) {
+        this.cqlTranslationThreads = cqlTranslationThreads;
+        if (cqlProcessor != null) {
+            cqlProcessor.setTranslationThreads(cqlTranslationThreads);
+        }
+    }
+
     public CqlProcessor getCqlProcessor() {
         if (cqlProcessor == null) {
             LibraryLoader reader = new LibraryLoader(fhirVersion);
@@ -161,6 +185,8 @@ public class BaseProcessor implements IProcessorContext, IWorkerContext.ILogging
             }
             cqlProcessor = new CqlProcessor(packageManager.getNpmList(), binaryPaths, reader, this, ucumService,
                     packageId, canonicalBase);
+            cqlProcessor.setTranslationThreads(cqlTranslationThreads);
+            cqlProcessor.setTranslationCache(cqlTranslationCache);
         }
 
         return cqlProcessor;
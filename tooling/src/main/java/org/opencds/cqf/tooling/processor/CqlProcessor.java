@@ -2,13 +2,28 @@ package org.opencds.cqf.tooling.processor;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.cqframework.cql.cql2elm.CqlCompilerException;
 import org.cqframework.cql.cql2elm.CqlCompilerOptions;
 import org.cqframework.cql.cql2elm.CqlTranslator;
@@ -26,6 +41,7 @@ import org.hl7.cql.model.NamespaceInfo;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.r5.context.IWorkerContext.ILoggingService;
+import org.hl7.fhir.r5.formats.JsonParser;
 import org.hl7.fhir.r5.model.DataRequirement;
 import org.hl7.fhir.r5.model.ParameterDefinition;
 import org.hl7.fhir.r5.model.RelatedArtifact;
@@ -33,9 +49,12 @@ import org.hl7.fhir.utilities.npm.NpmPackage;
 import org.hl7.fhir.utilities.validation.ValidationMessage;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueType;
+import org.opencds.cqf.tooling.common.ThreadUtils;
 import org.opencds.cqf.tooling.npm.ILibraryReader;
 import org.opencds.cqf.tooling.npm.NpmLibrarySourceProvider;
 import org.opencds.cqf.tooling.npm.NpmModelInfoProvider;
+import org.opencds.cqf.tooling.utilities.CompiledLibraryCache;
+import org.opencds.cqf.tooling.utilities.CqlHeaderScanner;
 import org.opencds.cqf.tooling.utilities.ResourceUtils;
 
 public class CqlProcessor {
@@ -138,6 +157,35 @@ public class CqlProcessor {
 
     private NamespaceInfo namespaceInfo;
 
+    /**
+     * Number of files translated concurrently within a folder. 1 (the default) translates sequentially.
+     */
+    private int translationThreads = 1;
+
+    public int getTranslationThreads() {
+        return translationThreads;
+    }
+
+    public void setTranslationThreads(int translationThreads) {
+        if (translationThreads < 1) {
+            throw new IllegalArgumentException("translationThreads must be at least 1");
+        }
+        this.translationThreads = translationThreads;
+    }
+
+    /**
+     * Store of previous translation results; when set, unchanged libraries are not translated again.
+     */
+    private CqlTranslationCache translationCache;
+
+    public CqlTranslationCache getTranslationCache() {
+        return translationCache;
+    }
+
+    public void setTranslationCache(CqlTranslationCache translationCache) {
+        this.translationCache = translationCache;
+    }
+
     public CqlProcessor(List<NpmPackage> packages, List<String> folders, ILibraryReader reader, ILoggingService logger, UcumService ucumService, String packageId, String canonicalBase) {
         super();
         this.packages = packages;
@@ -168,6 +216,11 @@ public class CqlProcessor {
             for (String folder : folders) {
                 translateFolder(folder);
             }
+
+            if (translationCache != null) {
+                translationCache.save();
+                logger.logMessage(String.format("Reused %d previous CQL translations", translationCache.getReusedCount()));
+            }
         }
         catch (Exception E) {
             logger.logDebugMessage(ILoggingService.LogCategory.PROGRESS, String.format("Errors occurred attempting to translate CQL content: %s", E.getMessage()));
@@ -253,12 +306,63 @@ public class CqlProcessor {
         logger.logMessage(String.format("Translating CQL source in folder %s", folder));
 
         CqlTranslatorOptions options = ResourceUtils.getTranslatorOptions(folder);
+        LibraryManager libraryManager = createLibraryManager(folder, options);
+
+        // foreach *.cql file
+        File[] files = new File(folder).listFiles(getCqlFilenameFilter());
+        boolean hadCqlFiles = files.length > 0;
+
+        List<File> filesToTranslate = new ArrayList<>(Arrays.asList(files));
+        Map<File, Set<File>> includedFiles = null;
+        Map<File, CqlTranslationCache.ManifestEntry> translationInputs = null;
+        if (translationCache != null || translationThreads > 1) {
+            includedFiles = getIncludedFiles(files);
+        }
+        if (translationCache != null) {
+            translationInputs = getTranslationInputs(files, includedFiles, options);
+            Map<File, CqlTranslationCache.ManifestEntry> inputs = translationInputs;
+            filesToTranslate.removeIf(file -> reuseTranslation(file, inputs.get(file)));
+        }
+
+        if (translationThreads > 1 && filesToTranslate.size() > 1) {
+            translateFilesInParallel(folder, options, getTranslationWaves(filesToTranslate, includedFiles));
+        }
+        else {
+            for (File file : filesToTranslate) {
+                fileMap.put(file.getAbsoluteFile().toString(), translateFile(libraryManager, file, options.getCqlCompilerOptions()));
+            }
+        }
+
+        if (translationCache != null) {
+            for (File file : filesToTranslate) {
+                storeTranslation(file, translationInputs.get(file));
+            }
+        }
+
+        if (hadCqlFiles) {
+            if (cachedOptions == null) {
+                if (!hasMultipleBinaryPaths) {
+                    cachedOptions = options;
+                    cachedLibraryManager = libraryManager;
+                }
+            }
+            else {
+                if (!hasMultipleBinaryPaths) {
+                    hasMultipleBinaryPaths = true;
+                    cachedOptions = null;
+                    cachedLibraryManager = null;
+                }
+            }
+        }
+    }
 
+    private LibraryManager createLibraryManager(String folder, CqlTranslatorOptions options) {
         // Setup
         // Construct DefaultLibrarySourceProvider
         // Construct FhirLibrarySourceProvider
-        ModelManager modelManager = new ModelManager();
-        LibraryManager libraryManager = new LibraryManager(modelManager, options.getCqlCompilerOptions());
+        ModelManager modelManager = CompiledLibraryCache.createModelManager();
+        LibraryManager libraryManager = CompiledLibraryCache.createLibraryManager(modelManager, options.getCqlCompilerOptions(),
+                getSourceKey(folder));
         if (options.getCqlCompilerOptions().getValidateUnits()) {
             libraryManager.setUcumService(ucumService);
         }
@@ -271,28 +375,238 @@ public class CqlProcessor {
         modelManager.getModelInfoLoader().registerModelInfoProvider(new DefaultModelInfoProvider(Paths.get(folder)));
 
         loadNamespaces(libraryManager);
+        return libraryManager;
+    }
 
-        // foreach *.cql file
-        boolean hadCqlFiles = false;
-        for (File file : new File(folder).listFiles(getCqlFilenameFilter())) {
-            hadCqlFiles = true;
-            translateFile(libraryManager, file, options.getCqlCompilerOptions());
+    // The libraries resolve from the folder, then from the packages
+    private String getSourceKey(String folder) {
+        StringBuilder sourceKey = new StringBuilder(CompiledLibraryCache.getFolderKey(folder));
+        if (namespaceInfo != null) {
+            sourceKey.append('|').append(namespaceInfo.getName()).append('=').append(namespaceInfo.getUri());
+        }
+        if (packages != null) {
+            for (NpmPackage p : packages) {
+                sourceKey.append('|').append(p.name()).append('#').append(p.version());
+            }
         }
+        return sourceKey.toString();
+    }
 
-        if (hadCqlFiles) {
-            if (cachedOptions == null) {
-                if (!hasMultipleBinaryPaths) {
-                    cachedOptions = options;
-                    cachedLibraryManager = libraryManager;
+    /**
+     * Translates the files of a folder as up to {@link #translationThreads} tasks on the shared pool (see
+     * {@link ThreadUtils}), one wave of the include graph at a time, so that the libraries a file includes are
+     * compiled (and in the shared compiled library cache) before it is translated. Model and library managers are not
+     * thread-safe, so each task uses its own pair, kept across waves; they share compiled libraries and models through
+     * {@link CompiledLibraryCache}. Results are added to the file map on the calling thread, so the outcome is the
+     * same as translating sequentially.
+     */
+    private void translateFilesInParallel(String folder, CqlTranslatorOptions options, List<List<File>> waves) {
+        LibraryManager[] libraryManagers = new LibraryManager[translationThreads];
+        for (List<File> wave : waves) {
+            CqlSourceFileInformation[] results = new CqlSourceFileInformation[wave.size()];
+            int taskCount = Math.min(translationThreads, wave.size());
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < taskCount; i++) {
+                int task = i;
+                tasks.add(() -> {
+                    if (libraryManagers[task] == null) {
+                        libraryManagers[task] = createLibraryManager(folder, options);
+                    }
+                    for (int j = task; j < wave.size(); j += taskCount) {
+                        results[j] = translateFile(libraryManagers[task], wave.get(j), options.getCqlCompilerOptions());
+                    }
+                    return null;
+                });
+            }
+
+            ThreadUtils.TaskResults taskResults = ThreadUtils.executeTasks(tasks, true);
+            if (!taskResults.getFailures().isEmpty()) {
+                Exception error = taskResults.getFailures().get(0).getError();
+                throw new FHIRException(String.format("Errors occurred translating CQL source in folder %s: %s", folder, error.getMessage()), error);
+            }
+            for (int i = 0; i < wave.size(); i++) {
+                fileMap.put(wave.get(i).getAbsoluteFile().toString(), results[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns, for each file, the files of the same folder holding the libraries it includes directly, based on the
+     * library and include declarations only.
+     */
+    static Map<File, Set<File>> getIncludedFiles(File[] files) {
+        Map<String, File> filesByLibraryName = new HashMap<>();
+        Map<File, CqlHeaderScanner.Header> headers = new HashMap<>();
+        for (File file : files) {
+            try {
+                CqlHeaderScanner.Header header = CqlHeaderScanner.scan(file);
+                headers.put(file, header);
+                if (header.getName() != null) {
+                    filesByLibraryName.putIfAbsent(header.getName(), file);
                 }
+            } catch (IOException e) {
+                // no known includes; the translator reports the problem
             }
-            else {
-                if (!hasMultipleBinaryPaths) {
-                    hasMultipleBinaryPaths = true;
-                    cachedOptions = null;
-                    cachedLibraryManager = null;
+        }
+
+        Map<File, Set<File>> includedFiles = new LinkedHashMap<>();
+        for (File file : files) {
+            Set<File> fileIncludes = new LinkedHashSet<>();
+            CqlHeaderScanner.Header header = headers.get(file);
+            if (header != null) {
+                for (CqlHeaderScanner.Include include : header.getIncludes()) {
+                    File included = filesByLibraryName.get(include.getName());
+                    if (included != null && !included.equals(file)) {
+                        fileIncludes.add(included);
+                    }
                 }
             }
+            includedFiles.put(file, fileIncludes);
+        }
+        return includedFiles;
+    }
+
+    /**
+     * Groups files into waves such that every file only includes libraries (of the given files) in earlier waves.
+     * Files keep their order within a wave. Files that are part of an include cycle end up in the last wave; the
+     * translator reports the cycle.
+     */
+    static List<List<File>> getTranslationWaves(List<File> files, Map<File, Set<File>> includedFiles) {
+        Set<File> remaining = new LinkedHashSet<>(files);
+        List<List<File>> waves = new ArrayList<>();
+        while (!remaining.isEmpty()) {
+            List<File> wave = new ArrayList<>();
+            for (File file : remaining) {
+                boolean ready = true;
+                for (File included : includedFiles.getOrDefault(file, Collections.emptySet())) {
+                    if (remaining.contains(included)) {
+                        ready = false;
+                        break;
+                    }
+                }
+                if (ready) {
+                    wave.add(file);
+                }
+            }
+            if (wave.isEmpty()) {
+                wave.addAll(remaining);
+            }
+            remaining.removeAll(wave);
+            waves.add(wave);
+        }
+        return waves;
+    }
+
+    /**
+     * Computes the inputs of each file's translation: its content hash, the content hashes of the libraries it
+     * includes directly or indirectly (from the same folder; libraries from packages are covered by the options),
+     * the translator options and the translator and tooling versions.
+     */
+    private Map<File, CqlTranslationCache.ManifestEntry> getTranslationInputs(File[] files, Map<File, Set<File>> includedFiles, CqlTranslatorOptions options) {
+        Map<File, String> sourceHashes = new HashMap<>();
+        for (File file : files) {
+            try {
+                sourceHashes.put(file, DigestUtils.sha256Hex(Files.readAllBytes(file.toPath())));
+            } catch (IOException e) {
+                sourceHashes.put(file, "unreadable");
+            }
+        }
+
+        StringBuilder optionsKey = new StringBuilder(CompiledLibraryCache.getOptionsKey(options.getCqlCompilerOptions()))
+                .append('|').append(new TreeSet<>(options.getFormats()));
+        if (namespaceInfo != null) {
+            optionsKey.append('|').append(namespaceInfo.getName()).append('=').append(namespaceInfo.getUri());
+        }
+        if (packages != null) {
+            for (NpmPackage p : packages) {
+                optionsKey.append('|').append(p.name()).append('#').append(p.version());
+            }
+        }
+        String translatorVersion = CqlTranslationCache.getVersion(CqlTranslator.class);
+        String toolingVersion = CqlTranslationCache.getVersion(CqlProcessor.class);
+
+        Map<File, CqlTranslationCache.ManifestEntry> inputs = new HashMap<>();
+        for (File file : files) {
+            Map<String, String> includeHashes = new TreeMap<>();
+            Deque<File> pending = new ArrayDeque<>(includedFiles.get(file));
+            Set<File> visited = new HashSet<>();
+            while (!pending.isEmpty()) {
+                File included = pending.pop();
+                if (visited.add(included)) {
+                    includeHashes.put(included.getName(), sourceHashes.get(included));
+                    pending.addAll(includedFiles.get(included));
+                }
+            }
+            inputs.put(file, new CqlTranslationCache.ManifestEntry(file.getAbsolutePath(), sourceHashes.get(file),
+                    includeHashes, optionsKey.toString(), translatorVersion, toolingVersion));
+        }
+        return inputs;
+    }
+
+    private boolean reuseTranslation(File file, CqlTranslationCache.ManifestEntry inputs) {
+        CqlTranslationCache.CachedTranslation translation = translationCache.get(file.getAbsolutePath(), inputs);
+        if (translation == null) {
+            return false;
+        }
+        try {
+            CqlSourceFileInformation result = new CqlSourceFileInformation();
+            VersionedIdentifier identifier = new VersionedIdentifier().withId(translation.id)
+                    .withVersion(translation.version).withSystem(translation.system);
+            result.setIdentifier(identifier);
+            result.setElm(Base64.getDecoder().decode(translation.elm));
+            result.setJsonElm(Base64.getDecoder().decode(translation.jsonElm));
+            org.hl7.fhir.r5.model.Library requirements =
+                    (org.hl7.fhir.r5.model.Library) new JsonParser().parse(translation.requirements);
+            result.relatedArtifacts.addAll(requirements.getRelatedArtifact());
+            result.parameters.addAll(requirements.getParameter());
+            result.dataRequirements.addAll(requirements.getDataRequirement());
+            for (CqlTranslationCache.CachedMessage message : translation.messages) {
+                result.getErrors().add(new ValidationMessage(ValidationMessage.Source.valueOf(message.source),
+                        IssueType.valueOf(message.type), message.line, message.col, message.location, message.message,
+                        IssueSeverity.valueOf(message.level)));
+            }
+            fileMap.put(file.getAbsoluteFile().toString(), result);
+            logger.logMessage(String.format("CQL source in file %s is unchanged, reusing the previous translation", file));
+            return true;
+        } catch (Exception e) {
+            logger.logDebugMessage(ILoggingService.LogCategory.PROGRESS, String.format("Unable to reuse the previous translation of %s: %s", file, e.getMessage()));
+            return false;
+        }
+    }
+
+    private void storeTranslation(File file, CqlTranslationCache.ManifestEntry inputs) {
+        CqlSourceFileInformation result = fileMap.get(file.getAbsoluteFile().toString());
+        // failed translations are not stored, so they are attempted (and reported) again
+        if (result == null || result.getElm() == null || result.getIdentifier() == null) {
+            translationCache.remove(file.getAbsolutePath());
+            return;
+        }
+        try {
+            CqlTranslationCache.CachedTranslation translation = new CqlTranslationCache.CachedTranslation();
+            translation.id = result.getIdentifier().getId();
+            translation.version = result.getIdentifier().getVersion();
+            translation.system = result.getIdentifier().getSystem();
+            translation.elm = Base64.getEncoder().encodeToString(result.getElm());
+            translation.jsonElm = Base64.getEncoder().encodeToString(result.getJsonElm());
+            org.hl7.fhir.r5.model.Library requirements = new org.hl7.fhir.r5.model.Library();
+            requirements.getRelatedArtifact().addAll(result.getRelatedArtifacts());
+            requirements.getParameter().addAll(result.getParameters());
+            requirements.getDataRequirement().addAll(result.getDataRequirements());
+            translation.requirements = new JsonParser().composeString(requirements);
+            for (ValidationMessage message : result.getErrors()) {
+                CqlTranslationCache.CachedMessage cachedMessage = new CqlTranslationCache.CachedMessage();
+                cachedMessage.source = message.getSource().name();
+                cachedMessage.type = message.getType().name();
+                cachedMessage.line = message.getLine();
+                cachedMessage.col = message.getCol();
+                cachedMessage.location = message.getLocation();
+                cachedMessage.message = message.getMessage();
+                cachedMessage.level = message.getLevel().name();
+                translation.messages.add(cachedMessage);
+            }
+            translationCache.put(file.getAbsolutePath(), inputs, translation);
+        } catch (IOException e) {
+            logger.logDebugMessage(ILoggingService.LogCategory.PROGRESS, String.format("Unable to store the translation of %s: %s", file, e.getMessage()));
         }
     }
 
@@ -342,10 +656,9 @@ public class CqlProcessor {
         }
     }
 
-    private void translateFile(LibraryManager libraryManager, File file, CqlCompilerOptions options) {
+    private CqlSourceFileInformation translateFile(LibraryManager libraryManager, File file, CqlCompilerOptions options) {
         logger.logMessage(String.format("Translating CQL source in file %s", file.toString()));
         CqlSourceFileInformation result = new CqlSourceFileInformation();
-        fileMap.put(file.getAbsoluteFile().toString(), result);
 
         if (options.getValidateUnits()) {
             libraryManager.setUcumService(ucumService);
@@ -415,6 +728,7 @@ public class CqlProcessor {
         catch (Exception e) {
             result.getErrors().add(new ValidationMessage(ValidationMessage.Source.Publisher, IssueType.EXCEPTION, file.getName(), "CQL Processing failed with exception: "+e.getMessage(), IssueSeverity.ERROR));
         }
+        return result;
     }
 
     private FilenameFilter getCqlFilenameFilter() {
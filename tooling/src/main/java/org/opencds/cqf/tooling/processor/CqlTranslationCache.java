@@ -0,0 +1,239 @@
+package org.opencds.cqf.tooling.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * On-disk store of CQL translation results, used by the {@link CqlProcessor} to skip translating libraries that
+ * have not changed since the previous run. The manifest records, per source file, the hash of its content, the
+ * hashes of the libraries it (transitively) includes, the translator options and the translator and tooling
+ * versions; a stored result is only reused when all of these are unchanged.
+ */
+public class CqlTranslationCache {
+    private static final Logger logger = LoggerFactory.getLogger(CqlTranslationCache.class);
+    private static final String MANIFEST_FILE_NAME = "manifest.json";
+
+    private final File directory;
+    private final Map<String, ManifestEntry> manifest = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+    private int reused;
+
+    /**
+     * The inputs a translation result depends on.
+     */
+    public static class ManifestEntry {
+        String sourceHash;
+        // library name -> source hash, for every library included directly or indirectly
+        Map<String, String> includeHashes = new TreeMap<>();
+        String options;
+        String translatorVersion;
+        String toolingVersion;
+        // name of the file holding the result, derived from the source path and all of the above
+        String resultFile;
+
+        public ManifestEntry(String sourcePath, String sourceHash, Map<String, String> includeHashes, String options,
+                String translatorVersion, String toolingVersion) {
+            this.sourceHash = sourceHash;
+            this.includeHashes.putAll(includeHashes);
+            this.options = options;
+            this.translatorVersion = translatorVersion;
+            this.toolingVersion = toolingVersion;
+            this.resultFile = DigestUtils.sha256Hex(String.join("\n", sourcePath, sourceHash,
+                    this.includeHashes.toString(), options, translatorVersion, toolingVersion)) + ".json";
+        }
+
+        boolean matches(ManifestEntry other) {
+            return other != null && Objects.equals(sourceHash, other.sourceHash)
+                    && Objects.equals(includeHashes, other.includeHashes) && Objects.equals(options, other.options)
+                    && Objects.equals(translatorVersion, other.translatorVersion)
+                    && Objects.equals(toolingVersion, other.toolingVersion);
+        }
+    }
+
+    /**
+     * The stored outcome of a successful translation.
+     */
+    public static class CachedTranslation {
+        String id;
+        String version;
+        String system;
+        // base64
+        String elm;
+        String jsonElm;
+        // an R5 Library (JSON) holding the relatedArtifact, parameter and dataRequirement elements
+        String requirements;
+        List<CachedMessage> messages = new ArrayList<>();
+    }
+
+    /**
+     * A warning or informational message reported by the translation, replayed when the translation is reused.
+     */
+    public static class CachedMessage {
+        String source;
+        String type;
+        int line;
+        int col;
+        String location;
+        String message;
+        String level;
+    }
+
+    public CqlTranslationCache(String cacheDirectory) {
+        IOUtils.ensurePath(cacheDirectory);
+        this.directory = new File(cacheDirectory);
+        File manifestFile = new File(directory, MANIFEST_FILE_NAME);
+        if (manifestFile.exists()) {
+            try (Reader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+                Manifest content = new Gson().fromJson(reader, Manifest.class);
+                if (content != null && content.entries != null) {
+                    manifest.putAll(content.entries);
+                }
+            } catch (IOException | JsonParseException e) {
+                logger.warn("Unable to read CQL translation manifest {}, translating everything: {}", manifestFile, e.getMessage());
+            }
+        }
+    }
+
+    private static class Manifest {
+        Map<String, ManifestEntry> entries;
+    }
+
+    private static final Map<Class<?>, String> versions = new ConcurrentHashMap<>();
+
+    /**
+     * @return The implementation version of the jar the given class is loaded from or, when the jar does not declare
+     * one (e.g. a snapshot or an unpackaged build), the hash of the jar or of the class file itself
+     */
+    public static String getVersion(Class<?> type) {
+        return versions.computeIfAbsent(type, CqlTranslationCache::resolveVersion);
+    }
+
+    private static String resolveVersion(Class<?> type) {
+        String version = type.getPackage() != null ? type.getPackage().getImplementationVersion() : null;
+        if (version != null) {
+            return version;
+        }
+        try {
+            CodeSource codeSource = type.getProtectionDomain().getCodeSource();
+            if (codeSource != null && codeSource.getLocation() != null) {
+                Path location = Paths.get(codeSource.getLocation().toURI());
+                if (Files.isRegularFile(location)) {
+                    try (InputStream stream = Files.newInputStream(location)) {
+                        return "sha256:" + DigestUtils.sha256Hex(stream);
+                    }
+                }
+            }
+            try (InputStream stream = type.getResourceAsStream(type.getSimpleName() + ".class")) {
+                if (stream != null) {
+                    return "sha256:" + DigestUtils.sha256Hex(stream);
+                }
+            }
+        } catch (IOException | URISyntaxException | SecurityException | IllegalArgumentException e) {
+            logger.debug("Unable to determine the version of {}: {}", type.getName(), e.getMessage());
+        }
+        // nothing to compare against: never reuse translations across runs
+        return "unknown:" + System.nanoTime();
+    }
+
+    /**
+     * @return The stored translation of the given source file, or null if there is none for exactly these inputs
+     */
+    public CachedTranslation get(String sourcePath, ManifestEntry inputs) {
+        ManifestEntry entry = manifest.get(sourcePath);
+        if (!inputs.matches(entry)) {
+            return null;
+        }
+        File resultFile = new File(directory, entry.resultFile);
+        try (Reader reader = Files.newBufferedReader(resultFile.toPath(), StandardCharsets.UTF_8)) {
+            CachedTranslation translation = new Gson().fromJson(reader, CachedTranslation.class);
+            if (translation != null) {
+                synchronized (this) {
+                    reused++;
+                }
+            }
+            return translation;
+        } catch (IOException | JsonParseException e) {
+            logger.debug("Unable to read cached translation {}: {}", resultFile, e.getMessage());
+            return null;
+        }
+    }
+
+    public void put(String sourcePath, ManifestEntry inputs, CachedTranslation translation) {
+        try {
+            writeAtomically(new File(directory, inputs.resultFile).toPath(), new Gson().toJson(translation));
+        } catch (IOException e) {
+            logger.warn("Unable to store translation of {}: {}", sourcePath, e.getMessage());
+            return;
+        }
+        ManifestEntry previous = manifest.put(sourcePath, inputs);
+        if (previous != null && !previous.resultFile.equals(inputs.resultFile)) {
+            new File(directory, previous.resultFile).delete();
+        }
+        dirty = true;
+    }
+
+    public void remove(String sourcePath) {
+        ManifestEntry previous = manifest.remove(sourcePath);
+        if (previous != null) {
+            new File(directory, previous.resultFile).delete();
+            dirty = true;
+        }
+    }
+
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        // drop results for source files that no longer exist
+        for (String sourcePath : manifest.keySet()) {
+            if (!new File(sourcePath).exists()) {
+                remove(sourcePath);
+            }
+        }
+
+        Manifest content = new Manifest();
+        content.entries = new TreeMap<>(manifest);
+        try {
+            writeAtomically(new File(directory, MANIFEST_FILE_NAME).toPath(), new Gson().toJson(content));
+            dirty = false;
+        } catch (IOException e) {
+            logger.warn("Unable to write CQL translation manifest in {}: {}", directory, e.getMessage());
+        }
+    }
+
+    public synchronized int getReusedCount() {
+        return reused;
+    }
+
+    private void writeAtomically(Path target, String content) throws IOException {
+        Path temp = Files.createTempFile(directory.toPath(), target.getFileName().toString(), ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -75,6 +75,8 @@ public class IGBundleProcessor {
             System.out.println("\r\n[POST task(s) finished - " + getTime() + "]");
         }
 
+        System.out.println("\r\n" + IOUtils.getResourceCacheSummary());
+
         // run cleanup (maven runs all ci tests sequentially and static member variables could retain values from previous tests)
         IOUtils.cleanUp();
         ResourceUtils.cleanUp();
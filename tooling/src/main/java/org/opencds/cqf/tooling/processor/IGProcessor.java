@@ -11,13 +11,18 @@ import com.google.common.base.Strings;
 
 import org.apache.commons.io.FilenameUtils;
 import org.hl7.fhir.utilities.Utilities;
+import org.opencds.cqf.tooling.common.ThreadUtils;
 import org.opencds.cqf.tooling.library.LibraryProcessor;
 import org.opencds.cqf.tooling.measure.MeasureProcessor;
 import org.opencds.cqf.tooling.parameter.RefreshIGParameters;
+import org.opencds.cqf.tooling.utilities.HttpClientUtils;
 import org.opencds.cqf.tooling.utilities.IGUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 import org.opencds.cqf.tooling.utilities.LogUtils;
+import org.opencds.cqf.tooling.utilities.PersistentResourceCache;
+import org.opencds.cqf.tooling.utilities.RetryPolicy;
+import org.opencds.cqf.tooling.utilities.UploadJournal;
 
 import ca.uhn.fhir.context.FhirContext;
 import org.slf4j.Logger;
@@ -108,20 +113,32 @@ public class IGProcessor extends BaseProcessor {
         //package everything
         LogUtils.info("IGProcessor.publishIG - bundleIg");
         if (!skipPackages) {
-            igBundleProcessor.bundleIg(
-                    refreshedResourcesNames,
-                    rootDir,
-                    getBinaryPaths(),
-                    encoding,
-                    includeELM,
-                    includeDependencies,
-                    includeTerminology,
-                    includePatientScenarios,
-                    versioned,
-                    addBundleTimestamp,
-                    fhirContext,
-                    fhirUri
-            );
+            String uploadJournalPath = null;
+            if (params.uploadJournalPath != null && !params.uploadJournalPath.isEmpty() && fhirUri != null && !fhirUri.isEmpty()) {
+                uploadJournalPath = Utilities.isAbsoluteFileName(params.uploadJournalPath)
+                        ? params.uploadJournalPath : FilenameUtils.concat(rootDir, params.uploadJournalPath);
+            }
+            try (UploadJournal uploadJournal = uploadJournalPath != null ? new UploadJournal(uploadJournalPath) : null) {
+                HttpClientUtils.setUploadJournal(uploadJournal);
+                igBundleProcessor.bundleIg(
+                        refreshedResourcesNames,
+                        rootDir,
+                        getBinaryPaths(),
+                        encoding,
+                        includeELM,
+                        includeDependencies,
+                        includeTerminology,
+                        includePatientScenarios,
+                        versioned,
+                        addBundleTimestamp,
+                        fhirContext,
+                        fhirUri
+                );
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to use the upload journal " + uploadJournalPath + ": " + e.getMessage(), e);
+            } finally {
+                HttpClientUtils.setUploadJournal(null);
+            }
         }
         //test everything
         //IGTestProcessor.testIg(IGTestParameters);
@@ -130,6 +147,22 @@ public class IGProcessor extends BaseProcessor {
 
     public ArrayList<String> refreshedResourcesNames = new ArrayList<String>();
     public void refreshIG(RefreshIGParameters params) {
+        if (params.cqlTranslationThreads != null) {
+            setCqlTranslationThreads(params.cqlTranslationThreads);
+        }
+        if (params.threads != null) {
+            ThreadUtils.setParallelism(params.threads);
+        }
+        if (params.maxSimultaneousPosts != null) {
+            HttpClientUtils.setMaxSimultaneousPostCount(params.maxSimultaneousPosts);
+        }
+        HttpClientUtils.setGzipRequests(Boolean.TRUE.equals(params.gzip));
+        if (params.maxPostAttempts != null) {
+            HttpClientUtils.setRetryPolicy(new RetryPolicy(params.maxPostAttempts,
+                    RetryPolicy.DEFAULT_INITIAL_DELAY_MILLIS, RetryPolicy.DEFAULT_MAX_DELAY_MILLIS));
+        }
+        HttpClientUtils.setInteractiveRetry(Boolean.TRUE.equals(params.postRetryPrompt));
+
         if (params.ini != null) {
             initializeFromIni(params.ini);
         }
@@ -163,8 +196,19 @@ public class IGProcessor extends BaseProcessor {
         }
         IOUtils.resourceDirectories.addAll(resourceDirs);
 
+        if (params.resourceCacheSizeMB != null) {
+            IOUtils.setResourceCacheMaximumSize(params.resourceCacheSizeMB * 1024L * 1024L);
+        }
+
         FhirContext fhirContext = IGProcessor.getIgFhirContext(fhirVersion);
 
+        if (params.persistentCachePath != null && !params.persistentCachePath.isEmpty()) {
+            String cachePath = Utilities.isAbsoluteFileName(params.persistentCachePath)
+                    ? params.persistentCachePath : FilenameUtils.concat(rootDir, params.persistentCachePath);
+            IOUtils.setPersistentResourceCache(new PersistentResourceCache(cachePath, fhirContext.getVersion().getVersion()));
+            setCqlTranslationCache(new CqlTranslationCache(FilenameUtils.concat(cachePath, "cql")));
+        }
+
         IGProcessor.ensure(rootDir, includePatientScenarios, includeTerminology, IOUtils.resourceDirectories);
 
         List<String> refreshedLibraryNames;
@@ -181,6 +225,8 @@ public class IGProcessor extends BaseProcessor {
 
         if (refreshedResourcesNames.isEmpty()) {
             LogUtils.info("No resources successfully refreshed.");
+            LogUtils.info(IOUtils.getResourceCacheSummary());
+            IOUtils.savePersistentResourceCache();
             return;
         }
 
@@ -188,6 +234,9 @@ public class IGProcessor extends BaseProcessor {
             TestCaseProcessor testCaseProcessor = new TestCaseProcessor();
             testCaseProcessor.refreshTestCases(FilenameUtils.concat(rootDir, IGProcessor.testCasePathElement), encoding, fhirContext, refreshedResourcesNames);
         }
+
+        LogUtils.info(IOUtils.getResourceCacheSummary());
+        IOUtils.savePersistentResourceCache();
     }
 
     public static FhirContext getIgFhirContext(String igVersion)
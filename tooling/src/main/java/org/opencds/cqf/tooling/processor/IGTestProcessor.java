@@ -4,13 +4,19 @@ import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.FhirVersionEnum;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.hl7.fhir.Parameters;
 import org.hl7.fhir.ParametersParameter;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.opencds.cqf.tooling.common.BaseCqfmSoftwareSystemHelper;
 import org.opencds.cqf.tooling.common.CqfmSoftwareSystem;
+import org.opencds.cqf.tooling.common.ThreadUtils;
 import org.opencds.cqf.tooling.measure.MeasureTestProcessor;
+import org.opencds.cqf.tooling.measure.adapters.ContentLoadingFhirServerMeasureTestAdapter;
+import org.opencds.cqf.tooling.measure.comparer.MeasureReportComparer;
 import org.opencds.cqf.tooling.parameter.TestIGParameters;
 import org.opencds.cqf.tooling.utilities.*;
 import org.slf4j.Logger;
@@ -18,6 +24,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 
 
@@ -67,6 +74,22 @@ public class IGTestProcessor extends BaseProcessor {
         public String getMessage() { return this.message; }
         public void setMessage(String value) { this.message = value; }
 
+        private double durationMillis;
+        public double getDurationMillis() { return this.durationMillis; }
+        public void setDurationMillis(double value) { this.durationMillis = value; }
+
+        // time spent in each phase of the test (e.g. loading content, evaluating, comparing), by phase
+        private Map<String, Double> phaseMillis = new LinkedHashMap<>();
+        public Map<String, Double> getPhaseMillis() { return this.phaseMillis; }
+
+        // outcome of each comparison (e.g. "PatientId", "Group[group-1].score"), by name
+        private Map<String, Boolean> assertions = new LinkedHashMap<>();
+        public Map<String, Boolean> getAssertions() { return this.assertions; }
+
+        // description of each comparison that failed, by name
+        private Map<String, String> details = new LinkedHashMap<>();
+        public Map<String, String> getDetails() { return this.details; }
+
         @Override
         public String toString() {
             StringBuilder builder = new StringBuilder();
@@ -162,6 +185,9 @@ public class IGTestProcessor extends BaseProcessor {
     @SuppressWarnings("serial")
     public void testIg(TestIGParameters params) {
         fhirContext = params.fhirContext;
+        if (params.threads != null) {
+            ThreadUtils.setParallelism(params.threads);
+        }
 
         if (params.ini != null) {
             initializeFromIni(params.ini);
@@ -170,7 +196,8 @@ public class IGTestProcessor extends BaseProcessor {
             initializeFromIg(params.rootDir, params.igPath, fhirContext.getVersion().toString());
         }
 
-        CqfmSoftwareSystem testTargetSoftwareSystem =  getCqfRulerSoftwareSystem(params.fhirServerUri);
+        // without a FHIR server, test cases are evaluated in process (see CqlEvaluatorMeasureTestAdapter)
+        CqfmSoftwareSystem testTargetSoftwareSystem = params.fhirServerUri == null ? null : getCqfRulerSoftwareSystem(params.fhirServerUri);
 
         logger.info("Running IG test cases...");
 
@@ -189,6 +216,12 @@ public class IGTestProcessor extends BaseProcessor {
         File[] resourceTypeTestGroups = testCasesDirectory.listFiles(file -> file.isDirectory());
         //TODO: How can we validate the set of directories here - that they're actually FHIR resources - and message when they're not. Really it doesn't matter, it can be any grouping so long as it has a corresponding path in /bundles.
 
+        // content bundles, keyed by test artifact directory, when preloaded
+        Map<File, Map.Entry<String, IBaseResource>> contentBundles = new HashMap<>();
+        if (Boolean.TRUE.equals(params.preloadContent) && params.fhirServerUri != null) {
+            contentBundles = preloadContentBundles(resourceTypeTestGroups, params.fhirServerUri);
+        }
+
         for (File group : resourceTypeTestGroups) {
             logger.info("Processing {} test cases...", group.getName());
 
@@ -200,7 +233,9 @@ public class IGTestProcessor extends BaseProcessor {
                 Boolean allTestArtifactTestsPassed = true;
 
                 // Get content bundle
-                Map.Entry<String, IBaseResource> testArtifactContentBundleMap = getContentBundleForTestArtifact(group.getName(), testArtifact.getName());
+                Map.Entry<String, IBaseResource> testArtifactContentBundleMap = contentBundles.containsKey(testArtifact)
+                    ? contentBundles.get(testArtifact)
+                    : getContentBundleForTestArtifact(group.getName(), testArtifact.getName());
 
                 if ((testArtifactContentBundleMap == null) || testArtifactContentBundleMap.getValue() == null) {
                     logger.info("No content bundle found for {}: {}", group.getName(), testArtifact.getName());
@@ -212,34 +247,12 @@ public class IGTestProcessor extends BaseProcessor {
                 List<Map.Entry<String, IBaseResource>> testCasesBundles =
                     BundleUtils.getBundlesInDir(testArtifact.getPath(), fhirContext, false);
 
-                for (Map.Entry<String, IBaseResource> testCaseBundleMapEntry : testCasesBundles) {
-                    IBaseResource testCaseBundle = testCaseBundleMapEntry.getValue();
-                    TestCaseResultSummary testCaseResult  = new TestCaseResultSummary(group.getName(), testArtifact.getName(),
-                        testCaseBundle.getIdElement().toString());
-                    try {
-                        logger.info("Starting processing of test case '{}' for {}: {}", testCaseBundle.getIdElement(), group.getName(), testArtifact.getName());
-                        Parameters testResults = testProcessor.executeTest(testCaseBundle, testArtifactContentBundleMap.getValue(), params.fhirServerUri);
-
-                        Boolean testPassed = false;
-                        for (ParametersParameter param : testResults.getParameter()) {
-                            if (param.getName().getValue().indexOf(MeasureTestProcessor.TestPassedKey) >= 0) {
-                                testPassed = param.getValueBoolean().isValue();
-                                break;
-                            }
-                        }
-                        testCaseResult.setTestPassed(testPassed);
-                        logger.info("Done processing test case '{}' for {}: {}", testCaseBundle.getIdElement(), group.getName(), testArtifact.getName());
-                    } catch (Exception ex) {
-                        testCaseResult.setTestPassed(false);
-                        testCaseResult.setMessage(ex.getMessage());
-                        logger.error("Error: Test case '{}' for {}: {} failed with message: {}", testCaseBundle.getIdElement(), group.getName(), testArtifact.getName(), ex.getMessage());
-                    }
-                    TestResults.add(testCaseResult);
-                }
+                TestResults.addAll(executeTestCases(testProcessor, group.getName(), testArtifact.getName(),
+                    testArtifactContentBundleMap.getValue(), testCasesBundles, params.fhirServerUri));
 
                 logger.info(String.format("  Done processing all test cases for %s: %s", group.getName(), testArtifact.getName()));
 
-                if (allTestArtifactTestsPassed) {
+                if (allTestArtifactTestsPassed && testTargetSoftwareSystem != null) {
                     List<CqfmSoftwareSystem> softwareSystems = new ArrayList<CqfmSoftwareSystem>() {
                         {
                             add(testTargetSoftwareSystem);
@@ -280,6 +293,106 @@ public class IGTestProcessor extends BaseProcessor {
 
         logger.info("{} tests failed", failedTests.size());
         logger.info("{} tests passed", passedTests.size());
+
+        if (params.resultsPath != null) {
+            TestResultsWriter resultsWriter = new TestResultsWriter(TestResults);
+            File resultsDirectory = new File(params.resultsPath);
+            resultsWriter.writeJUnitXml(new File(resultsDirectory, TestResultsWriter.JUNIT_XML_FILE_NAME));
+            resultsWriter.writeJson(new File(resultsDirectory, TestResultsWriter.JSON_FILE_NAME));
+            logger.info("Test results written to {}", resultsDirectory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Runs the test cases of an artifact concurrently on the shared pool of {@link ThreadUtils}, all against the
+     * same content bundle and test processor (so the content is loaded and its logic compiled once per artifact).
+     *
+     * @return The result of each test case, in the order of testCasesBundles
+     */
+    List<TestCaseResultSummary> executeTestCases(ITestProcessor testProcessor, String groupName, String testArtifactName,
+                                                 IBaseResource contentBundle, List<Map.Entry<String, IBaseResource>> testCasesBundles,
+                                                 String fhirServerUri) {
+        TestCaseResultSummary[] results = new TestCaseResultSummary[testCasesBundles.size()];
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < testCasesBundles.size(); i++) {
+            int index = i;
+            IBaseResource testCaseBundle = testCasesBundles.get(i).getValue();
+            tasks.add(() -> {
+                results[index] = executeTestCase(testProcessor, groupName, testArtifactName, contentBundle, testCaseBundle, fhirServerUri);
+                return null;
+            });
+        }
+        ThreadUtils.executeTasks(tasks);
+
+        return Arrays.asList(results);
+    }
+
+    private TestCaseResultSummary executeTestCase(ITestProcessor testProcessor, String groupName, String testArtifactName,
+                                                  IBaseResource contentBundle, IBaseResource testCaseBundle, String fhirServerUri) {
+        TestCaseResultSummary testCaseResult = new TestCaseResultSummary(groupName, testArtifactName,
+            testCaseBundle.getIdElement().toString());
+        long start = System.nanoTime();
+        try {
+            logger.info("Starting processing of test case '{}' for {}: {}", testCaseBundle.getIdElement(), groupName, testArtifactName);
+            Parameters testResults = testProcessor.executeTest(testCaseBundle, contentBundle, fhirServerUri);
+
+            Boolean testPassed = false;
+            for (ParametersParameter param : testResults.getParameter()) {
+                String name = param.getName().getValue();
+                if (name.startsWith(MeasureTestProcessor.TimingKeyPrefix) && param.getValueDecimal() != null) {
+                    testCaseResult.getPhaseMillis().put(name.substring(MeasureTestProcessor.TimingKeyPrefix.length()),
+                        param.getValueDecimal().getValue().doubleValue());
+                } else if (param.getValueString() != null) {
+                    testCaseResult.getDetails().put(StringUtils.removeEnd(name, MeasureReportComparer.DetailSuffix), param.getValueString().getValue());
+                } else if (name.indexOf(MeasureTestProcessor.TestPassedKey) >= 0) {
+                    testPassed = param.getValueBoolean().isValue();
+                } else if (param.getValueBoolean() != null) {
+                    testCaseResult.getAssertions().put(name, param.getValueBoolean().isValue());
+                }
+            }
+            testCaseResult.setTestPassed(testPassed);
+            logger.info("Done processing test case '{}' for {}: {}", testCaseBundle.getIdElement(), groupName, testArtifactName);
+        } catch (Exception ex) {
+            testCaseResult.setTestPassed(false);
+            testCaseResult.setMessage(ex.getMessage());
+            logger.error("Error: Test case '{}' for {}: {} failed with message: {}", testCaseBundle.getIdElement(), groupName, testArtifactName, ex.getMessage());
+        }
+        testCaseResult.setDurationMillis((System.nanoTime() - start) / 1_000_000.0);
+        return testCaseResult;
+    }
+
+    /**
+     * Reads the content bundles of all the test artifacts and loads them to the server in one concurrent pass, so the
+     * test cases only send their patient data.
+     *
+     * @return The content bundles read, keyed by test artifact directory
+     */
+    private Map<File, Map.Entry<String, IBaseResource>> preloadContentBundles(File[] resourceTypeTestGroups, String fhirServerUri) {
+        logger.info("Preloading test content to {}...", fhirServerUri);
+        Map<File, Map.Entry<String, IBaseResource>> contentBundles = new HashMap<>();
+        for (File group : resourceTypeTestGroups) {
+            for (File testArtifact : group.listFiles(file -> file.isDirectory())) {
+                Map.Entry<String, IBaseResource> contentBundle = getContentBundleForTestArtifact(group.getName(), testArtifact.getName());
+                if (contentBundle != null && contentBundle.getValue() != null) {
+                    contentBundles.put(testArtifact, contentBundle);
+                }
+            }
+        }
+
+        IGenericClient fhirClient = fhirContext.newRestfulGenericClient(fhirServerUri);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Map.Entry<String, IBaseResource> contentBundle : contentBundles.values()) {
+            tasks.add(() -> {
+                ContentLoadingFhirServerMeasureTestAdapter.loadContent(fhirClient, (IBaseBundle) contentBundle.getValue());
+                return null;
+            });
+        }
+        // a content bundle that failed to load is loaded again by its first test case
+        ThreadUtils.TaskResults results = ThreadUtils.executeTasks(tasks);
+        logger.info("Done preloading test content: {} bundles loaded, {} failed",
+            results.getTaskCount() - results.getFailures().size(), results.getFailures().size());
+
+        return contentBundles;
     }
 
     private Map.Entry<String, IBaseResource> getContentBundleForTestArtifact(String groupName, String testArtifactName) {
@@ -1,13 +1,19 @@
 package org.opencds.cqf.tooling.processor;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
-import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.opencds.cqf.tooling.parameter.PostBundlesInDirParameters;
+import org.opencds.cqf.tooling.utilities.BatchBundler;
+import org.opencds.cqf.tooling.utilities.BatchUploader;
 import org.opencds.cqf.tooling.utilities.BundleUtils;
 import org.opencds.cqf.tooling.utilities.HttpClientUtils;
+import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
+import org.opencds.cqf.tooling.utilities.RetryPolicy;
+import org.opencds.cqf.tooling.utilities.UploadJournal;
 
 import ca.uhn.fhir.context.FhirContext;
 import org.slf4j.Logger;
@@ -60,17 +66,73 @@ public class PostBundlesInDirProcessor {
         Encoding encoding = params.encoding;
         FhirContext fhirContext = getFhirContext(fhirVersion);
 
-        List<Map.Entry<String, IBaseResource>> resources = BundleUtils.getBundlesInDir(params.directoryPath, fhirContext);
-        resources.forEach(entry -> postBundleToFhirUri(fhirUri, encoding, fhirContext, entry.getValue()));
+        if (params.maxSimultaneousPosts != null) {
+            HttpClientUtils.setMaxSimultaneousPostCount(params.maxSimultaneousPosts);
+        }
+        HttpClientUtils.setGzipRequests(Boolean.TRUE.equals(params.gzip));
+        if (params.maxPostAttempts != null) {
+            HttpClientUtils.setRetryPolicy(new RetryPolicy(params.maxPostAttempts,
+                    RetryPolicy.DEFAULT_INITIAL_DELAY_MILLIS, RetryPolicy.DEFAULT_MAX_DELAY_MILLIS));
+        }
+        HttpClientUtils.setInteractiveRetry(Boolean.TRUE.equals(params.postRetryPrompt));
+
+        if (params.batchType != null) {
+            postInBatches(params, fhirContext);
+            return;
+        }
+
+        String uploadJournalPath = params.uploadJournalPath;
+        try (UploadJournal uploadJournal = uploadJournalPath != null && !uploadJournalPath.isEmpty() ? new UploadJournal(uploadJournalPath) : null) {
+            HttpClientUtils.setUploadJournal(uploadJournal);
+
+            // only the paths are queued: each bundle is read when its post is made
+            List<String> bundlePaths = BundleUtils.getBundlePathsInDir(params.directoryPath, true);
+            bundlePaths.forEach(path -> postBundleToFhirUri(fhirUri, encoding, fhirContext, path));
+
+            // the bundles are only queued above
+            if (HttpClientUtils.hasPostTasksInQueue()) {
+                HttpClientUtils.postTaskCollection();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to use the upload journal " + uploadJournalPath + ": " + e.getMessage(), e);
+        } finally {
+            HttpClientUtils.setUploadJournal(null);
+        }
+    }
+
+    /**
+     * Posts every resource in the directory (loose resources and the entries of oversized bundles) packed into batch
+     * or transaction bundles, and reports the files whose entries failed.
+     */
+    private static void postInBatches(PostBundlesInDirParameters params, FhirContext fhirContext) {
+        if (params.fhirUri == null || params.fhirUri.isEmpty()) {
+            return;
+        }
+        List<String> paths = IOUtils.getFilePaths(params.directoryPath, true).stream()
+                .filter(path -> !path.endsWith(".cql")).collect(Collectors.toList());
+
+        int maxEntries = params.batchMaxEntries != null ? params.batchMaxEntries : BatchBundler.DEFAULT_MAX_ENTRIES;
+        long maxBytes = params.batchMaxSizeKB != null ? params.batchMaxSizeKB * 1024L : BatchBundler.DEFAULT_MAX_BYTES;
+        BatchUploader uploader = new BatchUploader(fhirContext, params.fhirUri, params.encoding, params.batchType, maxEntries, maxBytes);
+        BatchUploader.Result result = uploader.uploadFiles(paths);
+
+        Map<String, Integer> failures = result.getFailures();
+        System.out.println((result.getStatuses().size() - failures.size()) + " of " + result.getStatuses().size()
+                + " entries from " + paths.size() + " files successfully posted.");
+        if (!failures.isEmpty()) {
+            StringBuilder message = new StringBuilder().append(failures.size()).append(" entries failed to post:");
+            failures.forEach((source, status) -> message.append("\n").append(source).append(": HTTP Status ").append(status));
+            System.out.println(message);
+        }
     }
 
-	private static void postBundleToFhirUri(String fhirUri, Encoding encoding, FhirContext fhirContext, IBaseResource bundle) {
+	private static void postBundleToFhirUri(String fhirUri, Encoding encoding, FhirContext fhirContext, String bundlePath) {
         if (fhirUri != null && !fhirUri.equals("")) {  
             try {
-                HttpClientUtils.post(fhirUri, bundle, encoding, fhirContext);
-                logger.info("Resource successfully posted to FHIR server ({}): {}", fhirUri, bundle.getIdElement().getIdPart());
+                HttpClientUtils.post(fhirUri, bundlePath, encoding, fhirContext);
+                logger.info("Resource queued for posting to FHIR server ({}): {}", fhirUri, bundlePath);
             } catch (Exception e) {
-                logger.error("Error occurred for element {}: {}",bundle.getIdElement().getIdPart(), e.getMessage());
+                logger.error("Error occurred for element {}: {}", bundlePath, e.getMessage());
             }  
         }
     }
@@ -0,0 +1,180 @@
+package org.opencds.cqf.tooling.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.opencds.cqf.tooling.processor.IGTestProcessor.TestCaseResultSummary;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Writes the results of {@link IGTestProcessor} in machine-readable form: as JUnit XML (one test suite per test
+ * artifact, e.g. "measure.EXM124"), for CI servers to report, and as a JSON summary with the time spent in each phase
+ * of each test case, to follow trends and find the slowest artifacts.
+ */
+public class TestResultsWriter {
+
+    public static final String JUNIT_XML_FILE_NAME = "test-results.xml";
+    public static final String JSON_FILE_NAME = "test-results.json";
+
+    private final List<TestCaseResultSummary> results;
+
+    public TestResultsWriter(List<TestCaseResultSummary> results) {
+        this.results = results;
+    }
+
+    public void writeJUnitXml(File file) {
+        Map<String, List<TestCaseResultSummary>> suites = getSuites();
+        try (OutputStream stream = Files.newOutputStream(createParentDirectories(file))) {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(stream, StandardCharsets.UTF_8.name());
+            writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+            writer.writeStartElement("testsuites");
+            writeCounts(writer, results);
+            for (Map.Entry<String, List<TestCaseResultSummary>> suite : suites.entrySet()) {
+                writer.writeStartElement("testsuite");
+                writer.writeAttribute("name", suite.getKey());
+                writeCounts(writer, suite.getValue());
+                for (TestCaseResultSummary result : suite.getValue()) {
+                    writeTestCase(writer, suite.getKey(), result);
+                }
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (IOException | XMLStreamException e) {
+            throw new RuntimeException(String.format("Error writing test results to %s", file.getAbsolutePath()), e);
+        }
+    }
+
+    private static void writeCounts(XMLStreamWriter writer, List<TestCaseResultSummary> results) throws XMLStreamException {
+        writer.writeAttribute("tests", Integer.toString(results.size()));
+        writer.writeAttribute("failures", Long.toString(results.stream().filter(TestResultsWriter::isFailure).count()));
+        writer.writeAttribute("errors", Long.toString(results.stream().filter(TestResultsWriter::isError).count()));
+        writer.writeAttribute("time", seconds(results.stream().mapToDouble(TestCaseResultSummary::getDurationMillis).sum()));
+    }
+
+    private static void writeTestCase(XMLStreamWriter writer, String suiteName, TestCaseResultSummary result) throws XMLStreamException {
+        writer.writeStartElement("testcase");
+        writer.writeAttribute("classname", suiteName);
+        writer.writeAttribute("name", result.getTestCaseID());
+        writer.writeAttribute("time", seconds(result.getDurationMillis()));
+        if (!result.getPhaseMillis().isEmpty()) {
+            writer.writeStartElement("properties");
+            for (Map.Entry<String, Double> phase : result.getPhaseMillis().entrySet()) {
+                writer.writeEmptyElement("property");
+                writer.writeAttribute("name", "time." + phase.getKey());
+                writer.writeAttribute("value", seconds(phase.getValue()));
+            }
+            writer.writeEndElement();
+        }
+        if (isError(result)) {
+            writer.writeStartElement("error");
+            writer.writeAttribute("message", result.getMessage());
+            writer.writeEndElement();
+        } else if (isFailure(result)) {
+            writer.writeStartElement("failure");
+            writer.writeAttribute("message", getFailureMessage(result));
+            StringBuilder details = new StringBuilder();
+            result.getDetails().forEach((name, detail) -> details.append(name).append(": ").append(detail).append('\n'));
+            writer.writeCharacters(details.toString());
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    private static String getFailureMessage(TestCaseResultSummary result) {
+        List<String> failed = new ArrayList<>();
+        result.getAssertions().forEach((name, passed) -> {
+            if (!passed) {
+                failed.add(name);
+            }
+        });
+        return failed.isEmpty() ? "Test failed" : "Mismatched " + String.join(", ", failed);
+    }
+
+    public void writeJson(File file) {
+        JsonObject summary = new JsonObject();
+        summary.addProperty("tests", results.size());
+        summary.addProperty("passed", results.stream().filter(result -> Boolean.TRUE.equals(result.getTestPassed())).count());
+        summary.addProperty("failed", results.stream().filter(TestResultsWriter::isFailure).count());
+        summary.addProperty("errors", results.stream().filter(TestResultsWriter::isError).count());
+        summary.addProperty("durationMillis", results.stream().mapToDouble(TestCaseResultSummary::getDurationMillis).sum());
+
+        JsonArray testCases = new JsonArray();
+        for (TestCaseResultSummary result : results) {
+            JsonObject testCase = new JsonObject();
+            testCase.addProperty("resourceTypeGroup", result.getResourceTypeGroup());
+            testCase.addProperty("testArtifactName", result.getTestArtifactName());
+            testCase.addProperty("testCaseID", result.getTestCaseID());
+            testCase.addProperty("passed", result.getTestPassed());
+            if (result.getMessage() != null) {
+                testCase.addProperty("message", result.getMessage());
+            }
+            testCase.addProperty("durationMillis", result.getDurationMillis());
+            JsonObject phases = new JsonObject();
+            result.getPhaseMillis().forEach(phases::addProperty);
+            testCase.add("phaseMillis", phases);
+            JsonObject assertions = new JsonObject();
+            result.getAssertions().forEach(assertions::addProperty);
+            testCase.add("assertions", assertions);
+            JsonObject details = new JsonObject();
+            result.getDetails().forEach(details::addProperty);
+            testCase.add("details", details);
+            testCases.add(testCase);
+        }
+        summary.add("testCases", testCases);
+
+        try (Writer writer = Files.newBufferedWriter(createParentDirectories(file), StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(summary, writer);
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Error writing test results to %s", file.getAbsolutePath()), e);
+        }
+    }
+
+    // Test cases by artifact, in the order of the results
+    private Map<String, List<TestCaseResultSummary>> getSuites() {
+        Map<String, List<TestCaseResultSummary>> suites = new LinkedHashMap<>();
+        for (TestCaseResultSummary result : results) {
+            suites.computeIfAbsent(result.getResourceTypeGroup() + "." + result.getTestArtifactName(), name -> new ArrayList<>())
+                .add(result);
+        }
+        return suites;
+    }
+
+    // A test case that could not be run, as opposed to one whose results did not match
+    private static boolean isError(TestCaseResultSummary result) {
+        return !Boolean.TRUE.equals(result.getTestPassed()) && result.getMessage() != null;
+    }
+
+    private static boolean isFailure(TestCaseResultSummary result) {
+        return !Boolean.TRUE.equals(result.getTestPassed()) && result.getMessage() == null;
+    }
+
+    private static String seconds(double millis) {
+        return String.format(Locale.ROOT, "%.3f", millis / 1000.0);
+    }
+
+    private static Path createParentDirectories(File file) throws IOException {
+        if (file.getParentFile() != null) {
+            Files.createDirectories(file.getParentFile().toPath());
+        }
+        return file.toPath();
+    }
+}
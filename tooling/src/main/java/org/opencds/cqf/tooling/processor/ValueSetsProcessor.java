@@ -6,81 +6,68 @@ import org.opencds.cqf.tooling.cql.exception.CQLTranslatorException;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 import org.opencds.cqf.tooling.utilities.ResourceUtils;
+import org.opencds.cqf.tooling.utilities.ValueSetIndex;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 public class ValueSetsProcessor {
-    private static Map<String, IBaseResource> copyToUrls(List<IBaseResource> valueSets, FhirContext fhirContext) {
-        switch (fhirContext.getVersion().getVersion()) {
-        case DSTU3:
-            return copyToStu3Urls(valueSets, fhirContext);
-        case R4:
-            return copyToR4Urls(valueSets, fhirContext);
-        default:
-            throw new IllegalArgumentException(
-                    "Unknown fhir version: " + fhirContext.getVersion().getVersion().getFhirVersionString());
-        }
-    }
+    private static volatile ValueSetIndex valueSetIndex = null;
 
-    private static Map<String, IBaseResource> copyToStu3Urls(List<IBaseResource> valueSets, FhirContext fhirContext) {
-        Map<String, IBaseResource> valueSetUrls = new HashMap<String, IBaseResource>();
-        for (IBaseResource resource : valueSets) {
-            if (resource instanceof org.hl7.fhir.dstu3.model.ValueSet) {
-                valueSetUrls.putIfAbsent(((org.hl7.fhir.dstu3.model.ValueSet)resource).getUrl(), resource);
-            } else if (resource instanceof org.hl7.fhir.dstu3.model.Bundle) {
-                org.hl7.fhir.dstu3.model.Bundle bundle = (org.hl7.fhir.dstu3.model.Bundle) resource; 
-                for (org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent bundleEntry : bundle.getEntry()) {
-                    org.hl7.fhir.dstu3.model.ValueSet valueSet = (org.hl7.fhir.dstu3.model.ValueSet)bundleEntry.getResource();
-                    valueSetUrls.putIfAbsent((valueSet).getUrl(), valueSet);
+    /**
+     * @return An index of the ValueSets in the terminology paths of the IG, built on first use
+     */
+    public static ValueSetIndex getValueSetIndex(FhirContext fhirContext) {
+        ValueSetIndex index = valueSetIndex;
+        if (index == null) {
+            synchronized (ValueSetsProcessor.class) {
+                index = valueSetIndex;
+                if (index == null) {
+                    index = valueSetIndex = initializeValueSetIndex(fhirContext);
                 }
             }
         }
-        return valueSetUrls;
+        return index;
     }
 
-    private static Map<String, IBaseResource> copyToR4Urls(List<IBaseResource> valueSets, FhirContext fhirContext) {
-        Map<String, IBaseResource> valueSetUrls = new HashMap<String, IBaseResource>();
-        for (IBaseResource resource : valueSets) {
-            if (resource instanceof org.hl7.fhir.r4.model.ValueSet) {
-                valueSetUrls.putIfAbsent(((org.hl7.fhir.r4.model.ValueSet)resource).getUrl(), resource);
-            } else if (resource instanceof org.hl7.fhir.r4.model.Bundle) {
-                org.hl7.fhir.r4.model.Bundle bundle = (org.hl7.fhir.r4.model.Bundle) resource; 
-                for (org.hl7.fhir.r4.model.Bundle.BundleEntryComponent bundleEntry : bundle.getEntry()) {
-                    org.hl7.fhir.r4.model.ValueSet valueSet = (org.hl7.fhir.r4.model.ValueSet)bundleEntry.getResource();
-                    valueSetUrls.putIfAbsent((valueSet).getUrl(), valueSet);
-                }
-            }
-        }
-        return valueSetUrls;
+    public static Map<String, IBaseResource> getCachedValueSets(FhirContext fhirContext) {
+        return getValueSetIndex(fhirContext).getValueSetsByUrl();
     }
 
-    private static Map<String, IBaseResource> cachedValueSets = null;
-    public static Map<String, IBaseResource> getCachedValueSets(FhirContext fhirContext) {
-        if (cachedValueSets == null) {
-            IntitializeCachedValueSets(fhirContext);
+    private static ValueSetIndex initializeValueSetIndex(FhirContext fhirContext) {
+        switch (fhirContext.getVersion().getVersion()) {
+            case DSTU3:
+            case R4:
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown fhir version: " + fhirContext.getVersion().getVersion().getFhirVersionString());
         }
-        return cachedValueSets;
+        List<String> allValueSetPaths = new ArrayList<>(IOUtils.getTerminologyPaths(fhirContext));
+        List<IBaseResource> allValueSets = IOUtils.readResources(allValueSetPaths, fhirContext);
+        return new ValueSetIndex(allValueSets);
     }
 
-    private static void IntitializeCachedValueSets(FhirContext fhirContext) {
-        List<String> allValueSetPaths = IOUtils.getTerminologyPaths(fhirContext).stream().collect(Collectors.toList());
-        List<IBaseResource> allValueSets = IOUtils.readResources(allValueSetPaths, fhirContext); 
-            
-        cachedValueSets = ValueSetsProcessor.copyToUrls(allValueSets, fhirContext);
+    public static void clearCachedValueSets() {
+        valueSetIndex = null;
     }
-    
+
     public static String getId(String baseId) {
         return "valuesets-" + baseId;
     }
 
-    public static void bundleValueSets(String cqlContentPath, String igPath, FhirContext fhirContext,
+    /**
+     * Adds the ValueSets the library (and, if requested, its dependencies) references to the resources.
+     *
+     * @return The ValueSets added, by url
+     */
+    public static Map<String, IBaseResource> bundleValueSets(String cqlContentPath, String igPath, FhirContext fhirContext,
             Map<String, IBaseResource> resources, Encoding encoding, Boolean includeDependencies, Boolean includeVersion) throws CQLTranslatorException {
             Map<String, IBaseResource> dependencies = ResourceUtils.getDepValueSetResources(cqlContentPath, igPath, fhirContext, includeDependencies, includeVersion);
             for (IBaseResource resource : dependencies.values()) {
                 resources.putIfAbsent(resource.getIdElement().getIdPart(), resource);
             }
+            return dependencies;
     }
 }
@@ -21,6 +21,14 @@ public class PostBundlesInDirArgumentProcessor {
     public static final String[] FHIR_VERSION_OPTIONS = {"fv", "fhir-version"};
     public static final String[] ENCODING_OPTIONS = {"e", "encoding"};
     public static final String[] FHIR_URI_OPTIONS = {"fs", "fhir-uri"};
+    public static final String[] MAX_SIMULTANEOUS_POSTS_OPTIONS = {"msp", "max-simultaneous-posts"};
+    public static final String[] GZIP_OPTIONS = {"gz", "gzip"};
+    public static final String[] MAX_POST_ATTEMPTS_OPTIONS = {"mpa", "max-post-attempts"};
+    public static final String[] POST_RETRY_PROMPT_OPTIONS = {"prp", "post-retry-prompt"};
+    public static final String[] UPLOAD_JOURNAL_OPTIONS = {"uj", "upload-journal"};
+    public static final String[] BATCH_OPTIONS = {"b", "batch"};
+    public static final String[] BATCH_MAX_ENTRIES_OPTIONS = {"bme", "batch-max-entries"};
+    public static final String[] BATCH_MAX_SIZE_OPTIONS = {"bms", "batch-max-size"};
 
     @SuppressWarnings("unused")
     public OptionParser build() {
@@ -30,14 +38,28 @@ public class PostBundlesInDirArgumentProcessor {
         OptionSpecBuilder fhirVersionBuilder = parser.acceptsAll(asList(FHIR_VERSION_OPTIONS),"As of now FHIR DSTU3 and R4 are supported");
         OptionSpecBuilder encodingBuilder = parser.acceptsAll(asList(ENCODING_OPTIONS), "If omitted, output will be generated using JSON encoding.");
         OptionSpecBuilder fhirUriBuilder = parser.acceptsAll(asList(FHIR_URI_OPTIONS),"FHIR server.");
+        OptionSpecBuilder maxSimultaneousPostsBuilder = parser.acceptsAll(asList(MAX_SIMULTANEOUS_POSTS_OPTIONS),"Number of bundles posted concurrently. If omitted, 10 are posted at a time.");
+        OptionSpecBuilder batchBuilder = parser.acceptsAll(asList(BATCH_OPTIONS),"If present, every resource in the directory is posted, packed into bundles of the given type (batch or transaction, default batch). Bundles over the limits are split when possible. The upload journal does not apply.");
+        OptionSpecBuilder batchMaxEntriesBuilder = parser.acceptsAll(asList(BATCH_MAX_ENTRIES_OPTIONS),"Maximum number of entries of a bundle posted with -b. If omitted, 100.");
+        OptionSpecBuilder batchMaxSizeBuilder = parser.acceptsAll(asList(BATCH_MAX_SIZE_OPTIONS),"Maximum size (in KB) of a bundle posted with -b. If omitted, 5120.");
+        OptionSpecBuilder uploadJournalBuilder = parser.acceptsAll(asList(UPLOAD_JOURNAL_OPTIONS),"Path of a journal of the bundles posted. Bundles it records as posted to the server with identical content are skipped, so an interrupted run can be resumed. If omitted, every bundle is posted.");
+        OptionSpecBuilder maxPostAttemptsBuilder = parser.acceptsAll(asList(MAX_POST_ATTEMPTS_OPTIONS),"Number of attempts to post a bundle when the server is unavailable (HTTP 429, 502, 503, 504 or I/O errors). If omitted, 5 attempts are made.");
 
         OptionSpec<String> dirPath = dirPathBuilder.withRequiredArg().describedAs("path to directory containing bundle resources");
         OptionSpec<String> fhirVersion = fhirVersionBuilder.withRequiredArg().describedAs("fhir version");
         OptionSpec<String> encoding = encodingBuilder.withOptionalArg().describedAs("encoding for bundle resources"); 
         
         OptionSpec<String> fhirUri = fhirUriBuilder.withRequiredArg().describedAs("uri of fhir server"); 
+        OptionSpec<String> maxSimultaneousPosts = maxSimultaneousPostsBuilder.withOptionalArg().describedAs("number of simultaneous posts");
+        OptionSpec<String> batch = batchBuilder.withOptionalArg().describedAs("bundle type");
+        OptionSpec<String> batchMaxEntries = batchMaxEntriesBuilder.withOptionalArg().describedAs("number of entries");
+        OptionSpec<String> batchMaxSize = batchMaxSizeBuilder.withOptionalArg().describedAs("size in KB");
+        OptionSpec<String> uploadJournal = uploadJournalBuilder.withOptionalArg().describedAs("path of the upload journal");
+        OptionSpec<String> maxPostAttempts = maxPostAttemptsBuilder.withOptionalArg().describedAs("number of attempts");
 
         parser.acceptsAll(asList(OPERATION_OPTIONS),"The operation to run.");
+        parser.acceptsAll(asList(GZIP_OPTIONS),"If present, request bodies are gzip compressed (the server must support Content-Encoding: gzip).");
+        parser.acceptsAll(asList(POST_RETRY_PROMPT_OPTIONS),"If present, asks on the console whether to retry the bundles that failed to post.");
 
         OptionSpec<Void> help = parser.acceptsAll(asList(ArgUtils.HELP_OPTIONS), "Show this help page").forHelp();
 
@@ -54,6 +76,33 @@ public class PostBundlesInDirArgumentProcessor {
         String fhirVersion = (String)options.valueOf(FHIR_VERSION_OPTIONS[0]);
         String outputEncoding = (String)options.valueOf(ENCODING_OPTIONS[0]);
         String fhirUri = (String)options.valueOf(FHIR_URI_OPTIONS[0]);
+        String maxSimultaneousPostsValue = (String)options.valueOf(MAX_SIMULTANEOUS_POSTS_OPTIONS[0]);
+        Integer maxSimultaneousPosts = null;
+        if (maxSimultaneousPostsValue != null) {
+            maxSimultaneousPosts = Integer.parseInt(maxSimultaneousPostsValue);
+        }
+        Boolean gzip = options.has(GZIP_OPTIONS[0]);
+        String maxPostAttemptsValue = (String)options.valueOf(MAX_POST_ATTEMPTS_OPTIONS[0]);
+        Integer maxPostAttempts = null;
+        if (maxPostAttemptsValue != null) {
+            maxPostAttempts = Integer.parseInt(maxPostAttemptsValue);
+        }
+        Boolean postRetryPrompt = options.has(POST_RETRY_PROMPT_OPTIONS[0]);
+        String uploadJournalPath = (String)options.valueOf(UPLOAD_JOURNAL_OPTIONS[0]);
+        String batchType = null;
+        if (options.has(BATCH_OPTIONS[0])) {
+            batchType = options.valueOf(BATCH_OPTIONS[0]) != null ? ((String)options.valueOf(BATCH_OPTIONS[0])).toLowerCase() : "batch";
+        }
+        String batchMaxEntriesValue = (String)options.valueOf(BATCH_MAX_ENTRIES_OPTIONS[0]);
+        Integer batchMaxEntries = null;
+        if (batchMaxEntriesValue != null) {
+            batchMaxEntries = Integer.parseInt(batchMaxEntriesValue);
+        }
+        String batchMaxSizeValue = (String)options.valueOf(BATCH_MAX_SIZE_OPTIONS[0]);
+        Integer batchMaxSizeKB = null;
+        if (batchMaxSizeValue != null) {
+            batchMaxSizeKB = Integer.parseInt(batchMaxSizeValue);
+        }
         Encoding outputEncodingEnum = Encoding.JSON;
         if (outputEncoding != null) {
             outputEncodingEnum = Encoding.parse(outputEncoding.toLowerCase());
@@ -64,6 +113,14 @@ public class PostBundlesInDirArgumentProcessor {
         pbp.fhirVersion = FHIRVersion.parse(fhirVersion);
         pbp.encoding = outputEncodingEnum;
         pbp.fhirUri = fhirUri;
+        pbp.maxSimultaneousPosts = maxSimultaneousPosts;
+        pbp.gzip = gzip;
+        pbp.maxPostAttempts = maxPostAttempts;
+        pbp.postRetryPrompt = postRetryPrompt;
+        pbp.uploadJournalPath = uploadJournalPath;
+        pbp.batchType = batchType;
+        pbp.batchMaxEntries = batchMaxEntries;
+        pbp.batchMaxSizeKB = batchMaxSizeKB;
        
         return pbp;
     }
@@ -38,6 +38,15 @@ public class RefreshIGArgumentProcessor {
     public static final String[] MEASURE_OUTPUT_PATH_OPTIONS = {"measureOutput", "measureOutputPath", "mop"};
     public static final String[] SHOULD_APPLY_SOFTWARE_SYSTEM_STAMP_OPTIONS = { "ss", "stamp" };
     public static final String[] SHOULD_ADD_TIMESTAMP_OPTIONS = { "ts", "timestamp" };
+    public static final String[] RESOURCE_CACHE_SIZE_OPTIONS = { "rcs", "resource-cache-size" };
+    public static final String[] PERSISTENT_CACHE_PATH_OPTIONS = { "pcp", "persistent-cache-path" };
+    public static final String[] CQL_TRANSLATION_THREADS_OPTIONS = { "ctt", "cql-translation-threads" };
+    public static final String[] THREADS_OPTIONS = { "threads" };
+    public static final String[] MAX_SIMULTANEOUS_POSTS_OPTIONS = { "msp", "max-simultaneous-posts" };
+    public static final String[] GZIP_OPTIONS = { "gz", "gzip" };
+    public static final String[] MAX_POST_ATTEMPTS_OPTIONS = { "mpa", "max-post-attempts" };
+    public static final String[] POST_RETRY_PROMPT_OPTIONS = { "prp", "post-retry-prompt" };
+    public static final String[] UPLOAD_JOURNAL_OPTIONS = { "uj", "upload-journal" };
 
     @SuppressWarnings("unused")
     public OptionParser build() {
@@ -55,6 +64,13 @@ public class RefreshIGArgumentProcessor {
         OptionSpecBuilder measureOutputPathBuilder = parser.acceptsAll(asList(MEASURE_OUTPUT_PATH_OPTIONS),"If omitted, the measures will overwrite any existing measures");
         OptionSpecBuilder shouldApplySoftwareSystemStampBuilder = parser.acceptsAll(asList(SHOULD_APPLY_SOFTWARE_SYSTEM_STAMP_OPTIONS),"Indicates whether refreshed Measure and Library resources should be stamped with the 'cqf-tooling' stamp via the cqfm-softwaresystem Extension.");
         OptionSpecBuilder shouldAddTimestampBuilder = parser.acceptsAll(asList(SHOULD_ADD_TIMESTAMP_OPTIONS),"Indicates whether refreshed Bundle should attach timestamp of creation.");
+        OptionSpecBuilder persistentCachePathBuilder = parser.acceptsAll(asList(PERSISTENT_CACHE_PATH_OPTIONS),"Directory, relative to the root directory, of a cache of resource headers, dependencies and CQL translations reused across runs (e.g. temp/cqf-tooling-cache). If omitted, no persistent cache is used.");
+        OptionSpecBuilder cqlTranslationThreadsBuilder = parser.acceptsAll(asList(CQL_TRANSLATION_THREADS_OPTIONS),"Number of CQL files translated concurrently, in include order. If omitted, CQL is translated sequentially.");
+        OptionSpecBuilder threadsBuilder = parser.acceptsAll(asList(THREADS_OPTIONS),"Number of threads used to bundle resources (shared by nested tasks). If omitted, the number of available processors is used.");
+        OptionSpecBuilder maxSimultaneousPostsBuilder = parser.acceptsAll(asList(MAX_SIMULTANEOUS_POSTS_OPTIONS),"Number of bundles posted concurrently to the FHIR server given with -fs. If omitted, 10 are posted at a time.");
+        OptionSpecBuilder uploadJournalBuilder = parser.acceptsAll(asList(UPLOAD_JOURNAL_OPTIONS),"Path, relative to the root directory, of a journal of the bundles posted to the FHIR server given with -fs. Bundles it records as posted with identical content are skipped, so an interrupted run can be resumed. If omitted, every bundle is posted.");
+        OptionSpecBuilder maxPostAttemptsBuilder = parser.acceptsAll(asList(MAX_POST_ATTEMPTS_OPTIONS),"Number of attempts to post a bundle when the FHIR server is unavailable (HTTP 429, 502, 503, 504 or I/O errors). If omitted, 5 attempts are made.");
+        OptionSpecBuilder resourceCacheSizeBuilder = parser.acceptsAll(asList(RESOURCE_CACHE_SIZE_OPTIONS),"Estimated maximum memory (in MB) used to cache parsed resources. If omitted, a quarter of the maximum heap is used.");
 
         OptionSpec<String> ini = iniBuilder.withRequiredArg().describedAs("Path to the IG ini file");
         OptionSpec<String> rootDir = rootDirBuilder.withOptionalArg().describedAs("Root directory of the IG");
@@ -67,6 +83,13 @@ public class RefreshIGArgumentProcessor {
         OptionSpec<String> measureOutputPath = measureOutputPathBuilder.withOptionalArg().describedAs("path to the output directory for updated measures");
         OptionSpec<String> shouldApplySoftwareSystemStamp = shouldApplySoftwareSystemStampBuilder.withOptionalArg().describedAs("Indicates whether refreshed Measure and Library resources should be stamped with the 'cqf-tooling' stamp via the cqfm-softwaresystem Extension");
         OptionSpec<String> shouldAddTimestampOptions = shouldAddTimestampBuilder.withOptionalArg().describedAs("Indicates whether refreshed Bundle should attach timestamp of creation");
+        OptionSpec<String> persistentCachePath = persistentCachePathBuilder.withOptionalArg().describedAs("directory of the persistent resource cache");
+        OptionSpec<String> cqlTranslationThreads = cqlTranslationThreadsBuilder.withOptionalArg().describedAs("number of CQL translation threads");
+        OptionSpec<String> threads = threadsBuilder.withOptionalArg().describedAs("number of threads");
+        OptionSpec<String> maxSimultaneousPosts = maxSimultaneousPostsBuilder.withOptionalArg().describedAs("number of simultaneous posts");
+        OptionSpec<String> uploadJournal = uploadJournalBuilder.withOptionalArg().describedAs("path of the upload journal");
+        OptionSpec<String> maxPostAttempts = maxPostAttemptsBuilder.withOptionalArg().describedAs("number of attempts");
+        OptionSpec<String> resourceCacheSize = resourceCacheSizeBuilder.withOptionalArg().describedAs("maximum size of the parsed resource cache in MB");
 
         //TODO: FHIR user / password (and other auth options)
         OptionSpec<String> fhirUri = fhirUriBuilder.withOptionalArg().describedAs("uri of fhir server");  
@@ -78,6 +101,8 @@ public class RefreshIGArgumentProcessor {
         parser.acceptsAll(asList(INCLUDE_TERMINOLOGY_OPTIONS),"If omitted terminology will not be packaged.");
         parser.acceptsAll(asList(INCLUDE_PATIENT_SCENARIOS_OPTIONS),"If omitted patient scenario information will not be packaged.");
         parser.acceptsAll(asList(VERSIONED_OPTIONS),"If omitted resources must be uniquely named.");
+        parser.acceptsAll(asList(GZIP_OPTIONS),"If present, bundles posted to the FHIR server are gzip compressed (the server must support Content-Encoding: gzip).");
+        parser.acceptsAll(asList(POST_RETRY_PROMPT_OPTIONS),"If present, asks on the console whether to retry the bundles that failed to post to the FHIR server.");
 
         OptionSpec<Void> help = parser.acceptsAll(asList(ArgUtils.HELP_OPTIONS), "Show this help page").forHelp();
 
@@ -143,6 +168,40 @@ public class RefreshIGArgumentProcessor {
             addBundleTimestamp = true;
         }
 
+        Integer resourceCacheSizeMB = null;
+        String resourceCacheSizeValue = (String)options.valueOf(RESOURCE_CACHE_SIZE_OPTIONS[0]);
+        if (resourceCacheSizeValue != null) {
+            resourceCacheSizeMB = Integer.parseInt(resourceCacheSizeValue);
+        }
+
+        String persistentCachePath = (String)options.valueOf(PERSISTENT_CACHE_PATH_OPTIONS[0]);
+
+        Integer cqlTranslationThreads = null;
+        String cqlTranslationThreadsValue = (String)options.valueOf(CQL_TRANSLATION_THREADS_OPTIONS[0]);
+        if (cqlTranslationThreadsValue != null) {
+            cqlTranslationThreads = Integer.parseInt(cqlTranslationThreadsValue);
+        }
+
+        Integer threads = null;
+        String threadsValue = (String)options.valueOf(THREADS_OPTIONS[0]);
+        if (threadsValue != null) {
+            threads = Integer.parseInt(threadsValue);
+        }
+
+        Integer maxSimultaneousPosts = null;
+        String maxSimultaneousPostsValue = (String)options.valueOf(MAX_SIMULTANEOUS_POSTS_OPTIONS[0]);
+        if (maxSimultaneousPostsValue != null) {
+            maxSimultaneousPosts = Integer.parseInt(maxSimultaneousPostsValue);
+        }
+        Boolean gzip = options.has(GZIP_OPTIONS[0]);
+        Integer maxPostAttempts = null;
+        String maxPostAttemptsValue = (String)options.valueOf(MAX_POST_ATTEMPTS_OPTIONS[0]);
+        if (maxPostAttemptsValue != null) {
+            maxPostAttempts = Integer.parseInt(maxPostAttemptsValue);
+        }
+        Boolean postRetryPrompt = options.has(POST_RETRY_PROMPT_OPTIONS[0]);
+        String uploadJournalPath = (String)options.valueOf(UPLOAD_JOURNAL_OPTIONS[0]);
+
         ArrayList<String> paths = new ArrayList<String>();
         if (resourcePaths != null && !resourcePaths.isEmpty()) {
             paths.addAll(resourcePaths);
@@ -170,6 +229,15 @@ public class RefreshIGArgumentProcessor {
         ip.measureToRefreshPath = measureToRefreshPath;
         ip.libraryOutputPath = libraryOutputPath;
         ip.measureOutputPath = measureOutputPath;
+        ip.resourceCacheSizeMB = resourceCacheSizeMB;
+        ip.persistentCachePath = persistentCachePath;
+        ip.cqlTranslationThreads = cqlTranslationThreads;
+        ip.threads = threads;
+        ip.maxSimultaneousPosts = maxSimultaneousPosts;
+        ip.gzip = gzip;
+        ip.maxPostAttempts = maxPostAttempts;
+        ip.postRetryPrompt = postRetryPrompt;
+        ip.uploadJournalPath = uploadJournalPath;
        
         return ip;
     }
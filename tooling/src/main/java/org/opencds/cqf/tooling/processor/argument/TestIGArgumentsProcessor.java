@@ -6,6 +6,7 @@ import joptsimple.OptionSpec;
 import joptsimple.OptionSpecBuilder;
 import org.opencds.cqf.tooling.parameter.TestIGParameters;
 import org.opencds.cqf.tooling.processor.IGProcessor;
+import org.opencds.cqf.tooling.processor.TestResultsWriter;
 import org.opencds.cqf.tooling.utilities.ArgUtils;
 
 import static java.util.Arrays.asList;
@@ -22,6 +23,9 @@ public class TestIGArgumentsProcessor {
     public static final String[] FHIR_VERSION_OPTIONS = {"fv", "fhir-version"};
     public static final String[] TEST_CASES_PATH_OPTIONS = {"tests", "testsPath", "testCasesPath", "tp", "tcp"};
     public static final String[] FHIR_URI_OPTIONS = {"fs", "fhir-uri"};
+    public static final String[] THREADS_OPTIONS = {"threads"};
+    public static final String[] PRELOAD_CONTENT_OPTIONS = {"pc", "preload-content"};
+    public static final String[] RESULTS_PATH_OPTIONS = {"rp", "results-path"};
 
     @SuppressWarnings("unused")
     public OptionParser build() {
@@ -33,7 +37,10 @@ public class TestIGArgumentsProcessor {
 //        OptionSpecBuilder igCanonicalBaseBuilder = parser.acceptsAll(asList(IG_CANONICAL_BASE),"resource canonical base");
         OptionSpecBuilder fhirVersionBuilder = parser.acceptsAll(asList(FHIR_VERSION_OPTIONS),"Limited to a single version of FHIR.");
         OptionSpecBuilder testCasesPathBuilder = parser.acceptsAll(asList(TEST_CASES_PATH_OPTIONS),"Path to test cases");
-        OptionSpecBuilder fhirUriBuilder = parser.acceptsAll(asList(FHIR_URI_OPTIONS),"If omitted the final bundle will not be loaded to a FHIR server.");
+        OptionSpecBuilder fhirUriBuilder = parser.acceptsAll(asList(FHIR_URI_OPTIONS),"If omitted the test cases are evaluated in process with the CQL engine.");
+        OptionSpecBuilder preloadContentBuilder = parser.acceptsAll(asList(PRELOAD_CONTENT_OPTIONS),"Load the content bundles of all the test artifacts to the FHIR server, concurrently, before running the test cases.");
+        OptionSpecBuilder resultsPathBuilder = parser.acceptsAll(asList(RESULTS_PATH_OPTIONS),"Directory to write the test results to, as JUnit XML (" + TestResultsWriter.JUNIT_XML_FILE_NAME + ") and JSON (" + TestResultsWriter.JSON_FILE_NAME + ").");
+        OptionSpecBuilder threadsBuilder = parser.acceptsAll(asList(THREADS_OPTIONS),"Number of test cases of an artifact run concurrently. If omitted, the number of available processors is used.");
 
         OptionSpec<String> ini = iniBuilder.withOptionalArg().describedAs("IG ini file");
         OptionSpec<String> rootDir = rootDirBuilder.withOptionalArg().describedAs("Root directory of the IG");
@@ -42,6 +49,8 @@ public class TestIGArgumentsProcessor {
         OptionSpec<String> fhirVersion = fhirVersionBuilder.withOptionalArg().describedAs("fhir version");
         OptionSpec<String> testCasesPath = testCasesPathBuilder.withRequiredArg().describedAs("path to the test cases");
         OptionSpec<String> fhirServerUri = fhirUriBuilder.withRequiredArg().describedAs("uri for fhir server to test on");
+        OptionSpec<String> resultsPath = resultsPathBuilder.withRequiredArg().describedAs("path to the test results directory");
+        OptionSpec<String> threads = threadsBuilder.withRequiredArg().describedAs("number of threads");
 
         parser.acceptsAll(asList(OPERATION_OPTIONS),"The operation to run.");
 
@@ -64,6 +73,15 @@ public class TestIGArgumentsProcessor {
         String testCasesPath = (String)options.valueOf(TEST_CASES_PATH_OPTIONS[0]);
         String fhirServerUri = (String)options.valueOf(FHIR_URI_OPTIONS[0]);
 
+        Boolean preloadContent = options.has(PRELOAD_CONTENT_OPTIONS[0]);
+        String resultsPath = (String)options.valueOf(RESULTS_PATH_OPTIONS[0]);
+
+        Integer threads = null;
+        String threadsValue = (String)options.valueOf(THREADS_OPTIONS[0]);
+        if (threadsValue != null) {
+            threads = Integer.parseInt(threadsValue);
+        }
+
         TestIGParameters ip = new TestIGParameters();
         ip.ini = ini;
         ip.rootDir = rootDir;
@@ -71,6 +89,9 @@ public class TestIGArgumentsProcessor {
 //        ip.igCanonicalBase = igCanonicalBase;
         ip.testCasesPath = testCasesPath;
         ip.fhirServerUri = fhirServerUri;
+        ip.threads = threads;
+        ip.preloadContent = preloadContent;
+        ip.resultsPath = resultsPath;
         ip.fhirContext = IGProcessor.getIgFhirContext(fhirVersion);
 
         return ip;
@@ -2,11 +2,16 @@ package org.opencds.cqf.tooling.terminology;
 
 import java.io.File;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.BooleanType;
@@ -16,11 +21,15 @@ import org.hl7.fhir.r4.model.MarkdownType;
 import org.hl7.fhir.r4.model.StringType;
 import org.hl7.fhir.r4.model.ValueSet;
 import org.opencds.cqf.tooling.Operation;
+import org.opencds.cqf.tooling.terminology.expansion.LocalValueSetExpander;
 import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import ca.uhn.fhir.context.FhirContext;
 
 public class EnsureExecutableValueSetOperation extends Operation {
+    private static final Logger logger = LoggerFactory.getLogger(EnsureExecutableValueSetOperation.class);
     private static final String USAGE_WARNING = "CAUTION: The compose element in this ValueSet resource was inferred from the expansion element. It is NOT an authoritative definition of the value set and is provided only for convenience for systems that assume a compose will be present.";
     private String valueSetPath;
     private String encoding = IOUtils.Encoding.JSON.toString();
@@ -29,6 +38,8 @@ public class EnsureExecutableValueSetOperation extends Operation {
     private boolean ensureComputable = false;
     private boolean force = false;
     private boolean skipVersion = false;
+    private String codeSystemPath;
+    private LocalValueSetExpander localExpander;
     private FhirContext fhirContext;
 
     public FhirContext getFhirContext() {
@@ -67,6 +78,7 @@ public class EnsureExecutableValueSetOperation extends Operation {
                 case "declarecpg": case "cpg": declareCPGProfiles = value.toLowerCase().equals("true") ? true : false; break;
                 case "force": case "f": force = value.toLowerCase().equals("true") ? true : false; break;
                 case "skipversion": case "sv": skipVersion = value.toLowerCase().equals("true") ? true : false; break;
+                case "codesystempath": case "csp": codeSystemPath = value; break; // -codesystempath (-csp)
                 default: throw new IllegalArgumentException("Unknown flag: " + flag);
             }
             if (null == getOutputPath() || getOutputPath().equals("")) {
@@ -78,6 +90,13 @@ public class EnsureExecutableValueSetOperation extends Operation {
             throw new IllegalArgumentException("The path to the value set directory is required");
         }
 
+        if (codeSystemPath != null) {
+            // ValueSets beyond simple enumerations are expanded against the CodeSystems (and the other ValueSets) of the IG
+            List<IBaseResource> terminology = new ArrayList<>(IOUtils.readResources(IOUtils.getFilePaths(codeSystemPath, true), getFhirContext()));
+            terminology.addAll(IOUtils.readResources(IOUtils.getFilePaths(valueSetPath, false), getFhirContext()));
+            setLocalExpander(new LocalValueSetExpander(terminology));
+        }
+
         for (File file : new File(valueSetPath).listFiles()) {
             if (file.getName().endsWith(".json") || file.getName().endsWith(".xml")) {
                 IBaseResource resource = IOUtils.readResource(file.getAbsolutePath(), getFhirContext());
@@ -91,8 +110,21 @@ public class EnsureExecutableValueSetOperation extends Operation {
         }
     }
 
+    public void setLocalExpander(LocalValueSetExpander localExpander) {
+        this.localExpander = localExpander;
+    }
+
     public boolean refreshExpansion(ValueSet valueSet) {
-        if (hasSimpleCompose(valueSet) && (!valueSet.hasExpansion() || force)) {
+        boolean simpleCompose = hasSimpleCompose(valueSet);
+        ValueSet.ValueSetExpansionComponent localExpansion = null;
+        if (!simpleCompose && localExpander != null && valueSet.hasCompose() && (!valueSet.hasExpansion() || force)) {
+            try {
+                localExpansion = localExpander.expand(valueSet);
+            } catch (IllegalArgumentException e) {
+                logger.info("ValueSet {} can not be expanded locally: {}", valueSet.getUrl(), e.getMessage());
+            }
+        }
+        if ((simpleCompose || localExpansion != null) && (!valueSet.hasExpansion() || force)) {
             ValueSet.ValueSetExpansionComponent expansion = new ValueSet.ValueSetExpansionComponent();
             expansion.setTimestamp(Date.from(Instant.now()));
 
@@ -104,13 +136,18 @@ public class EnsureExecutableValueSetOperation extends Operation {
             expansionParameters.add(parameterNaive);
             expansion.setParameter(expansionParameters);
 
-            for (ValueSet.ConceptSetComponent csc : valueSet.getCompose().getInclude()) {
-                for (ValueSet.ConceptReferenceComponent crc : csc.getConcept()) {
-                    expansion.addContains()
-                            .setCode(crc.getCode())
-                            .setSystem(csc.getSystem())
-                            .setVersion(csc.getVersion())
-                            .setDisplay(crc.getDisplay());
+            if (localExpansion != null) {
+                expansion.setTotal(localExpansion.getTotal());
+                expansion.setContains(localExpansion.getContains());
+            } else {
+                for (ValueSet.ConceptSetComponent csc : valueSet.getCompose().getInclude()) {
+                    for (ValueSet.ConceptReferenceComponent crc : csc.getConcept()) {
+                        expansion.addContains()
+                                .setCode(crc.getCode())
+                                .setSystem(csc.getSystem())
+                                .setVersion(csc.getVersion())
+                                .setDisplay(crc.getDisplay());
+                    }
                 }
             }
             valueSet.setExpansion(expansion);
@@ -159,13 +196,16 @@ public class EnsureExecutableValueSetOperation extends Operation {
     public boolean inferCompose(ValueSet valueSet) {
         if (valueSet.hasExpansion() && (!valueSet.hasCompose() || force)) {
             int total = valueSet.getExpansion().hasTotal() ? valueSet.getExpansion().getTotal() : -1;
-            int count = 0;
+            Set<String> members = new HashSet<>();
 
-            // Index the expansion contains by code system and version
+            // Index the expansion contains (nested ones included) by code system and version
             HashMap<String, Map<String, ValueSet.ValueSetExpansionContainsComponent>> codesBySystem = new HashMap<String, Map<String, ValueSet.ValueSetExpansionContainsComponent>>();
-            for (ValueSet.ValueSetExpansionContainsComponent contains : valueSet.getExpansion().getContains()) {
-                count++;
+            Deque<ValueSet.ValueSetExpansionContainsComponent> queue = new ArrayDeque<>(valueSet.getExpansion().getContains());
+            while (!queue.isEmpty()) {
+                ValueSet.ValueSetExpansionContainsComponent contains = queue.poll();
+                queue.addAll(contains.getContains());
                 if (contains.hasCode() && contains.hasSystem()) {
+                    members.add(contains.getSystem() + "|" + contains.getCode());
                     String scr = getSystemCanonicalReference(contains.getSystem(), !skipVersion ? contains.getVersion() : null);
                     Map<String, ValueSet.ValueSetExpansionContainsComponent> concepts = codesBySystem.get(scr);
                     if (concepts == null) {
@@ -178,8 +218,8 @@ public class EnsureExecutableValueSetOperation extends Operation {
                 }
             }
 
-            // Validate that we're dealing with a complete expansion
-            if (count < total) {
+            // Validate that we're dealing with a complete expansion: the distinct codes must account for the total
+            if (members.size() < total) {
                 throw new IllegalArgumentException("Compose cannot be inferred from a partial expansion");
             }
 
@@ -8,6 +8,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -118,6 +119,13 @@ public abstract class FlatMultiValueSetGeneratorBase extends Operation {
         processWorkbook(workbook);
     }
 
+    /**
+     * @return the ValueSets loaded from the spreadsheet
+     */
+    public Collection<ValueSet> getValueSets() {
+        return valueSets.values();
+    }
+
     protected void processWorkbook(Workbook workbook)
     {
         if (codeSheetNum != -1) {
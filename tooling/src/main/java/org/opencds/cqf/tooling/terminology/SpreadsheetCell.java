@@ -0,0 +1,43 @@
+package org.opencds.cqf.tooling.terminology;
+
+/**
+ * A cell read by the {@link StreamingSpreadsheetReader}: its column and its value, formatted the way
+ * {@link org.apache.poi.ss.usermodel.DataFormatter} formats the corresponding POI cell. A cell present in the sheet
+ * without a value (e.g. one that is only styled) is blank, with an empty value, as POI's BLANK cells.
+ */
+public class SpreadsheetCell {
+    private final int columnIndex;
+    private final String formattedValue;
+    private final boolean blank;
+
+    public SpreadsheetCell(int columnIndex, String formattedValue) {
+        this(columnIndex, formattedValue, false);
+    }
+
+    private SpreadsheetCell(int columnIndex, String formattedValue, boolean blank) {
+        this.columnIndex = columnIndex;
+        this.formattedValue = formattedValue;
+        this.blank = blank;
+    }
+
+    public static SpreadsheetCell blank(int columnIndex) {
+        return new SpreadsheetCell(columnIndex, "", true);
+    }
+
+    public int getColumnIndex() {
+        return columnIndex;
+    }
+
+    public String getFormattedValue() {
+        return formattedValue;
+    }
+
+    public boolean isBlank() {
+        return blank;
+    }
+
+    @Override
+    public String toString() {
+        return formattedValue;
+    }
+}
@@ -27,6 +27,14 @@ public class SpreadsheetHelper {
         }
     }
 
+    /**
+     * Opens the spreadsheet for reading row by row, without loading the whole workbook (see
+     * {@link StreamingSpreadsheetReader}). The reader should be closed when done.
+     */
+    public static StreamingSpreadsheetReader getStreamingReader(String pathToSpreadsheet) {
+        return new StreamingSpreadsheetReader(pathToSpreadsheet);
+    }
+
     private static String cleanseString(String rawValue) {
         StringBuilder newString = new StringBuilder(rawValue.length());
         for (int offset = 0; offset < rawValue.length();)
@@ -96,12 +104,10 @@ public class SpreadsheetHelper {
         return result;
     }
 
-    private static DataFormatter dataFormatter;
+    // DataFormatter is not thread-safe, and spreadsheets may be read concurrently (e.g. VSACBatchValueSetGenerator)
+    private static final ThreadLocal<DataFormatter> dataFormatter = ThreadLocal.withInitial(DataFormatter::new);
     public static DataFormatter getDataFormatter() {
-        if (dataFormatter == null) {
-            dataFormatter = new DataFormatter();
-        }
-        return dataFormatter;
+        return dataFormatter.get();
     }
 
     public static String getCellAsString(Cell cell) {
@@ -120,6 +126,20 @@ public class SpreadsheetHelper {
         return SpreadsheetHelper.protectedString(valueAsString, false);
     }
 
+    public static String getCellAsString(SpreadsheetCell cell) {
+        if (cell == null) {
+            return null;
+        }
+        return SpreadsheetHelper.protectedString(cell.getFormattedValue(), true);
+    }
+
+    public static String getCellAsStringNoReplacement(SpreadsheetCell cell) {
+        if (cell == null) {
+            return null;
+        }
+        return SpreadsheetHelper.protectedString(cell.getFormattedValue(), false);
+    }
+
     public static Integer getCellAsInteger(Cell cell) {
         if (cell == null) {
             return null;
@@ -137,6 +157,16 @@ public class SpreadsheetHelper {
         return null;
     }
 
+    public static String getCellAsString(SpreadsheetRow row, int cellIndex) {
+        if (cellIndex >= 0) {
+            SpreadsheetCell cell = row.getCell(cellIndex);
+            if (cell != null && !cell.isBlank()) {
+                return getCellAsString(cell);
+            }
+        }
+        return null;
+    }
+
     //name.matches('[A-Z]([A-Za-z0-9_]){0,254}')
     public static String getFHIRName(String value) {
         String name = value.replaceAll("[^A-Za-z0-9_]", "");
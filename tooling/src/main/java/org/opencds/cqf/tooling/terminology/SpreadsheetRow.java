@@ -0,0 +1,69 @@
+package org.opencds.cqf.tooling.terminology;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A row read by the {@link StreamingSpreadsheetReader}. Like a POI row, it holds only the cells present in the sheet
+ * (including blank ones), in column order, and {@link #getCell(int)} returns null for a missing cell, so row logic
+ * written against {@link org.apache.poi.ss.usermodel.Row} and {@link SpreadsheetHelper#getCellAsString} carries over
+ * unchanged.
+ */
+public class SpreadsheetRow implements Iterable<SpreadsheetCell> {
+    private final int rowNum;
+    private final List<SpreadsheetCell> cells = new ArrayList<>();
+
+    public SpreadsheetRow(int rowNum) {
+        this.rowNum = rowNum;
+    }
+
+    void addCell(SpreadsheetCell cell) {
+        cells.add(cell);
+    }
+
+    /**
+     * @return the 0-based index of the row in the sheet
+     */
+    public int getRowNum() {
+        return rowNum;
+    }
+
+    /**
+     * @return the cell at the 0-based column index, or null if the row has no cell there
+     */
+    public SpreadsheetCell getCell(int columnIndex) {
+        // Cells are added in column order
+        int low = 0;
+        int high = cells.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int column = cells.get(middle).getColumnIndex();
+            if (column < columnIndex) {
+                low = middle + 1;
+            } else if (column > columnIndex) {
+                high = middle - 1;
+            } else {
+                return cells.get(middle);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return one more than the index of the last cell in the row (as POI's getLastCellNum), or -1 for an empty row
+     */
+    public int getLastCellNum() {
+        return cells.isEmpty() ? -1 : cells.get(cells.size() - 1).getColumnIndex() + 1;
+    }
+
+    public int getPhysicalNumberOfCells() {
+        return cells.size();
+    }
+
+    @Override
+    public Iterator<SpreadsheetCell> iterator() {
+        return Collections.unmodifiableList(cells).iterator();
+    }
+}
@@ -0,0 +1,209 @@
+package org.opencds.cqf.tooling.terminology;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Reads the rows of an .xlsx spreadsheet one at a time with POI's event (SAX) API, rather than loading the whole
+ * workbook as {@link SpreadsheetHelper#getWorkbook(String)} does. Only the shared strings and styles are held in
+ * memory; each sheet is parsed from the package when its rows are requested, and a row is only kept for as long as the
+ * caller keeps it.
+ * <p>
+ * Cell values are formatted by a {@link DataFormatter} using the cell's style, and formula cells give their formula,
+ * as {@link SpreadsheetHelper#getCellAsString(org.apache.poi.ss.usermodel.Cell)} does for a loaded workbook.
+ */
+public class StreamingSpreadsheetReader implements Closeable {
+    private final OPCPackage spreadsheetPackage;
+    private final XSSFReader reader;
+    private final ReadOnlySharedStringsTable sharedStrings;
+    private final StylesTable styles;
+    private final DataFormatter dataFormatter = new DataFormatter();
+    private final List<String> sheetNames = new ArrayList<>();
+
+    public StreamingSpreadsheetReader(String pathToSpreadsheet) {
+        OPCPackage opened = null;
+        try {
+            opened = OPCPackage.open(pathToSpreadsheet, PackageAccess.READ);
+            reader = new XSSFReader(opened);
+            sharedStrings = new ReadOnlySharedStringsTable(opened);
+            styles = reader.getStylesTable();
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                sheets.next().close();
+                sheetNames.add(sheets.getSheetName());
+            }
+            spreadsheetPackage = opened;
+        } catch (IOException | OpenXML4JException | SAXException | RuntimeException e) {
+            if (opened != null) {
+                opened.revert();
+            }
+            throw new IllegalArgumentException("Error reading the spreadsheet: " + e.getMessage());
+        }
+    }
+
+    public List<String> getSheetNames() {
+        return Collections.unmodifiableList(sheetNames);
+    }
+
+    /**
+     * Passes each row of the sheet with the given (0-based) index to the consumer, in order.
+     * Exceptions thrown by the consumer are propagated.
+     */
+    public void forEachRow(int sheetIndex, Consumer<SpreadsheetRow> consumer) {
+        if (sheetIndex < 0 || sheetIndex >= sheetNames.size()) {
+            throw new IllegalArgumentException(String.format("The spreadsheet has no sheet %d", sheetIndex));
+        }
+        try {
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            for (int i = 0; i < sheetIndex; i++) {
+                sheets.next().close();
+            }
+            try (InputStream sheet = sheets.next()) {
+                parseSheet(sheet, consumer);
+            }
+        } catch (IOException | OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IllegalArgumentException(String.format("Error reading sheet %s of the spreadsheet: %s",
+                    sheetNames.get(sheetIndex), e.getMessage()));
+        }
+    }
+
+    /**
+     * Passes each row of the sheet with the given name to the consumer, in order.
+     */
+    public void forEachRow(String sheetName, Consumer<SpreadsheetRow> consumer) {
+        int sheetIndex = sheetNames.indexOf(sheetName);
+        if (sheetIndex < 0) {
+            throw new IllegalArgumentException(String.format("The spreadsheet has no sheet named %s", sheetName));
+        }
+        forEachRow(sheetIndex, consumer);
+    }
+
+    /**
+     * Reads all the rows of a sheet into memory, for small sheets (e.g. metadata) that are looked up by row number.
+     */
+    public List<SpreadsheetRow> getRows(int sheetIndex) {
+        List<SpreadsheetRow> rows = new ArrayList<>();
+        forEachRow(sheetIndex, rows::add);
+        return rows;
+    }
+
+    private void parseSheet(InputStream sheet, Consumer<SpreadsheetRow> consumer)
+            throws IOException, SAXException, ParserConfigurationException {
+        XMLReader parser = XMLHelper.newXMLReader();
+        parser.setContentHandler(new SheetHandler(styles, sharedStrings, new RowHandler(consumer), dataFormatter));
+        parser.parse(new InputSource(sheet));
+    }
+
+    @Override
+    public void close() {
+        // The package was opened read-only, so there is nothing to save
+        spreadsheetPackage.revert();
+    }
+
+    /**
+     * POI's handler only reports cells that have a value, while a loaded row also holds the cells that are present
+     * without one (e.g. styled blank cells), and row logic that counts cells sees those. Such cells are passed on to
+     * the row handler as blank.
+     */
+    private static class SheetHandler extends XSSFSheetXMLHandler {
+        private final RowHandler rowHandler;
+
+        SheetHandler(StylesTable styles, ReadOnlySharedStringsTable sharedStrings, RowHandler rowHandler, DataFormatter dataFormatter) {
+            super(styles, sharedStrings, rowHandler, dataFormatter, true);
+            this.rowHandler = rowHandler;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            super.startElement(uri, localName, qName, attributes);
+            if (isCell(uri, localName)) {
+                rowHandler.startCell(attributes.getValue("r"));
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            super.endElement(uri, localName, qName);
+            if (isCell(uri, localName)) {
+                rowHandler.endCell();
+            }
+        }
+    }
+
+    private static boolean isCell(String uri, String localName) {
+        return (uri == null || uri.equals(XSSFRelation.NS_SPREADSHEETML)) && "c".equals(localName);
+    }
+
+    private static class RowHandler implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final Consumer<SpreadsheetRow> consumer;
+        private SpreadsheetRow row;
+        private int nextColumn;
+        private String cellReference;
+        private boolean cellReported;
+
+        RowHandler(Consumer<SpreadsheetRow> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            row = new SpreadsheetRow(rowNum);
+            nextColumn = 0;
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            consumer.accept(row);
+            row = null;
+        }
+
+        void startCell(String cellReference) {
+            this.cellReference = cellReference;
+            this.cellReported = false;
+        }
+
+        void endCell() {
+            if (!cellReported && row != null) {
+                row.addCell(SpreadsheetCell.blank(getColumn(cellReference)));
+            }
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            cellReported = true;
+            row.addCell(new SpreadsheetCell(getColumn(cellReference), formattedValue));
+        }
+
+        private int getColumn(String cellReference) {
+            // The cell reference is optional in the file format, in which case cells are consecutive
+            int column = cellReference == null ? nextColumn : new CellReference(cellReference).getCol();
+            nextColumn = column + 1;
+            return column;
+        }
+    }
+}
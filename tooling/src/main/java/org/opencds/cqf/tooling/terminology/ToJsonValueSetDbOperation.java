@@ -3,6 +3,8 @@ package org.opencds.cqf.tooling.terminology;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
@@ -11,11 +13,16 @@ import com.google.gson.JsonObject;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.ValueSet;
 import org.opencds.cqf.tooling.Operation;
+import org.opencds.cqf.tooling.terminology.expansion.CodeMembershipIndex;
 import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import ca.uhn.fhir.context.FhirContext;
 
 public class ToJsonValueSetDbOperation extends Operation {
+    private static final Logger logger = LoggerFactory.getLogger(ToJsonValueSetDbOperation.class);
+
     private String valueSetPath;
 
     @SuppressWarnings("unused")
@@ -56,6 +63,9 @@ public class ToJsonValueSetDbOperation extends Operation {
         }
 
         JsonObject valueSetDb = new JsonObject();
+        // the code membership of the db, to check the expansions written are complete
+        CodeMembershipIndex.Builder members = CodeMembershipIndex.builder();
+        Map<String, Integer> totals = new LinkedHashMap<>();
 
         for (File file : new File(valueSetPath).listFiles()) {
             if (file.getName().endsWith(".json") || file.getName().endsWith(".xml")) {
@@ -64,6 +74,10 @@ public class ToJsonValueSetDbOperation extends Operation {
                     if (resource instanceof org.hl7.fhir.r4.model.ValueSet) {
                         org.hl7.fhir.r4.model.ValueSet valueSet = (ValueSet)resource;
                         addValueSetToDb(valueSetDb, valueSet);
+                        members.addValueSet(valueSet);
+                        if (valueSet.getExpansion().hasTotal()) {
+                            totals.put(valueSet.getUrl(), valueSet.getExpansion().getTotal());
+                        }
                     }
                 }
                 catch (Exception e) {
@@ -73,6 +87,16 @@ public class ToJsonValueSetDbOperation extends Operation {
             }
         }
 
+        CodeMembershipIndex index = members.build();
+        totals.forEach((url, total) -> {
+            if (index.getValueSetSize(url) < total) {
+                logger.warn("The expansion of {} is partial ({} of {} codes), codes missing from it will not be found in the db",
+                        url, index.getValueSetSize(url), total);
+            }
+        });
+        logger.info("{} ValueSets with {} codes from {} code systems written to the db", index.getValueSetUrls().size(),
+                index.getCodeCount(), index.getSystemCount());
+
         try {
             FileWriter fw = new FileWriter(getOutputPath() + "/valueset-db.json");
             new GsonBuilder()
@@ -1,15 +1,39 @@
 package org.opencds.cqf.tooling.terminology;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.hl7.fhir.dstu3.model.ValueSet;
 import org.opencds.cqf.tooling.Operation;
+import org.opencds.cqf.tooling.common.ThreadUtils;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.GsonBuilder;
 
 public class VSACBatchValueSetGenerator extends Operation {
+    private static final Logger logger = LoggerFactory.getLogger(VSACBatchValueSetGenerator.class);
+
+    public static final String MANIFEST_FILE_NAME = "valueset-batch-manifest.json";
 
     private String pathToSpreadsheetDirectory; // -pathtospreadsheetdir (-ptsd)
     private String valueSetSource = "vsac"; //vsac or cms
     private String baseUrl; // -baseurl (-burl)
     private boolean setName; // -setname (-name)
+    private Integer threads; // -threads (-t)
+    private String manifestPath; // -manifestpath (-mp)
 
     @Override
     public void execute(String[] args) {
@@ -43,6 +67,14 @@ public class VSACBatchValueSetGenerator extends Operation {
                 case "name":
                     setName = value.toLowerCase().equals("true") ? true : false;
                     break;
+                case "threads":
+                case "t":
+                    threads = Integer.valueOf(value);
+                    break;
+                case "manifestpath":
+                case "mp":
+                    manifestPath = value;
+                    break;
                 default: throw new IllegalArgumentException("Unknown flag: " + flag);
             }
         }
@@ -63,34 +95,152 @@ public class VSACBatchValueSetGenerator extends Operation {
             if (baseUrl != null) {
                 throw new RuntimeException("baseUrl flag is not valid with valueSetSource flag set to 'cms'");
             }
-            CMSFlatMultiValueSetGenerator generator;
-            for (File valueSet : valueSetFiles) {
-                if (!valueSet.getPath().endsWith(".xlsx")) continue;
-                String[] argsForSpreadsheet = { "-pts=" + valueSet.getPath(), "-op=" + getOutputPath() }; //-pts=${valueSetExcelSpreadSheet} -op=${resourcesValueSetDirectory}
-                generator =  new CMSFlatMultiValueSetGenerator();
-                generator.execute(argsForSpreadsheet);
-            }
         }
         else if (valueSetSource.equals("vsac")) {
-            VSACValueSetGenerator generator;
             if (baseUrl == null) {
                 baseUrl = VSACValueSetGenerator.VSAC_BASE_URL;
             }
-            for (File valueSet : valueSetFiles) {
-                if (!valueSet.getPath().endsWith(".xlsx")) continue;
+        }
+        else if (!valueSetSource.equals("hedis")) {
+            throw new IllegalArgumentException("Unknown valueSetSource: " + valueSetSource);
+        }
+        if (threads != null) {
+            ThreadUtils.setParallelism(threads);
+        }
+        if (manifestPath == null) {
+            manifestPath = new File(valueSetDirectory, MANIFEST_FILE_NAME).getPath();
+        }
+
+        File[] spreadsheets = Arrays.stream(valueSetFiles).filter(file -> file.getPath().endsWith(".xlsx"))
+                .sorted(Comparator.comparing(File::getName)).toArray(File[]::new);
+
+        // Each spreadsheet is independent: they are generated concurrently, and one that fails does not stop the others
+        SpreadsheetResult[] results = new SpreadsheetResult[spreadsheets.length];
+        AtomicInteger completed = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < spreadsheets.length; i++) {
+            int index = i;
+            tasks.add(() -> {
+                results[index] = generateValueSets(spreadsheets[index]);
+                logger.info("[{}/{}] {} {} in {} ms", completed.incrementAndGet(), spreadsheets.length,
+                        spreadsheets[index].getName(), results[index].status, results[index].durationMillis);
+                return null;
+            });
+        }
+
+        long start = System.nanoTime();
+        ThreadUtils.executeTasks(tasks);
+        BatchManifest manifest = new BatchManifest(valueSetSource, Arrays.asList(results),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        writeManifest(manifest);
+
+        logger.info("Generated {} ValueSets from {} of {} spreadsheets in {} ms, manifest written to {}",
+                manifest.valueSets, manifest.generated, manifest.spreadsheets, manifest.durationMillis, manifestPath);
+        if (manifest.failed > 0) {
+            throw new RuntimeException(String.format("%d of %d spreadsheets could not be processed, see %s",
+                    manifest.failed, manifest.spreadsheets, manifestPath));
+        }
+    }
+
+    private SpreadsheetResult generateValueSets(File valueSet) {
+        SpreadsheetResult result = new SpreadsheetResult(valueSet.getName());
+        long start = System.nanoTime();
+        try {
+            if (valueSetSource.equals("cms")) {
+                String[] argsForSpreadsheet = { "-pts=" + valueSet.getPath(), "-op=" + getOutputPath() }; //-pts=${valueSetExcelSpreadSheet} -op=${resourcesValueSetDirectory}
+                CMSFlatMultiValueSetGenerator generator = new CMSFlatMultiValueSetGenerator();
+                generator.execute(argsForSpreadsheet);
+                result.addValueSets(generator.getValueSets());
+            }
+            else if (valueSetSource.equals("vsac")) {
                 String[] argsForSpreadsheet = { "-VsacXlsxToValueSet", "-pts=" + valueSet.getAbsolutePath(), "-op=" + getOutputPath(), "-burl=" + baseUrl, "-name=" + (setName ? "true" : "false") };
-                generator =  new VSACValueSetGenerator();
+                VSACValueSetGenerator generator = new VSACValueSetGenerator();
                 generator.execute(argsForSpreadsheet);
+                result.addValueSets(List.of(generator.getValueSet()));
             }
-        }
-        else if (valueSetSource.equals("hedis")) {
-            HEDISValueSetGenerator generator;
-            for (File valueSet : valueSetFiles) {
-                if (!valueSet.getPath().endsWith(".xlsx")) continue;
+            else {
                 String[] argsForSpreadsheet = { "-HedisXlsxToValueSet", "-pts=" + valueSet.getAbsolutePath(), "-op=" + getOutputPath() };
-                generator =  new HEDISValueSetGenerator();
+                HEDISValueSetGenerator generator = new HEDISValueSetGenerator();
                 generator.execute(argsForSpreadsheet);
+                result.addValueSets(generator.getValueSets());
             }
+            result.status = SpreadsheetResult.GENERATED;
+        } catch (Exception e) {
+            logger.error("Error generating ValueSets from {}: {}", valueSet.getName(), e.getMessage());
+            result.status = SpreadsheetResult.FAILED;
+            result.error = e.getMessage() != null ? e.getMessage() : e.toString();
+        }
+        result.durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return result;
+    }
+
+    private void writeManifest(BatchManifest manifest) {
+        File file = new File(manifestPath);
+        if (file.getAbsoluteFile().getParentFile() != null) {
+            IOUtils.ensurePath(file.getAbsoluteFile().getParent());
+        }
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create().toJson(manifest, writer);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Error writing the batch manifest: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The summary of a batch, written as JSON: the outcome of each spreadsheet, in file name order.
+     */
+    static class BatchManifest {
+        final String valueSetSource;
+        final int spreadsheets;
+        final int generated;
+        final int failed;
+        final int valueSets;
+        final long durationMillis;
+        final List<SpreadsheetResult> results;
+
+        BatchManifest(String valueSetSource, List<SpreadsheetResult> results, long durationMillis) {
+            this.valueSetSource = valueSetSource;
+            this.spreadsheets = results.size();
+            this.generated = (int) results.stream().filter(result -> SpreadsheetResult.GENERATED.equals(result.status)).count();
+            this.failed = spreadsheets - generated;
+            this.valueSets = results.stream().mapToInt(result -> result.valueSets.size()).sum();
+            this.durationMillis = durationMillis;
+            this.results = results;
+        }
+    }
+
+    static class SpreadsheetResult {
+        static final String GENERATED = "generated";
+        static final String FAILED = "failed";
+
+        final String file;
+        String status;
+        long durationMillis;
+        String error;
+        final List<GeneratedValueSet> valueSets = new ArrayList<>();
+
+        SpreadsheetResult(String file) {
+            this.file = file;
+        }
+
+        void addValueSets(Collection<ValueSet> generated) {
+            for (ValueSet valueSet : generated) {
+                valueSets.add(new GeneratedValueSet(valueSet));
+            }
+        }
+    }
+
+    static class GeneratedValueSet {
+        final String id;
+        final String url;
+        final String version;
+        final String title;
+
+        GeneratedValueSet(ValueSet valueSet) {
+            this.id = valueSet.getIdElement().getIdPart();
+            this.url = valueSet.getUrl();
+            this.version = valueSet.getVersion();
+            this.title = valueSet.getTitle();
         }
     }
 }
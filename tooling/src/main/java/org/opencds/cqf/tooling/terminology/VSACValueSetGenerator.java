@@ -7,6 +7,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.function.IntFunction;
 
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
@@ -56,6 +57,7 @@ public class VSACValueSetGenerator extends Operation {
     private boolean declareCPGProfiles = true; // -declarecpg (-cpg)
 
     private Map<Integer, org.opencds.cqf.tooling.terminology.ValueSet> codesBySystem = new HashMap<>();
+    private ValueSet valueSet;
 
     @Override
     public void execute(String[] args) {
@@ -106,12 +108,10 @@ public class VSACValueSetGenerator extends Operation {
             baseUrl = VSAC_BASE_URL;
         }
 
-        Workbook workbook = SpreadsheetHelper.getWorkbook(pathToSpreadsheet);
-
         ValueSet vs = new ValueSet();
-        try {
-            resolveMetaData(vs, workbook);
-            resolveCodeList(workbook);
+        try (StreamingSpreadsheetReader reader = SpreadsheetHelper.getStreamingReader(pathToSpreadsheet)) {
+            resolveMetaData(vs, reader);
+            resolveCodeList(reader);
             if (includeCompose) {
                 resolveValueSet(vs);
                 if (declareCPGProfiles) {
@@ -131,14 +131,44 @@ public class VSACValueSetGenerator extends Operation {
             }
             //writeValueSetToFile(vs.getTitle() != null ? vs.getTitle().replaceAll("\\s", "").concat("." + encoding) : "valueset".concat("." + encoding), vs);
             writeValueSetToFile("valueset-" + vs.getId() + "." + encoding, vs);
+            valueSet = vs;
         } catch (IllegalArgumentException e) {
             throw new IllegalArgumentException(String.format("%s - ValueSet: %s", e.getMessage(), (vs.getTitle() == null || vs.getTitle().equals("") ? "undefined" : vs.getTitle())));
         }
     }
 
+    /**
+     * @return the ValueSet generated by the last execution, or null if none has completed
+     */
+    public ValueSet getValueSet() {
+        return valueSet;
+    }
+
     private String getSecondStringInRow(Sheet sheet, int rowIdx) {
+        Row row = sheet.getRow(rowIdx);
+        if (row == null) {
+            return null;
+        }
         int col = 1;
-        for (Cell cell : sheet.getRow(rowIdx)) {
+        for (Cell cell : row) {
+            if (cell == null) {
+                continue;
+            }
+            if (col == 2) {
+                return SpreadsheetHelper.getCellAsString(cell);
+            }
+            ++col;
+        }
+        return null;
+    }
+
+    private String getSecondStringInRow(Map<Integer, SpreadsheetRow> sheet, int rowIdx) {
+        SpreadsheetRow row = sheet.get(rowIdx);
+        if (row == null) {
+            return null;
+        }
+        int col = 1;
+        for (SpreadsheetCell cell : row) {
             if (cell == null) {
                 continue;
             }
@@ -152,12 +182,22 @@ public class VSACValueSetGenerator extends Operation {
 
     public void resolveMetaData(ValueSet vs, Workbook workbook) {
         Sheet metaSheet = workbook.getSheetAt(metaSheetNum);
-        String title = getSecondStringInRow(metaSheet, metaNameRow);
+        resolveMetaData(vs, rowIdx -> getSecondStringInRow(metaSheet, rowIdx));
+    }
+
+    public void resolveMetaData(ValueSet vs, StreamingSpreadsheetReader reader) {
+        Map<Integer, SpreadsheetRow> metaSheet = new HashMap<>();
+        reader.forEachRow(metaSheetNum, row -> metaSheet.put(row.getRowNum(), row));
+        resolveMetaData(vs, rowIdx -> getSecondStringInRow(metaSheet, rowIdx));
+    }
+
+    private void resolveMetaData(ValueSet vs, IntFunction<String> secondStringInRow) {
+        String title = secondStringInRow.apply(metaNameRow);
         if (title != null) {
             title = title.replace("/", "");
             vs.setTitle(title);
         }
-        String id = getSecondStringInRow(metaSheet, metaOidRow);
+        String id = secondStringInRow.apply(metaOidRow);
         //id isn't required by FHIR, but like system and code, we're requiring it.
         if (id == null || id.equals("")) {
             throw new IllegalArgumentException(String.format("No id value found for ValueSet: %d", vs.getTitle() == null || vs.getTitle().equals("") ? "untitled" : vs.getTitle()));
@@ -170,22 +210,22 @@ public class VSACValueSetGenerator extends Operation {
         }
     
         vs.setUrl(baseUrl + id);
-        String version = getSecondStringInRow(metaSheet, metaVersionRow);
+        String version = secondStringInRow.apply(metaVersionRow);
         if (version != null) {
             vs.setVersion(version);
         }
-        String publisher = getSecondStringInRow(metaSheet, metaStewardRow);
+        String publisher = secondStringInRow.apply(metaStewardRow);
         if (publisher != null) {
             vs.setPublisher(publisher);
         }
         vs.setStatus(Enumerations.PublicationStatus.ACTIVE);
 
-        String clinicalFocus = getSecondStringInRow(metaSheet, metaClinicalFocusRow);
+        String clinicalFocus = secondStringInRow.apply(metaClinicalFocusRow);
         if (clinicalFocus != null) {
             vs.setDescription(clinicalFocus);
         }
 
-        String scope = getSecondStringInRow(metaSheet, metaDataElementScopeRow);
+        String scope = secondStringInRow.apply(metaDataElementScopeRow);
         if (scope != null) {
             vs.setPurpose(scope);
         }
@@ -199,12 +239,12 @@ public class VSACValueSetGenerator extends Operation {
             vs.addExtension().setUrl("http://hl7.org/fhir/uv/cpg/StructureDefinition/cpg-knowledgeCapability").setValue(new CodeType("publishable"));
         }
 
-        String inclusion = getSecondStringInRow(metaSheet, metaInclusionRow);
+        String inclusion = secondStringInRow.apply(metaInclusionRow);
         if (inclusion != null) {
             vs.addExtension(new Extension().setUrl("http://fhir.org/guides/cdc/opioid-cds/StructureDefinition/cdc-valueset-inclusion").setValue(new StringType(inclusion)));
         }
 
-        String exclusion = getSecondStringInRow(metaSheet, metaExclusionRow);
+        String exclusion = secondStringInRow.apply(metaExclusionRow);
         if (exclusion != null) {
             vs.addExtension(new Extension().setUrl("http://fhir.org/guides/cdc/opioid-cds/StructureDefinition/cdc-valueset-exclusion").setValue(new StringType(exclusion)));
         }
@@ -212,63 +252,71 @@ public class VSACValueSetGenerator extends Operation {
 
     public void resolveCodeList(Workbook workbook) {
         Iterator<Row> it = workbook.getSheetAt(codeSheetNum).rowIterator();
-        while(it.hasNext()) {
+        while (it.hasNext()) {
             Row row = it.next();
-            if (row.getRowNum() < codeListRow) {
-                continue;
-            }
+            resolveCode(row.getRowNum(), col -> SpreadsheetHelper.getCellAsString(row.getCell(col)));
+        }
+    }
 
-            String version = SpreadsheetHelper.getCellAsString(row.getCell(versionCol));            
-            String systemName = SpreadsheetHelper.getCellAsString(row.getCell(systemNameCol));
-            String display = SpreadsheetHelper.getCellAsString(row.getCell(descriptionCol));
+    public void resolveCodeList(StreamingSpreadsheetReader reader) {
+        reader.forEachRow(codeSheetNum, row -> resolveCode(row.getRowNum(), col -> SpreadsheetHelper.getCellAsString(row.getCell(col))));
+    }
 
-            String code = SpreadsheetHelper.getCellAsString(row.getCell(codeCol));
+    private void resolveCode(int rowNum, IntFunction<String> cellAsString) {
+        if (rowNum < codeListRow) {
+            return;
+        }
 
-            if (code == null) {
-                throw new IllegalArgumentException(String.format("No code value found on row: %d", row.getRowNum()));
-            }
+        String version = cellAsString.apply(versionCol);
+        String systemName = cellAsString.apply(systemNameCol);
+        String display = cellAsString.apply(descriptionCol);
 
-            if (code.matches("[+-]?\\d(\\.\\d+)?[Ee][+-]?\\d+")) {
-                throw new IllegalArgumentException(String.format("Scientific Notation is not allowed for a code: %s", code));
-            }
+        String code = cellAsString.apply(codeCol);
 
-            if ((version == null || version.equals(""))
-                && (code == null || code.equals(""))
-                && (
-                    (systemName == null || systemName.equals("")) 
-                        && (SpreadsheetHelper.getCellAsString(row.getCell(systemOidCol)) == null || SpreadsheetHelper.getCellAsString(row.getCell(systemOidCol)).equals(""))
-                )
-            ) {
-                //Protecting against error where last line has no content except hidden characters introduced by copy/paste operations
-                continue;
-            }
+        if (code == null) {
+            throw new IllegalArgumentException(String.format("No code value found on row: %d", rowNum));
+        }
 
-            String system;
-            if (systemName == null || systemName.equals("")) {
-                system = SpreadsheetHelper.getCellAsString(row.getCell(systemOidCol));
-                if (system == null || system.equals("")) {
-                    throw new IllegalArgumentException(String.format("No system value found on row: %d", row.getRowNum()));
-                }
-                system = CodeSystemLookupDictionary.getUrlFromOid(system);
-            }
-            else {
-                system = CodeSystemLookupDictionary.getUrlFromName(systemName);
-            }
+        if (code.matches("[+-]?\\d(\\.\\d+)?[Ee][+-]?\\d+")) {
+            throw new IllegalArgumentException(String.format("Scientific Notation is not allowed for a code: %s", code));
+        }
+
+        if ((version == null || version.equals(""))
+            && (code == null || code.equals(""))
+            && (
+                (systemName == null || systemName.equals("")) 
+                    && (cellAsString.apply(systemOidCol) == null || cellAsString.apply(systemOidCol).equals(""))
+            )
+        ) {
+            //Protecting against error where last line has no content except hidden characters introduced by copy/paste operations
+            return;
+        }
 
+        String system;
+        if (systemName == null || systemName.equals("")) {
+            system = cellAsString.apply(systemOidCol);
             if (system == null || system.equals("")) {
-                throw new IllegalArgumentException(String.format("No system value found on row: %d", row.getRowNum()));
+                throw new IllegalArgumentException(String.format("No system value found on row: %d", rowNum));
             }
+            system = CodeSystemLookupDictionary.getUrlFromOid(system);
+        }
+        else {
+            system = CodeSystemLookupDictionary.getUrlFromName(systemName);
+        }
 
-            int hash = system.hashCode() * (version != null && !version.equals("") ? version.hashCode() : 1);
-
-            if (!codesBySystem.containsKey(hash)) {
-                codesBySystem.put(hash, new org.opencds.cqf.tooling.terminology.ValueSet().setSystem(system).setVersion(version));
-            }
+        if (system == null || system.equals("")) {
+            throw new IllegalArgumentException(String.format("No system value found on row: %d", rowNum));
+        }
 
-            ValueSet.ConceptReferenceComponent concept = new ValueSet.ConceptReferenceComponent().setCode(code).setDisplay(display);
+        int hash = system.hashCode() * (version != null && !version.equals("") ? version.hashCode() : 1);
 
-            codesBySystem.get(hash).addCode(concept);
+        if (!codesBySystem.containsKey(hash)) {
+            codesBySystem.put(hash, new org.opencds.cqf.tooling.terminology.ValueSet().setSystem(system).setVersion(version));
         }
+
+        ValueSet.ConceptReferenceComponent concept = new ValueSet.ConceptReferenceComponent().setCode(code).setDisplay(display);
+
+        codesBySystem.get(hash).addCode(concept);
     }
 
     public void resolveValueSet(ValueSet vs) {
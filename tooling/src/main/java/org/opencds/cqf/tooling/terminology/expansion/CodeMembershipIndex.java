@@ -0,0 +1,252 @@
+package org.opencds.cqf.tooling.terminology.expansion;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.ValueSet;
+
+/**
+ * A compact, immutable index of the codes in the expansions of many ValueSets, e.g. all the ValueSets of an IG, that
+ * gives the number of distinct codes of each ValueSet and of the whole set without keeping a string per membership.
+ * <p>
+ * Code systems and ValueSet urls are interned to small integers, and each distinct (system, code) pair is a concept
+ * whose code is kept as UTF-8 in a single shared byte array, found through an open-addressing hash table of ints.
+ * While building, each membership is a single long; once they are sorted and deduplicated, only the number of
+ * concepts of each ValueSet is kept.
+ * <p>
+ * Codes are matched by system and code (code system versions are not distinguished), and ValueSets are identified
+ * by their canonical url; ValueSets added more than once under the same url are merged. The index is built with a
+ * {@link Builder} and is safe to share between threads once built.
+ */
+public class CodeMembershipIndex {
+    private final String[] systems;
+    private final String[] valueSetUrls;
+    private final Map<String, Integer> valueSetIds;
+    private final ConceptTable concepts;
+
+    private final int[] valueSetOffsets;
+
+    private CodeMembershipIndex(Builder builder) {
+        this.systems = builder.systems.toArray(new String[0]);
+        this.valueSetUrls = builder.valueSetUrls.toArray(new String[0]);
+        this.valueSetIds = builder.valueSetIds;
+        this.concepts = builder.concepts;
+        this.concepts.trim();
+
+        // Sort the (valueSet, concept) pairs and drop duplicates
+        long[] memberships = Arrays.copyOf(builder.memberships, builder.membershipCount);
+        Arrays.parallelSort(memberships);
+        int count = 0;
+        for (int i = 0; i < memberships.length; i++) {
+            if (i == 0 || memberships[i] != memberships[i - 1]) {
+                memberships[count++] = memberships[i];
+            }
+        }
+
+        // Pairs are ordered by ValueSet, so each ValueSet's concepts are a range of the sorted memberships
+        valueSetOffsets = new int[valueSetUrls.length + 1];
+        for (int i = 0; i < count; i++) {
+            valueSetOffsets[valueSetId(memberships[i]) + 1]++;
+        }
+        for (int i = 0; i < valueSetUrls.length; i++) {
+            valueSetOffsets[i + 1] += valueSetOffsets[i];
+        }
+    }
+
+    private static long membership(int valueSetId, int conceptId) {
+        return ((long) valueSetId << 32) | (conceptId & 0xFFFFFFFFL);
+    }
+
+    private static int valueSetId(long membership) {
+        return (int) (membership >>> 32);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the number of codes in the ValueSet with the given url, or 0 if it is not indexed
+     */
+    public int getValueSetSize(String valueSetUrl) {
+        Integer valueSetId = valueSetIds.get(valueSetUrl);
+        return valueSetId == null ? 0 : valueSetOffsets[valueSetId + 1] - valueSetOffsets[valueSetId];
+    }
+
+    public List<String> getValueSetUrls() {
+        return Collections.unmodifiableList(Arrays.asList(valueSetUrls));
+    }
+
+    public int getSystemCount() {
+        return systems.length;
+    }
+
+    public int getCodeCount() {
+        return concepts.size();
+    }
+
+    public int getMembershipCount() {
+        return valueSetOffsets[valueSetOffsets.length - 1];
+    }
+
+    public static class Builder {
+        private final List<String> systems = new ArrayList<>();
+        private final Map<String, Integer> systemIds = new HashMap<>();
+        private final List<String> valueSetUrls = new ArrayList<>();
+        private final Map<String, Integer> valueSetIds = new HashMap<>();
+        private final ConceptTable concepts = new ConceptTable();
+        private long[] memberships = new long[1024];
+        private int membershipCount;
+        private boolean built;
+
+        private Builder() { }
+
+        /**
+         * Adds the codes in the expansion of the ValueSet (including nested contains) as members of its url.
+         * A ValueSet without an expansion is added with no members.
+         */
+        public Builder addValueSet(ValueSet valueSet) {
+            if (!valueSet.hasUrl()) {
+                throw new IllegalArgumentException(String.format("ValueSet %s has no url", valueSet.getIdElement().getIdPart()));
+            }
+            String url = valueSet.getUrl();
+            internValueSet(url);
+            Deque<ValueSet.ValueSetExpansionContainsComponent> queue = new ArrayDeque<>(valueSet.getExpansion().getContains());
+            while (!queue.isEmpty()) {
+                ValueSet.ValueSetExpansionContainsComponent contains = queue.poll();
+                if (contains.hasSystem() && contains.hasCode()) {
+                    addCode(url, contains.getSystem(), contains.getCode());
+                }
+                queue.addAll(contains.getContains());
+            }
+            return this;
+        }
+
+        public Builder addCode(String valueSetUrl, String system, String code) {
+            if (built) {
+                throw new IllegalStateException("The index has already been built");
+            }
+            int valueSetId = internValueSet(valueSetUrl);
+            int systemId = systemIds.computeIfAbsent(system, s -> {
+                systems.add(s);
+                return systems.size() - 1;
+            });
+            int conceptId = concepts.add(systemId, code.getBytes(StandardCharsets.UTF_8));
+            if (membershipCount == memberships.length) {
+                memberships = Arrays.copyOf(memberships, memberships.length * 2);
+            }
+            memberships[membershipCount++] = membership(valueSetId, conceptId);
+            return this;
+        }
+
+        private int internValueSet(String url) {
+            return valueSetIds.computeIfAbsent(url, u -> {
+                valueSetUrls.add(u);
+                return valueSetUrls.size() - 1;
+            });
+        }
+
+        public CodeMembershipIndex build() {
+            if (built) {
+                throw new IllegalStateException("The index has already been built");
+            }
+            built = true;
+            CodeMembershipIndex index = new CodeMembershipIndex(this);
+            memberships = null;
+            return index;
+        }
+    }
+
+    /**
+     * The distinct (system, code) pairs, each numbered in the order it was added. Codes are stored back to back in a
+     * byte array and deduplicated through an open-addressing (linear probing) hash table holding concept numbers.
+     */
+    private static class ConceptTable {
+        private byte[] codeBytes = new byte[4096];
+        private int codeBytesLength;
+        private int[] codeOffsets = new int[1025];
+        private int[] systemIds = new int[1024];
+        private int[] hashes = new int[1024];
+        private int size;
+        // Concept number + 1, 0 being an empty slot
+        private int[] slots = new int[2048];
+
+        int size() {
+            return size;
+        }
+
+        int add(int systemId, byte[] code) {
+            int hash = hash(systemId, code);
+            int mask = slots.length - 1;
+            int slot = hash & mask;
+            for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+                int conceptId = slots[slot] - 1;
+                if (hashes[conceptId] == hash && matches(conceptId, systemId, code)) {
+                    return conceptId;
+                }
+            }
+
+            if (size == systemIds.length) {
+                systemIds = Arrays.copyOf(systemIds, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+                codeOffsets = Arrays.copyOf(codeOffsets, size * 2 + 1);
+            }
+            if (codeBytesLength + code.length > codeBytes.length) {
+                codeBytes = Arrays.copyOf(codeBytes, Math.max(codeBytes.length * 2, codeBytesLength + code.length));
+            }
+            System.arraycopy(code, 0, codeBytes, codeBytesLength, code.length);
+            codeBytesLength += code.length;
+            int conceptId = size++;
+            codeOffsets[conceptId + 1] = codeBytesLength;
+            systemIds[conceptId] = systemId;
+            hashes[conceptId] = hash;
+            slots[slot] = conceptId + 1;
+
+            // Keep the table at most half full
+            if (size * 2 > slots.length) {
+                rehash(slots.length * 2);
+            }
+            return conceptId;
+        }
+
+        // Releases the spare capacity left from growing
+        void trim() {
+            codeBytes = Arrays.copyOf(codeBytes, codeBytesLength);
+            codeOffsets = Arrays.copyOf(codeOffsets, size + 1);
+            systemIds = Arrays.copyOf(systemIds, size);
+            hashes = Arrays.copyOf(hashes, size);
+        }
+
+        private void rehash(int capacity) {
+            int[] newSlots = new int[capacity];
+            int mask = capacity - 1;
+            for (int conceptId = 0; conceptId < size; conceptId++) {
+                int slot = hashes[conceptId] & mask;
+                while (newSlots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                newSlots[slot] = conceptId + 1;
+            }
+            slots = newSlots;
+        }
+
+        private boolean matches(int conceptId, int systemId, byte[] code) {
+            int offset = codeOffsets[conceptId];
+            return systemIds[conceptId] == systemId
+                    && Arrays.equals(codeBytes, offset, codeOffsets[conceptId + 1], code, 0, code.length);
+        }
+
+        private static int hash(int systemId, byte[] code) {
+            int hash = 31 * systemId + Arrays.hashCode(code);
+            // Spread the bits, the table is indexed by the low bits of the hash
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
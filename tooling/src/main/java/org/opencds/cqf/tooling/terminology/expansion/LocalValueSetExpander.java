@@ -0,0 +1,349 @@
+package org.opencds.cqf.tooling.terminology.expansion;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.ValueSet;
+
+/**
+ * Expands ValueSets in process, against CodeSystems and ValueSets loaded from the IG (or from disk), without a
+ * terminology server.
+ * <p>
+ * Supported: compose includes and excludes of enumerated concepts or of whole CodeSystems, is-a, descendent-of and
+ * is-not-a filters on the concept hierarchy of a CodeSystem (nested concepts, or the parent and child properties), and
+ * imports of other ValueSets (with cycle detection). Concepts are indexed by code, and each concept by its children,
+ * so expanding a hierarchy costs the size of the result rather than of the CodeSystem.
+ * <p>
+ * Once loaded, the expander may be used concurrently.
+ */
+public class LocalValueSetExpander {
+
+    // code systems by url and by url|version; the one loaded last for a url wins when no version is given
+    private final Map<String, IndexedCodeSystem> codeSystems = new HashMap<>();
+    private final Map<String, ValueSet> valueSets = new HashMap<>();
+    // expansions of the ValueSets imported by others, by canonical
+    private final Map<String, Map<String, ValueSet.ValueSetExpansionContainsComponent>> importedExpansions = new ConcurrentHashMap<>();
+
+    private static class IndexedConcept {
+        final String code;
+        final String display;
+        final Set<String> children = new LinkedHashSet<>();
+
+        IndexedConcept(String code, String display) {
+            this.code = code;
+            this.display = display;
+        }
+    }
+
+    private static class IndexedCodeSystem {
+        final String url;
+        final String version;
+        final boolean complete;
+        final Map<String, IndexedConcept> concepts = new LinkedHashMap<>();
+
+        IndexedCodeSystem(CodeSystem codeSystem) {
+            this.url = codeSystem.getUrl();
+            this.version = codeSystem.getVersion();
+            // fragments, examples and supplements do not hold every code of the system
+            this.complete = !codeSystem.hasContent() || codeSystem.getContent() == CodeSystem.CodeSystemContentMode.COMPLETE;
+            Map<String, List<String>> parents = new HashMap<>();
+            index(codeSystem.getConcept(), null, parents);
+            // hierarchy declared with properties rather than nesting
+            parents.forEach((code, parentCodes) -> parentCodes.forEach(parent -> {
+                IndexedConcept parentConcept = concepts.get(parent);
+                if (parentConcept != null) {
+                    parentConcept.children.add(code);
+                }
+            }));
+        }
+
+        private void index(List<CodeSystem.ConceptDefinitionComponent> definitions, IndexedConcept parent,
+                           Map<String, List<String>> parents) {
+            for (CodeSystem.ConceptDefinitionComponent definition : definitions) {
+                IndexedConcept concept = concepts.computeIfAbsent(definition.getCode(),
+                        code -> new IndexedConcept(code, definition.getDisplay()));
+                if (parent != null) {
+                    parent.children.add(concept.code);
+                }
+                for (CodeSystem.ConceptPropertyComponent property : definition.getProperty()) {
+                    if (!(property.getValue() instanceof CodeType)) {
+                        continue;
+                    }
+                    String value = ((CodeType) property.getValue()).getValue();
+                    if ("parent".equals(property.getCode())) {
+                        parents.computeIfAbsent(concept.code, code -> new ArrayList<>()).add(value);
+                    } else if ("child".equals(property.getCode())) {
+                        concept.children.add(value);
+                    }
+                }
+                index(definition.getConcept(), concept, parents);
+            }
+        }
+
+        // The concept and all its descendants, in breadth-first order; guards against cycles in the hierarchy
+        Set<String> getSubsumed(String code, boolean includeSelf) {
+            if (!concepts.containsKey(code)) {
+                throw new IllegalArgumentException(String.format("Code %s is not defined by CodeSystem %s", code, url));
+            }
+            Set<String> visited = new LinkedHashSet<>();
+            Deque<String> queue = new ArrayDeque<>();
+            queue.add(code);
+            visited.add(code);
+            while (!queue.isEmpty()) {
+                IndexedConcept concept = concepts.get(queue.poll());
+                if (concept == null) {
+                    continue;
+                }
+                for (String child : concept.children) {
+                    if (visited.add(child)) {
+                        queue.add(child);
+                    }
+                }
+            }
+            if (!includeSelf) {
+                visited.remove(code);
+            }
+            return visited;
+        }
+    }
+
+    public LocalValueSetExpander() {
+    }
+
+    public LocalValueSetExpander(Iterable<? extends IBaseResource> resources) {
+        for (IBaseResource resource : resources) {
+            if (resource instanceof CodeSystem) {
+                addCodeSystem((CodeSystem) resource);
+            } else if (resource instanceof ValueSet) {
+                addValueSet((ValueSet) resource);
+            }
+        }
+    }
+
+    public synchronized LocalValueSetExpander addCodeSystem(CodeSystem codeSystem) {
+        if (!codeSystem.hasUrl()) {
+            throw new IllegalArgumentException(String.format("CodeSystem %s has no url", codeSystem.getIdElement().getIdPart()));
+        }
+        IndexedCodeSystem indexed = new IndexedCodeSystem(codeSystem);
+        codeSystems.put(indexed.url, indexed);
+        if (indexed.version != null) {
+            codeSystems.put(indexed.url + "|" + indexed.version, indexed);
+        }
+        importedExpansions.clear();
+        return this;
+    }
+
+    /**
+     * Makes a ValueSet available to the ValueSets that import it.
+     */
+    public synchronized LocalValueSetExpander addValueSet(ValueSet valueSet) {
+        if (valueSet.hasUrl()) {
+            valueSets.put(valueSet.getUrl(), valueSet);
+            if (valueSet.hasVersion()) {
+                valueSets.put(valueSet.getUrl() + "|" + valueSet.getVersion(), valueSet);
+            }
+            importedExpansions.clear();
+        }
+        return this;
+    }
+
+    /**
+     * @return Whether the ValueSet can be expanded from what is loaded, i.e. whether {@link #expand(ValueSet)} succeeds
+     */
+    public boolean canExpand(ValueSet valueSet) {
+        try {
+            expand(valueSet);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Expands the compose definition of a ValueSet.
+     *
+     * @return The expansion: its contains, total and timestamp
+     * @throws IllegalArgumentException if the ValueSet has no compose, uses an unsupported filter, or refers to a
+     * CodeSystem or ValueSet that is not loaded (or that imports itself)
+     */
+    public ValueSet.ValueSetExpansionComponent expand(ValueSet valueSet) {
+        List<String> importPath = new ArrayList<>();
+        if (valueSet.hasUrl()) {
+            importPath.add(valueSet.getUrl());
+        }
+        Map<String, ValueSet.ValueSetExpansionContainsComponent> contains = expand(valueSet, importPath);
+
+        ValueSet.ValueSetExpansionComponent expansion = new ValueSet.ValueSetExpansionComponent();
+        expansion.setTimestamp(Date.from(Instant.now()));
+        expansion.setTotal(contains.size());
+        for (ValueSet.ValueSetExpansionContainsComponent component : contains.values()) {
+            expansion.addContains(component.copy());
+        }
+        return expansion;
+    }
+
+    // Contains by system|code, in compose order
+    private Map<String, ValueSet.ValueSetExpansionContainsComponent> expand(ValueSet valueSet, List<String> importPath) {
+        if (!valueSet.hasCompose()) {
+            throw new IllegalArgumentException(String.format("ValueSet %s has no compose definition", describe(valueSet)));
+        }
+        Map<String, ValueSet.ValueSetExpansionContainsComponent> result = new LinkedHashMap<>();
+        for (ValueSet.ConceptSetComponent include : valueSet.getCompose().getInclude()) {
+            result.putAll(expand(include, importPath));
+        }
+        for (ValueSet.ConceptSetComponent exclude : valueSet.getCompose().getExclude()) {
+            result.keySet().removeAll(expand(exclude, importPath).keySet());
+        }
+        return result;
+    }
+
+    private Map<String, ValueSet.ValueSetExpansionContainsComponent> expand(ValueSet.ConceptSetComponent conceptSet, List<String> importPath) {
+        Map<String, ValueSet.ValueSetExpansionContainsComponent> result = null;
+        if (conceptSet.hasSystem()) {
+            result = expandSystem(conceptSet);
+        }
+        // the codes of the system (if any) that are in every imported ValueSet
+        for (org.hl7.fhir.r4.model.CanonicalType imported : conceptSet.getValueSet()) {
+            Map<String, ValueSet.ValueSetExpansionContainsComponent> importedContains = expandImport(imported.getValue(), importPath);
+            if (result == null) {
+                result = new LinkedHashMap<>(importedContains);
+            } else {
+                result.keySet().retainAll(importedContains.keySet());
+            }
+        }
+        if (result == null) {
+            throw new IllegalArgumentException("A compose include or exclude has neither a system nor a valueSet");
+        }
+        return result;
+    }
+
+    private Map<String, ValueSet.ValueSetExpansionContainsComponent> expandSystem(ValueSet.ConceptSetComponent conceptSet) {
+        String system = conceptSet.getSystem();
+        IndexedCodeSystem codeSystem = getCodeSystem(system, conceptSet.getVersion());
+        String version = conceptSet.hasVersion() ? conceptSet.getVersion() : codeSystem != null ? codeSystem.version : null;
+
+        Map<String, ValueSet.ValueSetExpansionContainsComponent> result = new LinkedHashMap<>();
+        if (conceptSet.hasConcept()) {
+            // enumerated concepts need no CodeSystem, which only supplies missing displays
+            for (ValueSet.ConceptReferenceComponent concept : conceptSet.getConcept()) {
+                String display = concept.hasDisplay() ? concept.getDisplay()
+                        : codeSystem != null && codeSystem.concepts.containsKey(concept.getCode())
+                        ? codeSystem.concepts.get(concept.getCode()).display : null;
+                add(result, system, version, concept.getCode(), display);
+            }
+            return result;
+        }
+
+        if (codeSystem == null) {
+            throw new IllegalArgumentException(String.format("CodeSystem %s is not loaded", conceptSet.hasVersion() ? system + "|" + conceptSet.getVersion() : system));
+        }
+        if (!codeSystem.complete) {
+            throw new IllegalArgumentException(String.format("The concepts of CodeSystem %s are not all present", system));
+        }
+
+        Set<String> codes = null;
+        for (ValueSet.ConceptSetFilterComponent filter : conceptSet.getFilter()) {
+            Set<String> filtered = filter(codeSystem, filter);
+            if (codes == null) {
+                codes = filtered;
+            } else {
+                codes.retainAll(filtered);
+            }
+        }
+        for (String code : codes == null ? codeSystem.concepts.keySet() : codes) {
+            add(result, system, version, code, codeSystem.concepts.get(code).display);
+        }
+        return result;
+    }
+
+    private static Set<String> filter(IndexedCodeSystem codeSystem, ValueSet.ConceptSetFilterComponent filter) {
+        if (!"concept".equals(filter.getProperty()) || filter.getOp() == null) {
+            throw new IllegalArgumentException(String.format("Unsupported filter on property %s of CodeSystem %s",
+                    filter.getProperty(), codeSystem.url));
+        }
+        switch (filter.getOp()) {
+            case ISA:
+                return codeSystem.getSubsumed(filter.getValue(), true);
+            case DESCENDENTOF:
+                return codeSystem.getSubsumed(filter.getValue(), false);
+            case ISNOTA:
+                Set<String> codes = new LinkedHashSet<>(codeSystem.concepts.keySet());
+                codes.removeAll(codeSystem.getSubsumed(filter.getValue(), true));
+                return codes;
+            default:
+                throw new IllegalArgumentException(String.format("Unsupported filter operator %s on CodeSystem %s",
+                        filter.getOp().toCode(), codeSystem.url));
+        }
+    }
+
+    private Map<String, ValueSet.ValueSetExpansionContainsComponent> expandImport(String canonical, List<String> importPath) {
+        Map<String, ValueSet.ValueSetExpansionContainsComponent> cached = importedExpansions.get(canonical);
+        if (cached != null) {
+            return cached;
+        }
+        if (importPath.contains(canonical)) {
+            List<String> cycle = new ArrayList<>(importPath.subList(importPath.indexOf(canonical), importPath.size()));
+            cycle.add(canonical);
+            throw new IllegalArgumentException("Circular ValueSet import: " + String.join(" -> ", cycle));
+        }
+        ValueSet imported;
+        synchronized (this) {
+            imported = valueSets.get(canonical);
+        }
+        if (imported == null) {
+            throw new IllegalArgumentException(String.format("ValueSet %s is not loaded", canonical));
+        }
+
+        importPath.add(canonical);
+        Map<String, ValueSet.ValueSetExpansionContainsComponent> contains = Collections.unmodifiableMap(
+                imported.hasCompose() ? expand(imported, importPath) : getExpansionContains(imported));
+        importPath.remove(importPath.size() - 1);
+        importedExpansions.put(canonical, contains);
+        return contains;
+    }
+
+    // An imported ValueSet defined by its expansion alone
+    private static Map<String, ValueSet.ValueSetExpansionContainsComponent> getExpansionContains(ValueSet valueSet) {
+        if (!valueSet.hasExpansion()) {
+            throw new IllegalArgumentException(String.format("ValueSet %s has neither a compose nor an expansion", describe(valueSet)));
+        }
+        Map<String, ValueSet.ValueSetExpansionContainsComponent> result = new LinkedHashMap<>();
+        Deque<ValueSet.ValueSetExpansionContainsComponent> queue = new ArrayDeque<>(valueSet.getExpansion().getContains());
+        while (!queue.isEmpty()) {
+            ValueSet.ValueSetExpansionContainsComponent contains = queue.poll();
+            if (contains.hasCode() && !contains.getAbstract()) {
+                add(result, contains.getSystem(), contains.getVersion(), contains.getCode(), contains.getDisplay());
+            }
+            queue.addAll(contains.getContains());
+        }
+        return result;
+    }
+
+    private synchronized IndexedCodeSystem getCodeSystem(String system, String version) {
+        return codeSystems.get(version != null ? system + "|" + version : system);
+    }
+
+    private static void add(Map<String, ValueSet.ValueSetExpansionContainsComponent> result, String system, String version,
+                            String code, String display) {
+        result.computeIfAbsent(system + "|" + code, key -> new ValueSet.ValueSetExpansionContainsComponent()
+                .setSystem(system).setVersion(version).setCode(code).setDisplay(display));
+    }
+
+    private static String describe(ValueSet valueSet) {
+        return valueSet.hasUrl() ? valueSet.getUrl() : valueSet.getIdElement().getIdPart();
+    }
+}
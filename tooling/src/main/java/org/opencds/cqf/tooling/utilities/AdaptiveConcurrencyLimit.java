@@ -0,0 +1,79 @@
+package org.opencds.cqf.tooling.utilities;
+
+/**
+ * A limit on the number of requests in flight to a server that adapts to the server's load (additive increase,
+ * multiplicative decrease): it starts at the maximum, is halved when the server signals overload and grows back by
+ * one after each window of successful requests.
+ * <p>
+ * Overload responses to requests that were already in flight when the limit was last halved do not halve it again,
+ * so a burst of 429s from one window of requests counts as one signal.
+ */
+public class AdaptiveConcurrencyLimit {
+    private final int maxLimit;
+    private int limit;
+    private int inFlight;
+    private int successes;
+    // incremented on each decrease; a permit remembers the generation it was acquired in
+    private long generation;
+
+    public AdaptiveConcurrencyLimit(int maxLimit) {
+        if (maxLimit < 1) {
+            throw new IllegalArgumentException("The concurrency limit must be at least 1");
+        }
+        this.maxLimit = maxLimit;
+        this.limit = maxLimit;
+    }
+
+    /**
+     * Waits until a request may be sent.
+     *
+     * @return The permit, to pass back to {@link #onOverload(long)}
+     */
+    public synchronized long acquire() throws InterruptedException {
+        while (inFlight >= limit) {
+            wait();
+        }
+        inFlight++;
+        return generation;
+    }
+
+    /**
+     * Releases a permit after a successful request.
+     */
+    public synchronized void onSuccess() {
+        release();
+        if (limit < maxLimit && ++successes >= limit) {
+            limit++;
+            successes = 0;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Releases a permit after a request the server rejected because it is overloaded.
+     */
+    public synchronized void onOverload(long permit) {
+        release();
+        if (permit == generation) {
+            limit = Math.max(1, limit / 2);
+            successes = 0;
+            generation++;
+        }
+    }
+
+    /**
+     * Releases a permit after a request that failed for another reason.
+     */
+    public synchronized void onFailure() {
+        release();
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    private void release() {
+        inFlight--;
+        notifyAll();
+    }
+}
@@ -0,0 +1,252 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.util.BundleBuilder;
+import ca.uhn.fhir.util.BundleUtil;
+import ca.uhn.fhir.util.bundle.BundleEntryParts;
+
+/**
+ * Packs resources into batch (or transaction) bundles of at most a given number of entries and size, so that many
+ * small resources are posted in a few requests.
+ * <ul>
+ *     <li>A resource, or a bundle that is neither a batch nor a transaction, becomes an entry (PUT when it has an id,
+ *     POST otherwise). Entries are packed in the order they are added.</li>
+ *     <li>A batch or transaction bundle within the limits is kept as is, as a batch of its own.</li>
+ *     <li>A larger one is split into entries, keeping their request method and conditional url, unless its entries
+ *     refer to each other through temporary (urn:) full urls or use other methods: it is then kept as is.</li>
+ * </ul>
+ * Each entry remembers its source (e.g. the path of its file, with "#index" for the entries of a bundle) so the
+ * outcome of the entry can be reported against it.
+ */
+public class BatchBundler {
+    private static final Logger logger = LoggerFactory.getLogger(BatchBundler.class);
+    public static final int DEFAULT_MAX_ENTRIES = 100;
+    public static final long DEFAULT_MAX_BYTES = 5L * 1024 * 1024;
+
+    private final FhirContext fhirContext;
+    private final String bundleType;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final List<Batch> batches = new ArrayList<>();
+    // receives each batch as soon as it is complete, instead of batches
+    private final Consumer<Batch> batchConsumer;
+    private List<Item> pending = new ArrayList<>();
+    private long pendingBytes;
+
+    /**
+     * @param bundleType "batch" or "transaction", the type of the bundles resources are packed into
+     * @param maxEntries the maximum number of entries of a bundle
+     * @param maxBytes   the maximum size of a bundle (of the JSON encoding of its resources); a single larger
+     *                   resource gets a bundle of its own
+     */
+    public BatchBundler(FhirContext fhirContext, String bundleType, int maxEntries, long maxBytes) {
+        this(fhirContext, bundleType, maxEntries, maxBytes, null);
+    }
+
+    /**
+     * Creates a bundler that passes each batch to the consumer as soon as it is complete, so batches can be posted
+     * while resources are still being added; {@link #finish()} completes the last batch.
+     */
+    public BatchBundler(FhirContext fhirContext, String bundleType, int maxEntries, long maxBytes, Consumer<Batch> batchConsumer) {
+        if (!"batch".equals(bundleType) && !"transaction".equals(bundleType)) {
+            throw new IllegalArgumentException("Unsupported bundle type: " + bundleType + " (expected batch or transaction)");
+        }
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("The maximum number of entries and size of a bundle must be positive");
+        }
+        this.fhirContext = fhirContext;
+        this.bundleType = bundleType;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.batchConsumer = batchConsumer;
+    }
+
+    /**
+     * An entry to post: a resource, how to post it, and where it comes from.
+     */
+    public static class Item {
+        private final String source;
+        private final IBaseResource resource;
+        private final RequestTypeEnum method;
+        private final String conditionalUrl;
+        private final long size;
+
+        Item(String source, IBaseResource resource, RequestTypeEnum method, String conditionalUrl, long size) {
+            this.source = source;
+            this.resource = resource;
+            this.method = method;
+            this.conditionalUrl = conditionalUrl;
+            this.size = size;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public IBaseResource getResource() {
+            return resource;
+        }
+
+        /**
+         * @return Whether the entry can be packed into another bundle (an entry of a bundle kept as is may be, e.g.,
+         * a DELETE)
+         */
+        public boolean isRepackable() {
+            return resource != null && (method == null || method == RequestTypeEnum.PUT || method == RequestTypeEnum.POST);
+        }
+    }
+
+    /**
+     * A bundle to post, and the items of its entries, in order.
+     */
+    public static class Batch {
+        private final IBaseBundle bundle;
+        private final List<Item> items;
+
+        Batch(IBaseBundle bundle, List<Item> items) {
+            this.bundle = bundle;
+            this.items = Collections.unmodifiableList(items);
+        }
+
+        public IBaseBundle getBundle() {
+            return bundle;
+        }
+
+        public List<Item> getItems() {
+            return items;
+        }
+    }
+
+    public void add(String source, IBaseResource resource) {
+        if (resource instanceof IBaseBundle) {
+            String type = BundleUtil.getBundleType(fhirContext, (IBaseBundle) resource);
+            if ("batch".equals(type) || "transaction".equals(type)) {
+                addBundle(source, (IBaseBundle) resource);
+                return;
+            }
+        }
+        add(new Item(source, resource, resource.getIdElement().getIdPart() != null ? RequestTypeEnum.PUT : RequestTypeEnum.POST,
+                null, size(resource)));
+    }
+
+    private void addBundle(String source, IBaseBundle bundle) {
+        List<BundleEntryParts> entries = BundleUtil.toListOfEntries(fhirContext, bundle);
+        long size = size(bundle);
+        boolean fits = entries.size() <= maxEntries && size <= maxBytes;
+        if (fits || !isSplittable(entries)) {
+            if (!fits) {
+                logger.warn("Bundle {} ({} entries, {} bytes) exceeds the batch limits but cannot be split: posting it as is", source, entries.size(), size);
+            }
+            List<Item> items = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                BundleEntryParts entry = entries.get(i);
+                items.add(new Item(source + "#" + i, entry.getResource(), entry.getRequestType(), entry.getConditionalUrl(), 0));
+            }
+            complete(new Batch(bundle, items));
+            return;
+        }
+
+        for (int i = 0; i < entries.size(); i++) {
+            BundleEntryParts entry = entries.get(i);
+            add(new Item(source + "#" + i, entry.getResource(), entry.getRequestType(), entry.getConditionalUrl(), size(entry.getResource())));
+        }
+    }
+
+    private static boolean isSplittable(List<BundleEntryParts> entries) {
+        for (BundleEntryParts entry : entries) {
+            if (entry.getResource() == null
+                    || (entry.getRequestType() != null && entry.getRequestType() != RequestTypeEnum.PUT && entry.getRequestType() != RequestTypeEnum.POST)
+                    || (entry.getFullUrl() != null && entry.getFullUrl().startsWith("urn:"))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds an item, e.g. one that is posted again after failing in an earlier batch.
+     */
+    public void add(Item item) {
+        if (!pending.isEmpty() && (pending.size() >= maxEntries || pendingBytes + item.size > maxBytes)) {
+            flush();
+        }
+        pending.add(item);
+        pendingBytes += item.size;
+    }
+
+    private void flush() {
+        BundleBuilder builder = new BundleBuilder(fhirContext);
+        for (Item item : pending) {
+            if (item.method == RequestTypeEnum.POST || item.resource.getIdElement().getIdPart() == null) {
+                BundleBuilder.CreateBuilder create = builder.addTransactionCreateEntry(item.resource);
+                if (item.conditionalUrl != null) {
+                    create.conditional(item.conditionalUrl);
+                }
+            } else {
+                BundleBuilder.UpdateBuilder update = builder.addTransactionUpdateEntry(item.resource);
+                if (item.conditionalUrl != null) {
+                    update.conditional(item.conditionalUrl);
+                }
+            }
+        }
+        // adding a transaction entry sets the type to transaction
+        builder.setType(bundleType);
+        List<Item> items = pending;
+        pending = new ArrayList<>();
+        pendingBytes = 0;
+        complete(new Batch(builder.getBundle(), items));
+    }
+
+    private void complete(Batch batch) {
+        if (batchConsumer != null) {
+            batchConsumer.accept(batch);
+        } else {
+            batches.add(batch);
+        }
+    }
+
+    /**
+     * Completes the batch being filled.
+     */
+    public void finish() {
+        if (!pending.isEmpty()) {
+            flush();
+        }
+    }
+
+    /**
+     * @return The bundles to post, including the one being filled
+     */
+    public List<Batch> getBatches() {
+        finish();
+        return batches;
+    }
+
+    // The size of the JSON encoding of a resource, computed without holding the encoding in memory
+    private long size(IBaseResource resource) {
+        CountingOutputStream counter = new CountingOutputStream(OutputStream.nullOutputStream());
+        try (Writer writer = new OutputStreamWriter(counter, StandardCharsets.UTF_8)) {
+            IOUtils.encodeResourceToWriter(resource, IOUtils.Encoding.JSON, fhirContext, writer);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return counter.getByteCount();
+    }
+}
@@ -0,0 +1,231 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.FhirTerser;
+
+/**
+ * Posts resources to a FHIR server packed into batch or transaction bundles (see {@link BatchBundler}).
+ * <p>
+ * The bundles are posted concurrently through {@link HttpClientUtils}, in waves as they are filled, and the requests
+ * that fail as a whole are retried there. The status of each entry is then read from the response and mapped back to the source of the entry; the
+ * entries that failed with a retryable status (see {@link RetryPolicy}) are packed again and posted in another round,
+ * as long as the retry policy allows.
+ */
+public class BatchUploader {
+    private static final Logger logger = LoggerFactory.getLogger(BatchUploader.class);
+
+    private final FhirContext fhirContext;
+    private final String fhirServerUrl;
+    private final IOUtils.Encoding encoding;
+    private final String bundleType;
+    private final int maxEntries;
+    private final long maxBytes;
+
+    public BatchUploader(FhirContext fhirContext, String fhirServerUrl, IOUtils.Encoding encoding, String bundleType,
+                         int maxEntries, long maxBytes) {
+        this.fhirContext = fhirContext;
+        this.fhirServerUrl = fhirServerUrl;
+        this.encoding = encoding;
+        this.bundleType = bundleType;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The status of each entry posted, by source.
+     */
+    public static class Result {
+        private final Map<String, Integer> statuses;
+
+        Result(Map<String, Integer> statuses) {
+            this.statuses = Collections.unmodifiableMap(new TreeMap<>(statuses));
+        }
+
+        /**
+         * @return The HTTP status of each entry (0 if no response was received), by source
+         */
+        public Map<String, Integer> getStatuses() {
+            return statuses;
+        }
+
+        /**
+         * @return The entries that failed, by source
+         */
+        public Map<String, Integer> getFailures() {
+            Map<String, Integer> failures = new LinkedHashMap<>();
+            statuses.forEach((source, status) -> {
+                if (status < 200 || status >= 300) {
+                    failures.put(source, status);
+                }
+            });
+            return failures;
+        }
+    }
+
+    /**
+     * Posts resources, or the entries of bundles.
+     *
+     * @param resources the resources, by source (e.g. the path of their file)
+     * @return The status of each entry
+     */
+    public Result upload(Map<String, IBaseResource> resources) {
+        return upload(bundler -> resources.forEach(bundler::add));
+    }
+
+    /**
+     * Posts the resources (or the entries of the bundles) in the files, which are read one at a time as the batches
+     * are filled: each batch is posted once full, so the files are never all held in memory. Files that are not
+     * resources are skipped.
+     *
+     * @param paths the paths of the files, which are the sources of their entries
+     * @return The status of each entry
+     */
+    public Result uploadFiles(List<String> paths) {
+        return upload(bundler -> {
+            for (String path : paths) {
+                IBaseResource resource;
+                try {
+                    resource = IOUtils.readResourceUncached(path, fhirContext);
+                } catch (Exception e) {
+                    logger.warn("Skipping {}: {}", path, e.getMessage());
+                    continue;
+                }
+                if (resource != null) {
+                    bundler.add(path, resource);
+                }
+            }
+        });
+    }
+
+    private Result upload(Consumer<BatchBundler> items) {
+        RetryPolicy policy = HttpClientUtils.getRetryPolicy();
+        Map<String, Integer> statuses = new ConcurrentHashMap<>();
+        for (int round = 1; ; round++) {
+            List<BatchBundler.Item> retries = postRound(round, items, policy, statuses);
+            if (retries.isEmpty()) {
+                break;
+            }
+            try {
+                Thread.sleep(policy.getDelayMillis(round, null));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            items = bundler -> retries.forEach(bundler::add);
+        }
+
+        Result result = new Result(statuses);
+        result.getFailures().forEach((source, status) -> logger.warn("Failed to post {}: HTTP Status {}", source, status));
+        return result;
+    }
+
+    /**
+     * Packs the items into bundles and posts them, a wave of a few bundles per simultaneous post at a
+     * time, while the items are still being read.
+     *
+     * @return The items to pack and post again in the next round
+     */
+    private List<BatchBundler.Item> postRound(int round, Consumer<BatchBundler> items, RetryPolicy policy,
+                                              Map<String, Integer> statuses) {
+        boolean lastRound = round >= policy.getMaxAttempts();
+        int waveSize = Math.max(1, HttpClientUtils.getMaxSimultaneousPostCount()) * 2;
+        List<BatchBundler.Item> retries = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger queued = new AtomicInteger();
+        AtomicInteger posted = new AtomicInteger();
+
+        BatchBundler bundler = new BatchBundler(fhirContext, bundleType, maxEntries, maxBytes, batch -> {
+            queue(batch, lastRound, policy, statuses, retries);
+            posted.incrementAndGet();
+            if (queued.incrementAndGet() >= waveSize) {
+                HttpClientUtils.postTaskCollection();
+                queued.set(0);
+            }
+        });
+        items.accept(bundler);
+        bundler.finish();
+        if (HttpClientUtils.hasPostTasksInQueue()) {
+            HttpClientUtils.postTaskCollection();
+        }
+        logger.info("Posted {} bundle(s) to {} (round {})", posted.get(), fhirServerUrl, round);
+        return retries;
+    }
+
+    private void queue(BatchBundler.Batch batch, boolean lastRound, RetryPolicy policy, Map<String, Integer> statuses,
+                       List<BatchBundler.Item> retries) {
+        try {
+            HttpClientUtils.post(fhirServerUrl, batch.getBundle(), encoding, fhirContext, (statusCode, body) -> {
+                List<Integer> entryStatuses = body != null ? getEntryStatuses(body) : Collections.emptyList();
+                if (entryStatuses.size() != batch.getItems().size()) {
+                    // the bundle failed as a whole, or its response cannot be read: every entry gets its status
+                    entryStatuses = Collections.nCopies(batch.getItems().size(), statusCode);
+                }
+                for (int i = 0; i < batch.getItems().size(); i++) {
+                    BatchBundler.Item item = batch.getItems().get(i);
+                    int entryStatus = entryStatuses.get(i);
+                    statuses.put(item.getSource(), entryStatus);
+                    // whole requests were already retried by HttpClientUtils
+                    if (!lastRound && statusCode >= 200 && statusCode < 300 && policy.isRetryable(entryStatus) && item.isRepackable()) {
+                        retries.add(item);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            logger.error("Error queueing bundle for {}: {}", fhirServerUrl, e.getMessage());
+        }
+    }
+
+    /**
+     * @return The status of each entry of a batch or transaction response (0 where it cannot be read), or an empty
+     * list if the response is not a bundle
+     */
+    List<Integer> getEntryStatuses(String body) {
+        IBaseResource response;
+        try {
+            String trimmed = body.trim();
+            response = (trimmed.startsWith("<") ? fhirContext.newXmlParser() : fhirContext.newJsonParser()).parseResource(trimmed);
+        } catch (Exception e) {
+            return Collections.emptyList();
+        }
+        if (!(response instanceof IBaseBundle)) {
+            return Collections.emptyList();
+        }
+
+        FhirTerser terser = fhirContext.newTerser();
+        List<Integer> statuses = new ArrayList<>();
+        for (IBase entry : terser.getValues(response, "entry")) {
+            String status = terser.getSinglePrimitiveValueOrNull(entry, "response.status");
+            statuses.add(parseStatus(status));
+        }
+        return statuses;
+    }
+
+    // An entry status is a status code, optionally followed by the reason phrase (e.g. "201 Created")
+    private static int parseStatus(String status) {
+        if (status == null) {
+            return 0;
+        }
+        String code = status.trim().split("\\s+")[0];
+        try {
+            return Integer.parseInt(code);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -118,6 +118,19 @@ public class BundleUtils {
         }
     }
 
+    /**
+     * Queues the bundle in the given file to be posted; only the path is held until the bundle is sent.
+     */
+    public static void postBundle(IOUtils.Encoding encoding, FhirContext fhirContext, String fhirUri, String bundlePath) {
+        if (fhirUri != null && !fhirUri.isEmpty()) {
+            try {
+                HttpClientUtils.post(fhirUri, bundlePath, encoding, fhirContext);
+            } catch (IOException e) {
+                LogUtils.putException(bundlePath, "Error posting to FHIR Server: " + fhirUri + ".  Bundle not posted.");
+            }
+        }
+    }
+
     public static List<Map.Entry<String, IBaseResource>> getBundlesInDir(String directoryPath, FhirContext fhirContext) {
         return getBundlesInDir(directoryPath, fhirContext, true);
     }
@@ -152,6 +165,29 @@ public class BundleUtils {
 //            .collect(Collectors.toList());
     }
 
+    /**
+     * Lists the files of the Bundles in a directory, checking the resource type from the header of each file (see
+     * {@link ResourceIndex#readHeader(String)}) without parsing the Bundles.
+     */
+    public static List<String> getBundlePathsInDir(String directoryPath, Boolean recursive) {
+        File dir = new File(directoryPath);
+        if (!dir.isDirectory()) {
+            throw new IllegalArgumentException("path to directory must be an existing directory.");
+        }
+
+        List<String> bundlePaths = new ArrayList<>();
+        for (String path : IOUtils.getFilePaths(directoryPath, recursive)) {
+            if (path.endsWith(".cql")) {
+                continue;
+            }
+            ResourceIndex.Entry header = ResourceIndex.readHeader(path);
+            if (header != null && "Bundle".equals(header.getResourceType())) {
+                bundlePaths.add(path);
+            }
+        }
+        return bundlePaths;
+    }
+
     public static void stampDstu3BundleEntriesWithSoftwareSystems(org.hl7.fhir.dstu3.model.Bundle bundle, List<CqfmSoftwareSystem> softwareSystems, FhirContext fhirContext, String rootDir) {
         for (org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent entry : bundle.getEntry()) {
             org.hl7.fhir.dstu3.model.Resource resource = entry.getResource();
@@ -0,0 +1,104 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.cqframework.cql.cql2elm.CqlCompilerOptions;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.cqframework.cql.cql2elm.model.Model;
+import org.hl7.cql.model.ModelIdentifier;
+import org.hl7.elm.r1.VersionedIdentifier;
+
+/**
+ * Process-wide, thread-safe cache of loaded models and compiled CQL libraries, shared by every
+ * {@link ModelManager} and {@link LibraryManager} created through it. Compiled libraries are kept per set of
+ * compiler options (so a library is never reused with options it was not compiled with) and per library source (so a
+ * library is never reused by a manager that would resolve its name and version to different CQL, e.g. in another IG),
+ * and keyed by {@link VersionedIdentifier}; loaded models are shared regardless of options.
+ */
+public class CompiledLibraryCache {
+
+    private static final Map<ModelIdentifier, Model> models = new ConcurrentHashMap<>();
+    private static final Map<String, Map<VersionedIdentifier, CompiledLibrary>> libraries = new ConcurrentHashMap<>();
+
+    private CompiledLibraryCache() {}
+
+    /**
+     * @return A new ModelManager backed by the shared model cache
+     */
+    public static ModelManager createModelManager() {
+        return new ModelManager(models);
+    }
+
+    /**
+     * Creates a LibraryManager whose compiled libraries are shared with every other manager created with the same
+     * compiler options and source key. Source and model info providers are still registered per manager by the caller,
+     * and must resolve library names and versions to the same CQL for every manager created with the same source key.
+     *
+     * @param modelManager The ModelManager to use, typically from {@link #createModelManager()}
+     * @param options The compiler options
+     * @param sourceKey Identifies the library sources, e.g. the absolute path of the CQL folder, or a hash of the
+     *                  sources when they are not files
+     * @return A new LibraryManager backed by the shared library cache
+     */
+    public static LibraryManager createLibraryManager(ModelManager modelManager, CqlCompilerOptions options, String sourceKey) {
+        Objects.requireNonNull(options, "options can not be null");
+        Objects.requireNonNull(sourceKey, "sourceKey can not be null");
+        return new LibraryManager(modelManager, options, getCompiledLibraries(options, sourceKey));
+    }
+
+    /**
+     * @param options The compiler options
+     * @param sourceKey Identifies the library sources
+     * @return The (live) shared map of libraries compiled from the given sources with the given options
+     */
+    public static Map<VersionedIdentifier, CompiledLibrary> getCompiledLibraries(CqlCompilerOptions options, String sourceKey) {
+        return libraries.computeIfAbsent(getOptionsKey(options) + "|" + sourceKey, k -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Adds a library compiled outside of {@link LibraryManager#resolveLibrary} (e.g. by translating a file
+     * directly) so that later includes of it through the manager are not compiled again. The library replaces any
+     * previously compiled with the same identifier, as it was compiled from the current source.
+     */
+    public static void cacheLibrary(LibraryManager libraryManager, CompiledLibrary library) {
+        if (library != null && library.getIdentifier() != null) {
+            libraryManager.getCompiledLibraries().put(library.getIdentifier(), library);
+        }
+    }
+
+    /**
+     * @return The source key of a folder of CQL files
+     */
+    public static String getFolderKey(String folder) {
+        return Paths.get(folder).toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * @return A key identifying the compiler options, equal for options that produce the same output
+     */
+    public static String getOptionsKey(CqlCompilerOptions options) {
+        // CqlCompilerOptions does not implement equals/hashCode
+        return String.join("|",
+                options.getOptions().stream().map(Enum::name).collect(Collectors.toCollection(TreeSet::new)).toString(),
+                String.valueOf(options.getCompatibilityLevel()),
+                String.valueOf(options.getErrorLevel()),
+                String.valueOf(options.getSignatureLevel()),
+                String.valueOf(options.getValidateUnits()),
+                String.valueOf(options.getEnableCqlOnly()),
+                String.valueOf(options.getVerifyOnly()),
+                String.valueOf(options.getAnalyzeDataRequirements()),
+                String.valueOf(options.getCollapseDataRequirements()));
+    }
+
+    public static void clear() {
+        models.clear();
+        libraries.clear();
+    }
+}
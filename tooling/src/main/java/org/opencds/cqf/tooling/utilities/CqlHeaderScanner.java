@@ -0,0 +1,366 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the declarations at the top of a CQL library (library identifier, using, include, codesystem, valueset and
+ * code declarations) without translating it.
+ * Scanning stops at the first context or define statement, so the cost is proportional to the header, not the
+ * library. Comments, string literals and quoted identifiers are handled; anything the scanner does not understand
+ * is skipped, so the result is a best effort and translation remains the source of truth.
+ */
+public class CqlHeaderScanner {
+
+    private final String text;
+    private int position;
+    // whether the last token was a string literal or quoted identifier (and so cannot be a keyword)
+    private boolean quoted;
+
+    private CqlHeaderScanner(String text) {
+        this.text = text;
+    }
+
+    public static Header scan(File cqlFile) throws IOException {
+        return scan(new String(Files.readAllBytes(cqlFile.toPath()), StandardCharsets.UTF_8));
+    }
+
+    public static Header scan(String cql) {
+        return new CqlHeaderScanner(cql).scanHeader();
+    }
+
+    private Header scanHeader() {
+        Header header = new Header();
+        String token;
+        while ((token = next()) != null) {
+            if (quoted) {
+                continue;
+            }
+            switch (token) {
+                case "library":
+                    String[] library = splitQualifiedName(next());
+                    header.namespace = library[0];
+                    header.name = library[1];
+                    header.version = scanVersion();
+                    break;
+                case "include":
+                    Include include = new Include();
+                    String[] included = splitQualifiedName(next());
+                    include.namespace = included[0];
+                    include.name = included[1];
+                    include.version = scanVersion();
+                    if (peekIs("called")) {
+                        next();
+                        include.alias = next();
+                    }
+                    header.includes.add(include);
+                    break;
+                case "using":
+                    Using using = new Using();
+                    using.name = next();
+                    using.version = scanVersion();
+                    if (peekIs("called")) {
+                        next();
+                        next();
+                    }
+                    header.usings.add(using);
+                    break;
+                case "codesystem":
+                    CodeSystem codeSystem = new CodeSystem();
+                    codeSystem.name = next();
+                    if (peekIs(":")) {
+                        next();
+                        codeSystem.id = next();
+                        codeSystem.version = scanVersion();
+                        header.codeSystems.add(codeSystem);
+                    }
+                    break;
+                case "valueset":
+                    ValueSet valueSet = new ValueSet();
+                    valueSet.name = next();
+                    if (peekIs(":")) {
+                        next();
+                        valueSet.id = next();
+                        valueSet.version = scanVersion();
+                        header.valueSets.add(valueSet);
+                    }
+                    break;
+                case "code":
+                    Code code = new Code();
+                    code.name = next();
+                    if (peekIs(":")) {
+                        next();
+                        code.code = next();
+                        if (peekIs("from")) {
+                            next();
+                            code.codeSystemName = next();
+                        }
+                        if (peekIs("display")) {
+                            next();
+                            code.display = next();
+                        }
+                        header.codes.add(code);
+                    }
+                    break;
+                case "context":
+                case "define":
+                    return header;
+                default:
+                    break;
+            }
+        }
+        return header;
+    }
+
+    private String scanVersion() {
+        if (peekIs("version")) {
+            next();
+            return next();
+        }
+        return null;
+    }
+
+    private boolean peekIs(String keyword) {
+        int saved = position;
+        String token = next();
+        boolean isKeyword = !quoted && keyword.equals(token);
+        position = saved;
+        return isKeyword;
+    }
+
+    // Splits a qualified identifier (e.g. "Common.FHIRHelpers") into namespace and name
+    private static String[] splitQualifiedName(String identifier) {
+        if (identifier == null) {
+            return new String[] { null, null };
+        }
+        int index = identifier.lastIndexOf('.');
+        if (index < 0) {
+            return new String[] { null, identifier };
+        }
+        return new String[] { identifier.substring(0, index), identifier.substring(index + 1) };
+    }
+
+    /**
+     * Returns the next token: an identifier (qualified identifiers are returned as one token, with quoted parts
+     * unquoted), the content of a string literal, or a single punctuation character. Returns null at the end.
+     */
+    private String next() {
+        quoted = false;
+        skipWhitespaceAndComments();
+        if (position >= text.length()) {
+            return null;
+        }
+        char c = text.charAt(position);
+        if (Character.isLetter(c) || c == '_' || c == '"' || c == '`') {
+            StringBuilder identifier = new StringBuilder();
+            while (true) {
+                identifier.append(readIdentifierPart());
+                if (position + 1 < text.length() && text.charAt(position) == '.'
+                        && isIdentifierStart(text.charAt(position + 1))) {
+                    identifier.append('.');
+                    position++;
+                } else {
+                    return identifier.toString();
+                }
+            }
+        }
+        if (c == '\'') {
+            return readQuoted('\'');
+        }
+        position++;
+        return String.valueOf(c);
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return Character.isLetter(c) || c == '_' || c == '"' || c == '`';
+    }
+
+    private String readIdentifierPart() {
+        char c = text.charAt(position);
+        if (c == '"' || c == '`') {
+            return readQuoted(c);
+        }
+        int start = position;
+        while (position < text.length()
+                && (Character.isLetterOrDigit(text.charAt(position)) || text.charAt(position) == '_')) {
+            position++;
+        }
+        return text.substring(start, position);
+    }
+
+    private String readQuoted(char quote) {
+        quoted = true;
+        StringBuilder value = new StringBuilder();
+        position++;
+        while (position < text.length()) {
+            char c = text.charAt(position++);
+            if (c == '\\' && position < text.length()) {
+                value.append(text.charAt(position++));
+            } else if (c == quote) {
+                break;
+            } else {
+                value.append(c);
+            }
+        }
+        return value.toString();
+    }
+
+    private void skipWhitespaceAndComments() {
+        while (position < text.length()) {
+            char c = text.charAt(position);
+            if (Character.isWhitespace(c)) {
+                position++;
+            } else if (text.startsWith("//", position)) {
+                int end = text.indexOf('\n', position);
+                position = end < 0 ? text.length() : end + 1;
+            } else if (text.startsWith("/*", position)) {
+                int end = text.indexOf("*/", position + 2);
+                position = end < 0 ? text.length() : end + 2;
+            } else {
+                return;
+            }
+        }
+    }
+
+    public static class Header {
+        private String namespace;
+        private String name;
+        private String version;
+        private final List<Using> usings = new ArrayList<>();
+        private final List<Include> includes = new ArrayList<>();
+        private final List<CodeSystem> codeSystems = new ArrayList<>();
+        private final List<ValueSet> valueSets = new ArrayList<>();
+        private final List<Code> codes = new ArrayList<>();
+
+        public String getNamespace() {
+            return namespace;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public List<Using> getUsings() {
+            return usings;
+        }
+
+        public List<Include> getIncludes() {
+            return includes;
+        }
+
+        public List<CodeSystem> getCodeSystems() {
+            return codeSystems;
+        }
+
+        public List<ValueSet> getValueSets() {
+            return valueSets;
+        }
+
+        public List<Code> getCodes() {
+            return codes;
+        }
+    }
+
+    public static class Using {
+        private String name;
+        private String version;
+
+        public String getName() {
+            return name;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+    }
+
+    public static class Include {
+        private String namespace;
+        private String name;
+        private String version;
+        private String alias;
+
+        public String getNamespace() {
+            return namespace;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public String getAlias() {
+            return alias;
+        }
+    }
+
+    public static class CodeSystem {
+        private String name;
+        private String id;
+        private String version;
+
+        public String getName() {
+            return name;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+    }
+
+    public static class ValueSet {
+        private String name;
+        private String id;
+        private String version;
+
+        public String getName() {
+            return name;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+    }
+
+    public static class Code {
+        private String name;
+        private String code;
+        private String codeSystemName;
+        private String display;
+
+        public String getName() {
+            return name;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        public String getCodeSystemName() {
+            return codeSystemName;
+        }
+
+        public String getDisplay() {
+            return display;
+        }
+    }
+}
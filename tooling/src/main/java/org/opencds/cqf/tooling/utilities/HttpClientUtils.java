@@ -1,30 +1,42 @@
 package org.opencds.cqf.tooling.utilities;
 
 import ca.uhn.fhir.context.FhirContext;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.tuple.Pair;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.EntityTemplate;
+import org.apache.http.entity.FileEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 /**
@@ -34,25 +46,168 @@ public class HttpClientUtils {
     protected static final Logger logger = LoggerFactory.getLogger(HttpClientUtils.class);
     private static final String FHIR_SERVER_URL = "FHIR Server URL";
     private static final String BUNDLE_RESOURCE = "Bundle Resource";
+    private static final String BUNDLE_RESOURCE_PATH = "Bundle Resource Path";
     private static final String ENCODING_TYPE = "Encoding Type";
     private static final String FHIR_CONTEXT = "FHIR Context";
-    private static final int MAX_SIMULTANEOUS_POST_COUNT = 10;
+    private static final int DEFAULT_MAX_SIMULTANEOUS_POST_COUNT = 10;
+    //60 second timeout
+    private static final RequestConfig REQUEST_CONFIG = RequestConfig.custom()
+            .setSocketTimeout(60000)
+            .setConnectTimeout(60000)
+            .build();
+
+    private static int maxSimultaneousPostCount = DEFAULT_MAX_SIMULTANEOUS_POST_COUNT;
+    private static int maxConnectionsPerRoute = DEFAULT_MAX_SIMULTANEOUS_POST_COUNT;
+    private static boolean gzipRequests = false;
+    private static RetryPolicy retryPolicy = new RetryPolicy();
+    private static boolean interactiveRetry = false;
+    private static UploadJournal uploadJournal;
+    private static CloseableHttpClient httpClient;
 
     //failedPostCalls needs to maintain the details built in the FAILED message, as well as a copy of the inputs for a retry by the user on failed posts.
+    //Posts the server rejected (retrying them will not help)
     private static Queue<Pair<String, PostComponent>> failedPostCalls = new ConcurrentLinkedQueue<>();
+    //Posts that still failed with a transient error once the retry policy gave up
+    private static Queue<Pair<String, PostComponent>> transientFailedPostCalls = new ConcurrentLinkedQueue<>();
     private static List<String> successfulPostCalls = new CopyOnWriteArrayList<>();
-    private static Map<IBaseResource, Callable<Void>> tasks = new ConcurrentHashMap<>();
-    private static List<IBaseResource> runningPostTaskList = new CopyOnWriteArrayList<>();
+    private static final AtomicInteger skippedPostCount = new AtomicInteger(0);
+    // keyed by PostComponent.getKey(); tasks hold a reference to the resource (preferably its file), not its encoded body
+    private static Map<String, PostComponent> tasks = new ConcurrentHashMap<>();
+    private static final AtomicInteger runningPostCount = new AtomicInteger(0);
     private static final AtomicInteger counter = new AtomicInteger(0);
+    // the index of the last post added to tasks
+    private static final AtomicInteger postIndex = new AtomicInteger(0);
+    // identifies queued in-memory resources, whose identity hash codes are not unique
+    private static final AtomicLong resourceSequence = new AtomicLong(0);
 
     private HttpClientUtils() {}
 
+    /**
+     * Receives the final outcome of a post, once retries are over.
+     */
+    @FunctionalInterface
+    public interface PostResponseListener {
+        /**
+         * @param statusCode the HTTP status of the last attempt, or 0 if no response was received
+         * @param body       the body of a successful response, otherwise null
+         */
+        void onResponse(int statusCode, String body);
+    }
+
     public static boolean hasPostTasksInQueue() {
         return !tasks.isEmpty();
     }
 
+    /**
+     * Sets the number of POST requests {@link #postTaskCollection()} sends concurrently. Defaults to 10.
+     */
+    public static synchronized void setMaxSimultaneousPostCount(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("The number of simultaneous POST requests must be at least 1");
+        }
+        maxSimultaneousPostCount = count;
+        // there is no point in having fewer connections than requests in flight
+        if (maxConnectionsPerRoute < count) {
+            setMaxConnectionsPerRoute(count);
+        }
+    }
+
+    public static synchronized int getMaxSimultaneousPostCount() {
+        return maxSimultaneousPostCount;
+    }
+
+    /**
+     * Sets the maximum number of pooled (kept alive) connections to a single FHIR server. Defaults to 10.
+     */
+    public static synchronized void setMaxConnectionsPerRoute(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("The number of connections per route must be at least 1");
+        }
+        if (count != maxConnectionsPerRoute) {
+            maxConnectionsPerRoute = count;
+            closeHttpClient();
+        }
+    }
+
+    /**
+     * Sets whether POST request bodies are gzip compressed (Content-Encoding: gzip). The server must support it.
+     */
+    public static synchronized void setGzipRequests(boolean gzip) {
+        gzipRequests = gzip;
+    }
+
+    private static synchronized boolean isGzipRequests() {
+        return gzipRequests;
+    }
+
+    /**
+     * Sets when failed POST requests are retried by {@link #postTaskCollection()}. Defaults to {@link RetryPolicy#RetryPolicy()}.
+     */
+    public static synchronized void setRetryPolicy(RetryPolicy policy) {
+        retryPolicy = Objects.requireNonNull(policy);
+    }
+
+    public static synchronized RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets whether {@link #postTaskCollection()} asks on the console whether to retry the posts that still failed once
+     * the retry policy gave up. Defaults to false, so unattended runs never wait for input.
+     */
+    public static synchronized void setInteractiveRetry(boolean interactive) {
+        interactiveRetry = interactive;
+    }
+
+    private static synchronized boolean isInteractiveRetry() {
+        return interactiveRetry;
+    }
+
+    /**
+     * Sets the journal {@link #postTaskCollection()} records the outcome of each post in, and skips the resources it
+     * records as already posted with identical content. Null (the default) disables journaling. The caller owns the
+     * journal and closes it.
+     */
+    public static synchronized void setUploadJournal(UploadJournal journal) {
+        uploadJournal = journal;
+    }
+
+    private static synchronized UploadJournal getUploadJournal() {
+        return uploadJournal;
+    }
+
+    /**
+     * @return The client shared by all requests, whose connections are pooled and kept alive between requests
+     */
+    public static synchronized CloseableHttpClient getHttpClient() {
+        if (httpClient == null) {
+            PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+            connectionManager.setMaxTotal(Math.max(connectionManager.getMaxTotal(), maxConnectionsPerRoute));
+            httpClient = HttpClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .setDefaultRequestConfig(REQUEST_CONFIG)
+                    .build();
+        }
+        return httpClient;
+    }
+
+    private static synchronized void closeHttpClient() {
+        if (httpClient != null) {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                logger.warn("Error while closing the HTTP client: " + e.getMessage());
+            }
+            httpClient = null;
+        }
+    }
+
     /**
      * Initiates an HTTP POST request to a FHIR server with the specified parameters.
+     * <p>
+     * The resource is kept in memory until the request is made; when the resource has been written to a file, prefer
+     * {@link #post(String, String, IOUtils.Encoding, FhirContext)}.
      *
      * @param fhirServerUrl The URL of the FHIR server to which the POST request will be sent.
      * @param resource      The FHIR resource to be posted.
@@ -74,7 +229,47 @@ public class HttpClientUtils {
                     (!values.isEmpty() ? "\\nRemaining values are: " + String.join(", ", values) : ""));
         }
 
-        createPostTask(fhirServerUrl, resource, encoding, fhirContext);
+        createPostTask(new PostComponent(fhirServerUrl, resource, encoding, fhirContext));
+    }
+
+    /**
+     * Initiates an HTTP POST request to a FHIR server, whose outcome is passed to the listener (on one of the threads
+     * of {@link #postTaskCollection()}), e.g. to read the entry statuses of the response to a batch.
+     */
+    public static void post(String fhirServerUrl, IBaseResource resource, IOUtils.Encoding encoding, FhirContext fhirContext,
+                            PostResponseListener listener) throws IOException {
+        PostComponent postPojo = new PostComponent(fhirServerUrl, resource, encoding, fhirContext);
+        postPojo.listener = listener;
+        createPostTask(postPojo);
+    }
+
+    /**
+     * Initiates an HTTP POST request to a FHIR server of the resource in the given file.
+     * <p>
+     * Only the path is queued: the file is streamed to the server as is when the request is made (or parsed and
+     * re-encoded then, if it is not in the requested encoding), so queued requests do not hold resources in memory.
+     *
+     * @param fhirServerUrl The URL of the FHIR server to which the POST request will be sent.
+     * @param resourcePath  The path of the file of the FHIR resource to be posted.
+     * @param encoding      The encoding type of the request.
+     * @param fhirContext   The FHIR context for the resource.
+     * @throws IOException If an I/O error occurs during the request.
+     */
+    public static void post(String fhirServerUrl, String resourcePath, IOUtils.Encoding encoding, FhirContext fhirContext) throws IOException {
+        List<String> missingValues = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        validateAndAddValue(fhirServerUrl, FHIR_SERVER_URL, missingValues, values);
+        validateAndAddValue(resourcePath, BUNDLE_RESOURCE_PATH, missingValues, values);
+        validateAndAddValue(encoding, ENCODING_TYPE, missingValues, values);
+        validateAndAddValue(fhirContext, FHIR_CONTEXT, missingValues, values);
+
+        if (!missingValues.isEmpty()) {
+            String missingValueString = String.join(", ", missingValues);
+            System.out.println("An invalid HTTP POST call was attempted with a null value for: " + missingValueString +
+                    (!values.isEmpty() ? "\\nRemaining values are: " + String.join(", ", values) : ""));
+        }
+
+        createPostTask(new PostComponent(fhirServerUrl, resourcePath, encoding, fhirContext));
     }
 
 
@@ -108,105 +303,191 @@ public class HttpClientUtils {
      * <p>
      * This method is responsible for creating a task that prepares and executes an HTTP POST request to the provided FHIR server
      * with the given FHIR resource, encoding type, and FHIR context. It adds the task to the queue of tasks for later execution.
-     * If any exceptions occur during task creation or configuration, an error message is logged.
+     * The request itself is only built when the task runs.
      *
-     * @param fhirServerUrl The URL of the FHIR server to which the POST request will be sent.
-     * @param resource      The FHIR resource to be posted.
-     * @param encoding      The encoding type of the resource.
-     * @param fhirContext   The FHIR context for the resource.
+     * @param postPojo A data object containing the information about the POST request.
      */
-    private static void createPostTask(String fhirServerUrl, IBaseResource resource, IOUtils.Encoding encoding, FhirContext fhirContext) {
-        try {
-            final int currentTaskIndex = tasks.size() + 1;
-            PostComponent postPojo = new PostComponent(fhirServerUrl, resource, encoding, fhirContext);
-            HttpPost post = configureHttpPost(fhirServerUrl, resource, encoding, fhirContext);
-
-            Callable<Void> task = createPostCallable(post, postPojo, currentTaskIndex);
-            tasks.put(resource, task);
-        } catch (Exception e) {
-            logger.error("Error while submitting the POST request: " + e.getMessage(), e);
-        }
+    private static void createPostTask(PostComponent postPojo) {
+        tasks.computeIfAbsent(postPojo.getKey(), key -> {
+            postPojo.index = postIndex.incrementAndGet();
+            return postPojo;
+        });
     }
 
     /**
      * Configures and prepares an HTTP POST request with the specified parameters.
      * <p>
      * This method creates and configures an HTTP POST request to be used for posting a FHIR resource to the given FHIR server.
-     * It sets the request's headers, encodes the FHIR resource, and sets request timeouts. If an unsupported encoding type is
-     * encountered, it throws a runtime exception.
+     * It sets the request's headers, sets a body that is streamed (UTF-8, gzip compressed if enabled with
+     * {@link #setGzipRequests(boolean)}) into the connection, and sets request timeouts.
      *
-     * @param fhirServerUrl The URL of the FHIR server to which the POST request will be sent.
-     * @param resource      The FHIR resource to be posted.
-     * @param encoding      The encoding type of the resource.
-     * @param fhirContext   The FHIR context for the resource.
+     * @param postPojo A data object containing the information about the POST request.
      * @return An HTTP POST request configured for the FHIR server and resource.
      */
-    private static HttpPost configureHttpPost(String fhirServerUrl, IBaseResource resource, IOUtils.Encoding encoding, FhirContext fhirContext) {
-        HttpPost post = new HttpPost(fhirServerUrl);
-        post.addHeader("content-type", "application/" + encoding.toString());
+    private static HttpPost configureHttpPost(PostComponent postPojo) {
+        HttpPost post = new HttpPost(postPojo.fhirServerUrl);
+        post.addHeader("content-type", "application/" + postPojo.encoding.toString());
 
-        String resourceString = IOUtils.encodeResourceAsString(resource, encoding, fhirContext);
-        StringEntity input;
-        try {
-            input = new StringEntity(resourceString);
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
+        HttpEntity input = createEntity(postPojo);
+        if (isGzipRequests()) {
+            input = new GzipCompressingEntity(input);
         }
         post.setEntity(input);
-
-        //60 second timeout
-        RequestConfig requestConfig = RequestConfig.custom()
-                .setSocketTimeout(60000)
-                .setConnectTimeout(60000)
-                .build();
-        post.setConfig(requestConfig);
+        post.setConfig(REQUEST_CONFIG);
 
         return post;
     }
 
     /**
-     * Creates a callable task for executing an HTTP POST request and handling the response.
+     * Creates the body of a POST request. A file that is already in the requested encoding is sent as is; otherwise
+     * the resource is encoded while it is written to the connection (chunked), so the encoded body is never held in
+     * memory as a whole.
+     */
+    private static HttpEntity createEntity(PostComponent postPojo) {
+        ContentType contentType = ContentType.create("application/" + postPojo.encoding.toString(), StandardCharsets.UTF_8);
+        if (postPojo.resourcePath != null && IOUtils.getEncoding(postPojo.resourcePath) == postPojo.encoding) {
+            return new FileEntity(new File(postPojo.resourcePath), contentType);
+        }
+
+        AbstractHttpEntity entity = new EntityTemplate(outputStream -> {
+            Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+            IOUtils.encodeResourceToWriter(postPojo.getResource(), postPojo.encoding, postPojo.fhirContext, writer);
+            writer.flush();
+        });
+        entity.setContentType(contentType.toString());
+        entity.setChunked(true);
+        return entity;
+    }
+
+    /**
+     * Sends one HTTP POST request and classifies the response.
      * <p>
-     * This method constructs a callable task that performs the following steps:
-     * 1. Executes an HTTP POST request using the provided parameters.
-     * 2. Processes the HTTP response, checking the status code and reason phrase.
-     * 3. Logs success or failure messages based on the response status.
-     * 4. Handles exceptions related to the request and response.
-     * 5. Updates the progress and status of the post task.
+     * I/O errors and the statuses of the retry policy are transient; any other error status is permanent.
      *
-     * @param post          The HTTP POST request to be executed.
-     * @param postPojo      A data object containing additional information about the POST request.
-     * @param currentTaskIndex The current index of the POST task among all tasks.
-     * @return A callable task for executing the HTTP POST request.
+     * @param postPojo A data object containing the information about the POST request.
+     * @return The outcome of the request.
      */
-    private static Callable<Void> createPostCallable(HttpPost post, PostComponent postPojo, int currentTaskIndex) {
-        return () -> {
-            try (CloseableHttpClient httpClient = HttpClientBuilder.create().build()) {
-                HttpResponse response = httpClient.execute(post);
-                StatusLine statusLine = response.getStatusLine();
-                int statusCode = statusLine.getStatusCode();
-                String reasonPhrase = statusLine.getReasonPhrase();
-                String httpVersion = statusLine.getProtocolVersion().toString();
-
-                if (statusCode >= 200 && statusCode < 300) {
-                    successfulPostCalls.add(currentTaskIndex + " out of " + tasks.size() + " - Resource successfully posted to FHIR server: " + postPojo.resource.getIdElement().getIdPart());
-                } else {
-                    String detailedMessage = currentTaskIndex + " out of " + tasks.size() + " - Error posting resource to FHIR server (" + postPojo.fhirServerUrl
-                            + ") " + postPojo.resource.getIdElement().getIdPart() + ": HTTP Status: " + statusCode + " " + reasonPhrase + " (HTTP Version: " + httpVersion + ")";
+    private static PostAttempt attemptPost(PostComponent postPojo) {
+        try (CloseableHttpResponse response = getHttpClient().execute(configureHttpPost(postPojo))) {
+            StatusLine statusLine = response.getStatusLine();
+            int statusCode = statusLine.getStatusCode();
+            if (statusCode >= 200 && statusCode < 300 && postPojo.listener != null && response.getEntity() != null) {
+                PostAttempt attempt = new PostAttempt(statusCode, null, null, false);
+                attempt.body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+                return attempt;
+            }
+            // the response must be read fully for the connection to go back to the pool
+            EntityUtils.consume(response.getEntity());
+            if (statusCode >= 200 && statusCode < 300) {
+                return new PostAttempt(statusCode, null, null, false);
+            }
+
+            Header retryAfter = response.getFirstHeader("Retry-After");
+            String detailedMessage = "Error posting resource to FHIR server (" + postPojo.fhirServerUrl + ") " + postPojo.resourceId
+                    + ": HTTP Status: " + statusCode + " " + statusLine.getReasonPhrase() + " (HTTP Version: " + statusLine.getProtocolVersion() + ")";
+            return new PostAttempt(statusCode, retryAfter != null ? retryAfter.getValue() : null, detailedMessage,
+                    getRetryPolicy().isRetryable(statusCode));
+        } catch (IOException e) {
+            return new PostAttempt(0, null, "Error while making the POST request: " + e.getMessage(), true);
+        } catch (Exception e) {
+            return new PostAttempt(0, null, "Error during POST request execution: " + e.getMessage(), false);
+        }
+    }
 
-                    failedPostCalls.add(Pair.of(detailedMessage, postPojo));
+    /**
+     * Posts a resource, retrying transient failures as the retry policy allows.
+     * <p>
+     * A retry is scheduled on the executor after the delay of the policy rather than waited for, so the thread is free
+     * to post other resources meanwhile. Every attempt holds a permit of the concurrency limit while its request is in
+     * flight, and reports its outcome to it. The result (success, permanent or transient failure) is recorded and
+     * {@code done} completed once no attempt is left.
+     */
+    private static void postWithRetries(PostComponent postPojo, int attempt, RetryPolicy policy, AdaptiveConcurrencyLimit limit,
+                                        ScheduledExecutorService executorService, CompletableFuture<Void> done) {
+        try {
+            UploadJournal journal = getUploadJournal();
+            if (attempt == 1 && journal != null && postPojo.journalKey != null) {
+                postPojo.hash = hash(postPojo);
+                if (journal.isAcknowledged(postPojo.fhirServerUrl, postPojo.journalKey, postPojo.hash)) {
+                    skippedPostCount.incrementAndGet();
+                    reportProgress();
+                    done.complete(null);
+                    return;
                 }
+            }
 
-            } catch (IOException e) {
-                failedPostCalls.add(Pair.of(currentTaskIndex + " out of " + tasks.size() + " - Error while making the POST request: " + e.getMessage(), postPojo));
-            } catch (Exception e) {
-                failedPostCalls.add(Pair.of(currentTaskIndex + " out of " + tasks.size() + " - Error during POST request execution: " + e.getMessage(), postPojo));
+            long permit = limit.acquire();
+            runningPostCount.incrementAndGet();
+            PostAttempt result = null;
+            try {
+                result = attemptPost(postPojo);
+            } finally {
+                runningPostCount.decrementAndGet();
+                if (result != null && result.isSuccessful()) {
+                    limit.onSuccess();
+                } else if (result != null && policy.isOverloaded(result.statusCode)) {
+                    limit.onOverload(permit);
+                } else {
+                    limit.onFailure();
+                }
             }
 
-            runningPostTaskList.remove(postPojo.resource);
+            String prefix = postPojo.index + " out of " + tasks.size() + " - ";
+            if (result.isSuccessful()) {
+                successfulPostCalls.add(prefix + "Resource successfully posted to FHIR server: " + postPojo.resourceId);
+            } else if (result.retryable && attempt < policy.getMaxAttempts()) {
+                executorService.schedule(() -> postWithRetries(postPojo, attempt + 1, policy, limit, executorService, done),
+                        policy.getDelayMillis(attempt, result.retryAfter), TimeUnit.MILLISECONDS);
+                return;
+            } else if (result.retryable) {
+                transientFailedPostCalls.add(Pair.of(prefix + result.message + " (gave up after " + attempt + " attempt(s))", postPojo));
+            } else {
+                failedPostCalls.add(Pair.of(prefix + result.message, postPojo));
+            }
+            journal(postPojo, result);
+            if (postPojo.listener != null) {
+                postPojo.listener.onResponse(result.statusCode, result.body);
+            }
             reportProgress();
+            done.complete(null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            transientFailedPostCalls.add(Pair.of(postPojo.index + " out of " + tasks.size() + " - POST request interrupted", postPojo));
+            if (postPojo.listener != null) {
+                postPojo.listener.onResponse(0, null);
+            }
+            done.complete(null);
+        } catch (Throwable e) {
+            done.completeExceptionally(e);
+        }
+    }
+
+    // Returns the content hash of the resource to post, or null if it cannot be read (the post then fails on its own)
+    private static String hash(PostComponent postPojo) {
+        try {
+            return postPojo.resourcePath != null
+                    ? UploadJournal.hash(postPojo.resourcePath)
+                    : UploadJournal.hash(postPojo.resource, postPojo.fhirContext);
+        } catch (Exception e) {
+            logger.warn("Unable to hash {} for the upload journal: {}", postPojo.resourceId, e.getMessage());
             return null;
-        };
+        }
+    }
+
+    private static void journal(PostComponent postPojo, PostAttempt result) {
+        UploadJournal journal = getUploadJournal();
+        if (journal == null || postPojo.journalKey == null || postPojo.hash == null) {
+            return;
+        }
+        try {
+            if (result.isSuccessful()) {
+                journal.recordSuccess(postPojo.fhirServerUrl, postPojo.journalKey, postPojo.hash, result.statusCode);
+            } else {
+                journal.recordFailure(postPojo.fhirServerUrl, postPojo.journalKey, postPojo.hash, result.statusCode);
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to write to the upload journal {}: {}", journal.getFile(), e.getMessage());
+        }
     }
 
     /**
@@ -219,7 +500,7 @@ public class HttpClientUtils {
     private static void reportProgress() {
         int currentCounter = counter.incrementAndGet();
         double percentage = (double) currentCounter / tasks.size() * 100;
-        System.out.print("\rPOST calls: " + String.format("%.2f%%", percentage) + " processed. Thread pool size: " + runningPostTaskList.size() + " ");
+        System.out.print("\rPOST calls: " + String.format("%.2f%%", percentage) + " processed. Thread pool size: " + runningPostCount.get() + " ");
     }
 
     /**
@@ -227,34 +508,59 @@ public class HttpClientUtils {
      * <p>
      * This method orchestrates the execution of a collection of HTTP POST requests, each represented as a task.
      * The method performs the following steps:
-     * 1. Creates a thread pool using a fixed number of threads (usually 1).
-     * 2. Initiates the HTTP POST tasks for FHIR resources and monitors their progress.
-     * 3. Collects and logs success or failure messages for each task.
-     * 4. Sorts and reports the results of the post tasks, both successful and failed.
-     * 5. Offers the option to retry failed tasks, if desired by the user.
-     * 6. Cleans up resources and shuts down the thread pool when finished.
+     * 1. Posts the resources concurrently, at most {@link #setMaxSimultaneousPostCount(int)} at a time over a pool of
+     *    kept alive connections. The limit is halved while the server answers 429 or 503 and grows back as posts succeed.
+     * 2. Retries posts that failed with a transient error (see {@link RetryPolicy}) with exponential backoff and jitter,
+     *    honoring the Retry-After header of the server.
+     * 3. Sorts and reports the results of the post tasks: successful, rejected by the server, and still failing after
+     *    the last attempt.
+     * 4. If enabled with {@link #setInteractiveRetry(boolean)}, offers the option to retry failed tasks.
+     * 5. Cleans up resources when finished.
+     * <p>
+     * With an upload journal (see {@link #setUploadJournal(UploadJournal)}), resources it records as already posted to
+     * the same server with identical content are skipped, and the outcome of the others is journaled.
      * <p>
      * This method serves as the entry point for posting tasks and provides progress monitoring and result reporting.
      */
     public static void postTaskCollection() {
-        ExecutorService executorService = Executors.newFixedThreadPool(1);
+        try {
+            boolean retry;
+            do {
+                executePostTasks();
+                reportResults();
+
+                retry = isInteractiveRetry() && (!failedPostCalls.isEmpty() || !transientFailedPostCalls.isEmpty()) && promptRetry();
+                if (retry) {
+                    List<Pair<String, PostComponent>> failedPostCallList = new ArrayList<>(failedPostCalls);
+                    failedPostCallList.addAll(transientFailedPostCalls);
+                    cleanUp(); //clear the queue, reset the counter, start fresh
+
+                    for (Pair<String, PostComponent> pair : failedPostCallList) {
+                        createPostTask(pair.getRight());
+                    }
+                }
+            } while (retry);
+        } finally {
+            cleanUp();
+        }
+    }
+
+    private static void executePostTasks() {
+        RetryPolicy policy = getRetryPolicy();
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(getMaxSimultaneousPostCount());
+        // the pool size bounds the number of requests in flight; the limit may lower it
+        ScheduledExecutorService executorService = Executors.newScheduledThreadPool(getMaxSimultaneousPostCount());
 
         try {
             System.out.println(tasks.size() + " POST calls to be made. Starting now. Please wait...");
             double percentage = 0;
             System.out.print("\rPOST: " + String.format("%.2f%%", percentage) + " done. ");
 
-            List<Future<Void>> futures = new ArrayList<>();
-            List<IBaseResource> resources = new ArrayList<>(tasks.keySet());
-            for (int i = 0; i < resources.size(); i++) {
-                IBaseResource thisResource = resources.get(i);
-                if (runningPostTaskList.size() < MAX_SIMULTANEOUS_POST_COUNT) {
-                    runningPostTaskList.add(thisResource);
-                    futures.add(executorService.submit(tasks.get(thisResource)));
-                } else {
-                    threadSleep(10);
-                    i--;
-                }
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (PostComponent postPojo : tasks.values()) {
+                CompletableFuture<Void> done = new CompletableFuture<>();
+                futures.add(done);
+                executorService.execute(() -> postWithRetries(postPojo, 1, policy, limit, executorService, done));
             }
 
             for (Future<Void> future : futures) {
@@ -264,121 +570,94 @@ public class HttpClientUtils {
                     logger.error("HTTPClientUtils future.get()", e);
                 }
             }
+        } finally {
+            executorService.shutdownNow();
+            syncUploadJournal();
+        }
+    }
 
-            System.out.println("Processing results...");
-            successfulPostCalls.sort(postResultMessageComparator);
-
-            StringBuilder message = new StringBuilder();
-            message.append("\r\n").append(successfulPostCalls.size()).append(" resources successfully posted.");
-            for (String successPost : successfulPostCalls) {
-                message.append("\n").append(successPost);
-            }
-            System.out.println(message.toString());
-            successfulPostCalls = new ArrayList<>();
-
-            if (!failedPostCalls.isEmpty()) {
-                System.out.println(failedPostCalls.size() + " tasks failed to POST. Retry these failed posts? (Y/N)");
-                Scanner scanner = new Scanner(System.in);
-                String userInput = scanner.nextLine().trim().toLowerCase();
-
-                if (userInput.equalsIgnoreCase("y")) {
-                    List<Pair<String, PostComponent>> failedPostCallList = new ArrayList<>(failedPostCalls);
-                    cleanUp(); //clear the queue, reset the counter, start fresh
-
-                    for (Pair<String, PostComponent> pair : failedPostCallList) {
-                        PostComponent postPojo = pair.getRight();
-                        try {
-                            post(postPojo.fhirServerUrl, postPojo.resource, postPojo.encoding, postPojo.fhirContext);
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }
-
-                    for (Callable<Void> task : tasks.values()) {
-                        try {
-                            task.call();
-                        } catch (Exception e) {
-                            throw new RuntimeException(e);
-                        }
-                        threadSleep(50);
-                    }
-
-                    if (failedPostCalls.isEmpty()) {
-                        System.out.println("Retry successful, all tasks successfully posted");
-                    }
-                }
+    private static void syncUploadJournal() {
+        UploadJournal journal = getUploadJournal();
+        if (journal != null) {
+            try {
+                journal.sync();
+            } catch (IOException e) {
+                logger.warn("Unable to write to the upload journal {}: {}", journal.getFile(), e.getMessage());
             }
+        }
+    }
 
-            if (!successfulPostCalls.isEmpty()) {
-                message = new StringBuilder();
-                message.append("\r\n").append(successfulPostCalls.size()).append(" resources successfully posted.");
-                for (String successPost : successfulPostCalls) {
-                    message.append("\n").append(successPost);
-                }
-                System.out.println(message.toString());
-                successfulPostCalls = new ArrayList<>();
-            }
+    private static void reportResults() {
+        System.out.println("Processing results...");
+        successfulPostCalls.sort(postResultMessageComparator);
 
-            if (!failedPostCalls.isEmpty()) {
-                System.out.println("\n" + failedPostCalls.size() + " task(s) still failed to POST: ");
-                List<String> failedMessages = new ArrayList<>();
-                for (Pair<String, PostComponent> pair : failedPostCalls) {
-                    failedMessages.add(pair.getLeft());
-                }
-                failedMessages.sort(postResultMessageComparator);
-                message = new StringBuilder();
-                message.append("\r\n").append(failedMessages.size()).append(" resources failed to post.");
-                for (String failedPost : failedMessages) {
-                    message.append("\n").append(failedPost);
-                }
-                System.out.println(message.toString());
-            }
+        StringBuilder message = new StringBuilder();
+        message.append("\r\n").append(successfulPostCalls.size()).append(" resources successfully posted.");
+        for (String successPost : successfulPostCalls) {
+            message.append("\n").append(successPost);
+        }
+        if (skippedPostCount.get() > 0) {
+            message.append("\n").append(skippedPostCount.get()).append(" resources skipped: the upload journal records them as already posted.");
+        }
+        System.out.println(message.toString());
 
-        } finally {
-            cleanUp();
-            executorService.shutdown();
+        if (!failedPostCalls.isEmpty()) {
+            reportFailures(failedPostCalls, " resources were rejected by the FHIR server (retrying them will not help):");
+        }
+        if (!transientFailedPostCalls.isEmpty()) {
+            reportFailures(transientFailedPostCalls, " resources failed to post because the FHIR server was unavailable (they may be retried later):");
         }
     }
 
-    /**
-     * Pauses the current thread's execution for a specified duration.
-     *
-     * This method causes the current thread to sleep for the given duration, allowing a pause in execution. If an
-     * interruption occurs during the sleep, it is logged as an exception.
-     *
-     * @param i The duration, in milliseconds, for which the thread should sleep.
-     */
-    private static void threadSleep(int i){
-        try {
-            Thread.sleep(i);
-        } catch (InterruptedException e) {
-            logger.error("postTaskCollection", new RuntimeException(e));
+    private static void reportFailures(Queue<Pair<String, PostComponent>> failures, String description) {
+        List<String> failedMessages = new ArrayList<>();
+        for (Pair<String, PostComponent> pair : failures) {
+            failedMessages.add(pair.getLeft());
+        }
+        failedMessages.sort(postResultMessageComparator);
+        StringBuilder message = new StringBuilder();
+        message.append("\r\n").append(failedMessages.size()).append(description);
+        for (String failedPost : failedMessages) {
+            message.append("\n").append(failedPost);
         }
+        System.out.println(message.toString());
     }
+
+    private static boolean promptRetry() {
+        System.out.println((failedPostCalls.size() + transientFailedPostCalls.size()) + " tasks failed to POST. Retry these failed posts? (Y/N)");
+        Scanner scanner = new Scanner(System.in);
+        return scanner.hasNextLine() && scanner.nextLine().trim().equalsIgnoreCase("y");
+    }
+
     /**
      * Cleans up and resets internal data structures after processing HTTP POST tasks.
      * <p>
      * This method is responsible for resetting various data structures used during the processing of HTTP POST tasks. It performs the following actions:
-     * 1. Clears the queue of failed POST calls.
+     * 1. Clears the queues of failed POST calls.
      * 2. Clears the list of successful POST call results.
      * 3. Resets the map of tasks to be executed.
      * 4. Resets the counter that tracks the number of processed POST calls.
-     * 5. Clears the list of resources currently being posted.
+     * 5. Resets the number of requests currently being posted.
      * <p>
      * This method ensures a clean state and prepares the system for potential subsequent POST calls or retries.
      */
     private static void cleanUp() {
         failedPostCalls = new ConcurrentLinkedQueue<>();
+        transientFailedPostCalls = new ConcurrentLinkedQueue<>();
         successfulPostCalls = new CopyOnWriteArrayList<>();
+        skippedPostCount.set(0);
         tasks = new ConcurrentHashMap<>();
         counter.set(0);
-        runningPostTaskList = new CopyOnWriteArrayList<>();
+        postIndex.set(0);
+        runningPostCount.set(0);
     }
 
     public static String get(String path) throws IOException {
-        try (CloseableHttpClient httpClient = HttpClientBuilder.create().build()) {
-            HttpGet get = new HttpGet(path);
-            return getResponse(httpClient.execute(get));
+        HttpGet get = new HttpGet(path);
+        try (CloseableHttpResponse response = getHttpClient().execute(get)) {
+            String content = getResponse(response);
+            EntityUtils.consume(response.getEntity());
+            return content;
         }
     }
 
@@ -397,19 +676,75 @@ public class HttpClientUtils {
      * A data class representing information needed for HTTP POST requests.
      * <p>
      * The PostComponent class encapsulates the essential information required for making an HTTP POST request to a FHIR server.
-     * It includes the FHIR server URL, the FHIR resource to be posted, the encoding type, and the FHIR context.
+     * It includes the FHIR server URL, the FHIR resource to be posted (either the path of its file, or the resource itself),
+     * the encoding type, and the FHIR context.
      */
     private static class PostComponent {
         String fhirServerUrl;
+        String resourceId;
+        String resourcePath;
         IBaseResource resource;
         IOUtils.Encoding encoding;
         FhirContext fhirContext;
+        // the position of the post in the task collection, for reporting
+        int index;
+        // distinguishes in-memory resources in the task collection
+        long sequence;
+        // the identity and content hash of the resource in the upload journal
+        String journalKey;
+        String hash;
+        PostResponseListener listener;
 
         public PostComponent(String fhirServerUrl, IBaseResource resource, IOUtils.Encoding encoding, FhirContext fhirContext) {
             this.fhirServerUrl = fhirServerUrl;
+            this.resourceId = resource.getIdElement().getIdPart();
             this.resource = resource;
+            this.sequence = resourceSequence.incrementAndGet();
             this.encoding = encoding;
             this.fhirContext = fhirContext;
+            this.journalKey = UploadJournal.getKey(resource);
+        }
+
+        public PostComponent(String fhirServerUrl, String resourcePath, IOUtils.Encoding encoding, FhirContext fhirContext) {
+            this.fhirServerUrl = fhirServerUrl;
+            this.resourceId = FilenameUtils.getBaseName(resourcePath);
+            this.resourcePath = resourcePath;
+            this.encoding = encoding;
+            this.fhirContext = fhirContext;
+            this.journalKey = UploadJournal.getKey(resourcePath);
+        }
+
+        IBaseResource getResource() {
+            return resource != null ? resource : IOUtils.readResourceUncached(resourcePath, fhirContext);
+        }
+
+        String getKey() {
+            // the same file queued twice is posted once; every in-memory resource queued is posted
+            return fhirServerUrl + "|" + (resourcePath != null ? resourcePath : resource.fhirType() + "#" + sequence);
+        }
+    }
+
+    /**
+     * The outcome of one POST request: the status code (0 if no response was received), the Retry-After header, and
+     * for a failure, its description and whether it is transient.
+     */
+    private static class PostAttempt {
+        final int statusCode;
+        final String retryAfter;
+        final String message;
+        final boolean retryable;
+        // read only when the post has a listener
+        String body;
+
+        PostAttempt(int statusCode, String retryAfter, String message, boolean retryable) {
+            this.statusCode = statusCode;
+            this.retryAfter = retryAfter;
+            this.message = message;
+            this.retryable = retryable;
+        }
+
+        boolean isSuccessful() {
+            return statusCode >= 200 && statusCode < 300;
         }
     }
 
@@ -1,10 +1,11 @@
 package org.opencds.cqf.tooling.utilities;
 
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.context.RuntimeCompositeDatatypeDefinition;
-import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.util.BundleBuilder;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import org.apache.commons.io.FileUtils;
@@ -24,6 +25,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -99,6 +101,13 @@ public class IOUtils {
         return parser.setPrettyPrint(true).encodeResourceToString(resource);
     }
 
+    /**
+     * Encodes a resource (compactly) directly to a writer, without building the encoded String in memory.
+     */
+    public static void encodeResourceToWriter(IBaseResource resource, Encoding encoding, FhirContext fhirContext, Writer writer) throws IOException {
+        getParser(encoding, fhirContext).encodeResourceToWriter(resource, writer);
+    }
+
     // Issue 96 - adding second signature to allow for passing versioned
     public static <T extends IBaseResource> void writeResource(T resource, String path, Encoding encoding,
                                                                FhirContext fhirContext) {
@@ -157,6 +166,38 @@ public class IOUtils {
             logger.error(e.getMessage());
             throw new RuntimeException("Error writing Resource to file: " + e.getMessage());
         }
+        resourceWritten(outputPath);
+    }
+
+    // Keeps the caches of resources and of the indexed directories current with a file just written (e.g. a Library
+    // created by refresh, which later phases must find)
+    private static void resourceWritten(String outputPath) {
+        cachedResources.invalidate(outputPath);
+        if (resourceIndex.update(outputPath)) {
+            synchronized (cachedFilePaths) {
+                String directory = new File(outputPath).getAbsoluteFile().getParent();
+                cachedFilePaths.keySet().removeIf(key -> directory.startsWith(
+                        new File(key.substring(0, key.lastIndexOf(':'))).getAbsolutePath()));
+            }
+            clearIndexedPaths();
+        }
+    }
+
+    // The paths and maps derived from the resource index, rebuilt from it on next use
+    private static void clearIndexedPaths() {
+        terminologyPaths.clear();
+        libraryPaths.clear();
+        libraryUrlPathMap.clear();
+        libraryPathMap.clear();
+        measurePaths.clear();
+        measurePathMap.clear();
+        measureReportPaths.clear();
+        planDefinitionPaths.clear();
+        planDefinitionPathMap.clear();
+        questionnairePaths.clear();
+        questionnairePathMap.clear();
+        activityDefinitionPaths.clear();
+        devicePaths = null;
     }
 
     public static <T extends IBaseResource> void writeResources(List<T> resources, String path,
@@ -278,42 +319,92 @@ public class IOUtils {
         return readResource(path, fhirContext, false);
     }
 
+    // Parsed resources are typically several times larger in memory than their serialized form
+    private static final int PARSED_RESOURCE_SIZE_FACTOR = 4;
+    private static final long DEFAULT_RESOURCE_CACHE_MAXIMUM_BYTES = Runtime.getRuntime().maxMemory() / 4;
+    private static long resourceCacheMaximumBytes = DEFAULT_RESOURCE_CACHE_MAXIMUM_BYTES;
+    private static volatile Cache<String, IBaseResource> cachedResources = buildResourceCache(resourceCacheMaximumBytes);
+
+    private static Cache<String, IBaseResource> buildResourceCache(long maximumBytes) {
+        // weights are in kilobytes to stay within the int range of the weigher
+        return Caffeine.newBuilder()
+                .maximumWeight(Math.max(1, maximumBytes / 1024))
+                .weigher((String path, IBaseResource resource) -> estimateResourceWeight(path))
+                .recordStats()
+                .build();
+    }
+
+    private static int estimateResourceWeight(String path) {
+        long estimatedKilobytes = new File(path).length() * PARSED_RESOURCE_SIZE_FACTOR / 1024;
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, estimatedKilobytes));
+    }
+
+    /**
+     * Sets the (estimated) memory ceiling of the parsed resource cache. Resources are evicted when the ceiling is
+     * reached and re-parsed on the next read. Any resources already cached are discarded.
+     *
+     * @param maximumBytes the estimated maximum heap the cached resources may use
+     */
+    public static synchronized void setResourceCacheMaximumSize(long maximumBytes) {
+        if (maximumBytes <= 0) {
+            throw new IllegalArgumentException("The resource cache maximum size must be greater than 0");
+        }
+        resourceCacheMaximumBytes = maximumBytes;
+        cachedResources = buildResourceCache(maximumBytes);
+    }
+
+    public static CacheStats getResourceCacheStats() {
+        return cachedResources.stats();
+    }
+
+    public static String getResourceCacheSummary() {
+        CacheStats stats = cachedResources.stats();
+        return String.format("Resource cache: %d hits, %d misses (%.1f%% hit rate), %d evictions, %d loads averaging %.2f ms, %d entries, ceiling %d MB",
+                stats.hitCount(), stats.missCount(), stats.hitRate() * 100, stats.evictionCount(), stats.loadCount(),
+                stats.averageLoadPenalty() / 1_000_000, cachedResources.estimatedSize(), resourceCacheMaximumBytes / (1024 * 1024));
+    }
+
     //users should always check for null
-    private static final Map<String, IBaseResource> cachedResources = new LinkedHashMap<>();
     public static IBaseResource readResource(String path, FhirContext fhirContext, Boolean safeRead) {
         Encoding encoding = getEncoding(path);
         if (encoding == Encoding.UNKNOWN || encoding == Encoding.CQL) {
             return null;
         }
 
-        IBaseResource resource = cachedResources.get(path);
-        if (resource != null) {
-            return resource;
+        File file = new File(path);
+        if (file.exists() && file.isDirectory()) {
+            throw new IllegalArgumentException(String.format("Cannot read a resource from a directory: %s", path));
         }
 
-        try {
-            IParser parser = getParser(encoding, fhirContext);
-            File file = new File(path);
+        if (Boolean.TRUE.equals(safeRead) && !file.exists()) {
+            return cachedResources.getIfPresent(path);
+        }
 
-            if (file.exists() && file.isDirectory()) {
-                throw new IllegalArgumentException(String.format("Cannot read a resource from a directory: %s", path));
-            }
+        // the cache computes each path at most once, even when the same file is requested from several threads
+        return cachedResources.get(path, key -> readResourceUncached(path, fhirContext));
+    }
 
-            if (Boolean.TRUE.equals(safeRead) && !file.exists()) {
-                return null;
-            }
-            try (FileReader reader = new FileReader(file)) {
-                resource = parser.parseResource(reader);
-            }
-            cachedResources.put(path, resource);
+    /**
+     * Reads a resource without going through (or filling) the resource cache, for resources read once, e.g. while
+     * posting a directory.
+     *
+     * @return the resource, or null if the file is not JSON or XML
+     */
+    public static IBaseResource readResourceUncached(String path, FhirContext fhirContext) {
+        Encoding encoding = getEncoding(path);
+        if (encoding == Encoding.UNKNOWN || encoding == Encoding.CQL) {
+            return null;
+        }
+        IParser parser = getParser(encoding, fhirContext);
+        try (FileReader reader = new FileReader(path)) {
+            return parser.parseResource(reader);
         } catch (IOException e) {
             throw new RuntimeException(String.format("Error reading resource from path %s: %s", path, e.getMessage()), e);
         }
-        return resource;
     }
 
     public static void updateCachedResource(IBaseResource updatedResource, String path) {
-        cachedResources.computeIfPresent(path, (key, value) -> updatedResource);
+        cachedResources.asMap().computeIfPresent(path, (key, value) -> updatedResource);
     }
 
     public static List<IBaseResource> readResources(List<String> paths, FhirContext fhirContext) {
@@ -333,21 +424,17 @@ public class IOUtils {
             return null;
         }
 
-        if (cachedResources.containsKey(path)) {
-            return cachedResources.get(path);
-        }
-
-        IParser parser = getParser(encoding, fhirContext);
-        try (FileReader reader = new FileReader(path)) {
-            JsonObject obj = JsonParser.parseReader(reader).getAsJsonObject();
-            Arrays.stream(elements).forEach(obj::remove);
-            IBaseResource resource = parser.parseResource(obj.toString());
-            cachedResources.put(path, resource);
-            return resource;
-        } catch (IOException e) {
-            logger.error(e.getMessage());
-            throw new RuntimeException(String.format("Error reading resource from path %s: %s", path, e));
-        }
+        return cachedResources.get(path, key -> {
+            IParser parser = getParser(encoding, fhirContext);
+            try (FileReader reader = new FileReader(path)) {
+                JsonObject obj = JsonParser.parseReader(reader).getAsJsonObject();
+                Arrays.stream(elements).forEach(obj::remove);
+                return parser.parseResource(obj.toString());
+            } catch (IOException e) {
+                logger.error(e.getMessage());
+                throw new RuntimeException(String.format("Error reading resource from path %s: %s", path, e));
+            }
+        });
     }
 
     public static IBaseBundle bundleResourcesInDirectory(String directoryPath, FhirContext fhirContext, Boolean recursive) {
@@ -565,7 +652,7 @@ public class IOUtils {
         return dependencyCqlFiles;
     }
 
-    private static final Map<String, CqlTranslator> cachedTranslator = new LinkedHashMap<>();
+    private static final Map<String, CqlTranslator> cachedTranslator = new ConcurrentHashMap<>();
     public static CqlTranslator translate(String cqlContentPath, ModelManager modelManager, LibraryManager libraryManager, CqlTranslatorOptions options) throws CQLTranslatorException {
         CqlTranslator translator = cachedTranslator.get(cqlContentPath);
         if (translator != null) {
@@ -582,6 +669,7 @@ public class IOUtils {
             if (!translator.getErrors().isEmpty()) {
                 throw new CQLTranslatorException(listTranslatorErrors(translator));
             }
+            CompiledLibraryCache.cacheLibrary(libraryManager, translator.getTranslatedLibrary());
             cachedTranslator.put(cqlContentPath, translator);
             return translator;
         } catch (IOException e) {
@@ -716,6 +804,30 @@ public class IOUtils {
         return cqlLibrarySourcePath;
     }
 
+    private static PersistentResourceCache persistentResourceCache;
+    public static PersistentResourceCache getPersistentResourceCache() {
+        return persistentResourceCache;
+    }
+
+    /**
+     * Sets the persistent (cross-run) cache of resource headers and dependencies. Passing null disables it.
+     */
+    public static void setPersistentResourceCache(PersistentResourceCache cache) {
+        persistentResourceCache = cache;
+    }
+
+    public static void savePersistentResourceCache() {
+        if (persistentResourceCache != null) {
+            persistentResourceCache.save();
+            logger.info(persistentResourceCache.getSummary());
+        }
+    }
+
+    private static final ResourceIndex resourceIndex = new ResourceIndex();
+    public static ResourceIndex getResourceIndex() {
+        return resourceIndex;
+    }
+
     private static final Set<String> terminologyPaths = new LinkedHashSet<>();
     public static Set<String> getTerminologyPaths(FhirContext fhirContext) {
         if (terminologyPaths.isEmpty()) {
@@ -724,32 +836,8 @@ public class IOUtils {
         return terminologyPaths;
     }
     private static void setupTerminologyPaths(FhirContext fhirContext) {
-        HashMap<String, IBaseResource> resources = new LinkedHashMap<>();
-        for (String dir : resourceDirectories) {
-            for (String path : IOUtils.getFilePaths(dir, true)) {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    if (path.toLowerCase().contains("valuesets") || path.toLowerCase().contains("valueset")) {
-                        logger.error("Error reading in Terminology from path: {} \n {}", path, e.getMessage());
-                    }
-                }
-            }
-            //TODO: move these to ResourceUtils
-            RuntimeResourceDefinition valuesetDefinition = ResourceUtils.getResourceDefinition(fhirContext, "ValueSet");
-            RuntimeCompositeDatatypeDefinition conceptDefinition = (RuntimeCompositeDatatypeDefinition)ResourceUtils.getElementDefinition(fhirContext, "CodeableConcept");
-            RuntimeCompositeDatatypeDefinition codingDefinition = (RuntimeCompositeDatatypeDefinition)ResourceUtils.getElementDefinition(fhirContext, "Coding");
-            String valuesetClassName = valuesetDefinition.getImplementingClass().getName();
-            String conceptClassName = conceptDefinition.getImplementingClass().getName();
-            String codingClassName = codingDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                    .filter(entry -> entry.getValue() != null)
-                    .filter(entry ->
-                            valuesetClassName.equals(entry.getValue().getClass().getName())
-                                    || conceptClassName.equals(entry.getValue().getClass().getName())
-                                    || codingClassName.equals(entry.getValue().getClass().getName())
-                    )
-                    .forEach(entry -> terminologyPaths.add(entry.getKey()));
+        for (ResourceIndex.Entry entry : resourceIndex.getEntries(resourceDirectories, "ValueSet", "CodeableConcept", "Coding")) {
+            terminologyPaths.add(entry.getPath());
         }
     }
 
@@ -768,16 +856,12 @@ public class IOUtils {
         }
         return libraryPaths;
     }
-    private static final Map<String, IBaseResource> libraryUrlMap = new LinkedHashMap<>();
+    private static final Map<String, String> libraryUrlPathMap = new LinkedHashMap<>();
     public static Map<String, IBaseResource> getLibraryUrlMap(FhirContext fhirContext) {
         if (libraryPathMap.isEmpty()) {
             setupLibraryPaths(fhirContext);
         }
-//        LogUtils.info(String.format("libraryUrlMap Size: %d", libraryPathMap.size()));
-//        for (Map.Entry<String, IBaseResource> e : libraryUrlMap.entrySet()) {
-//            LogUtils.info(String.format("libraryUrlMap Entry: %s", e.getKey()));
-//        }
-        return libraryUrlMap;
+        return ResourceIndex.asResourceMap(libraryUrlPathMap, fhirContext);
     }
     private static final Map<String, String> libraryPathMap = new LinkedHashMap<>();
     public static Map<String, String> getLibraryPathMap(FhirContext fhirContext) {
@@ -786,39 +870,17 @@ public class IOUtils {
         }
         return libraryPathMap;
     }
-    private static final Map<String, IBaseResource> libraries = new LinkedHashMap<>();
     public static Map<String, IBaseResource> getLibraries(FhirContext fhirContext) {
-        if (libraries.isEmpty()) {
+        if (libraryPathMap.isEmpty()) {
             setupLibraryPaths(fhirContext);
         }
-        return libraries;
+        return ResourceIndex.asResourceMap(libraryPathMap, fhirContext);
     }
     private static void setupLibraryPaths(FhirContext fhirContext) {
-        Map<String, IBaseResource> resources = new LinkedHashMap<>();
-        for (String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true)) {
-                try {
-                    IBaseResource resource = IOUtils.readResource(path, fhirContext, true);
-                    resources.put(path, resource);
-                } catch (Exception e) {
-                    if(path.toLowerCase().contains("library")) {
-                        logger.error("Error reading in Library from path: {} \n {}", path, e.getMessage());
-                    }
-                }
-            }
-            //TODO: move these to ResourceUtils
-            RuntimeResourceDefinition libraryDefinition = ResourceUtils.getResourceDefinition(fhirContext, "Library");
-            String libraryClassName = libraryDefinition.getImplementingClass().getName();
-            // BaseRuntimeChildDefinition urlElement = libraryDefinition.getChildByNameOrThrowDataFormatException("url");
-            resources.entrySet().stream()
-                    .filter(entry -> entry.getValue() != null)
-                    .filter(entry ->  libraryClassName.equals(entry.getValue().getClass().getName()))
-                    .forEach(entry -> {
-                        libraryPaths.add(entry.getKey());
-                        libraries.put(entry.getValue().getIdElement().getIdPart(), entry.getValue());
-                        libraryPathMap.put(entry.getValue().getIdElement().getIdPart(), entry.getKey());
-                        libraryUrlMap.put(ResourceUtils.getUrl(entry.getValue(), fhirContext), entry.getValue());
-                    });
+        for (ResourceIndex.Entry entry : resourceIndex.getEntries(resourceDirectories, "Library")) {
+            libraryPaths.add(entry.getPath());
+            libraryPathMap.put(entry.getId(), entry.getPath());
+            libraryUrlPathMap.put(entry.getUrl(), entry.getPath());
         }
     }
 
@@ -836,37 +898,16 @@ public class IOUtils {
         }
         return measurePathMap;
     }
-    private static final Map<String, IBaseResource> measures = new LinkedHashMap<>();
     public static Map<String, IBaseResource> getMeasures(FhirContext fhirContext) {
-        if (measures.isEmpty()) {
+        if (measurePathMap.isEmpty()) {
             setupMeasurePaths(fhirContext);
         }
-        return measures;
+        return ResourceIndex.asResourceMap(measurePathMap, fhirContext);
     }
     private static void setupMeasurePaths(FhirContext fhirContext) {
-        Map<String, IBaseResource> resources = new LinkedHashMap<>();
-        for (String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true)) {
-                try {
-                    IBaseResource resource = IOUtils.readResource(path, fhirContext, true);
-                    resources.put(path, resource);
-                } catch (Exception e) {
-                    if(path.toLowerCase().contains("measure")) {
-                        System.out.println("Error reading in Measure from path: " + path + "\n" + e);
-                    }
-                }
-            }
-            //TODO: move these to ResourceUtils
-            RuntimeResourceDefinition measureDefinition = ResourceUtils.getResourceDefinition(fhirContext, "Measure");
-            String measureClassName = measureDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                    .filter(entry -> entry.getValue() != null)
-                    .filter(entry ->  measureClassName.equals(entry.getValue().getClass().getName()))
-                    .forEach(entry -> {
-                        measurePaths.add(entry.getKey());
-                        measures.put(entry.getValue().getIdElement().getIdPart(), entry.getValue());
-                        measurePathMap.put(entry.getValue().getIdElement().getIdPart(), entry.getKey());
-                    });
+        for (ResourceIndex.Entry entry : resourceIndex.getEntries(resourceDirectories, "Measure")) {
+            measurePaths.add(entry.getPath());
+            measurePathMap.put(entry.getId(), entry.getPath());
         }
     }
 
@@ -878,22 +919,8 @@ public class IOUtils {
         return measureReportPaths;
     }
     private static void setupMeasureReportPaths(FhirContext fhirContext) {
-        HashMap<String, IBaseResource> resources = new LinkedHashMap<>();
-        for (String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true)) {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    //TODO: handle exception
-                }
-            }
-            //TODO: move these to ResourceUtils
-            RuntimeResourceDefinition measureReportDefinition = ResourceUtils.getResourceDefinition(fhirContext, "MeasureReport");
-            String measureReportClassName = measureReportDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                    .filter(entry -> entry.getValue() != null)
-                    .filter(entry ->  measureReportClassName.equals(entry.getValue().getClass().getName()))
-                    .forEach(entry -> measureReportPaths.add(entry.getKey()));
+        for (ResourceIndex.Entry entry : resourceIndex.getEntries(resourceDirectories, "MeasureReport")) {
+            measureReportPaths.add(entry.getPath());
         }
     }
 
@@ -911,33 +938,16 @@ public class IOUtils {
         }
         return planDefinitionPathMap;
     }
-    private static final Map<String, IBaseResource> planDefinitions = new LinkedHashMap<>();
     public static Map<String, IBaseResource> getPlanDefinitions(FhirContext fhirContext) {
-        if (planDefinitions.isEmpty()) {
+        if (planDefinitionPathMap.isEmpty()) {
             setupPlanDefinitionPaths(fhirContext);
         }
-        return planDefinitions;
+        return ResourceIndex.asResourceMap(planDefinitionPathMap, fhirContext);
     }
     private static void setupPlanDefinitionPaths(FhirContext fhirContext) {
-        HashMap<String, IBaseResource> resources = new LinkedHashMap<>();
-        for (String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true)) {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    logger.error("Error setting PlanDefinition paths while reading resource at: {}. Error: {}", path, e.getMessage());
-                }
-            }
-            RuntimeResourceDefinition planDefinitionDefinition = ResourceUtils.getResourceDefinition(fhirContext, "PlanDefinition");
-            String planDefinitionClassName = planDefinitionDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                    .filter(entry -> entry.getValue() != null)
-                    .filter(entry ->  planDefinitionClassName.equals(entry.getValue().getClass().getName()))
-                    .forEach(entry -> {
-                        planDefinitionPaths.add(entry.getKey());
-                        planDefinitions.put(entry.getValue().getIdElement().getIdPart(), entry.getValue());
-                        planDefinitionPathMap.put(entry.getValue().getIdElement().getIdPart(), entry.getKey());
-                    });
+        for (ResourceIndex.Entry entry : resourceIndex.getEntries(resourceDirectories, "PlanDefinition")) {
+            planDefinitionPaths.add(entry.getPath());
+            planDefinitionPathMap.put(entry.getId(), entry.getPath());
         }
     }
 
@@ -957,34 +967,17 @@ public class IOUtils {
         return questionnairePathMap;
     }
 
-    private static final Map<String, IBaseResource> questionnaires = new LinkedHashMap<>();
     public static Map<String, IBaseResource> getQuestionnaires(FhirContext fhirContext) {
-        if (questionnaires.isEmpty()) {
+        if (questionnairePathMap.isEmpty()) {
             setupQuestionnairePaths(fhirContext);
         }
-        return questionnaires;
+        return ResourceIndex.asResourceMap(questionnairePathMap, fhirContext);
     }
 
     private static void setupQuestionnairePaths(FhirContext fhirContext) {
-        HashMap<String, IBaseResource> resources = new LinkedHashMap<>();
-        for (String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true)) {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    logger.error("Error setting Questionnaire paths while reading resource at: {}. Error: {}", path, e.getMessage());
-                }
-            }
-            RuntimeResourceDefinition questionnaireDefinition = ResourceUtils.getResourceDefinition(fhirContext, "Questionnaire");
-            String questionnaireClassName = questionnaireDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                    .filter(entry -> entry.getValue() != null)
-                    .filter(entry ->  questionnaireClassName.equals(entry.getValue().getClass().getName()))
-                    .forEach(entry -> {
-                        questionnairePaths.add(entry.getKey());
-                        questionnaires.put(entry.getValue().getIdElement().getIdPart(), entry.getValue());
-                        questionnairePathMap.put(entry.getValue().getIdElement().getIdPart(), entry.getKey());
-                    });
+        for (ResourceIndex.Entry entry : resourceIndex.getEntries(resourceDirectories, "Questionnaire")) {
+            questionnairePaths.add(entry.getPath());
+            questionnairePathMap.put(entry.getId(), entry.getPath());
         }
     }
 
@@ -998,24 +991,11 @@ public class IOUtils {
     }
 
     private static void setupActivityDefinitionPaths(FhirContext fhirContext) {
-        HashMap<String, IBaseResource> resources = new LinkedHashMap<>();
         // BUG: resourceDirectories is being populated with all "per-convention" directories during validation. So,
         // if you have resources in the /tests directory for example, they will be picked up from there, rather than
         // from your resources directories.
-        for (String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true)) {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    //TODO: handle exception
-                }
-            }
-            RuntimeResourceDefinition activityDefinitionDefinition = ResourceUtils.getResourceDefinition(fhirContext, "ActivityDefinition");
-            String activityDefinitionClassName = activityDefinitionDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                    .filter(entry -> entry.getValue() != null)
-                    .filter(entry ->  activityDefinitionClassName.equals(entry.getValue().getClass().getName()))
-                    .forEach(entry -> activityDefinitionPaths.add(entry.getKey()));
+        for (ResourceIndex.Entry entry : resourceIndex.getEntries(resourceDirectories, "ActivityDefinition")) {
+            activityDefinitionPaths.add(entry.getPath());
         }
     }
 
@@ -1043,24 +1023,8 @@ public class IOUtils {
 
     private static void setupDevicePaths(FhirContext fhirContext) {
         devicePaths = new LinkedHashSet<>();
-        HashMap<String, IBaseResource> resources = new LinkedHashMap<>();
-        for (String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true)) {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    if(path.toLowerCase().contains("device")) {
-                        logger.error("Error reading in Device from path: {} \n {}", path, e.getMessage());
-                    }
-                }
-            }
-            //TODO: move these to ResourceUtils
-            RuntimeResourceDefinition deviceDefinition = ResourceUtils.getResourceDefinition(fhirContext, "Device");
-            String deviceClassName = deviceDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                    .filter(entry -> entry.getValue() != null)
-                    .filter(entry ->  deviceClassName.equals(entry.getValue().getClass().getName()))
-                    .forEach(entry -> devicePaths.add(entry.getKey()));
+        for (ResourceIndex.Entry entry : resourceIndex.getEntries(resourceDirectories, "Device")) {
+            devicePaths.add(entry.getPath());
         }
     }
 
@@ -1097,27 +1061,16 @@ public class IOUtils {
      * boost over removing final keyword and initializing new instances.
      */
     public static void cleanUp(){
+        savePersistentResourceCache();
+        persistentResourceCache = null;
         alreadyCopied.clear();
-        cachedResources.clear();
+        cachedResources = buildResourceCache(resourceCacheMaximumBytes);
         cachedFilePaths.clear();
         cachedDirectoryPaths.clear();
         cachedTranslator.clear();
+        CompiledLibraryCache.clear();
         cqlLibraryPaths.clear();
-        terminologyPaths.clear();
-        libraryPaths.clear();
-        libraryUrlMap.clear();
-        libraryPathMap.clear();
-        libraries.clear();
-        measurePaths.clear();
-        measurePathMap.clear();
-        measures.clear();
-        measureReportPaths.clear();
-        planDefinitionPaths.clear();
-        planDefinitionPathMap.clear();
-        planDefinitions.clear();
-        questionnairePaths.clear();
-        questionnairePathMap.clear();
-        questionnaires.clear();
-        activityDefinitionPaths.clear();
+        resourceIndex.clear();
+        clearIndexedPaths();
     }
 }
\ No newline at end of file
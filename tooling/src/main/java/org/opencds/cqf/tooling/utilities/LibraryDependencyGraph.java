@@ -0,0 +1,102 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A dependency graph between libraries (Library resource files or CQL source files, identified by path), built
+ * lazily from a {@link DependencyResolver} and shared by the bundling code so each library's dependencies are only
+ * discovered once per run. Direct dependencies and transitive closures are memoized; a dependency cycle is
+ * reported with the full chain instead of recursing forever.
+ *
+ * @param <E> the exception the resolver may throw
+ */
+public class LibraryDependencyGraph<E extends Exception> {
+
+    @FunctionalInterface
+    public interface DependencyResolver<E extends Exception> {
+        /**
+         * @param library the path of a library
+         * @return the paths of the libraries it depends on directly
+         */
+        List<String> getDependencies(String library) throws E;
+    }
+
+    private final DependencyResolver<E> resolver;
+    private final Map<String, List<String>> dependencies = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> transitiveDependencies = new ConcurrentHashMap<>();
+
+    public LibraryDependencyGraph(DependencyResolver<E> resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * @return the libraries the given library depends on directly
+     */
+    public List<String> getDependencies(String library) throws E {
+        List<String> result = dependencies.get(library);
+        if (result == null) {
+            result = Collections.unmodifiableList(new ArrayList<>(resolver.getDependencies(library)));
+            dependencies.put(library, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the libraries the given library depends on directly or indirectly, each listed after its own
+     * dependencies
+     * @throws IllegalArgumentException if the dependencies contain a cycle
+     */
+    public List<String> getTransitiveDependencies(String library) throws E {
+        return getTransitiveDependencies(library, new ArrayDeque<>());
+    }
+
+    private List<String> getTransitiveDependencies(String library, Deque<String> path) throws E {
+        List<String> result = transitiveDependencies.get(library);
+        if (result != null) {
+            return result;
+        }
+        if (path.contains(library)) {
+            throw new IllegalArgumentException("Circular library dependency: " + describeCycle(path, library));
+        }
+
+        path.push(library);
+        Set<String> closure = new LinkedHashSet<>();
+        for (String dependency : getDependencies(library)) {
+            closure.addAll(getTransitiveDependencies(dependency, path));
+            closure.add(dependency);
+        }
+        path.pop();
+
+        result = Collections.unmodifiableList(new ArrayList<>(closure));
+        transitiveDependencies.put(library, result);
+        return result;
+    }
+
+    private static String describeCycle(Deque<String> path, String library) {
+        StringBuilder cycle = new StringBuilder();
+        boolean inCycle = false;
+        // the deque is a stack, so iterate from the bottom to list the chain in dependency order
+        for (Iterator<String> iterator = path.descendingIterator(); iterator.hasNext();) {
+            String node = iterator.next();
+            inCycle = inCycle || node.equals(library);
+            if (inCycle) {
+                cycle.append(node).append(" -> ");
+            }
+        }
+        return cycle.append(library).toString();
+    }
+
+    public void clear() {
+        dependencies.clear();
+        transitiveDependencies.clear();
+    }
+}
@@ -0,0 +1,174 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import ca.uhn.fhir.context.FhirVersionEnum;
+
+/**
+ * An opt-in, on-disk cache of resource headers and dependency facts (see {@link ResourceIndex.Entry}) that survives
+ * between runs. Entries are keyed by file path and validated against the file size and modification time; when
+ * only the modification time changed (e.g. after a checkout), the content hash decides. The whole cache is
+ * discarded when it was written for a different FHIR version or cache format.
+ */
+public class PersistentResourceCache {
+    private static final Logger logger = LoggerFactory.getLogger(PersistentResourceCache.class);
+    private static final int FORMAT_VERSION = 1;
+    private static final String CACHE_FILE_NAME = "resource-cache.json";
+
+    private final File cacheFile;
+    private final String fhirVersion;
+    private final Map<String, CachedFile> files = new ConcurrentHashMap<>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicInteger invalidations = new AtomicInteger();
+    private volatile boolean dirty;
+
+    private static class CachedFile {
+        long size;
+        // refreshed by concurrent lookups when a file is touched but unchanged
+        volatile long modified;
+        String hash;
+        // null when the file is not a FHIR resource
+        ResourceIndex.Entry header;
+    }
+
+    private static class CacheContent {
+        int formatVersion;
+        String fhirVersion;
+        Map<String, CachedFile> files;
+    }
+
+    /**
+     * Opens (or creates) the cache in the given directory.
+     *
+     * @param cacheDirectory the directory holding the cache file
+     * @param fhirVersion the FHIR version of the IG; a cache written for another version is discarded
+     */
+    public PersistentResourceCache(String cacheDirectory, FhirVersionEnum fhirVersion) {
+        IOUtils.ensurePath(cacheDirectory);
+        this.cacheFile = new File(cacheDirectory, CACHE_FILE_NAME);
+        this.fhirVersion = fhirVersion.name();
+        load();
+    }
+
+    private void load() {
+        if (!cacheFile.exists()) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+            CacheContent content = new Gson().fromJson(reader, CacheContent.class);
+            if (content == null || content.files == null || content.formatVersion != FORMAT_VERSION
+                    || !fhirVersion.equals(content.fhirVersion)) {
+                logger.info("Discarding persistent resource cache {} written for a different FHIR version or format", cacheFile);
+                dirty = true;
+                return;
+            }
+            files.putAll(content.files);
+        } catch (IOException | JsonParseException e) {
+            logger.warn("Unable to read persistent resource cache {}, starting with an empty cache: {}", cacheFile, e.getMessage());
+            dirty = true;
+        }
+    }
+
+    /**
+     * Returns the header and dependency facts of the resource at the given path, from the cache when the file is
+     * unchanged, otherwise by reading the file (and caching the result).
+     *
+     * @param path the path to a JSON or XML resource file
+     * @return the header, or null if the file is not a readable FHIR resource
+     */
+    public ResourceIndex.Entry getHeader(String path) {
+        File file = new File(path);
+        long size = file.length();
+        long modified = file.lastModified();
+
+        CachedFile cached = files.get(path);
+        if (cached != null) {
+            if (cached.size == size && cached.modified == modified) {
+                hits.incrementAndGet();
+                return cached.header;
+            }
+            if (cached.size == size) {
+                String hash = hash(file);
+                if (hash != null && hash.equals(cached.hash)) {
+                    // under the lock save() holds, so the cache is never written with a half-updated entry
+                    synchronized (this) {
+                        cached.modified = modified;
+                        dirty = true;
+                    }
+                    hits.incrementAndGet();
+                    return cached.header;
+                }
+            }
+            invalidations.incrementAndGet();
+        }
+
+        misses.incrementAndGet();
+        CachedFile entry = new CachedFile();
+        entry.size = size;
+        entry.modified = modified;
+        entry.hash = hash(file);
+        entry.header = ResourceIndex.readHeader(path, true);
+        files.put(path, entry);
+        dirty = true;
+        return entry.header;
+    }
+
+    private static String hash(File file) {
+        try (InputStream stream = Files.newInputStream(file.toPath())) {
+            return DigestUtils.sha256Hex(stream);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the cache to disk if anything changed. The file is replaced atomically so an interrupted run never
+     * leaves a truncated cache behind.
+     */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        // drop entries for files that no longer exist
+        files.keySet().removeIf(path -> !new File(path).exists());
+
+        CacheContent content = new CacheContent();
+        content.formatVersion = FORMAT_VERSION;
+        content.fhirVersion = fhirVersion;
+        content.files = files;
+        try {
+            Path temp = Files.createTempFile(cacheFile.getParentFile().toPath(), CACHE_FILE_NAME, ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                new Gson().toJson(content, writer);
+            }
+            Files.move(temp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            logger.warn("Unable to write persistent resource cache {}: {}", cacheFile, e.getMessage());
+        }
+    }
+
+    public String getSummary() {
+        return String.format("Persistent resource cache: %d of %d files served from cache (%d invalidated)",
+                hits.get(), hits.get() + misses.get(), invalidations.get());
+    }
+}
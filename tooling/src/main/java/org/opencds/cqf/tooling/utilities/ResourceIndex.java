@@ -0,0 +1,479 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * An index of the FHIR resources found in a set of directories. Each file is visited once and only the
+ * resourceType, id, url, version and name elements are read (streaming, without building the full resource),
+ * so type and canonical lookups can be answered without parsing every resource in the IG. Full resources are
+ * only parsed when requested through {@link #asResourceMap(Map, FhirContext)}. Files written through
+ * {@link IOUtils} after their directory was indexed are picked up (see {@link #update(String)}).
+ */
+public class ResourceIndex {
+    private static final Logger logger = LoggerFactory.getLogger(ResourceIndex.class);
+    private static final String FHIR_NAMESPACE = "http://hl7.org/fhir";
+
+    // The elements that can precede name at the top level of a resource (in FHIR element order); a header scan stops
+    // at any other element, as the rest of the resource can not hold the header
+    private static final Set<String> HEADER_ELEMENTS = new HashSet<>(Arrays.asList("resourceType", "id", "meta",
+            "implicitRules", "language", "text", "contained", "extension", "modifierExtension", "url", "identifier",
+            "version", "name"));
+
+    // directory -> entries of its files, by absolute path, in file order
+    private final Map<String, Map<String, Entry>> entriesByDirectory = new LinkedHashMap<>();
+
+    /**
+     * The header elements of an indexed resource file.
+     */
+    public static class Entry {
+        private final String path;
+        private String resourceType;
+        private String id;
+        private String url;
+        private String version;
+        private String name;
+        private List<String> dependencies;
+        private List<String> libraries;
+
+        public Entry(String path) {
+            this.path = path;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getResourceType() {
+            return resourceType;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the references of the depends-on relatedArtifacts, or null if dependency facts were not read
+         */
+        public List<String> getDependencies() {
+            return dependencies;
+        }
+
+        /**
+         * @return the references of the library element (e.g. Measure.library), or null if dependency facts were not read
+         */
+        public List<String> getLibraries() {
+            return libraries;
+        }
+
+        private boolean isComplete() {
+            return resourceType != null && id != null && url != null && version != null && name != null;
+        }
+
+        private boolean hasSameHeader(Entry other) {
+            return other != null && Objects.equals(resourceType, other.resourceType) && Objects.equals(id, other.id)
+                    && Objects.equals(url, other.url) && Objects.equals(version, other.version)
+                    && Objects.equals(name, other.name);
+        }
+
+        private void set(String element, String value) {
+            switch (element) {
+                case "resourceType": resourceType = value; break;
+                case "id": id = value; break;
+                case "url": url = value; break;
+                case "version": version = value; break;
+                case "name": name = value; break;
+                default: break;
+            }
+        }
+    }
+
+    /**
+     * Returns the indexed entries of the given resource types, in directory and file order. Directories that have
+     * not been seen before are indexed on demand, so directories added to the list later are picked up.
+     *
+     * @param directories the directories to search (recursively)
+     * @param resourceTypes the resource types to return
+     * @return the matching entries
+     */
+    public synchronized List<Entry> getEntries(List<String> directories, String... resourceTypes) {
+        Set<String> types = new HashSet<>(Arrays.asList(resourceTypes));
+        List<Entry> result = new ArrayList<>();
+        for (String directory : new ArrayList<>(directories)) {
+            for (Entry entry : getDirectoryEntries(directory).values()) {
+                if (types.contains(entry.getResourceType())) {
+                    result.add(entry);
+                }
+            }
+        }
+        return result;
+    }
+
+    private Map<String, Entry> getDirectoryEntries(String directory) {
+        Map<String, Entry> entries = entriesByDirectory.get(directory);
+        if (entries == null) {
+            entries = new LinkedHashMap<>();
+            for (String path : IOUtils.getFilePaths(directory, true)) {
+                Entry entry = readIndexedHeader(path);
+                if (entry != null) {
+                    entries.put(getKey(path), entry);
+                }
+            }
+            entriesByDirectory.put(directory, entries);
+        }
+        return entries;
+    }
+
+    private static Entry readIndexedHeader(String path) {
+        PersistentResourceCache persistentCache = IOUtils.getPersistentResourceCache();
+        return persistentCache != null ? persistentCache.getHeader(path) : readHeader(path);
+    }
+
+    private static String getKey(String path) {
+        return Paths.get(path).toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Reads the header of a file written (created or overwritten) since its directory was indexed, so the entries
+     * of the indexed directories that contain it stay current without scanning them again.
+     *
+     * @param path the path of the file
+     * @return whether the header of the file changed (or the file is new) in an indexed directory
+     */
+    public synchronized boolean update(String path) {
+        Path file = Paths.get(getKey(path));
+        Entry entry = null;
+        boolean read = false;
+        boolean changed = false;
+        for (Map.Entry<String, Map<String, Entry>> directory : entriesByDirectory.entrySet()) {
+            if (!file.startsWith(Paths.get(getKey(directory.getKey())))) {
+                continue;
+            }
+            if (!read) {
+                entry = readIndexedHeader(path);
+                read = true;
+            }
+            Entry previous = entry != null
+                    ? directory.getValue().put(file.toString(), entry)
+                    : directory.getValue().remove(file.toString());
+            changed |= entry == null ? previous != null : !entry.hasSameHeader(previous);
+        }
+        return changed;
+    }
+
+    public synchronized void clear() {
+        entriesByDirectory.clear();
+    }
+
+    /**
+     * Reads the resourceType, id, url, version and name of the resource in the given file without parsing the
+     * rest of the resource.
+     *
+     * @param path the path to a JSON or XML FHIR resource
+     * @return the header, or null if the file is not a readable FHIR resource
+     */
+    public static Entry readHeader(String path) {
+        return readHeader(path, false);
+    }
+
+    /**
+     * Reads the header of the resource in the given file and, optionally, its dependency facts (depends-on
+     * relatedArtifacts and library references). Reading dependency facts requires streaming the whole file.
+     *
+     * @param path the path to a JSON or XML FHIR resource
+     * @param includeDependencies whether to read the dependency facts
+     * @return the header, or null if the file is not a readable FHIR resource
+     */
+    public static Entry readHeader(String path, boolean includeDependencies) {
+        try {
+            switch (IOUtils.getEncoding(path)) {
+                case JSON: return readJsonHeader(path, includeDependencies);
+                case XML: return readXmlHeader(path, includeDependencies);
+                default: return null;
+            }
+        } catch (Exception e) {
+            logger.debug("Unable to read resource header from path {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    private static Entry readJsonHeader(String path, boolean includeDependencies) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8);
+             JsonReader jsonReader = new JsonReader(reader)) {
+            jsonReader.setLenient(true);
+            if (jsonReader.peek() != JsonToken.BEGIN_OBJECT) {
+                return null;
+            }
+            Entry entry = new Entry(path);
+            if (includeDependencies) {
+                entry.dependencies = new ArrayList<>();
+                entry.libraries = new ArrayList<>();
+            }
+            jsonReader.beginObject();
+            while ((includeDependencies || !entry.isComplete()) && jsonReader.hasNext()) {
+                String element = jsonReader.nextName();
+                JsonToken token = jsonReader.peek();
+                // primitives are cheap to read past, but the first other complex element ends the header (JSON
+                // element order is not significant, but tools write resources in FHIR element order)
+                if (!includeDependencies && !HEADER_ELEMENTS.contains(element)
+                        && (token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY)) {
+                    break;
+                }
+                if (token == JsonToken.STRING) {
+                    entry.set(element, jsonReader.nextString());
+                } else if (includeDependencies && token == JsonToken.BEGIN_ARRAY && element.equals("relatedArtifact")) {
+                    readJsonRelatedArtifacts(jsonReader, entry.dependencies);
+                } else if (includeDependencies && token == JsonToken.BEGIN_ARRAY && element.equals("library")) {
+                    jsonReader.beginArray();
+                    while (jsonReader.hasNext()) {
+                        String reference = readJsonReference(jsonReader);
+                        if (reference != null) {
+                            entry.libraries.add(reference);
+                        }
+                    }
+                    jsonReader.endArray();
+                } else {
+                    jsonReader.skipValue();
+                }
+            }
+            return entry.getResourceType() == null ? null : entry;
+        }
+    }
+
+    private static void readJsonRelatedArtifacts(JsonReader jsonReader, List<String> dependencies) throws IOException {
+        jsonReader.beginArray();
+        while (jsonReader.hasNext()) {
+            if (jsonReader.peek() != JsonToken.BEGIN_OBJECT) {
+                jsonReader.skipValue();
+                continue;
+            }
+            String type = null;
+            String resource = null;
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                String element = jsonReader.nextName();
+                if (element.equals("type") && jsonReader.peek() == JsonToken.STRING) {
+                    type = jsonReader.nextString();
+                } else if (element.equals("resource")) {
+                    resource = readJsonReference(jsonReader);
+                } else {
+                    jsonReader.skipValue();
+                }
+            }
+            jsonReader.endObject();
+            if ("depends-on".equals(type) && resource != null) {
+                dependencies.add(resource);
+            }
+        }
+        jsonReader.endArray();
+    }
+
+    // Reads either a canonical (R4) or a Reference with a reference element (STU3)
+    private static String readJsonReference(JsonReader jsonReader) throws IOException {
+        JsonToken token = jsonReader.peek();
+        if (token == JsonToken.STRING) {
+            return jsonReader.nextString();
+        }
+        if (token != JsonToken.BEGIN_OBJECT) {
+            jsonReader.skipValue();
+            return null;
+        }
+        String reference = null;
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            String element = jsonReader.nextName();
+            if (element.equals("reference") && jsonReader.peek() == JsonToken.STRING) {
+                reference = jsonReader.nextString();
+            } else {
+                jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+        return reference;
+    }
+
+    private static final XMLInputFactory xmlInputFactory = createXmlInputFactory();
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    private static Entry readXmlHeader(String path, boolean includeDependencies) throws IOException, XMLStreamException {
+        try (InputStream stream = new FileInputStream(path)) {
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(stream);
+            try {
+                Entry entry = null;
+                int depth = 0;
+                String topLevelElement = null;
+                String type = null;
+                String reference = null;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        String element = reader.getLocalName();
+                        String value = reader.getAttributeValue(null, "value");
+                        if (depth == 1) {
+                            if (!FHIR_NAMESPACE.equals(reader.getNamespaceURI())) {
+                                return null;
+                            }
+                            entry = new Entry(path);
+                            entry.set("resourceType", element);
+                            if (includeDependencies) {
+                                entry.dependencies = new ArrayList<>();
+                                entry.libraries = new ArrayList<>();
+                            }
+                        } else if (depth == 2) {
+                            if (!includeDependencies && !HEADER_ELEMENTS.contains(element)) {
+                                break;
+                            }
+                            topLevelElement = element;
+                            type = null;
+                            reference = null;
+                            if (element.equals("library") && value != null && includeDependencies) {
+                                entry.libraries.add(value);
+                            } else {
+                                entry.set(element, value);
+                            }
+                            if (!includeDependencies && entry.isComplete()) {
+                                break;
+                            }
+                        } else if (includeDependencies && "relatedArtifact".equals(topLevelElement)) {
+                            if (depth == 3 && element.equals("type")) {
+                                type = value;
+                            } else if (depth == 3 && element.equals("resource") && value != null) {
+                                reference = value;
+                            } else if (depth == 4 && element.equals("reference")) {
+                                reference = value;
+                            }
+                        } else if (includeDependencies && "library".equals(topLevelElement)
+                                && depth == 3 && element.equals("reference") && value != null) {
+                            entry.libraries.add(value);
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        if (depth == 2 && "relatedArtifact".equals(topLevelElement)
+                                && "depends-on".equals(type) && reference != null) {
+                            entry.dependencies.add(reference);
+                        }
+                        depth--;
+                    }
+                }
+                return entry;
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Returns a read-only map view that resolves each key to the resource at the mapped path. Resources are read
+     * (through the {@link IOUtils#readResource(String, FhirContext, Boolean)} cache) only when a value is accessed.
+     *
+     * @param keyToPath a map from key (e.g. id or url) to the path of the resource file
+     * @param fhirContext the FhirContext used to parse the resources
+     * @return the lazily resolved resource map
+     */
+    public static Map<String, IBaseResource> asResourceMap(Map<String, String> keyToPath, FhirContext fhirContext) {
+        return new LazyResourceMap(keyToPath, fhirContext);
+    }
+
+    private static class LazyResourceMap extends AbstractMap<String, IBaseResource> {
+        private final Map<String, String> keyToPath;
+        private final FhirContext fhirContext;
+
+        LazyResourceMap(Map<String, String> keyToPath, FhirContext fhirContext) {
+            this.keyToPath = Collections.unmodifiableMap(keyToPath);
+            this.fhirContext = fhirContext;
+        }
+
+        @Override
+        public IBaseResource get(Object key) {
+            String path = keyToPath.get(key);
+            return path == null ? null : IOUtils.readResource(path, fhirContext, true);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return keyToPath.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return keyToPath.size();
+        }
+
+        @Override
+        public Set<Map.Entry<String, IBaseResource>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Map.Entry<String, IBaseResource>> iterator() {
+                    Iterator<Map.Entry<String, String>> paths = keyToPath.entrySet().iterator();
+                    return new Iterator<>() {
+                        @Override
+                        public boolean hasNext() {
+                            return paths.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<String, IBaseResource> next() {
+                            Map.Entry<String, String> next = paths.next();
+                            return new SimpleImmutableEntry<>(next.getKey(), IOUtils.readResource(next.getValue(), fhirContext, true));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return keyToPath.size();
+                }
+            };
+        }
+    }
+}
@@ -8,11 +8,12 @@ import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -136,6 +137,62 @@ public class ResourceUtils {
       return ((org.hl7.fhir.r4.model.Library)mainLibrary).getRelatedArtifact();
    }
 
+   // Returns the references of the depends-on relatedArtifacts of the Library at the given path, using the
+   // persistent resource cache (when enabled) to avoid parsing unchanged libraries
+   private static List<String> getDependsOnReferences(String pathToLibrary, FhirContext fhirContext) {
+      PersistentResourceCache persistentCache = IOUtils.getPersistentResourceCache();
+      if (persistentCache != null) {
+         ResourceIndex.Entry entry = persistentCache.getHeader(pathToLibrary);
+         if (entry != null && entry.getDependencies() != null) {
+            if (!"Library".equals(entry.getResourceType())) {
+               throw new IllegalArgumentException("pathToLibrary must be a path to a Library type Resource");
+            }
+            return entry.getDependencies();
+         }
+      }
+
+      List<String> references = new ArrayList<>();
+      switch (fhirContext.getVersion().getVersion()) {
+         case DSTU3:
+            for (org.hl7.fhir.dstu3.model.RelatedArtifact relatedArtifact : getStu3RelatedArtifacts(pathToLibrary, fhirContext)) {
+               if (relatedArtifact.getType() == org.hl7.fhir.dstu3.model.RelatedArtifact.RelatedArtifactType.DEPENDSON
+                       && relatedArtifact.getResource().hasReference()) {
+                  references.add(relatedArtifact.getResource().getReference());
+               }
+            }
+            break;
+         case R4:
+            for (org.hl7.fhir.r4.model.RelatedArtifact relatedArtifact : getR4RelatedArtifacts(pathToLibrary, fhirContext)) {
+               if (relatedArtifact.getType() == org.hl7.fhir.r4.model.RelatedArtifact.RelatedArtifactType.DEPENDSON
+                       && relatedArtifact.hasResource()) {
+                  references.add(relatedArtifact.getResource());
+               }
+            }
+            break;
+         default:
+            throw new IllegalArgumentException("Unsupported fhir version: " + fhirContext.getVersion().getVersion().getFhirVersionString());
+      }
+      return references;
+   }
+
+   /**
+    * Returns the Library resources the given Library depends on, directly or indirectly, keyed by id.
+    */
+   public static Map<String, IBaseResource> getTransitiveDepLibraryResources(String path, FhirContext fhirContext, Encoding encoding, Boolean versioned, Logger logger) {
+      Map<String, IBaseResource> dependencyLibraries = new LinkedHashMap<>();
+      for (String dependencyLibraryPath : getTransitiveDepLibraryPaths(path, fhirContext, encoding, versioned)) {
+         if (dependencyLibraryPath.contains("ModelInfo")) {
+            logger.debug("skipping ModelInfo");
+            continue;
+         }
+         IBaseResource resource = IOUtils.readResource(dependencyLibraryPath, fhirContext);
+         if (resource != null && resource.fhirType().equals("Library")) {
+            dependencyLibraries.putIfAbsent(resource.getIdElement().getIdPart(), resource);
+         }
+      }
+      return dependencyLibraries;
+   }
+
    public static Map<String, IBaseResource> getDepLibraryResources(String path, FhirContext fhirContext, Encoding encoding, Boolean versioned, Logger logger) {
       Map<String, IBaseResource> dependencyLibraries = new HashMap<>();
       switch (fhirContext.getVersion().getVersion()) {
@@ -151,42 +208,64 @@ public class ResourceUtils {
    public static List<String> getDepLibraryPaths(String path, FhirContext fhirContext, Encoding encoding, Boolean versioned) {
       switch (fhirContext.getVersion().getVersion()) {
          case DSTU3:
-            return getStu3DepLibraryPaths(path, fhirContext, encoding, versioned);
+            // STU3 dependencies have always been resolved transitively
+            return getTransitiveDepLibraryPaths(path, fhirContext, encoding, versioned);
          case R4:
-            return getR4DepLibraryPaths(path, fhirContext, encoding,versioned);
+            return getLibraryDependencyGraph(fhirContext, encoding, versioned).getDependencies(path);
          default:
             throw new IllegalArgumentException("Unsupported fhir version: " + fhirContext.getVersion().getVersion().getFhirVersionString());
       }
    }
 
+   /**
+    * Returns the paths of the Library resources the given Library depends on, directly or indirectly, from the
+    * run-wide library dependency graph.
+    */
+   public static List<String> getTransitiveDepLibraryPaths(String path, FhirContext fhirContext, Encoding encoding, Boolean versioned) {
+      return getLibraryDependencyGraph(fhirContext, encoding, versioned).getTransitiveDependencies(path);
+   }
+
+   private static final Map<String, LibraryDependencyGraph<RuntimeException>> libraryDependencyGraphs = new ConcurrentHashMap<>();
+   private static LibraryDependencyGraph<RuntimeException> getLibraryDependencyGraph(FhirContext fhirContext, Encoding encoding, Boolean versioned) {
+      FhirVersionEnum fhirVersion = fhirContext.getVersion().getVersion();
+      return libraryDependencyGraphs.computeIfAbsent(fhirVersion + "|" + encoding + "|" + Boolean.TRUE.equals(versioned),
+              key -> new LibraryDependencyGraph<>(path -> {
+                 // dependencies that are missing are reported when they are read
+                 if (!new File(path).exists()) {
+                    return Collections.emptyList();
+                 }
+                 switch (fhirVersion) {
+                    case DSTU3: return getStu3DepLibraryPaths(path, fhirContext, encoding, versioned);
+                    case R4: return getR4DepLibraryPaths(path, fhirContext, encoding, versioned);
+                    default: throw new IllegalArgumentException("Unsupported fhir version: " + fhirVersion.getFhirVersionString());
+                 }
+              }));
+   }
+
    private static List<String> getStu3DepLibraryPaths(String path, FhirContext fhirContext, Encoding encoding, Boolean versioned) {
       List<String> paths = new ArrayList<>();
       String directoryPath = FilenameUtils.getFullPath(path);
       String fileName = FilenameUtils.getName(path);
       String prefix = fileName.toLowerCase().startsWith("library-") ? fileName.substring(0, 8) : "";
-      List<org.hl7.fhir.dstu3.model.RelatedArtifact> relatedArtifacts = getStu3RelatedArtifacts(path, fhirContext);
-      for (org.hl7.fhir.dstu3.model.RelatedArtifact relatedArtifact : relatedArtifacts) {
-         if (relatedArtifact.getType() == org.hl7.fhir.dstu3.model.RelatedArtifact.RelatedArtifactType.DEPENDSON) {
-            if (relatedArtifact.getResource().getReference().contains("Library/")) {
-               String dependencyLibraryName;
-               // Issue 96 - Do not include version number in the filename
-               if (Boolean.TRUE.equals(versioned)) {
-                  dependencyLibraryName = IOUtils.formatFileName(relatedArtifact.getResource().getReference().split("Library/")[1].replace("\\|", "-"), encoding, fhirContext);
-               } else {
-                  String name = relatedArtifact.getResource().getReference().split("Library/")[1];
-                  dependencyLibraryName = IOUtils.formatFileName(name.split("\\|")[0], encoding, fhirContext);
-               }
-               String dependencyLibraryPath = IOUtils.concatFilePath(directoryPath, prefix + dependencyLibraryName);
-               IOUtils.putAllInListIfAbsent(getStu3DepLibraryPaths(dependencyLibraryPath, fhirContext, encoding, versioned), paths);
-               IOUtils.putInListIfAbsent(dependencyLibraryPath, paths);
-            }
+      for (String reference : getDependsOnReferences(path, fhirContext)) {
+         if (reference.contains("Library/")) {
+            String dependencyLibraryName;
+            // Issue 96 - Do not include version number in the filename
+            if (Boolean.TRUE.equals(versioned)) {
+               dependencyLibraryName = IOUtils.formatFileName(reference.split("Library/")[1].replace("\\|", "-"), encoding, fhirContext);
+            } else {
+               String name = reference.split("Library/")[1];
+               dependencyLibraryName = IOUtils.formatFileName(name.split("\\|")[0], encoding, fhirContext);
+            }
+            String dependencyLibraryPath = IOUtils.concatFilePath(directoryPath, prefix + dependencyLibraryName);
+            IOUtils.putInListIfAbsent(dependencyLibraryPath, paths);
          }
       }
       return paths;
    }
 
    private static Map<String, IBaseResource> getStu3DepLibraryResources(String path, Map<String, IBaseResource> dependencyLibraries, FhirContext fhirContext, Encoding encoding, Boolean versioned) {
-      List<String> dependencyLibraryPaths = getStu3DepLibraryPaths(path, fhirContext, encoding, versioned);
+      List<String> dependencyLibraryPaths = getTransitiveDepLibraryPaths(path, fhirContext, encoding, versioned);
       for (String dependencyLibraryPath : dependencyLibraryPaths) {
          Object resource = IOUtils.readResource(dependencyLibraryPath, fhirContext);
          if (resource instanceof org.hl7.fhir.dstu3.model.Library) {
@@ -203,28 +282,25 @@ public class ResourceUtils {
       String directoryPath = FilenameUtils.getFullPath(path);
       String fileName = FilenameUtils.getName(path);
       String prefix = fileName.toLowerCase().startsWith("library-") ? fileName.substring(0, 8) : "";
-      List<org.hl7.fhir.r4.model.RelatedArtifact> relatedArtifacts = getR4RelatedArtifacts(path, fhirContext);
-      for (org.hl7.fhir.r4.model.RelatedArtifact relatedArtifact : relatedArtifacts) {
-         if (relatedArtifact.getType() == org.hl7.fhir.r4.model.RelatedArtifact.RelatedArtifactType.DEPENDSON) {
-            if (relatedArtifact.getResource().contains("Library/")) {
-               String dependencyLibraryName;
-               // Issue 96 - Do not include version number in the filename
-               if (versioned) {
-                  dependencyLibraryName = IOUtils.formatFileName(relatedArtifact.getResource().split("Library/")[1].replaceAll("\\|", "-"), encoding, fhirContext);
-               } else {
-                  String name = relatedArtifact.getResource().split("Library/")[1];
-                  dependencyLibraryName = IOUtils.formatFileName(name.split("\\|")[0], encoding, fhirContext);
-               }
-               String dependencyLibraryPath = IOUtils.concatFilePath(directoryPath, prefix + dependencyLibraryName);
-               IOUtils.putInListIfAbsent(dependencyLibraryPath, paths);
-            }
+      for (String reference : getDependsOnReferences(path, fhirContext)) {
+         if (reference.contains("Library/")) {
+            String dependencyLibraryName;
+            // Issue 96 - Do not include version number in the filename
+            if (versioned) {
+               dependencyLibraryName = IOUtils.formatFileName(reference.split("Library/")[1].replaceAll("\\|", "-"), encoding, fhirContext);
+            } else {
+               String name = reference.split("Library/")[1];
+               dependencyLibraryName = IOUtils.formatFileName(name.split("\\|")[0], encoding, fhirContext);
+            }
+            String dependencyLibraryPath = IOUtils.concatFilePath(directoryPath, prefix + dependencyLibraryName);
+            IOUtils.putInListIfAbsent(dependencyLibraryPath, paths);
          }
       }
       return paths;
    }
 
    private static Map<String, IBaseResource> getR4DepLibraryResources(String path, Map<String, IBaseResource> dependencyLibraries, FhirContext fhirContext, Encoding encoding, Boolean versioned, Logger logger) {
-      List<String> dependencyLibraryPaths = getR4DepLibraryPaths(path, fhirContext, encoding, versioned);
+      List<String> dependencyLibraryPaths = getDepLibraryPaths(path, fhirContext, encoding, versioned);
       for (String dependencyLibraryPath : dependencyLibraryPaths) {
          if (dependencyLibraryPath.contains("ModelInfo")) {
             logger.debug("skipping ModelInfo");
@@ -294,40 +370,58 @@ public class ResourceUtils {
    public static Map<String, IBaseResource> getDepValueSetResources(String cqlContentPath, String igPath, FhirContext fhirContext, boolean includeDependencies, Boolean includeVersion) throws CQLTranslatorException {
       Map<String, IBaseResource> valueSetResources = new HashMap<>();
 
-      List<String> valueSetDefIDs = getDepELMValueSetDefIDs(cqlContentPath);
-
-      for (String valueSetUrl : valueSetDefIDs) {
-         ValueSetsProcessor.getCachedValueSets(fhirContext).entrySet().stream()
-                 .filter(entry -> entry.getKey().equals(valueSetUrl))
-                 .forEach(entry -> valueSetResources.put(entry.getKey(), entry.getValue()));
+      Set<String> dependencies = new LinkedHashSet<>(getDepELMValueSetDefIDs(cqlContentPath));
+      if (includeDependencies) {
+         for (String path : getCqlDependencyGraph(includeVersion).getTransitiveDependencies(cqlContentPath)) {
+            dependencies.addAll(getDepELMValueSetDefIDs(path));
+         }
       }
-      Set<String> dependencies = new HashSet<>(valueSetDefIDs);
 
-      if (includeDependencies) {
-         List<String> dependencyCqlPaths = IOUtils.getDependencyCqlPaths(cqlContentPath, includeVersion);
-         for (String path : dependencyCqlPaths) {
-            Map<String, IBaseResource> dependencyValueSets = getDepValueSetResources(path, igPath, fhirContext, includeDependencies, includeVersion);
-            dependencies.addAll(dependencyValueSets.keySet());
-            for (Entry<String, IBaseResource> entry : dependencyValueSets.entrySet()) {
-               valueSetResources.putIfAbsent(entry.getKey(), entry.getValue());
-            }
+      ValueSetIndex valueSetIndex = ValueSetsProcessor.getValueSetIndex(fhirContext);
+      List<String> missingValueSets = new ArrayList<>();
+      for (String valueSetUrl : dependencies) {
+         IBaseResource valueSet = valueSetIndex.resolve(valueSetUrl);
+         if (valueSet == null) {
+            missingValueSets.add(valueSetUrl + " MISSING");
+         } else {
+            // keyed by the url of the ValueSet, so references to the same ValueSet by url and by OID are bundled once
+            valueSetResources.putIfAbsent(getValueSetUrl(valueSet, valueSetUrl), valueSet);
          }
       }
 
-      if (dependencies.size() != valueSetResources.size()) {
-        List<String> missingValueSets = new ArrayList<>();
-        dependencies.removeAll(valueSetResources.keySet());
-        for (String valueSetUrl : dependencies) {
-          missingValueSets.add(valueSetUrl + " MISSING");
-        }
+      if (!missingValueSets.isEmpty()) {
         logger.error(missingValueSets.toString());
         throw new CQLTranslatorException(missingValueSets);
       }
       return valueSetResources;
    }
 
+   private static String getValueSetUrl(IBaseResource valueSet, String defaultUrl) {
+      String url = null;
+      if (valueSet instanceof org.hl7.fhir.dstu3.model.ValueSet) {
+         url = ((org.hl7.fhir.dstu3.model.ValueSet) valueSet).getUrl();
+      } else if (valueSet instanceof org.hl7.fhir.r4.model.ValueSet) {
+         url = ((org.hl7.fhir.r4.model.ValueSet) valueSet).getUrl();
+      }
+      return url != null ? url : defaultUrl;
+   }
+
+   private static final Map<Boolean, LibraryDependencyGraph<CQLTranslatorException>> cqlDependencyGraphs = new ConcurrentHashMap<>();
+   private static LibraryDependencyGraph<CQLTranslatorException> getCqlDependencyGraph(Boolean includeVersion) {
+      return cqlDependencyGraphs.computeIfAbsent(Boolean.TRUE.equals(includeVersion),
+              key -> new LibraryDependencyGraph<>(path -> IOUtils.getDependencyCqlPaths(path, key)));
+   }
+
    public static List<String> getIncludedLibraryNames(String cqlContentPath, Boolean includeVersion) throws CQLTranslatorException{
       List<String> includedLibraryNames = new ArrayList<>();
+      CqlHeaderScanner.Header header = scanCqlHeader(cqlContentPath);
+      if (header != null) {
+         for (CqlHeaderScanner.Include include : header.getIncludes()) {
+            IOUtils.putInListIfAbsent(getId(include.getName(), include.getVersion(), includeVersion), includedLibraryNames);
+         }
+         return includedLibraryNames;
+      }
+
       List<IncludeDef> includedDefs = getIncludedDefs(cqlContentPath);
       for (IncludeDef def : includedDefs) {
          //TODO: replace true with versioned variable
@@ -338,6 +432,14 @@ public class ResourceUtils {
 
    public static List<String> getDepELMValueSetDefIDs(String cqlContentPath) throws CQLTranslatorException {
       List<String> includedValueSetDefIDs = new ArrayList<>();
+      CqlHeaderScanner.Header header = scanCqlHeader(cqlContentPath);
+      if (header != null) {
+         for (CqlHeaderScanner.ValueSet valueSet : header.getValueSets()) {
+            IOUtils.putInListIfAbsent(valueSet.getId(), includedValueSetDefIDs);
+         }
+         return includedValueSetDefIDs;
+      }
+
       List<ValueSetDef> valueSetDefs = getValueSetDefs(cqlContentPath);
       for (ValueSetDef def : valueSetDefs) {
          IOUtils.putInListIfAbsent(def.getId(), includedValueSetDefIDs);
@@ -345,6 +447,19 @@ public class ResourceUtils {
       return includedValueSetDefIDs;
    }
 
+   /*
+    * Reads the declarations of a library without translating it. Returns null when the file cannot be read or does
+    * not declare a library, in which case callers fall back to translation.
+    */
+   private static CqlHeaderScanner.Header scanCqlHeader(String cqlContentPath) {
+      try {
+         CqlHeaderScanner.Header header = CqlHeaderScanner.scan(new File(cqlContentPath));
+         return header.getName() != null ? header : null;
+      } catch (IOException e) {
+         return null;
+      }
+   }
+
    public static List<IncludeDef> getIncludedDefs(String cqlContentPath) throws CQLTranslatorException{
       ArrayList<IncludeDef> includedDefs = new ArrayList<>();
       org.hl7.elm.r1.Library elm = getElmFromCql(cqlContentPath);
@@ -383,7 +498,7 @@ public class ResourceUtils {
       return options;
    }
 
-   private static Map<String, org.hl7.elm.r1.Library> cachedElm = new HashMap<>();
+   private static Map<String, org.hl7.elm.r1.Library> cachedElm = new ConcurrentHashMap<>();
    public static org.hl7.elm.r1.Library getElmFromCql(String cqlContentPath) throws CQLTranslatorException {
       org.hl7.elm.r1.Library elm = cachedElm.get(cqlContentPath);
       if (elm != null) {
@@ -397,8 +512,9 @@ public class ResourceUtils {
       // Setup
       // Construct DefaultLibrarySourceProvider
       // Construct FhirLibrarySourceProvider
-      ModelManager modelManager = new ModelManager();
-      LibraryManager libraryManager = new LibraryManager(modelManager);
+      ModelManager modelManager = CompiledLibraryCache.createModelManager();
+      LibraryManager libraryManager = CompiledLibraryCache.createLibraryManager(modelManager, options.getCqlCompilerOptions(),
+              CompiledLibraryCache.getFolderKey(folder));
       // if (packages != null) {
       //    libraryManager.getLibrarySourceLoader().registerProvider(new NpmLibrarySourceProvider(packages, reader, logger));
       // }
@@ -878,6 +994,9 @@ public class ResourceUtils {
 
     public static void cleanUp(){
         outputResourceTracker = new ConcurrentHashMap<>();
-        cachedElm = new HashMap<String, org.hl7.elm.r1.Library>();
+        cachedElm = new ConcurrentHashMap<String, org.hl7.elm.r1.Library>();
+        libraryDependencyGraphs.clear();
+        cqlDependencyGraphs.clear();
+        ValueSetsProcessor.clearCachedValueSets();
     }
 }
@@ -0,0 +1,102 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.http.client.utils.DateUtils;
+
+/**
+ * When and how often a failed request to a FHIR server is retried.
+ * <p>
+ * Only transient failures are retried: I/O errors and the statuses a server returns when it is overloaded or a
+ * gateway cannot reach it (429, 502, 503 and 504). The delay before attempt n + 1 grows exponentially from the
+ * initial delay up to the maximum delay, and a random half of it is jittered so that requests failing together do
+ * not retry together. A Retry-After header sent by the server takes precedence.
+ */
+public class RetryPolicy {
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final long DEFAULT_INITIAL_DELAY_MILLIS = 500;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 30000;
+    // a Retry-After longer than this is not waited for in full
+    private static final long MAX_RETRY_AFTER_MILLIS = 300000;
+    private static final Set<Integer> RETRYABLE_STATUS_CODES = Set.of(429, 502, 503, 504);
+
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * @param maxAttempts        the number of attempts, including the first one (1 disables retries)
+     * @param initialDelayMillis the delay before the first retry, before jitter
+     * @param maxDelayMillis     the maximum delay between two attempts, before jitter
+     */
+    public RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("The number of attempts must be at least 1");
+        }
+        if (initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("Invalid retry delays: " + initialDelayMillis + " to " + maxDelayMillis + " ms");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public boolean isRetryable(int statusCode) {
+        return RETRYABLE_STATUS_CODES.contains(statusCode);
+    }
+
+    /**
+     * @return Whether the status means the server is overloaded, so fewer requests should be sent at a time
+     */
+    public boolean isOverloaded(int statusCode) {
+        return statusCode == 429 || statusCode == 503;
+    }
+
+    /**
+     * @param attempt    the attempt that failed, starting at 1
+     * @param retryAfter the Retry-After header of the response, or null
+     * @return The number of milliseconds to wait before the next attempt
+     */
+    public long getDelayMillis(int attempt, String retryAfter) {
+        Long retryAfterMillis = parseRetryAfter(retryAfter, System.currentTimeMillis());
+        if (retryAfterMillis != null) {
+            return Math.min(retryAfterMillis, MAX_RETRY_AFTER_MILLIS);
+        }
+        // initialDelay * 2^(attempt - 1), without overflowing
+        long delay = initialDelayMillis << Math.min(attempt - 1, 30);
+        delay = delay < 0 ? maxDelayMillis : Math.min(delay, maxDelayMillis);
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    /**
+     * Parses a Retry-After header, either a number of seconds or an HTTP date.
+     *
+     * @return The number of milliseconds to wait, or null if the header is missing or invalid
+     */
+    static Long parseRetryAfter(String retryAfter, long now) {
+        if (retryAfter == null || retryAfter.isBlank()) {
+            return null;
+        }
+        String value = retryAfter.trim();
+        if (value.matches("\\d+")) {
+            try {
+                return Long.parseLong(value) * 1000;
+            } catch (NumberFormatException e) {
+                return MAX_RETRY_AFTER_MILLIS;
+            }
+        }
+        Date date = DateUtils.parseDate(value);
+        return date == null ? null : Math.max(0, date.getTime() - now);
+    }
+}
@@ -0,0 +1,193 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * An append-only journal of the resources posted to FHIR servers, so an interrupted upload can be resumed: a
+ * resource the server already acknowledged with the same content (SHA-256 hash) is skipped, while new, changed and
+ * failed resources are posted again.
+ * <p>
+ * Each line records one outcome, tab separated: time, ACK or FAIL, HTTP status (0 without a response), content hash,
+ * server url and resource key. The last line for a server and key wins. Lines are forced to disk in batches (every
+ * {@link #SYNC_BATCH_SIZE} lines or {@link #SYNC_INTERVAL_MILLIS} ms, and on close), so a crash loses at most the last
+ * batch, whose resources are simply posted again on the next run; a line torn by a crash is ignored.
+ */
+public class UploadJournal implements Closeable {
+    static final int SYNC_BATCH_SIZE = 100;
+    static final long SYNC_INTERVAL_MILLIS = 1000;
+    private static final String ACKNOWLEDGED = "ACK";
+    private static final String FAILED = "FAIL";
+    private static final int FIELD_COUNT = 6;
+
+    private final File file;
+    // server|key -> hash of the acknowledged content
+    private final Map<String, String> acknowledgedHashes = new ConcurrentHashMap<>();
+    private final FileOutputStream output;
+    private final Writer writer;
+    private int unsyncedCount;
+    private long lastSync = System.currentTimeMillis();
+
+    /**
+     * Opens the journal in the given file, creating it if needed.
+     */
+    public UploadJournal(String path) throws IOException {
+        file = new File(path);
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        boolean endsWithTornLine = false;
+        if (file.exists()) {
+            load();
+            endsWithTornLine = !endsWithNewLine();
+        }
+        output = new FileOutputStream(file, true);
+        writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        if (endsWithTornLine) {
+            // terminate the torn line so it does not swallow the next entry
+            writer.write(System.lineSeparator());
+        }
+    }
+
+    private void load() throws IOException {
+        // decoding replaces the malformed bytes a torn line may end with
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != FIELD_COUNT || fields[3].isEmpty()) {
+                    continue;
+                }
+                String id = fields[4] + "|" + fields[5];
+                if (ACKNOWLEDGED.equals(fields[1])) {
+                    acknowledgedHashes.put(id, fields[3]);
+                } else {
+                    acknowledgedHashes.remove(id);
+                }
+            }
+        }
+    }
+
+    private boolean endsWithNewLine() throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            if (randomAccessFile.length() == 0) {
+                return true;
+            }
+            randomAccessFile.seek(randomAccessFile.length() - 1);
+            return randomAccessFile.read() == '\n';
+        }
+    }
+
+    /**
+     * @return Whether the server acknowledged the resource with the given content hash
+     */
+    public boolean isAcknowledged(String fhirServerUrl, String key, String hash) {
+        return hash != null && hash.equals(acknowledgedHashes.get(fhirServerUrl + "|" + key));
+    }
+
+    public void recordSuccess(String fhirServerUrl, String key, String hash, int statusCode) throws IOException {
+        record(ACKNOWLEDGED, fhirServerUrl, key, hash, statusCode);
+        acknowledgedHashes.put(fhirServerUrl + "|" + key, hash);
+    }
+
+    public void recordFailure(String fhirServerUrl, String key, String hash, int statusCode) throws IOException {
+        record(FAILED, fhirServerUrl, key, hash, statusCode);
+        acknowledgedHashes.remove(fhirServerUrl + "|" + key);
+    }
+
+    private synchronized void record(String outcome, String fhirServerUrl, String key, String hash, int statusCode) throws IOException {
+        writer.write(String.join("\t", Instant.now().toString(), outcome, Integer.toString(statusCode), hash,
+                sanitize(fhirServerUrl), sanitize(key)));
+        writer.write(System.lineSeparator());
+        unsyncedCount++;
+        if (unsyncedCount >= SYNC_BATCH_SIZE || System.currentTimeMillis() - lastSync >= SYNC_INTERVAL_MILLIS) {
+            sync();
+        }
+    }
+
+    /**
+     * Forces the entries written so far to disk.
+     */
+    public synchronized void sync() throws IOException {
+        writer.flush();
+        output.getFD().sync();
+        unsyncedCount = 0;
+        lastSync = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            writer.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private static String sanitize(String value) {
+        return value.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+    }
+
+    /**
+     * @return The journal key of the resource in the given file: its absolute path
+     */
+    public static String getKey(String resourcePath) {
+        return Paths.get(resourcePath).toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * @return The journal key of a resource: its type and id, or null if it has no id (and so cannot be journaled)
+     */
+    public static String getKey(IBaseResource resource) {
+        String id = resource.getIdElement().getIdPart();
+        return id == null ? null : resource.fhirType() + "/" + id;
+    }
+
+    /**
+     * @return The SHA-256 hash of the content of a file
+     */
+    public static String hash(String resourcePath) throws IOException {
+        try (InputStream stream = new FileInputStream(resourcePath)) {
+            return DigestUtils.sha256Hex(stream);
+        }
+    }
+
+    /**
+     * @return The SHA-256 hash of the JSON encoding of a resource, computed without holding the encoding in memory
+     */
+    public static String hash(IBaseResource resource, FhirContext fhirContext) throws IOException {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        try (Writer digestWriter = new OutputStreamWriter(new DigestOutputStream(OutputStream.nullOutputStream(), digest), StandardCharsets.UTF_8)) {
+            IOUtils.encodeResourceToWriter(resource, IOUtils.Encoding.JSON, fhirContext, digestWriter);
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+}
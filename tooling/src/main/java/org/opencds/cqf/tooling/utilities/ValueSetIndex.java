@@ -0,0 +1,180 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * A canonical index of ValueSet resources, built once and read-only afterwards (so it may be shared between
+ * threads). A ValueSet can be resolved by:
+ * <ul>
+ *     <li>url|version - the exact version</li>
+ *     <li>url - the latest version, by {@link #compareVersions(String, String)}</li>
+ *     <li>OID (either "urn:oid:x" or a url ending with the OID, as VSAC urls do), taken from the url or the
+ *     identifiers of the ValueSet</li>
+ *     <li>expansion identifier</li>
+ * </ul>
+ */
+public class ValueSetIndex {
+    private static final Pattern OID = Pattern.compile("[0-2](\\.(0|[1-9][0-9]*))+");
+    private static final String OID_PREFIX = "urn:oid:";
+
+    private final Map<String, IBaseResource> byUrl = new LinkedHashMap<>();
+    private final Map<String, String> latestVersionByUrl = new HashMap<>();
+    private final Map<String, IBaseResource> byVersionedUrl = new HashMap<>();
+    private final Map<String, String> urlByOid = new HashMap<>();
+    private final Map<String, IBaseResource> byExpansionIdentifier = new HashMap<>();
+
+    /**
+     * @param resources ValueSets, or Bundles of ValueSets; anything else is ignored
+     */
+    public ValueSetIndex(List<IBaseResource> resources) {
+        for (IBaseResource resource : resources) {
+            if (resource instanceof org.hl7.fhir.dstu3.model.Bundle) {
+                for (org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent entry : ((org.hl7.fhir.dstu3.model.Bundle) resource).getEntry()) {
+                    add(entry.getResource());
+                }
+            } else if (resource instanceof org.hl7.fhir.r4.model.Bundle) {
+                for (org.hl7.fhir.r4.model.Bundle.BundleEntryComponent entry : ((org.hl7.fhir.r4.model.Bundle) resource).getEntry()) {
+                    add(entry.getResource());
+                }
+            } else {
+                add(resource);
+            }
+        }
+    }
+
+    private void add(IBaseResource resource) {
+        String url;
+        String version;
+        List<String> identifiers = new ArrayList<>();
+        String expansionIdentifier = null;
+        if (resource instanceof org.hl7.fhir.dstu3.model.ValueSet) {
+            org.hl7.fhir.dstu3.model.ValueSet valueSet = (org.hl7.fhir.dstu3.model.ValueSet) resource;
+            url = valueSet.getUrl();
+            version = valueSet.getVersion();
+            for (org.hl7.fhir.dstu3.model.Identifier identifier : valueSet.getIdentifier()) {
+                identifiers.add(identifier.getValue());
+            }
+            if (valueSet.hasExpansion()) {
+                expansionIdentifier = valueSet.getExpansion().getIdentifier();
+            }
+        } else if (resource instanceof org.hl7.fhir.r4.model.ValueSet) {
+            org.hl7.fhir.r4.model.ValueSet valueSet = (org.hl7.fhir.r4.model.ValueSet) resource;
+            url = valueSet.getUrl();
+            version = valueSet.getVersion();
+            for (org.hl7.fhir.r4.model.Identifier identifier : valueSet.getIdentifier()) {
+                identifiers.add(identifier.getValue());
+            }
+            if (valueSet.hasExpansion()) {
+                expansionIdentifier = valueSet.getExpansion().getIdentifier();
+            }
+        } else {
+            return;
+        }
+
+        if (url != null) {
+            if (version != null) {
+                byVersionedUrl.putIfAbsent(url + "|" + version, resource);
+            }
+            // the first ValueSet seen for a url wins, unless a later one has a version and the first one has none or a
+            // lower one
+            String latest = latestVersionByUrl.get(url);
+            if (!byUrl.containsKey(url) || (version != null && (latest == null || compareVersions(version, latest) > 0))) {
+                byUrl.put(url, resource);
+                latestVersionByUrl.put(url, version);
+            }
+            // OIDs resolve through the url, so they also get the latest version
+            String oid = getOid(url);
+            if (oid != null) {
+                urlByOid.putIfAbsent(oid, url);
+            }
+            for (String identifier : identifiers) {
+                oid = getOid(identifier);
+                if (oid != null) {
+                    urlByOid.putIfAbsent(oid, url);
+                }
+            }
+        }
+        if (expansionIdentifier != null) {
+            byExpansionIdentifier.putIfAbsent(expansionIdentifier, resource);
+        }
+    }
+
+    /**
+     * Resolves a ValueSet reference, trying in turn url|version, url, OID and expansion identifier.
+     * A versioned reference only resolves to that exact version.
+     *
+     * @return the ValueSet, or null if the reference does not resolve
+     */
+    public IBaseResource resolve(String reference) {
+        if (reference == null) {
+            return null;
+        }
+        if (reference.indexOf('|') >= 0) {
+            return byVersionedUrl.get(reference);
+        }
+        IBaseResource resource = byUrl.get(reference);
+        if (resource == null) {
+            String oid = getOid(reference);
+            if (oid != null && urlByOid.containsKey(oid)) {
+                resource = byUrl.get(urlByOid.get(oid));
+            }
+        }
+        if (resource == null) {
+            resource = byExpansionIdentifier.get(reference);
+        }
+        return resource;
+    }
+
+    /**
+     * @return the latest version of each ValueSet, by url
+     */
+    public Map<String, IBaseResource> getValueSetsByUrl() {
+        return Collections.unmodifiableMap(byUrl);
+    }
+
+    public int size() {
+        return byUrl.size();
+    }
+
+    // Returns the OID in "urn:oid:x", "x" or a url whose last segment is "x"
+    private static String getOid(String reference) {
+        if (reference == null) {
+            return null;
+        }
+        String candidate = reference.startsWith(OID_PREFIX)
+                ? reference.substring(OID_PREFIX.length())
+                : reference.substring(reference.lastIndexOf('/') + 1);
+        return OID.matcher(candidate).matches() ? candidate : null;
+    }
+
+    /**
+     * Compares two versions segment by segment (split on '.' and '-'), numerically where both segments are
+     * numbers and lexically otherwise, so that "1.10.0" is later than "1.9.2" and "20210220" is later than
+     * "20190315".
+     */
+    public static int compareVersions(String left, String right) {
+        String[] leftSegments = left.split("[.-]");
+        String[] rightSegments = right.split("[.-]");
+        for (int i = 0; i < Math.min(leftSegments.length, rightSegments.length); i++) {
+            int result;
+            if (leftSegments[i].matches("\\d+") && rightSegments[i].matches("\\d+")) {
+                result = new BigInteger(leftSegments[i]).compareTo(new BigInteger(rightSegments[i]));
+            } else {
+                result = leftSegments[i].compareTo(rightSegments[i]);
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(leftSegments.length, rightSegments.length);
+    }
+}
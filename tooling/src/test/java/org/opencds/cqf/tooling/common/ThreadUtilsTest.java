@@ -0,0 +1,85 @@
+package org.opencds.cqf.tooling.common;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class ThreadUtilsTest {
+
+    private final int defaultParallelism = ThreadUtils.getParallelism();
+
+    @AfterMethod
+    public void resetParallelism() {
+        ThreadUtils.setParallelism(defaultParallelism);
+    }
+
+    @Test
+    public void testNestedTasksRunOnABoundedPool() {
+        // with a single thread, waiting for nested tasks would deadlock if the waiting thread did not run them
+        ThreadUtils.setParallelism(1);
+        AtomicInteger completed = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            tasks.add(() -> {
+                List<Callable<Void>> nested = new ArrayList<>();
+                for (int j = 0; j < 4; j++) {
+                    nested.add(() -> {
+                        completed.incrementAndGet();
+                        return null;
+                    });
+                }
+                assertTrue(ThreadUtils.executeTasks(nested).isSuccessful());
+                return null;
+            });
+        }
+
+        assertTrue(ThreadUtils.executeTasks(tasks).isSuccessful());
+        assertEquals(completed.get(), 16);
+    }
+
+    @Test
+    public void testFailuresAreReported() {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        tasks.add(() -> null);
+        tasks.add(() -> {
+            throw new IllegalStateException("failed");
+        });
+        tasks.add(() -> null);
+
+        ThreadUtils.TaskResults results = ThreadUtils.executeTasks(tasks);
+        assertFalse(results.isSuccessful());
+        assertEquals(results.getFailures().size(), 1);
+        assertEquals(results.getFailures().get(0).getIndex(), 1);
+        assertEquals(results.getFailures().get(0).getError().getMessage(), "failed");
+        assertEquals(results.getSkippedCount(), 0);
+    }
+
+    @Test
+    public void testCancelOnFailureSkipsRemainingTasks() {
+        ThreadUtils.setParallelism(1);
+        AtomicInteger run = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            throw new IllegalStateException("failed");
+        });
+        for (int i = 0; i < 3; i++) {
+            tasks.add(() -> {
+                run.incrementAndGet();
+                return null;
+            });
+        }
+
+        ThreadUtils.TaskResults results = ThreadUtils.executeTasks(tasks, true);
+        assertEquals(results.getFailures().size(), 1);
+        assertEquals(results.getSkippedCount(), 3);
+        assertEquals(run.get(), 0);
+    }
+}
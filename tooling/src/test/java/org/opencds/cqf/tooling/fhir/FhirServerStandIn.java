@@ -0,0 +1,330 @@
+package org.opencds.cqf.tooling.fhir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseParameters;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.util.BundleBuilder;
+import ca.uhn.fhir.util.BundleUtil;
+import ca.uhn.fhir.util.FhirTerser;
+import ca.uhn.fhir.util.ParametersUtil;
+import ca.uhn.fhir.util.bundle.BundleEntryParts;
+
+/**
+ * A lightweight in-process stand-in for a FHIR server, to test and benchmark the code that talks to one without a
+ * live server. It is not a FHIR server: nothing is stored, it answers
+ * <ul>
+ *     <li>GET metadata with a minimal CapabilityStatement</li>
+ *     <li>POST of a batch or transaction bundle to the base url with a response bundle (every entry 201 Created, or
+ *     200 OK for a PUT)</li>
+ *     <li>POST of a resource (201 Created) and PUT (200 OK)</li>
+ *     <li>ValueSet $expand with the expansion registered for the url of the ValueSet, or the ValueSet itself</li>
+ * </ul>
+ * Latency, a rate of errors and a rate of 429 (Too Many Requests) responses can be injected, and every request is
+ * counted (by kind, e.g. "transaction", "POST Patient", "$expand") and timed.
+ */
+public class FhirServerStandIn implements AutoCloseable {
+    private final FhirContext fhirContext;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private volatile long latencyMillis;
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+    private volatile double throttleRate;
+    private volatile int retryAfterSeconds;
+
+    private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    private final AtomicInteger entryCount = new AtomicInteger();
+    private final AtomicInteger errorCount = new AtomicInteger();
+    private final AtomicInteger throttledCount = new AtomicInteger();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final ConcurrentLinkedQueue<Long> latenciesNanos = new ConcurrentLinkedQueue<>();
+    private final Map<String, IBaseResource> expansions = new ConcurrentHashMap<>();
+
+    /**
+     * Starts a stand-in on a free port.
+     */
+    public FhirServerStandIn(FhirContext fhirContext) throws IOException {
+        this.fhirContext = fhirContext;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/fhir", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return The base url of the stand-in, e.g. http://localhost:12345/fhir
+     */
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/fhir";
+    }
+
+    public FhirServerStandIn setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * @param errorRate the share of requests (0 to 1) answered with the error status (503 by default)
+     */
+    public FhirServerStandIn setErrorRate(double errorRate, int errorStatus) {
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+        return this;
+    }
+
+    /**
+     * @param throttleRate the share of requests (0 to 1) answered with 429 and the given Retry-After
+     */
+    public FhirServerStandIn setThrottleRate(double throttleRate, int retryAfterSeconds) {
+        this.throttleRate = throttleRate;
+        this.retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    /**
+     * Registers the expansion returned by $expand for the ValueSet with the given url.
+     */
+    public FhirServerStandIn addExpansion(String url, IBaseResource expandedValueSet) {
+        expansions.put(url, expandedValueSet);
+        return this;
+    }
+
+    /**
+     * @return The number of requests of a kind, e.g. "metadata", "transaction", "batch", "POST Patient",
+     * "PUT Patient", "$expand"
+     */
+    public int getRequestCount(String kind) {
+        AtomicInteger count = requestCounts.get(kind);
+        return count == null ? 0 : count.get();
+    }
+
+    public int getRequestCount() {
+        return requestCounts.values().stream().mapToInt(AtomicInteger::get).sum();
+    }
+
+    /**
+     * @return The number of resources received and accepted, as bundle entries or on their own
+     */
+    public int getResourceCount() {
+        return entryCount.get();
+    }
+
+    public int getErrorCount() {
+        return errorCount.get();
+    }
+
+    public int getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * @return The time taken to receive and answer each request (injected latency included), in milliseconds, sorted
+     */
+    public List<Double> getLatenciesMillis() {
+        List<Double> latencies = new ArrayList<>();
+        for (Long nanos : latenciesNanos) {
+            latencies.add(nanos / 1_000_000.0);
+        }
+        Collections.sort(latencies);
+        return latencies;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return The latency at the given percentile, in milliseconds (nearest rank), or 0 without requests
+     */
+    public double getLatencyPercentileMillis(double percentile) {
+        List<Double> latencies = getLatenciesMillis();
+        if (latencies.isEmpty()) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * latencies.size());
+        return latencies.get(Math.max(0, Math.min(latencies.size() - 1, rank - 1)));
+    }
+
+    public void reset() {
+        requestCounts.clear();
+        entryCount.set(0);
+        errorCount.set(0);
+        throttledCount.set(0);
+        bytesReceived.set(0);
+        latenciesNanos.clear();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            byte[] body = readBody(exchange);
+            bytesReceived.addAndGet(body.length);
+            if (latencyMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            }
+
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath().substring("/fhir".length());
+            String[] segments = path.isEmpty() || path.equals("/") ? new String[0] : path.substring(1).split("/");
+
+            if (segments.length == 1 && segments[0].equals("metadata")) {
+                count("metadata");
+                respond(exchange, 200, capabilityStatement());
+                return;
+            }
+            if (ThreadLocalRandom.current().nextDouble() < throttleRate) {
+                throttledCount.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", Integer.toString(retryAfterSeconds));
+                respond(exchange, 429, null);
+                return;
+            }
+            if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+                errorCount.incrementAndGet();
+                respond(exchange, errorStatus, null);
+                return;
+            }
+
+            if (segments.length > 0 && segments[segments.length - 1].equals("$expand")) {
+                count("$expand");
+                respond(exchange, 200, expand(exchange, body));
+            } else if (segments.length == 0 && method.equals("POST")) {
+                IBaseResource resource = parse(exchange, body);
+                if (!(resource instanceof IBaseBundle)) {
+                    respond(exchange, 400, null);
+                    return;
+                }
+                String type = BundleUtil.getBundleType(fhirContext, (IBaseBundle) resource);
+                count(type);
+                respond(exchange, 200, bundleResponse((IBaseBundle) resource, type));
+            } else if (segments.length == 1 && method.equals("POST")) {
+                count("POST " + segments[0]);
+                entryCount.incrementAndGet();
+                respond(exchange, 201, null);
+            } else if (segments.length == 2 && method.equals("PUT")) {
+                count("PUT " + segments[0]);
+                entryCount.incrementAndGet();
+                respond(exchange, 200, null);
+            } else {
+                count(method + " " + path);
+                respond(exchange, 404, null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 500, null);
+        } catch (Exception e) {
+            respond(exchange, 400, null);
+        } finally {
+            latenciesNanos.add(System.nanoTime() - start);
+            exchange.close();
+        }
+    }
+
+    private void count(String kind) {
+        requestCounts.computeIfAbsent(kind, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        InputStream stream = exchange.getRequestBody();
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            stream = new GZIPInputStream(stream);
+        }
+        return stream.readAllBytes();
+    }
+
+    private IParser getParser(HttpExchange exchange) {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        return contentType != null && contentType.contains("xml") ? fhirContext.newXmlParser() : fhirContext.newJsonParser();
+    }
+
+    private IBaseResource parse(HttpExchange exchange, byte[] body) {
+        return getParser(exchange).parseResource(new String(body, StandardCharsets.UTF_8));
+    }
+
+    private IBaseResource capabilityStatement() {
+        IBaseResource capabilityStatement = fhirContext.getResourceDefinition("CapabilityStatement").newInstance();
+        FhirTerser terser = fhirContext.newTerser();
+        terser.setElement(capabilityStatement, "status", "active");
+        terser.setElement(capabilityStatement, "kind", "instance");
+        terser.setElement(capabilityStatement, "fhirVersion", fhirContext.getVersion().getVersion().getFhirVersionString());
+        return capabilityStatement;
+    }
+
+    private IBaseResource bundleResponse(IBaseBundle bundle, String type) {
+        BundleBuilder builder = new BundleBuilder(fhirContext);
+        builder.setType(type + "-response");
+        FhirTerser terser = fhirContext.newTerser();
+        for (BundleEntryParts entry : BundleUtil.toListOfEntries(fhirContext, bundle)) {
+            entryCount.incrementAndGet();
+            terser.setElement(builder.addEntry(), "response.status",
+                    entry.getRequestType() == RequestTypeEnum.PUT ? "200 OK" : "201 Created");
+        }
+        return builder.getBundle();
+    }
+
+    private IBaseResource expand(HttpExchange exchange, byte[] body) {
+        IBaseResource valueSet = null;
+        if (body.length > 0) {
+            IBaseResource resource = parse(exchange, body);
+            if (resource instanceof IBaseParameters) {
+                valueSet = ParametersUtil.getNamedParameter(fhirContext, resource, "valueSet")
+                        .flatMap(parameter -> fhirContext.newTerser().getSingleValue(parameter, "resource", IBaseResource.class))
+                        .orElse(null);
+            } else if (resource.fhirType().equals("ValueSet")) {
+                valueSet = resource;
+            }
+        }
+        String query = exchange.getRequestURI().getQuery();
+        String url = valueSet != null
+                ? fhirContext.newTerser().getSinglePrimitiveValueOrNull(valueSet, "url")
+                : (query != null && query.startsWith("url=") ? query.substring("url=".length()) : null);
+        IBaseResource expansion = url != null ? expansions.get(url) : null;
+        return expansion != null ? expansion : valueSet;
+    }
+
+    private void respond(HttpExchange exchange, int status, IBaseResource resource) throws IOException {
+        if (resource == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] response = fhirContext.newJsonParser().encodeResourceToString(resource).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/fhir+json;charset=UTF-8");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(response);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.opencds.cqf.tooling.fhir;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.opencds.cqf.tooling.utilities.BatchUploader;
+import org.opencds.cqf.tooling.utilities.HttpClientUtils;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.RetryPolicy;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class FhirServerStandInTests {
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+    private FhirServerStandIn server;
+
+    @BeforeMethod
+    public void startServer() throws Exception {
+        server = new FhirServerStandIn(fhirContext);
+    }
+
+    @AfterMethod
+    public void stopServer() {
+        server.close();
+        HttpClientUtils.setRetryPolicy(new RetryPolicy());
+    }
+
+    private static Patient patient(int i) {
+        Patient patient = new Patient();
+        patient.setId("patient-" + i);
+        return patient;
+    }
+
+    private static Bundle transaction(Patient patient) {
+        Bundle bundle = new Bundle();
+        bundle.setType(Bundle.BundleType.TRANSACTION);
+        bundle.addEntry().setResource(patient).getRequest().setMethod(Bundle.HTTPVerb.PUT).setUrl("Patient/" + patient.getIdPart());
+        return bundle;
+    }
+
+    @Test
+    public void testPostsAreCounted() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            HttpClientUtils.post(server.getBaseUrl(), transaction(patient(i)), IOUtils.Encoding.JSON, fhirContext);
+        }
+        HttpClientUtils.postTaskCollection();
+
+        assertEquals(server.getRequestCount("transaction"), 10);
+        assertEquals(server.getResourceCount(), 10);
+        assertEquals(server.getLatenciesMillis().size(), 10);
+    }
+
+    @Test
+    public void testBatchEntriesAreAnswered() {
+        Map<String, IBaseResource> resources = new LinkedHashMap<>();
+        for (int i = 0; i < 25; i++) {
+            resources.put("patient-" + i, patient(i));
+        }
+
+        BatchUploader.Result result = new BatchUploader(fhirContext, server.getBaseUrl(), IOUtils.Encoding.JSON,
+                "batch", 10, Long.MAX_VALUE).upload(resources);
+
+        assertEquals(server.getRequestCount("batch"), 3);
+        assertEquals(server.getResourceCount(), 25);
+        assertTrue(result.getFailures().isEmpty());
+        assertEquals(result.getStatuses().get("patient-0"), Integer.valueOf(200));
+    }
+
+    @Test
+    public void testThrottledPostsAreRetried() throws Exception {
+        HttpClientUtils.setRetryPolicy(new RetryPolicy(20, 1, 5));
+        server.setThrottleRate(0.5, 0);
+        for (int i = 0; i < 10; i++) {
+            HttpClientUtils.post(server.getBaseUrl(), transaction(patient(i)), IOUtils.Encoding.JSON, fhirContext);
+        }
+        HttpClientUtils.postTaskCollection();
+
+        assertEquals(server.getResourceCount(), 10);
+        assertEquals(server.getRequestCount(), 10);
+        assertTrue(server.getThrottledCount() > 0);
+    }
+
+    @Test
+    public void testExpandReturnsRegisteredExpansion() {
+        ValueSet expansion = new ValueSet();
+        expansion.setUrl("http://example.org/ValueSet/test");
+        expansion.getExpansion().addContains().setSystem("http://example.org").setCode("a");
+        server.addExpansion("http://example.org/ValueSet/test", expansion);
+
+        ValueSet valueSet = new ValueSet();
+        valueSet.setUrl("http://example.org/ValueSet/test");
+        Parameters parameters = new Parameters();
+        parameters.addParameter().setName("valueSet").setResource(valueSet);
+        Parameters response = fhirContext.newRestfulGenericClient(server.getBaseUrl()).operation().onType("ValueSet")
+                .named("$expand").withParameters(parameters).execute();
+
+        ValueSet expanded = (ValueSet) response.getParameterFirstRep().getResource();
+        assertEquals(expanded.getExpansion().getContainsFirstRep().getCode(), "a");
+        assertEquals(server.getRequestCount("$expand"), 1);
+    }
+
+    @Test
+    public void testTransactionResponse() throws Exception {
+        Bundle bundle = new Bundle();
+        bundle.setType(Bundle.BundleType.TRANSACTION);
+        bundle.addEntry().setResource(patient(1)).getRequest().setMethod(Bundle.HTTPVerb.PUT).setUrl("Patient/patient-1");
+        bundle.addEntry().setResource(new Patient()).getRequest().setMethod(Bundle.HTTPVerb.POST).setUrl("Patient");
+
+        Bundle response = fhirContext.newRestfulGenericClient(server.getBaseUrl()).transaction().withBundle(bundle).execute();
+
+        assertEquals(response.getType(), Bundle.BundleType.TRANSACTIONRESPONSE);
+        assertEquals(response.getEntry().get(0).getResponse().getStatus(), "200 OK");
+        assertEquals(response.getEntry().get(1).getResponse().getStatus(), "201 Created");
+    }
+}
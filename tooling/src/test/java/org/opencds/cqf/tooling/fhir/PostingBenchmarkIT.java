@@ -0,0 +1,156 @@
+package org.opencds.cqf.tooling.fhir;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.Patient;
+import org.opencds.cqf.tooling.utilities.BatchBundler;
+import org.opencds.cqf.tooling.utilities.BatchUploader;
+import org.opencds.cqf.tooling.utilities.HttpClientUtils;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * Measures the throughput of the posting path (requests/second, p50 and p99 latency as seen by the server, peak heap)
+ * against a {@link FhirServerStandIn}, posting each resource in a transaction bundle of its own and packed into batch
+ * bundles.
+ * <p>
+ * The number of resources posted is set with -Dbenchmark.sizes (default 1000,10000,50000) and the latency the server
+ * adds to each request with -Dbenchmark.latencyMillis (default 0). The results are logged and appended to
+ * target/posting-benchmark.csv.
+ */
+public class PostingBenchmarkIT {
+    private static final Logger logger = LoggerFactory.getLogger(PostingBenchmarkIT.class);
+    private static final Path RESULTS = Paths.get("target", "posting-benchmark.csv");
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+    private FhirServerStandIn server;
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        server = new FhirServerStandIn(fhirContext).setLatencyMillis(Long.getLong("benchmark.latencyMillis", 0));
+        if (!Files.exists(RESULTS)) {
+            Files.createDirectories(RESULTS.getParent());
+            Files.write(RESULTS, List.of("mode,resources,requests,seconds,requestsPerSecond,resourcesPerSecond,p50Millis,p99Millis,peakHeapMB"),
+                    StandardCharsets.UTF_8);
+        }
+    }
+
+    @AfterClass
+    public void stopServer() {
+        server.close();
+    }
+
+    @DataProvider
+    public Object[][] sizes() {
+        return Arrays.stream(System.getProperty("benchmark.sizes", "1000,10000,50000").split(","))
+                .map(size -> new Object[] { Integer.parseInt(size.trim()) })
+                .toArray(Object[][]::new);
+    }
+
+    private static List<Patient> patients(int count) {
+        List<Patient> patients = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Patient patient = new Patient();
+            patient.setId("patient-" + i);
+            patient.addName(new HumanName().setFamily("Family" + i).addGiven("Given" + i));
+            patient.setGender(i % 2 == 0 ? Enumerations.AdministrativeGender.FEMALE : Enumerations.AdministrativeGender.MALE);
+            patients.add(patient);
+        }
+        return patients;
+    }
+
+    @Test(dataProvider = "sizes")
+    public void benchmarkIndividualPosts(int size) throws Exception {
+        List<Patient> patients = patients(size);
+        run("individual", size, () -> {
+            for (Patient patient : patients) {
+                // each resource in a bundle of its own, as refresh and PostBundlesInDir post them
+                Bundle bundle = new Bundle();
+                bundle.setType(Bundle.BundleType.TRANSACTION);
+                bundle.addEntry().setResource(patient).getRequest().setMethod(Bundle.HTTPVerb.PUT).setUrl("Patient/" + patient.getIdPart());
+                HttpClientUtils.post(server.getBaseUrl(), bundle, IOUtils.Encoding.JSON, fhirContext);
+            }
+            HttpClientUtils.postTaskCollection();
+        });
+    }
+
+    @Test(dataProvider = "sizes")
+    public void benchmarkBatchPosts(int size) throws Exception {
+        Map<String, IBaseResource> resources = new LinkedHashMap<>();
+        for (Patient patient : patients(size)) {
+            resources.put(patient.getIdElement().getIdPart(), patient);
+        }
+        run("batch", size, () -> {
+            BatchUploader.Result result = new BatchUploader(fhirContext, server.getBaseUrl(), IOUtils.Encoding.JSON, "batch",
+                    BatchBundler.DEFAULT_MAX_ENTRIES, BatchBundler.DEFAULT_MAX_BYTES).upload(resources);
+            assertTrue(result.getFailures().isEmpty());
+        });
+    }
+
+    private interface Workload {
+        void run() throws Exception;
+    }
+
+    private void run(String mode, int size, Workload workload) throws Exception {
+        server.reset();
+        System.gc();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        AtomicLong peakHeap = new AtomicLong(memory.getHeapMemoryUsage().getUsed());
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+                0, 50, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        try {
+            workload.run();
+        } finally {
+            sampler.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        assertEquals(server.getResourceCount(), size);
+        int requests = server.getRequestCount();
+        List<String> fields = List.of(mode, Integer.toString(size), Integer.toString(requests),
+                format(seconds), format(requests / seconds), format(size / seconds),
+                format(server.getLatencyPercentileMillis(50)), format(server.getLatencyPercentileMillis(99)),
+                format(peakHeap.get() / (1024.0 * 1024.0)));
+        logger.info("Posting benchmark: {}", fields);
+        Files.write(RESULTS, List.of(String.join(",", fields)), StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+}
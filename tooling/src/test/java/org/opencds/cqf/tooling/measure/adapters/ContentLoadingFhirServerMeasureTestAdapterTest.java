@@ -0,0 +1,90 @@
+package org.opencds.cqf.tooling.measure.adapters;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Measure;
+import org.opencds.cqf.tooling.common.ThreadUtils;
+import org.opencds.cqf.tooling.fhir.FhirServerStandIn;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+
+public class ContentLoadingFhirServerMeasureTestAdapterTest {
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+    private static Bundle contentBundle(String measureId) {
+        Measure measure = new Measure();
+        measure.setId(measureId);
+        measure.setUrl("http://example.org/Measure/" + measureId);
+        Bundle bundle = new Bundle();
+        bundle.setType(Bundle.BundleType.TRANSACTION);
+        bundle.addEntry().setResource(measure).getRequest().setMethod(Bundle.HTTPVerb.PUT).setUrl("Measure/" + measureId);
+        return bundle;
+    }
+
+    @Test
+    public void testIdenticalContentIsLoadedOncePerServer() throws Exception {
+        try (FhirServerStandIn server = new FhirServerStandIn(fhirContext);
+             FhirServerStandIn otherServer = new FhirServerStandIn(fhirContext)) {
+            IGenericClient client = fhirContext.newRestfulGenericClient(server.getBaseUrl());
+            IGenericClient otherClient = fhirContext.newRestfulGenericClient(otherServer.getBaseUrl());
+
+            // distinct instances of the same content, as when the bundle is read again
+            ContentLoadingFhirServerMeasureTestAdapter.loadContent(client, contentBundle("identical"));
+            ContentLoadingFhirServerMeasureTestAdapter.loadContent(client, contentBundle("identical"));
+            assertEquals(server.getRequestCount("transaction"), 1);
+
+            ContentLoadingFhirServerMeasureTestAdapter.loadContent(client, contentBundle("different"));
+            assertEquals(server.getRequestCount("transaction"), 2);
+
+            ContentLoadingFhirServerMeasureTestAdapter.loadContent(otherClient, contentBundle("identical"));
+            assertEquals(otherServer.getRequestCount("transaction"), 1);
+        }
+    }
+
+    @Test
+    public void testConcurrentLoadsOfTheSameContentWaitForOneLoad() throws Exception {
+        try (FhirServerStandIn server = new FhirServerStandIn(fhirContext).setLatencyMillis(50)) {
+            IGenericClient client = fhirContext.newRestfulGenericClient(server.getBaseUrl());
+            Bundle contentBundle = contentBundle("concurrent");
+
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                tasks.add(() -> {
+                    ContentLoadingFhirServerMeasureTestAdapter.loadContent(client, contentBundle);
+                    return null;
+                });
+            }
+
+            assertEquals(ThreadUtils.executeTasks(tasks).getFailures().size(), 0);
+            assertEquals(server.getRequestCount("transaction"), 1);
+        }
+    }
+
+    @Test
+    public void testFailedLoadIsRetried() throws Exception {
+        try (FhirServerStandIn server = new FhirServerStandIn(fhirContext).setErrorRate(1.0, 500)) {
+            IGenericClient client = fhirContext.newRestfulGenericClient(server.getBaseUrl());
+            Bundle contentBundle = contentBundle("retried");
+
+            try {
+                ContentLoadingFhirServerMeasureTestAdapter.loadContent(client, contentBundle);
+            } catch (RuntimeException expected) {
+                // the server is down
+            }
+
+            assertEquals(server.getErrorCount(), 1);
+
+            server.setErrorRate(0.0, 500);
+            ContentLoadingFhirServerMeasureTestAdapter.loadContent(client, contentBundle);
+            assertEquals(server.getRequestCount("transaction"), 1);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.opencds.cqf.tooling.measure.adapters;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.hl7.fhir.Parameters;
+import org.hl7.fhir.r4.model.Attachment;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Expression;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Period;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.opencds.cqf.tooling.measure.MeasureTestProcessor;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class CqlEvaluatorMeasureTestAdapterTest {
+
+    private static final String CQL = String.join("\n",
+            "library Screening version '1.0.0'",
+            "using FHIR version '4.0.1'",
+            "include FHIRHelpers version '4.0.1'",
+            "valueset \"Diabetes\": 'http://example.org/ValueSet/diabetes'",
+            "parameter \"Measurement Period\" Interval<DateTime>",
+            "context Patient",
+            "define \"Initial Population\": exists ([Encounter] E where E.period overlaps \"Measurement Period\")",
+            "define \"Denominator\": \"Initial Population\"",
+            "define \"Numerator\": exists [Condition: \"Diabetes\"]");
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+    private final Bundle contentBundle = contentBundle();
+
+    private static Bundle contentBundle() {
+        Library library = new Library();
+        library.setId("Screening");
+        library.setUrl("http://example.org/Library/Screening");
+        library.setName("Screening");
+        library.setVersion("1.0.0");
+        library.addContent(new Attachment().setContentType("text/cql").setData(CQL.getBytes(StandardCharsets.UTF_8)));
+
+        Measure measure = new Measure();
+        measure.setId("screening");
+        measure.setUrl("http://example.org/Measure/screening");
+        measure.addLibrary("http://example.org/Library/Screening|1.0.0");
+        measure.setScoring(new CodeableConcept(new Coding("http://terminology.hl7.org/CodeSystem/measure-scoring", "proportion", null)));
+        Measure.MeasureGroupComponent group = measure.addGroup();
+        group.setId("group-1");
+        addPopulation(group, "initial-population", "Initial Population");
+        addPopulation(group, "denominator", "Denominator");
+        addPopulation(group, "numerator", "Numerator");
+
+        ValueSet valueSet = new ValueSet();
+        valueSet.setId("diabetes");
+        valueSet.setUrl("http://example.org/ValueSet/diabetes");
+        valueSet.getCompose().addInclude().setSystem("http://snomed.info/sct").addConcept().setCode("44054006");
+
+        Bundle bundle = new Bundle();
+        bundle.setType(Bundle.BundleType.TRANSACTION);
+        bundle.addEntry().setResource(library);
+        bundle.addEntry().setResource(measure);
+        bundle.addEntry().setResource(valueSet);
+        return bundle;
+    }
+
+    private static void addPopulation(Measure.MeasureGroupComponent group, String code, String expression) {
+        group.addPopulation()
+                .setCode(new CodeableConcept(new Coding("http://terminology.hl7.org/CodeSystem/measure-population", code, null)))
+                .setCriteria(new Expression().setLanguage("text/cql.identifier").setExpression(expression));
+    }
+
+    private static Bundle testBundle(String patientId, boolean hasEncounter, boolean hasDiabetes, Double expectedScore) {
+        Bundle bundle = new Bundle();
+        bundle.setType(Bundle.BundleType.TRANSACTION);
+        Patient patient = new Patient();
+        patient.setId(patientId);
+        add(bundle, patient);
+        if (hasEncounter) {
+            Encounter encounter = new Encounter();
+            encounter.setId(patientId + "-encounter");
+            encounter.setStatus(Encounter.EncounterStatus.FINISHED);
+            encounter.setSubject(new Reference("Patient/" + patientId));
+            encounter.setPeriod(new Period().setStartElement(new DateTimeType("2019-06-01T10:00:00Z"))
+                    .setEndElement(new DateTimeType("2019-06-01T11:00:00Z")));
+            add(bundle, encounter);
+        }
+        if (hasDiabetes) {
+            Condition condition = new Condition();
+            condition.setId(patientId + "-diabetes");
+            condition.setSubject(new Reference("Patient/" + patientId));
+            condition.setCode(new CodeableConcept(new Coding("http://snomed.info/sct", "44054006", "Diabetes")));
+            add(bundle, condition);
+        }
+
+        MeasureReport report = new MeasureReport();
+        report.setId(patientId + "-report");
+        report.setType(MeasureReport.MeasureReportType.INDIVIDUAL);
+        report.setMeasure("http://example.org/Measure/screening");
+        report.setSubject(new Reference("Patient/" + patientId));
+        report.setPeriod(new Period().setStartElement(new DateTimeType("2019-01-01")).setEndElement(new DateTimeType("2019-12-31")));
+        MeasureReport.MeasureReportGroupComponent group = report.addGroup();
+        group.setId("group-1");
+        if (expectedScore != null) {
+            group.setMeasureScore(new Quantity(expectedScore));
+        }
+        add(bundle, report);
+        return bundle;
+    }
+
+    private static void add(Bundle bundle, Resource resource) {
+        bundle.addEntry().setResource(resource).getRequest().setMethod(Bundle.HTTPVerb.PUT)
+                .setUrl(resource.fhirType() + "/" + resource.getIdElement().getIdPart());
+    }
+
+    @Test
+    public void testNumeratorMet() {
+        CqlEvaluatorMeasureTestAdapter adapter = new CqlEvaluatorMeasureTestAdapter(fhirContext,
+                testBundle("numerator", true, true, 1.0), contentBundle);
+
+        IMeasureReportAdapter actual = adapter.getActualMeasureReportAdapter();
+
+        assertEquals(actual.getMeasureId(), "screening");
+        assertEquals(actual.getPatientId(), "numerator");
+        assertEquals(actual.getReportType(), "INDIVIDUAL");
+        assertEquals(actual.getGroupScore("group-1").compareTo(BigDecimal.ONE), 0);
+    }
+
+    @Test
+    public void testNumeratorNotMet() {
+        CqlEvaluatorMeasureTestAdapter adapter = new CqlEvaluatorMeasureTestAdapter(fhirContext,
+                testBundle("denominator", true, false, 0.0), contentBundle);
+
+        assertEquals(adapter.getActualMeasureReportAdapter().getGroupScore("group-1").compareTo(BigDecimal.ZERO), 0);
+    }
+
+    @Test
+    public void testNotInInitialPopulationHasNoScore() {
+        CqlEvaluatorMeasureTestAdapter adapter = new CqlEvaluatorMeasureTestAdapter(fhirContext,
+                testBundle("excluded", false, true, null), contentBundle);
+
+        assertNull(adapter.getActualMeasureReportAdapter().getGroupScore("group-1"));
+    }
+
+    @Test
+    public void testMeasureTestProcessorEvaluatesWithoutServer() {
+        Parameters results = new MeasureTestProcessor(fhirContext)
+                .executeTest(testBundle("numerator", true, true, 1.0), contentBundle, null);
+
+        boolean passed = results.getParameter().stream()
+                .filter(parameter -> parameter.getName().getValue().contains(MeasureTestProcessor.TestPassedKey))
+                .findFirst().orElseThrow().getValueBoolean().isValue();
+        assertTrue(passed);
+    }
+
+    @Test
+    public void testMeasureTestProcessorReportsPhaseTimings() {
+        Parameters results = new MeasureTestProcessor(fhirContext)
+                .executeTest(testBundle("denominator", true, false, 0.0), contentBundle, null);
+
+        for (String phase : Arrays.asList(MeasureTestProcessor.LoadContentTiming, MeasureTestProcessor.EvaluateTiming,
+                MeasureTestProcessor.CompareTiming)) {
+            assertTrue(results.getParameter().stream()
+                    .anyMatch(parameter -> parameter.getName().getValue().equals(MeasureTestProcessor.TimingKeyPrefix + phase)
+                            && parameter.getValueDecimal().getValue().signum() >= 0), phase);
+        }
+    }
+}
@@ -109,6 +109,30 @@ public class MeasureReportComparerTest {
         assertTrue(resultContainsAllExpectedParameters, "Mismatched measureId test");
     }
 
+    @Test
+    public void TestDstu3BasicCompareMismatchDetails() {
+        Setup();
+
+        String testCaseId = "DSTU3ComparerTestMeasureReport";
+        org.hl7.fhir.dstu3.model.MeasureReport actualReport = GetDstu3BasicMeasureReportWithId(testCaseId);
+        actualReport.setPatient(new org.hl7.fhir.dstu3.model.Reference("Patient/mismatch"));
+        actualReport.getGroupFirstRep().setMeasureScore(0.5);
+        this.actualMeasureReportAdapter = new Dstu3MeasureReportAdapter(actualReport);
+        this.expectedMeasureReportAdapter = new Dstu3MeasureReportAdapter(GetDstu3BasicMeasureReportWithId(testCaseId));
+
+        Parameters results = comparer.compare(this.actualMeasureReportAdapter, this.expectedMeasureReportAdapter);
+
+        List<String> details = new ArrayList<>();
+        for (ParametersParameter parameter : results.getParameter()) {
+            if (parameter.getValueString() != null) {
+                details.add(parameter.getName().getValue() + ": " + parameter.getValueString().getValue());
+            }
+        }
+        assertEquals(details.size(), 2);
+        assertEquals(details.get(0), "PatientId" + MeasureReportComparer.DetailSuffix + ": expected '" + testCaseId + "' but was 'mismatch'");
+        assertTrue(details.get(1).startsWith("Group[group-1].score" + MeasureReportComparer.DetailSuffix + ": expected 1"));
+    }
+
     @Test
     public void TestDstu3BasicCompareMismatchedPatientId() {
         Setup();
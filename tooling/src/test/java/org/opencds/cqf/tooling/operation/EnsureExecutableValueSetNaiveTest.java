@@ -6,6 +6,9 @@ import org.opencds.cqf.tooling.terminology.EnsureExecutableValueSetOperation;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.testng.annotations.Test;
 
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -42,4 +45,31 @@ public class EnsureExecutableValueSetNaiveTest {
             }
         }
     }
+
+    @Test
+    public void testInferComposeFromNestedExpansion() {
+        ValueSet valueSet = new ValueSet();
+        valueSet.setUrl("http://example.org/fhir/ValueSet/nested");
+        valueSet.getExpansion().setTotal(3);
+        ValueSet.ValueSetExpansionContainsComponent group = valueSet.getExpansion().addContains().setAbstract(true).setDisplay("group");
+        group.addContains().setSystem("http://snomed.info/sct").setCode("1");
+        group.addContains().setSystem("http://snomed.info/sct").setCode("2");
+        valueSet.getExpansion().addContains().setSystem("http://loinc.org").setCode("3");
+
+        assertTrue(new EnsureExecutableValueSetOperation().inferCompose(valueSet));
+        assertEquals(valueSet.getCompose().getInclude().stream().mapToInt(include -> include.getConcept().size()).sum(), 3);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInferComposeFromPartialExpansion() {
+        ValueSet valueSet = new ValueSet();
+        valueSet.setUrl("http://example.org/fhir/ValueSet/partial");
+        valueSet.getExpansion().setTotal(3);
+        // the same code listed three times is one of three codes
+        for (int i = 0; i < 3; i++) {
+            valueSet.getExpansion().addContains().setSystem("http://snomed.info/sct").setCode("1");
+        }
+
+        new EnsureExecutableValueSetOperation().inferCompose(valueSet);
+    }
 }
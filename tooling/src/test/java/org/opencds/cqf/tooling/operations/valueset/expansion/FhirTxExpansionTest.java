@@ -0,0 +1,99 @@
+package org.opencds.cqf.tooling.operations.valueset.expansion;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.opencds.cqf.tooling.fhir.FhirServerStandIn;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class FhirTxExpansionTest {
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+    private static ValueSet valueSet(int index, String code) {
+        ValueSet valueSet = new ValueSet();
+        valueSet.setId("vs-" + index);
+        valueSet.setUrl("http://example.org/ValueSet/vs-" + index);
+        valueSet.setVersion("1.0.0");
+        valueSet.getCompose().addInclude().setSystem("http://snomed.info/sct").addConcept().setCode(code);
+        return valueSet;
+    }
+
+    private FhirTxExpansion operation(FhirServerStandIn server, File input, File output, File cache) {
+        FhirTxExpansion operation = new FhirTxExpansion();
+        operation.setPathToValueSet(input.getAbsolutePath());
+        operation.setFhirServer(server.getBaseUrl());
+        operation.setEncoding("json");
+        operation.setVersion("r4");
+        operation.setOutputPath(output.getAbsolutePath());
+        operation.setThreads(4);
+        operation.setCachePath(cache.getAbsolutePath());
+        return operation;
+    }
+
+    @Test
+    public void testUnchangedValueSetsAreServedFromCache() throws Exception {
+        File directory = Files.createTempDirectory("fhir-tx-expansion").toFile();
+        try (FhirServerStandIn server = new FhirServerStandIn(fhirContext)) {
+            File input = new File(directory, "input");
+            File output = new File(directory, "output");
+            File cache = new File(directory, "cache");
+            for (int i = 0; i < 20; i++) {
+                IOUtils.writeResource(valueSet(i, "code-" + i), input.getAbsolutePath(), IOUtils.Encoding.JSON, fhirContext);
+            }
+
+            operation(server, input, output, cache).execute();
+            assertEquals(server.getRequestCount("$expand"), 20);
+            assertEquals(output.list().length, 20);
+
+            server.reset();
+            FileUtils.deleteDirectory(output);
+            operation(server, input, output, cache).execute();
+            assertEquals(server.getRequestCount("$expand"), 0);
+            assertEquals(output.list().length, 20);
+
+            // a changed definition is expanded again, even with the same url and version
+            IOUtils.cleanUp();
+            IOUtils.writeResource(valueSet(3, "changed"), input.getAbsolutePath(), IOUtils.Encoding.JSON, fhirContext);
+            operation(server, input, output, cache).execute();
+            assertEquals(server.getRequestCount("$expand"), 1);
+            assertTrue(FileUtils.readFileToString(new File(output, "vs-3.json"), "UTF-8").contains("changed"));
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testFailedExpansionsFailTheOperation() throws Exception {
+        File directory = Files.createTempDirectory("fhir-tx-expansion").toFile();
+        try {
+            File input = new File(directory, "input");
+            for (int i = 0; i < 3; i++) {
+                IOUtils.writeResource(valueSet(i, "code-" + i), input.getAbsolutePath(), IOUtils.Encoding.JSON, fhirContext);
+            }
+            FhirServerStandIn server = new FhirServerStandIn(fhirContext);
+            server.close();
+
+            FhirTxExpansion operation = operation(server, input, new File(directory, "output"), new File(directory, "cache"));
+            try {
+                operation.execute();
+                fail("The expansions failed");
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage().startsWith("3 of 3 ValueSet(s) could not be expanded"), e.getMessage());
+                assertTrue(e.getMessage().contains("vs-1"), e.getMessage());
+            }
+        } finally {
+            IOUtils.cleanUp();
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.opencds.cqf.tooling.processor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.r5.context.IWorkerContext.ILoggingService;
+import org.opencds.cqf.tooling.utilities.CompiledLibraryCache;
+import org.testng.annotations.Test;
+
+public class CqlProcessorTest {
+
+    private static final ILoggingService logger = new ILoggingService() {
+        @Override
+        public void logMessage(String message) {
+        }
+
+        @Override
+        public void logDebugMessage(LogCategory category, String message) {
+        }
+
+        @Override
+        public boolean isDebugLogging() {
+            return false;
+        }
+    };
+
+    private File getCqlFolder() throws URISyntaxException {
+        return new File(CqlProcessorTest.class.getResource("../testfiles/refreshIG/input/cql").toURI());
+    }
+
+    private Map<String, String> translate(File folder, int threads) {
+        return translate(folder, threads, null);
+    }
+
+    private Map<String, String> translate(File folder, int threads, CqlTranslationCache translationCache) {
+        CompiledLibraryCache.clear();
+        CqlProcessor processor = new CqlProcessor(null, Collections.singletonList(folder.getAbsolutePath()), null, logger, null, null, null);
+        processor.setTranslationThreads(threads);
+        processor.setTranslationCache(translationCache);
+        processor.execute();
+
+        Map<String, String> elm = new HashMap<>();
+        for (File file : folder.listFiles((dir, name) -> name.endsWith(".cql"))) {
+            CqlProcessor.CqlSourceFileInformation info = processor.getFileInformation(file.getAbsoluteFile().toString());
+            assertNotNull(info, file.getName());
+            assertNotNull(info.getElm(), file.getName());
+            elm.put(file.getName(), new String(info.getElm()));
+        }
+        return elm;
+    }
+
+    @Test
+    public void testParallelTranslationMatchesSequential() throws URISyntaxException {
+        File folder = getCqlFolder();
+        Map<String, String> sequential = translate(folder, 1);
+        Map<String, String> parallel = translate(folder, 4);
+        assertEquals(parallel, sequential);
+    }
+
+    @Test
+    public void testUnchangedLibrariesAreNotTranslatedAgain() throws URISyntaxException, IOException {
+        File folder = Files.createTempDirectory("cql").toFile();
+        FileUtils.copyDirectory(getCqlFolder(), folder);
+        String cachePath = Files.createTempDirectory("cql-cache").toString();
+
+        Map<String, String> initial = translate(folder, 1, new CqlTranslationCache(cachePath));
+
+        CqlTranslationCache unchanged = new CqlTranslationCache(cachePath);
+        assertEquals(translate(folder, 1, unchanged), initial);
+        assertEquals(unchanged.getReusedCount(), 7);
+
+        // only the libraries that do not (transitively) include the changed library are reused
+        Files.write(new File(folder, "MATGlobalCommonFunctionsFHIR4.cql").toPath(),
+                "\n// changed\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        CqlTranslationCache changed = new CqlTranslationCache(cachePath);
+        translate(folder, 1, changed);
+        assertEquals(changed.getReusedCount(), 3);
+    }
+
+    @Test
+    public void testVersionsWithoutImplementationVersionAreHashed() {
+        // loaded from the test classes directory, which has no manifest
+        String version = CqlTranslationCache.getVersion(CqlProcessorTest.class);
+        assertTrue(version.startsWith("sha256:"), version);
+        assertEquals(CqlTranslationCache.getVersion(CqlProcessorTest.class), version);
+    }
+
+    @Test
+    public void testTranslationWavesFollowIncludes() throws URISyntaxException {
+        File folder = getCqlFolder();
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(".cql"));
+        Arrays.sort(files);
+        List<List<File>> waves = CqlProcessor.getTranslationWaves(Arrays.asList(files), CqlProcessor.getIncludedFiles(files));
+
+        assertEquals(waves.get(0), Collections.singletonList(new File(folder, "FHIRHelpers.cql")));
+        int global = indexOf(waves, "MATGlobalCommonFunctionsFHIR4.cql");
+        assertTrue(indexOf(waves, "HospiceFHIR4.cql") > global);
+        assertTrue(indexOf(waves, "AdvancedIllnessandFrailtyExclusionECQMFHIR4.cql") > global);
+        assertEquals(indexOf(waves, "BreastCancerScreeningFHIR.cql"), waves.size() - 1);
+    }
+
+    private static int indexOf(List<List<File>> waves, String fileName) {
+        for (int i = 0; i < waves.size(); i++) {
+            for (File file : waves.get(i)) {
+                if (file.getName().equals(fileName)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+}
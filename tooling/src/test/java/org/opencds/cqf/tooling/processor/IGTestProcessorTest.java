@@ -0,0 +1,87 @@
+package org.opencds.cqf.tooling.processor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.Parameters;
+import org.hl7.fhir.ParametersParameter;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.opencds.cqf.tooling.measure.MeasureTestProcessor;
+import org.testng.annotations.Test;
+
+public class IGTestProcessorTest {
+
+    // Passes the test cases with an even id, fails the others, and throws for "error"
+    private static class RecordingTestProcessor implements ITestProcessor {
+        final Set<IBaseResource> contentBundles = ConcurrentHashMap.newKeySet();
+        final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public Parameters executeTest(String testPath, String contentBundlePath, String fhirServer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Parameters executeTest(IBaseResource testBundle, IBaseResource contentBundle, String fhirServer) {
+            contentBundles.add(contentBundle);
+            threads.add(Thread.currentThread());
+            String id = testBundle.getIdElement().getIdPart();
+            if (id.equals("error")) {
+                throw new IllegalStateException("no expected MeasureReport");
+            }
+            ParametersParameter passed = new ParametersParameter();
+            passed.setName(new org.hl7.fhir.String().withValue("Measure 'm' " + MeasureTestProcessor.TestPassedKey));
+            passed.setValueBoolean(new org.hl7.fhir.Boolean().withValue(Integer.parseInt(id) % 2 == 0));
+            Parameters results = new Parameters();
+            results.getParameter().add(passed);
+            return results;
+        }
+    }
+
+    private static Map.Entry<String, IBaseResource> testCase(String id) {
+        Bundle bundle = new Bundle();
+        bundle.setId(id);
+        return new AbstractMap.SimpleEntry<>(id + ".json", bundle);
+    }
+
+    @Test
+    public void testExecuteTestCasesKeepsOrderAndSharesContent() {
+        List<Map.Entry<String, IBaseResource>> testCases = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            testCases.add(testCase(Integer.toString(i)));
+        }
+        testCases.add(testCase("error"));
+        Bundle contentBundle = new Bundle();
+        RecordingTestProcessor testProcessor = new RecordingTestProcessor();
+
+        List<IGTestProcessor.TestCaseResultSummary> results = new IGTestProcessor()
+                .executeTestCases(testProcessor, "measure", "m", contentBundle, testCases, null);
+
+        assertEquals(results.size(), testCases.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(results.get(i).getTestCaseID(), Integer.toString(i));
+            assertEquals(results.get(i).getTestPassed().booleanValue(), i % 2 == 0);
+        }
+        IGTestProcessor.TestCaseResultSummary error = results.get(200);
+        assertFalse(error.getTestPassed());
+        assertEquals(error.getMessage(), "no expected MeasureReport");
+        assertEquals(testProcessor.contentBundles, Collections.singleton(contentBundle));
+        assertFalse(testProcessor.threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void testExecuteTestCasesWithoutTestCases() {
+        assertTrue(new IGTestProcessor().executeTestCases(new RecordingTestProcessor(), "measure", "m",
+                new Bundle(), Collections.emptyList(), null).isEmpty());
+    }
+}
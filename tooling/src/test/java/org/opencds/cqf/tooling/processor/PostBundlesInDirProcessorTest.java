@@ -0,0 +1,60 @@
+package org.opencds.cqf.tooling.processor;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+import org.opencds.cqf.tooling.fhir.FhirServerStandIn;
+import org.opencds.cqf.tooling.parameter.PostBundlesInDirParameters;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class PostBundlesInDirProcessorTest {
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+    private static Bundle bundle(int index) {
+        Bundle bundle = new Bundle();
+        bundle.setId("bundle-" + index);
+        bundle.setType(Bundle.BundleType.TRANSACTION);
+        Patient patient = new Patient();
+        patient.setId("patient-" + index);
+        bundle.addEntry().setResource(patient).getRequest().setMethod(Bundle.HTTPVerb.PUT).setUrl("Patient/patient-" + index);
+        return bundle;
+    }
+
+    @Test
+    public void testOnlyBundlesArePosted() throws Exception {
+        File directory = Files.createTempDirectory("post-bundles").toFile();
+        try (FhirServerStandIn server = new FhirServerStandIn(fhirContext)) {
+            for (int i = 0; i < 5; i++) {
+                IOUtils.writeResource(bundle(i), new File(directory, i % 2 == 0 ? "json" : "xml").getAbsolutePath(),
+                        i % 2 == 0 ? IOUtils.Encoding.JSON : IOUtils.Encoding.XML, fhirContext);
+            }
+            Patient patient = new Patient();
+            patient.setId("loose");
+            IOUtils.writeResource(patient, directory.getAbsolutePath(), IOUtils.Encoding.JSON, fhirContext);
+            Files.write(new File(directory, "Library.cql").toPath(), "library Library".getBytes(StandardCharsets.UTF_8));
+
+            PostBundlesInDirParameters params = new PostBundlesInDirParameters();
+            params.directoryPath = directory.getAbsolutePath();
+            params.fhirUri = server.getBaseUrl();
+            params.fhirVersion = PostBundlesInDirProcessor.FHIRVersion.FHIR4;
+            params.encoding = IOUtils.Encoding.JSON;
+            PostBundlesInDirProcessor.PostBundlesInDir(params);
+
+            assertEquals(server.getRequestCount("transaction"), 5);
+            assertEquals(server.getRequestCount(), 5);
+            assertEquals(server.getResourceCount(), 5);
+        } finally {
+            IOUtils.cleanUp();
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.opencds.cqf.tooling.processor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.io.FileUtils;
+import org.opencds.cqf.tooling.processor.IGTestProcessor.TestCaseResultSummary;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class TestResultsWriterTest {
+
+    private static List<TestCaseResultSummary> results() {
+        IGTestProcessor processor = new IGTestProcessor();
+
+        TestCaseResultSummary passed = processor.new TestCaseResultSummary("measure", "EXM124", "passed");
+        passed.setTestPassed(true);
+        passed.setDurationMillis(1500);
+        passed.getPhaseMillis().put("loadContent", 1000.0);
+        passed.getPhaseMillis().put("evaluate", 400.0);
+        passed.getAssertions().put("PatientId", true);
+
+        TestCaseResultSummary failed = processor.new TestCaseResultSummary("measure", "EXM124", "failed");
+        failed.setTestPassed(false);
+        failed.setDurationMillis(500);
+        failed.getAssertions().put("PatientId", true);
+        failed.getAssertions().put("Group[group-1].score", false);
+        failed.getDetails().put("Group[group-1].score", "expected 1 but was 0");
+
+        TestCaseResultSummary error = processor.new TestCaseResultSummary("measure", "EXM125", "error");
+        error.setTestPassed(false);
+        error.setMessage("Bundle is not a valid Measure Test Bundle");
+
+        return Arrays.asList(passed, failed, error);
+    }
+
+    @Test
+    public void testWriteJUnitXml() throws Exception {
+        File directory = Files.createTempDirectory("test-results").toFile();
+        try {
+            File file = new File(directory, TestResultsWriter.JUNIT_XML_FILE_NAME);
+            new TestResultsWriter(results()).writeJUnitXml(file);
+
+            Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+            Element testSuites = document.getDocumentElement();
+            assertEquals(testSuites.getAttribute("tests"), "3");
+            assertEquals(testSuites.getAttribute("failures"), "1");
+            assertEquals(testSuites.getAttribute("errors"), "1");
+            assertEquals(testSuites.getAttribute("time"), "2.000");
+
+            NodeList suites = document.getElementsByTagName("testsuite");
+            assertEquals(suites.getLength(), 2);
+            assertEquals(((Element) suites.item(0)).getAttribute("name"), "measure.EXM124");
+            assertEquals(((Element) suites.item(0)).getAttribute("tests"), "2");
+
+            NodeList properties = document.getElementsByTagName("property");
+            assertEquals(((Element) properties.item(0)).getAttribute("name"), "time.loadContent");
+            assertEquals(((Element) properties.item(0)).getAttribute("value"), "1.000");
+
+            Element failure = (Element) document.getElementsByTagName("failure").item(0);
+            assertEquals(failure.getAttribute("message"), "Mismatched Group[group-1].score");
+            assertTrue(failure.getTextContent().contains("Group[group-1].score: expected 1 but was 0"));
+
+            Element error = (Element) document.getElementsByTagName("error").item(0);
+            assertEquals(error.getAttribute("message"), "Bundle is not a valid Measure Test Bundle");
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testWriteJson() throws IOException {
+        File directory = Files.createTempDirectory("test-results").toFile();
+        try {
+            File file = new File(directory, "nested/" + TestResultsWriter.JSON_FILE_NAME);
+            new TestResultsWriter(results()).writeJson(file);
+
+            JsonObject summary;
+            try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                summary = JsonParser.parseReader(reader).getAsJsonObject();
+            }
+            assertEquals(summary.get("tests").getAsInt(), 3);
+            assertEquals(summary.get("passed").getAsInt(), 1);
+            assertEquals(summary.get("failed").getAsInt(), 1);
+            assertEquals(summary.get("errors").getAsInt(), 1);
+
+            JsonObject passed = summary.getAsJsonArray("testCases").get(0).getAsJsonObject();
+            assertEquals(passed.get("testCaseID").getAsString(), "passed");
+            assertEquals(passed.getAsJsonObject("phaseMillis").get("evaluate").getAsDouble(), 400.0);
+
+            JsonObject failed = summary.getAsJsonArray("testCases").get(1).getAsJsonObject();
+            assertEquals(failed.getAsJsonObject("details").get("Group[group-1].score").getAsString(), "expected 1 but was 0");
+            assertEquals(failed.getAsJsonObject("assertions").get("Group[group-1].score").getAsBoolean(), false);
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.opencds.cqf.tooling.terminology;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.expectThrows;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class StreamingSpreadsheetReaderTest {
+
+    private File directory;
+    private File spreadsheet;
+
+    @BeforeClass
+    public void createSpreadsheet() throws Exception {
+        directory = Files.createTempDirectory("streaming-spreadsheet").toFile();
+        spreadsheet = new File(directory, "test.xlsx");
+        try (Workbook workbook = new XSSFWorkbook()) {
+            Sheet meta = workbook.createSheet("Meta");
+            meta.createRow(0).createCell(0).setCellValue("Name");
+            meta.getRow(0).createCell(1).setCellValue("Diabetes");
+
+            Sheet codes = workbook.createSheet("Codes");
+            Row header = codes.createRow(0);
+            header.createCell(0).setCellValue("Code");
+            header.createCell(1).setCellValue("Description");
+
+            CellStyle decimal = workbook.createCellStyle();
+            decimal.setDataFormat(workbook.createDataFormat().getFormat("0.00"));
+            CellStyle date = workbook.createCellStyle();
+            date.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd"));
+
+            Row values = codes.createRow(1);
+            values.createCell(0).setCellValue(44054006);
+            values.createCell(1).setCellValue(" Diabetes mellitus type 2 ");
+            values.createCell(2).setCellValue(true);
+            Cell formatted = values.createCell(3);
+            formatted.setCellValue(2.5);
+            formatted.setCellStyle(decimal);
+            Cell dateCell = values.createCell(4);
+            Calendar calendar = Calendar.getInstance();
+            calendar.clear();
+            calendar.set(2021, Calendar.MARCH, 4);
+            dateCell.setCellValue(calendar.getTime());
+            dateCell.setCellStyle(date);
+            values.createCell(5).setCellFormula("A2+1");
+            // a styled cell with no value, and a gap before the last cell
+            values.createCell(6).setCellStyle(decimal);
+            values.createCell(9).setCellValue("Diabetes");
+
+            // row 2 is missing
+            codes.createRow(3).createCell(0).setCellValue("73211009");
+
+            // as saved by Excel, with the cached result of the formula
+            workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+            try (FileOutputStream out = new FileOutputStream(spreadsheet)) {
+                workbook.write(out);
+            }
+        }
+    }
+
+    @AfterClass
+    public void deleteSpreadsheet() {
+        new File(directory, "test.xlsx").delete();
+        directory.delete();
+    }
+
+    @Test
+    public void testValuesMatchLoadedWorkbook() throws Exception {
+        List<SpreadsheetRow> rows = new ArrayList<>();
+        try (StreamingSpreadsheetReader reader = SpreadsheetHelper.getStreamingReader(spreadsheet.getAbsolutePath())) {
+            assertEquals(reader.getSheetNames(), List.of("Meta", "Codes"));
+            reader.forEachRow("Codes", rows::add);
+        }
+
+        try (Workbook workbook = SpreadsheetHelper.getWorkbook(spreadsheet.getAbsolutePath())) {
+            Sheet sheet = workbook.getSheet("Codes");
+            assertEquals(rows.size(), sheet.getPhysicalNumberOfRows());
+            for (SpreadsheetRow row : rows) {
+                Row expected = sheet.getRow(row.getRowNum());
+                for (int column = 0; column < 12; column++) {
+                    assertEquals(SpreadsheetHelper.getCellAsString(row, column), SpreadsheetHelper.getCellAsString(expected, column),
+                            String.format("row %d column %d", row.getRowNum(), column));
+                }
+            }
+        }
+
+        SpreadsheetRow values = rows.get(1);
+        assertEquals(SpreadsheetHelper.getCellAsString(values.getCell(0)), "44054006");
+        assertEquals(SpreadsheetHelper.getCellAsString(values.getCell(1)), "Diabetes mellitus type 2");
+        assertEquals(SpreadsheetHelper.getCellAsStringNoReplacement(values.getCell(1)), "Diabetes mellitus type 2");
+        assertEquals(SpreadsheetHelper.getCellAsString(values.getCell(3)), "2.50");
+        assertEquals(SpreadsheetHelper.getCellAsString(values.getCell(4)), "2021-03-04");
+        assertEquals(SpreadsheetHelper.getCellAsString(values.getCell(5)), "A2+1");
+        assertNull(values.getCell(7));
+        assertEquals(values.getLastCellNum(), 10);
+        assertEquals(rows.get(2).getRowNum(), 3);
+    }
+
+    @Test
+    public void testSheetByIndexAndMissingSheets() {
+        try (StreamingSpreadsheetReader reader = new StreamingSpreadsheetReader(spreadsheet.getAbsolutePath())) {
+            List<SpreadsheetRow> meta = reader.getRows(0);
+            assertEquals(meta.size(), 1);
+            assertEquals(SpreadsheetHelper.getCellAsString(meta.get(0), 1), "Diabetes");
+
+            expectThrows(IllegalArgumentException.class, () -> reader.getRows(2));
+            expectThrows(IllegalArgumentException.class, () -> reader.forEachRow("Missing", row -> { }));
+        }
+    }
+
+    @Test
+    public void testConsumerExceptionsPropagate() {
+        try (StreamingSpreadsheetReader reader = new StreamingSpreadsheetReader(spreadsheet.getAbsolutePath())) {
+            IllegalArgumentException e = expectThrows(IllegalArgumentException.class, () -> reader.forEachRow(1, row -> {
+                throw new IllegalArgumentException(String.format("No code value found on row: %d", row.getRowNum()));
+            }));
+            assertEquals(e.getMessage(), "No code value found on row: 0");
+        }
+    }
+
+    @Test
+    public void testUnreadableSpreadsheet() throws Exception {
+        File notASpreadsheet = new File(directory, "not-a-spreadsheet.xlsx");
+        Files.write(notASpreadsheet.toPath(), "not a spreadsheet".getBytes());
+        try {
+            expectThrows(IllegalArgumentException.class, () -> new StreamingSpreadsheetReader(notASpreadsheet.getAbsolutePath()));
+        } finally {
+            notASpreadsheet.delete();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.opencds.cqf.tooling.terminology;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.testng.annotations.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class VSACBatchValueSetGeneratorTest {
+
+    // A VSAC export: metadata (name, OID and version) on the first sheet, codes from row 13 of the second
+    private static void writeVsacSpreadsheet(File file, String oid) throws Exception {
+        try (Workbook workbook = new XSSFWorkbook()) {
+            Sheet meta = workbook.createSheet("Value Set Info");
+            String[][] metaRows = { { "1", "Value Set Name", "Value Set " + oid }, { "3", "OID", oid }, { "5", "Version", "20210304" } };
+            for (String[] metaRow : metaRows) {
+                Row row = meta.createRow(Integer.parseInt(metaRow[0]));
+                row.createCell(0).setCellValue(metaRow[1]);
+                row.createCell(1).setCellValue(metaRow[2]);
+            }
+            Sheet codes = workbook.createSheet("Expansion List");
+            for (int i = 0; i < 3; i++) {
+                Row row = codes.createRow(13 + i);
+                row.createCell(0).setCellValue(44054006 + i);
+                row.createCell(1).setCellValue("Code " + i);
+                row.createCell(2).setCellValue("SNOMEDCT");
+                row.createCell(3).setCellValue("2020-09");
+            }
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                workbook.write(out);
+            }
+        }
+    }
+
+    @Test
+    public void testFailedSpreadsheetDoesNotStopTheBatch() throws Exception {
+        File directory = Files.createTempDirectory("vsac-batch").toFile();
+        try {
+            File spreadsheets = new File(directory, "spreadsheets");
+            File output = new File(directory, "output");
+            File manifestFile = new File(directory, "manifest/manifest.json");
+            spreadsheets.mkdirs();
+            output.mkdirs();
+            for (int i = 0; i < 6; i++) {
+                writeVsacSpreadsheet(new File(spreadsheets, "vs-" + i + ".xlsx"), "2.16.840.1." + i);
+            }
+            Files.write(new File(spreadsheets, "vs-3.xlsx").toPath(), "not a spreadsheet".getBytes(StandardCharsets.UTF_8));
+            Files.write(new File(spreadsheets, "readme.txt").toPath(), "ignored".getBytes(StandardCharsets.UTF_8));
+
+            RuntimeException e = expectThrows(RuntimeException.class, () -> new VSACBatchValueSetGenerator().execute(new String[] {
+                    "-VsacXlsxToValueSetBatch", "-ptsd=" + spreadsheets.getAbsolutePath(), "-op=" + output.getAbsolutePath(),
+                    "-t=3", "-mp=" + manifestFile.getAbsolutePath() }));
+            assertTrue(e.getMessage().startsWith("1 of 6 spreadsheets could not be processed"), e.getMessage());
+
+            // every other spreadsheet was generated
+            assertEquals(output.list().length, 5);
+            assertTrue(new File(output, "valueset-2.16.840.1.5.json").exists());
+
+            JsonObject manifest;
+            try (Reader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+                manifest = JsonParser.parseReader(reader).getAsJsonObject();
+            }
+            assertEquals(manifest.get("spreadsheets").getAsInt(), 6);
+            assertEquals(manifest.get("generated").getAsInt(), 5);
+            assertEquals(manifest.get("failed").getAsInt(), 1);
+            assertEquals(manifest.get("valueSets").getAsInt(), 5);
+
+            JsonArray results = manifest.getAsJsonArray("results");
+            JsonObject first = results.get(0).getAsJsonObject();
+            assertEquals(first.get("file").getAsString(), "vs-0.xlsx");
+            assertEquals(first.get("status").getAsString(), "generated");
+            assertNotNull(first.get("durationMillis"));
+            JsonObject valueSet = first.getAsJsonArray("valueSets").get(0).getAsJsonObject();
+            assertEquals(valueSet.get("id").getAsString(), "2.16.840.1.0");
+            assertEquals(valueSet.get("url").getAsString(), VSACValueSetGenerator.VSAC_BASE_URL + "2.16.840.1.0");
+            assertEquals(valueSet.get("version").getAsString(), "20210304");
+
+            JsonObject failed = results.get(3).getAsJsonObject();
+            assertEquals(failed.get("file").getAsString(), "vs-3.xlsx");
+            assertEquals(failed.get("status").getAsString(), "failed");
+            assertTrue(failed.get("error").getAsString().contains("Error reading the spreadsheet"), failed.get("error").getAsString());
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+}
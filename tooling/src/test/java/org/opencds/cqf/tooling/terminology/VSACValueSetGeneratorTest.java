@@ -0,0 +1,109 @@
+package org.opencds.cqf.tooling.terminology;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.hl7.fhir.dstu3.model.ValueSet;
+import org.testng.annotations.Test;
+
+public class VSACValueSetGeneratorTest {
+
+    // A VSAC export with styled blank cells, as left behind by formatting whole rows or columns in Excel
+    private static void writeVsacSpreadsheet(File file) throws Exception {
+        try (Workbook workbook = new XSSFWorkbook()) {
+            CellStyle shaded = workbook.createCellStyle();
+            shaded.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
+            shaded.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+
+            Sheet meta = workbook.createSheet("Value Set Info");
+            Row name = meta.createRow(1);
+            name.createCell(0).setCellValue("Value Set Name");
+            name.createCell(1).setCellValue("Diabetes");
+            name.createCell(4).setCellStyle(shaded);
+            Row oid = meta.createRow(3);
+            oid.createCell(0).setCellValue("OID");
+            oid.createCell(1).setCellValue("2.16.840.1.113883.3.464.1003.103.12.1001");
+            // the blank cell is counted: the second cell of the row is the label
+            Row steward = meta.createRow(6);
+            steward.createCell(0).setCellStyle(shaded);
+            steward.createCell(1).setCellValue("Steward");
+            steward.createCell(2).setCellValue("NCQA");
+            Row focus = meta.createRow(10);
+            focus.createCell(0).setCellValue("Clinical Focus");
+            focus.createCell(1).setCellStyle(shaded);
+            focus.createCell(2).setCellValue("Diabetes mellitus");
+
+            Sheet codes = workbook.createSheet("Expansion List");
+            Row first = codes.createRow(13);
+            first.createCell(0).setCellValue("44054006");
+            first.createCell(1).setCellValue("Diabetes mellitus type 2");
+            first.createCell(2).setCellValue("SNOMEDCT");
+            first.createCell(3).setCellValue("2020-09");
+            Row unversioned = codes.createRow(14);
+            unversioned.createCell(0).setCellValue("E11.9");
+            unversioned.createCell(1).setCellValue("Type 2 diabetes mellitus without complications");
+            unversioned.createCell(2).setCellValue("ICD10CM");
+            unversioned.createCell(3).setCellStyle(shaded);
+            // a trailing row with styled cells only
+            Row trailing = codes.createRow(15);
+            for (int i = 0; i < 5; i++) {
+                trailing.createCell(i).setCellStyle(shaded);
+            }
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                workbook.write(out);
+            }
+        }
+    }
+
+    @Test
+    public void testStyledBlankCellsMatchLoadedWorkbook() throws Exception {
+        File directory = Files.createTempDirectory("vsac").toFile();
+        try {
+            File spreadsheet = new File(directory, "vsac.xlsx");
+            writeVsacSpreadsheet(spreadsheet);
+
+            VSACValueSetGenerator streaming = new VSACValueSetGenerator();
+            streaming.execute(new String[] { "-VsacXlsxToValueSet", "-pts=" + spreadsheet.getAbsolutePath(),
+                    "-op=" + directory.getAbsolutePath(), "-ic=true" });
+            ValueSet streamed = streaming.getValueSet();
+
+            ValueSet loaded = new ValueSet();
+            VSACValueSetGenerator generator = new VSACValueSetGenerator();
+            try (Workbook workbook = SpreadsheetHelper.getWorkbook(spreadsheet.getAbsolutePath())) {
+                generator.resolveMetaData(loaded, workbook);
+                generator.resolveCodeList(workbook);
+            }
+            generator.resolveValueSet(loaded);
+
+            assertEquals(streamed.getTitle(), "Diabetes");
+            assertEquals(streamed.getIdElement().getIdPart(), "2.16.840.1.113883.3.464.1003.103.12.1001");
+            assertEquals(streamed.getPublisher(), "Steward");
+            assertEquals(streamed.getDescription(), "");
+            assertEquals(streamed.getTitle(), loaded.getTitle());
+            assertEquals(streamed.getIdElement().getIdPart(), loaded.getIdElement().getIdPart());
+            assertEquals(streamed.getPublisher(), loaded.getPublisher());
+            assertEquals(streamed.getDescription(), loaded.getDescription());
+
+            assertEquals(streamed.getCompose().getInclude().size(), 2);
+            assertEquals(streamed.getCompose().getInclude().size(), loaded.getCompose().getInclude().size());
+            for (ValueSet.ConceptSetComponent include : streamed.getCompose().getInclude()) {
+                assertTrue(loaded.getCompose().getInclude().stream().anyMatch(expected -> expected.equalsDeep(include)),
+                        include.getSystem());
+            }
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.opencds.cqf.tooling.terminology.expansion;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.expectThrows;
+
+import java.util.List;
+
+import org.hl7.fhir.r4.model.ValueSet;
+import org.testng.annotations.Test;
+
+public class CodeMembershipIndexTest {
+
+    private static final String SNOMED = "http://snomed.info/sct";
+    private static final String LOINC = "http://loinc.org";
+
+    @Test
+    public void testDistinctCodesAreCounted() {
+        ValueSet diabetes = new ValueSet();
+        diabetes.setUrl("http://example.org/ValueSet/diabetes");
+        diabetes.getExpansion().addContains().setSystem(SNOMED).setCode("44054006");
+        // nested contains are members too
+        diabetes.getExpansion().addContains().setSystem(SNOMED).setCode("73211009")
+                .addContains().setSystem(SNOMED).setCode("46635009");
+
+        ValueSet conditions = new ValueSet();
+        conditions.setUrl("http://example.org/ValueSet/conditions");
+        conditions.getExpansion().addContains().setSystem(SNOMED).setCode("73211009");
+        conditions.getExpansion().addContains().setSystem(SNOMED).setCode("73211009");
+        conditions.getExpansion().addContains().setSystem(LOINC).setCode("4548-4");
+
+        CodeMembershipIndex index = CodeMembershipIndex.builder().addValueSet(diabetes).addValueSet(conditions).build();
+
+        // nested contains are counted, the same code in another system is a different concept
+        assertEquals(index.getValueSetSize(diabetes.getUrl()), 3);
+        assertEquals(index.getValueSetSize("http://example.org/ValueSet/unknown"), 0);
+        assertEquals(index.getValueSetUrls(), List.of(diabetes.getUrl(), conditions.getUrl()));
+
+        assertEquals(index.getSystemCount(), 2);
+        assertEquals(index.getCodeCount(), 4);
+        // duplicate memberships are counted once
+        assertEquals(index.getMembershipCount(), 5);
+        assertEquals(index.getValueSetSize(conditions.getUrl()), 2);
+    }
+
+    @Test
+    public void testBuilderCannotBeReused() {
+        CodeMembershipIndex.Builder builder = CodeMembershipIndex.builder().addCode("vs", SNOMED, "1");
+        builder.build();
+        expectThrows(IllegalStateException.class, () -> builder.addCode("vs", SNOMED, "2"));
+    }
+
+    @Test
+    public void testLargeIndex() {
+        // 200,000 codes over 50 ValueSets of decreasing size
+        int codeCount = 200_000;
+        int valueSetCount = 50;
+        CodeMembershipIndex.Builder builder = CodeMembershipIndex.builder();
+        for (int code = 0; code < codeCount; code++) {
+            for (int valueSet = 1; valueSet <= valueSetCount; valueSet++) {
+                if (code % valueSet == 0) {
+                    builder.addCode("vs-" + valueSet, code % 2 == 0 ? SNOMED : LOINC, Integer.toString(code));
+                }
+            }
+        }
+        CodeMembershipIndex index = builder.build();
+
+        assertEquals(index.getCodeCount(), codeCount);
+        assertEquals(index.getValueSetSize("vs-1"), codeCount);
+        assertEquals(index.getValueSetSize("vs-40"), codeCount / 40);
+        int memberships = 0;
+        for (int valueSet = 1; valueSet <= valueSetCount; valueSet++) {
+            int expected = (codeCount + valueSet - 1) / valueSet;
+            assertEquals(index.getValueSetSize("vs-" + valueSet), expected);
+            memberships += expected;
+        }
+        assertEquals(index.getMembershipCount(), memberships);
+    }
+}
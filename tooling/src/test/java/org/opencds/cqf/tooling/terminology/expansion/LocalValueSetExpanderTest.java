@@ -0,0 +1,199 @@
+package org.opencds.cqf.tooling.terminology.expansion;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.testng.annotations.Test;
+
+public class LocalValueSetExpanderTest {
+
+    private static final String SYSTEM = "http://example.org/CodeSystem/conditions";
+
+    // disorder
+    //   infection
+    //     viral-infection
+    //     bacterial-infection
+    //   injury
+    private static CodeSystem codeSystem() {
+        CodeSystem codeSystem = new CodeSystem();
+        codeSystem.setUrl(SYSTEM);
+        codeSystem.setContent(CodeSystem.CodeSystemContentMode.COMPLETE);
+        CodeSystem.ConceptDefinitionComponent disorder = codeSystem.addConcept().setCode("disorder").setDisplay("Disorder");
+        CodeSystem.ConceptDefinitionComponent infection = disorder.addConcept().setCode("infection").setDisplay("Infection");
+        infection.addConcept().setCode("viral-infection").setDisplay("Viral infection");
+        infection.addConcept().setCode("bacterial-infection").setDisplay("Bacterial infection");
+        disorder.addConcept().setCode("injury").setDisplay("Injury");
+        return codeSystem;
+    }
+
+    private static ValueSet valueSet(String name) {
+        ValueSet valueSet = new ValueSet();
+        valueSet.setUrl("http://example.org/ValueSet/" + name);
+        return valueSet;
+    }
+
+    private static List<String> codes(ValueSet.ValueSetExpansionComponent expansion) {
+        return expansion.getContains().stream().map(ValueSet.ValueSetExpansionContainsComponent::getCode)
+                .sorted().collect(Collectors.toList());
+    }
+
+    @Test
+    public void testEnumeratedConceptsTakeDisplaysFromCodeSystem() {
+        ValueSet valueSet = valueSet("enumerated");
+        valueSet.getCompose().addInclude().setSystem(SYSTEM).addConcept().setCode("injury");
+
+        ValueSet.ValueSetExpansionComponent expansion = new LocalValueSetExpander().addCodeSystem(codeSystem()).expand(valueSet);
+        assertEquals(expansion.getTotal(), 1);
+        assertEquals(expansion.getContainsFirstRep().getSystem(), SYSTEM);
+        assertEquals(expansion.getContainsFirstRep().getDisplay(), "Injury");
+    }
+
+    @Test
+    public void testWholeCodeSystemWithExclude() {
+        ValueSet valueSet = valueSet("all-but-injury");
+        valueSet.getCompose().addInclude().setSystem(SYSTEM);
+        valueSet.getCompose().addExclude().setSystem(SYSTEM).addConcept().setCode("injury");
+
+        assertEquals(codes(new LocalValueSetExpander().addCodeSystem(codeSystem()).expand(valueSet)),
+                List.of("bacterial-infection", "disorder", "infection", "viral-infection"));
+    }
+
+    @Test
+    public void testHierarchyFilters() {
+        LocalValueSetExpander expander = new LocalValueSetExpander().addCodeSystem(codeSystem());
+
+        ValueSet isA = valueSet("is-a");
+        isA.getCompose().addInclude().setSystem(SYSTEM).addFilter().setProperty("concept")
+                .setOp(ValueSet.FilterOperator.ISA).setValue("infection");
+        assertEquals(codes(expander.expand(isA)), List.of("bacterial-infection", "infection", "viral-infection"));
+
+        ValueSet descendentOf = valueSet("descendent-of");
+        descendentOf.getCompose().addInclude().setSystem(SYSTEM).addFilter().setProperty("concept")
+                .setOp(ValueSet.FilterOperator.DESCENDENTOF).setValue("infection");
+        assertEquals(codes(expander.expand(descendentOf)), List.of("bacterial-infection", "viral-infection"));
+
+        ValueSet isNotA = valueSet("is-not-a");
+        isNotA.getCompose().addInclude().setSystem(SYSTEM).addFilter().setProperty("concept")
+                .setOp(ValueSet.FilterOperator.ISNOTA).setValue("infection");
+        assertEquals(codes(expander.expand(isNotA)), List.of("disorder", "injury"));
+    }
+
+    @Test
+    public void testParentPropertyHierarchy() {
+        CodeSystem codeSystem = new CodeSystem();
+        codeSystem.setUrl(SYSTEM);
+        codeSystem.setContent(CodeSystem.CodeSystemContentMode.COMPLETE);
+        codeSystem.addConcept().setCode("root");
+        codeSystem.addConcept().setCode("child").addProperty().setCode("parent").setValue(new CodeType("root"));
+
+        ValueSet valueSet = valueSet("is-a-root");
+        valueSet.getCompose().addInclude().setSystem(SYSTEM).addFilter().setProperty("concept")
+                .setOp(ValueSet.FilterOperator.ISA).setValue("root");
+        assertEquals(codes(new LocalValueSetExpander().addCodeSystem(codeSystem).expand(valueSet)), List.of("child", "root"));
+    }
+
+    @Test
+    public void testValueSetImports() {
+        ValueSet infections = valueSet("infections");
+        infections.getCompose().addInclude().setSystem(SYSTEM).addFilter().setProperty("concept")
+                .setOp(ValueSet.FilterOperator.ISA).setValue("infection");
+        ValueSet viral = valueSet("viral");
+        viral.getCompose().addInclude().setSystem(SYSTEM).addConcept().setCode("viral-infection");
+        viral.getCompose().addInclude().setSystem(SYSTEM).addConcept().setCode("injury");
+
+        // the imported ValueSets are intersected
+        ValueSet valueSet = valueSet("viral-infections");
+        valueSet.getCompose().addInclude().addValueSet(infections.getUrl()).addValueSet(viral.getUrl());
+
+        LocalValueSetExpander expander = new LocalValueSetExpander().addCodeSystem(codeSystem())
+                .addValueSet(infections).addValueSet(viral);
+        assertTrue(expander.canExpand(valueSet));
+        assertEquals(codes(expander.expand(valueSet)), List.of("viral-infection"));
+    }
+
+    @Test
+    public void testCircularImportIsReported() {
+        ValueSet a = valueSet("a");
+        ValueSet b = valueSet("b");
+        a.getCompose().addInclude().addValueSet(b.getUrl());
+        b.getCompose().addInclude().addValueSet(a.getUrl());
+
+        LocalValueSetExpander expander = new LocalValueSetExpander().addValueSet(a).addValueSet(b);
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class, () -> expander.expand(a));
+        assertTrue(e.getMessage().contains("Circular ValueSet import"), e.getMessage());
+    }
+
+    @Test
+    public void testUnknownCodeSystemCannotBeExpanded() {
+        ValueSet valueSet = valueSet("unknown");
+        valueSet.getCompose().addInclude().setSystem("http://snomed.info/sct");
+
+        LocalValueSetExpander expander = new LocalValueSetExpander().addCodeSystem(codeSystem());
+        assertFalse(expander.canExpand(valueSet));
+        expectThrows(IllegalArgumentException.class, () -> expander.expand(valueSet));
+    }
+
+    @Test
+    public void testFragmentCodeSystemCannotBeExpanded() {
+        CodeSystem fragment = codeSystem().setContent(CodeSystem.CodeSystemContentMode.FRAGMENT);
+        LocalValueSetExpander expander = new LocalValueSetExpander().addCodeSystem(fragment);
+
+        ValueSet all = valueSet("all");
+        all.getCompose().addInclude().setSystem(SYSTEM);
+        assertFalse(expander.canExpand(all));
+
+        ValueSet isA = valueSet("is-a");
+        isA.getCompose().addInclude().setSystem(SYSTEM).addFilter().setProperty("concept")
+                .setOp(ValueSet.FilterOperator.ISA).setValue("infection");
+        assertFalse(expander.canExpand(isA));
+
+        // enumerated concepts do not depend on the content of the CodeSystem
+        ValueSet enumerated = valueSet("enumerated");
+        enumerated.getCompose().addInclude().setSystem(SYSTEM).addConcept().setCode("injury");
+        assertEquals(codes(expander.expand(enumerated)), List.of("injury"));
+    }
+
+    @Test
+    public void testFilterOnUnknownCodeCannotBeExpanded() {
+        ValueSet valueSet = valueSet("is-a-unknown");
+        valueSet.getCompose().addInclude().setSystem(SYSTEM).addFilter().setProperty("concept")
+                .setOp(ValueSet.FilterOperator.ISA).setValue("fracture");
+
+        LocalValueSetExpander expander = new LocalValueSetExpander().addCodeSystem(codeSystem());
+        assertFalse(expander.canExpand(valueSet));
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class, () -> expander.expand(valueSet));
+        assertTrue(e.getMessage().contains("fracture"), e.getMessage());
+    }
+
+    @Test
+    public void testLargeHierarchy() {
+        // a chain of 5000 concepts through the parent property, plus a wide level under the root
+        CodeSystem codeSystem = new CodeSystem();
+        codeSystem.setUrl(SYSTEM);
+        codeSystem.setContent(CodeSystem.CodeSystemContentMode.COMPLETE);
+        codeSystem.addConcept().setCode("c0");
+        for (int i = 1; i < 5000; i++) {
+            codeSystem.addConcept().setCode("c" + i).addProperty().setCode("parent")
+                    .setValue(new CodeType("c" + (i - 1)));
+            codeSystem.addConcept().setCode("w" + i).addProperty().setCode("parent")
+                    .setValue(new CodeType("c0"));
+        }
+
+        ValueSet valueSet = valueSet("large");
+        valueSet.getCompose().addInclude().setSystem(SYSTEM).addFilter().setProperty("concept")
+                .setOp(ValueSet.FilterOperator.DESCENDENTOF).setValue("c0");
+
+        long start = System.nanoTime();
+        ValueSet.ValueSetExpansionComponent expansion = new LocalValueSetExpander().addCodeSystem(codeSystem).expand(valueSet);
+        assertEquals(expansion.getTotal(), 9998);
+        assertTrue(System.nanoTime() - start < 10_000_000_000L);
+    }
+}
@@ -0,0 +1,103 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class BatchBundlerTests {
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+    private static Patient patient(int i) {
+        Patient patient = new Patient();
+        patient.setId("patient-" + i);
+        return patient;
+    }
+
+    private static Bundle transaction(int entries, boolean temporaryIds) {
+        Bundle bundle = new Bundle();
+        bundle.setId("transaction");
+        bundle.setType(Bundle.BundleType.TRANSACTION);
+        for (int i = 0; i < entries; i++) {
+            Patient patient = patient(i);
+            Bundle.BundleEntryComponent entry = bundle.addEntry().setResource(patient);
+            entry.setFullUrl(temporaryIds ? "urn:uuid:" + i : "Patient/" + patient.getIdElement().getIdPart());
+            entry.getRequest().setMethod(Bundle.HTTPVerb.PUT).setUrl("Patient/" + patient.getIdElement().getIdPart());
+        }
+        return bundle;
+    }
+
+    @Test
+    public void testResourcesArePackedByCount() {
+        BatchBundler bundler = new BatchBundler(fhirContext, "batch", 2, BatchBundler.DEFAULT_MAX_BYTES);
+        for (int i = 0; i < 5; i++) {
+            bundler.add("patient-" + i + ".json", patient(i));
+        }
+
+        List<BatchBundler.Batch> batches = bundler.getBatches();
+        assertEquals(batches.size(), 3);
+        Bundle first = (Bundle) batches.get(0).getBundle();
+        assertEquals(first.getType(), Bundle.BundleType.BATCH);
+        assertEquals(first.getEntry().size(), 2);
+        assertEquals(first.getEntry().get(1).getRequest().getMethod(), Bundle.HTTPVerb.PUT);
+        assertEquals(first.getEntry().get(1).getRequest().getUrl(), "Patient/patient-1");
+        assertEquals(batches.get(0).getItems().get(1).getSource(), "patient-1.json");
+        assertEquals(batches.get(2).getItems().size(), 1);
+    }
+
+    @Test
+    public void testBatchesArePassedOnAsSoonAsFull() {
+        List<Integer> completedAfter = new ArrayList<>();
+        int[] added = {0};
+        BatchBundler bundler = new BatchBundler(fhirContext, "batch", 2, BatchBundler.DEFAULT_MAX_BYTES,
+                batch -> completedAfter.add(added[0]));
+        for (int i = 0; i < 5; i++) {
+            bundler.add("patient-" + i + ".json", patient(i));
+            added[0]++;
+        }
+        bundler.finish();
+
+        // the full batches are passed on while resources are still being added, the last one by finish()
+        assertEquals(completedAfter, List.of(2, 4, 5));
+        assertEquals(bundler.getBatches().size(), 0);
+    }
+
+    @Test
+    public void testResourcesArePackedBySize() {
+        long patientSize = fhirContext.newJsonParser().encodeResourceToString(patient(0)).length();
+        BatchBundler bundler = new BatchBundler(fhirContext, "transaction", 100, patientSize * 2);
+        for (int i = 0; i < 4; i++) {
+            bundler.add("patient-" + i + ".json", patient(i));
+        }
+
+        List<BatchBundler.Batch> batches = bundler.getBatches();
+        assertEquals(batches.size(), 2);
+        assertEquals(((Bundle) batches.get(0).getBundle()).getType(), Bundle.BundleType.TRANSACTION);
+    }
+
+    @Test
+    public void testBundlesAreKeptOrSplit() {
+        BatchBundler bundler = new BatchBundler(fhirContext, "batch", 3, BatchBundler.DEFAULT_MAX_BYTES);
+        Bundle small = transaction(2, false);
+        bundler.add("small.json", small);
+        // entries referring to each other through temporary ids must stay together
+        Bundle linked = transaction(5, true);
+        bundler.add("linked.json", linked);
+        bundler.add("large.json", transaction(5, false));
+
+        List<BatchBundler.Batch> batches = bundler.getBatches();
+        assertEquals(batches.size(), 4);
+        assertSame(batches.get(0).getBundle(), small);
+        assertEquals(batches.get(0).getItems().get(1).getSource(), "small.json#1");
+        assertSame(batches.get(1).getBundle(), linked);
+        assertEquals(((Bundle) batches.get(2).getBundle()).getEntry().size(), 3);
+        assertEquals(batches.get(3).getItems().get(1).getSource(), "large.json#4");
+    }
+}
@@ -0,0 +1,109 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class BatchUploaderTests {
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+    private WireMockServer server;
+
+    @BeforeMethod
+    public void startServer() {
+        server = new WireMockServer(wireMockConfig().dynamicPort());
+        server.start();
+        HttpClientUtils.setRetryPolicy(new RetryPolicy(3, 10, 50));
+    }
+
+    @AfterMethod
+    public void stopServer() {
+        server.stop();
+        HttpClientUtils.setRetryPolicy(new RetryPolicy());
+    }
+
+    private String batchResponse(String... statuses) {
+        Bundle response = new Bundle();
+        response.setType(Bundle.BundleType.BATCHRESPONSE);
+        for (String status : statuses) {
+            response.addEntry().getResponse().setStatus(status);
+        }
+        return fhirContext.newJsonParser().encodeResourceToString(response);
+    }
+
+    @Test
+    public void testEntryStatusesAreMappedToSourcesAndRetried() {
+        server.stubFor(WireMock.post(WireMock.urlEqualTo("/fhir")).inScenario("batch")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(WireMock.aResponse().withStatus(200).withBody(batchResponse("201 Created", "400 Bad Request", "503 Service Unavailable")))
+                .willSetStateTo("retry"));
+        server.stubFor(WireMock.post(WireMock.urlEqualTo("/fhir")).inScenario("batch")
+                .whenScenarioStateIs("retry")
+                .willReturn(WireMock.aResponse().withStatus(200).withBody(batchResponse("200 OK"))));
+
+        Map<String, IBaseResource> resources = new LinkedHashMap<>();
+        for (int i = 0; i < 3; i++) {
+            Patient patient = new Patient();
+            patient.setId("patient-" + i);
+            resources.put("patient-" + i + ".json", patient);
+        }
+        BatchUploader uploader = new BatchUploader(fhirContext, "http://localhost:" + server.port() + "/fhir",
+                IOUtils.Encoding.JSON, "batch", 10, BatchBundler.DEFAULT_MAX_BYTES);
+        BatchUploader.Result result = uploader.upload(resources);
+
+        assertEquals(result.getStatuses().get("patient-0.json"), Integer.valueOf(201));
+        assertEquals(result.getStatuses().get("patient-2.json"), Integer.valueOf(200));
+        assertEquals(result.getFailures().size(), 1);
+        assertEquals(result.getFailures().get("patient-1.json"), Integer.valueOf(400));
+        // only the entry that failed with a transient error is posted again
+        server.verify(2, WireMock.postRequestedFor(WireMock.urlEqualTo("/fhir")));
+        server.verify(1, WireMock.postRequestedFor(WireMock.urlEqualTo("/fhir"))
+                .withRequestBody(WireMock.matchingJsonPath("$.entry.length()", WireMock.equalTo("1"))));
+    }
+
+    @Test
+    public void testFilesArePostedInBatches() throws IOException {
+        server.stubFor(WireMock.post(WireMock.urlEqualTo("/fhir"))
+                .willReturn(WireMock.aResponse().withStatus(200).withBody(batchResponse("201 Created", "201 Created"))));
+
+        Path directory = Files.createTempDirectory("batch-upload");
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Patient patient = new Patient();
+            patient.setId("patient-" + i);
+            Path path = directory.resolve("patient-" + i + ".json");
+            Files.writeString(path, fhirContext.newJsonParser().encodeResourceToString(patient));
+            paths.add(path.toString());
+        }
+        Path notes = directory.resolve("notes.txt");
+        Files.writeString(notes, "not a resource");
+        paths.add(notes.toString());
+
+        BatchUploader uploader = new BatchUploader(fhirContext, "http://localhost:" + server.port() + "/fhir",
+                IOUtils.Encoding.JSON, "batch", 2, BatchBundler.DEFAULT_MAX_BYTES);
+        BatchUploader.Result result = uploader.uploadFiles(paths);
+
+        assertEquals(result.getStatuses().size(), 4);
+        assertEquals(result.getFailures().size(), 0);
+        server.verify(2, WireMock.postRequestedFor(WireMock.urlEqualTo("/fhir")));
+    }
+}
@@ -0,0 +1,41 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+import org.cqframework.cql.cql2elm.CqlCompilerOptions;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.testng.annotations.Test;
+
+public class CompiledLibraryCacheTests {
+
+    @Test
+    public void TestManagersShareCompiledLibraries() {
+        LibraryManager first = CompiledLibraryCache.createLibraryManager(CompiledLibraryCache.createModelManager(), CqlCompilerOptions.defaultOptions(), "input/cql");
+        LibraryManager second = CompiledLibraryCache.createLibraryManager(CompiledLibraryCache.createModelManager(), CqlCompilerOptions.defaultOptions(), "input/cql");
+        assertSame(first.getCompiledLibraries(), second.getCompiledLibraries());
+        assertSame(first.getModelManager().getGlobalCache(), second.getModelManager().getGlobalCache());
+    }
+
+    @Test
+    public void TestManagersOfOtherSourcesDoNotShareCompiledLibraries() {
+        LibraryManager first = CompiledLibraryCache.createLibraryManager(CompiledLibraryCache.createModelManager(), CqlCompilerOptions.defaultOptions(), "ig-a/input/cql");
+        LibraryManager second = CompiledLibraryCache.createLibraryManager(CompiledLibraryCache.createModelManager(), CqlCompilerOptions.defaultOptions(), "ig-b/input/cql");
+        assertNotSame(first.getCompiledLibraries(), second.getCompiledLibraries());
+        // the models do not depend on the library sources
+        assertSame(first.getModelManager().getGlobalCache(), second.getModelManager().getGlobalCache());
+    }
+
+    @Test
+    public void TestOptionsKey() {
+        assertEquals(CompiledLibraryCache.getOptionsKey(CqlCompilerOptions.defaultOptions()),
+                CompiledLibraryCache.getOptionsKey(CqlCompilerOptions.defaultOptions()));
+
+        CqlCompilerOptions options = CqlCompilerOptions.defaultOptions();
+        options.setValidateUnits(!options.getValidateUnits());
+        assertNotEquals(CompiledLibraryCache.getOptionsKey(options),
+                CompiledLibraryCache.getOptionsKey(CqlCompilerOptions.defaultOptions()));
+    }
+}
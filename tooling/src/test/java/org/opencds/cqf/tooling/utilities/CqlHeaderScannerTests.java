@@ -0,0 +1,62 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.testng.annotations.Test;
+
+public class CqlHeaderScannerTests {
+
+    @Test
+    public void TestLibraryAndIncludes() {
+        CqlHeaderScanner.Header header = CqlHeaderScanner.scan(
+                "/* library Commented version '0.1' */\n"
+                + "library Example.\"Screening Measure\" version '1.0.0'\n"
+                + "using FHIR version '4.0.1'\n"
+                + "// include Commented\n"
+                + "include FHIRHelpers version '4.0.1' called FHIRHelpers\n"
+                + "include Common.Global called Global\n"
+                + "context Patient\n"
+                + "define \"Not an include\": 'include Nope'\n");
+
+        assertEquals(header.getNamespace(), "Example");
+        assertEquals(header.getName(), "Screening Measure");
+        assertEquals(header.getVersion(), "1.0.0");
+        assertEquals(header.getIncludes().size(), 2);
+        assertEquals(header.getIncludes().get(0).getName(), "FHIRHelpers");
+        assertEquals(header.getIncludes().get(0).getVersion(), "4.0.1");
+        assertEquals(header.getIncludes().get(0).getAlias(), "FHIRHelpers");
+        assertEquals(header.getIncludes().get(1).getNamespace(), "Common");
+        assertEquals(header.getIncludes().get(1).getName(), "Global");
+        assertNull(header.getIncludes().get(1).getVersion());
+        assertEquals(header.getUsings().get(0).getName(), "FHIR");
+        assertEquals(header.getUsings().get(0).getVersion(), "4.0.1");
+    }
+
+    @Test
+    public void TestTerminologyDeclarations() {
+        CqlHeaderScanner.Header header = CqlHeaderScanner.scan(
+                "library Example version '1.0.0'\n"
+                + "codesystem \"LOINC\": 'http://loinc.org' version '2.72'\n"
+                + "valueset \"Office Visit\": 'http://cts.nlm.nih.gov/fhir/ValueSet/2.16.840.1.113883.3.464.1003.101.12.1001'\n"
+                + "private valueset \"Versioned\": 'urn:oid:1.2.3' version '20210220' codesystems { \"LOINC\" }\n"
+                + "code \"Birth date\": '21112-8' from \"LOINC\" display 'Birth date'\n"
+                + "parameter \"Measurement Period\" Interval<DateTime> default Interval[@2019-01-01, @2020-01-01)\n"
+                + "parameter \"Note\" String default 'define'\n"
+                + "context Patient\n"
+                + "define \"Late\": [Encounter: \"Late\"]\n"
+                + "valueset \"After Context\": 'urn:oid:9.9.9'\n");
+
+        assertEquals(header.getCodeSystems().get(0).getName(), "LOINC");
+        assertEquals(header.getCodeSystems().get(0).getId(), "http://loinc.org");
+        assertEquals(header.getCodeSystems().get(0).getVersion(), "2.72");
+        assertEquals(header.getValueSets().size(), 2);
+        assertEquals(header.getValueSets().get(0).getName(), "Office Visit");
+        assertEquals(header.getValueSets().get(0).getId(), "http://cts.nlm.nih.gov/fhir/ValueSet/2.16.840.1.113883.3.464.1003.101.12.1001");
+        assertEquals(header.getValueSets().get(1).getId(), "urn:oid:1.2.3");
+        assertEquals(header.getValueSets().get(1).getVersion(), "20210220");
+        assertEquals(header.getCodes().get(0).getCode(), "21112-8");
+        assertEquals(header.getCodes().get(0).getCodeSystemName(), "LOINC");
+        assertEquals(header.getCodes().get(0).getDisplay(), "Birth date");
+    }
+}
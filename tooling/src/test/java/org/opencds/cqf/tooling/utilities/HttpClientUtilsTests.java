@@ -0,0 +1,180 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.testng.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class HttpClientUtilsTests {
+
+    private WireMockServer server;
+    private String fhirUri;
+
+    @BeforeMethod
+    public void startServer() {
+        server = new WireMockServer(wireMockConfig().dynamicPort());
+        server.start();
+        server.stubFor(WireMock.post(WireMock.urlEqualTo("/fhir"))
+                .willReturn(WireMock.aResponse().withStatus(200).withFixedDelay(50).withBody("{}")));
+        fhirUri = "http://localhost:" + server.port() + "/fhir";
+    }
+
+    @AfterMethod
+    public void stopServer() {
+        server.stop();
+        HttpClientUtils.setGzipRequests(false);
+        HttpClientUtils.setRetryPolicy(new RetryPolicy());
+    }
+
+    private static Bundle bundle(int i) {
+        Bundle bundle = new Bundle();
+        bundle.setId("bundle-" + i);
+        bundle.setType(Bundle.BundleType.TRANSACTION);
+        return bundle;
+    }
+
+    @Test
+    public void testAllQueuedPostsAreSent() throws Exception {
+        FhirContext fhirContext = FhirContext.forR4Cached();
+        HttpClientUtils.setMaxSimultaneousPostCount(4);
+        for (int i = 0; i < 20; i++) {
+            HttpClientUtils.post(fhirUri, bundle(i), IOUtils.Encoding.JSON, fhirContext);
+        }
+
+        HttpClientUtils.postTaskCollection();
+
+        assertEquals(server.getAllServeEvents().size(), 20);
+    }
+
+    @Test
+    public void testPostsFromFilesAreStreamed() throws Exception {
+        FhirContext fhirContext = FhirContext.forR4Cached();
+        Path directory = Files.createTempDirectory("bundles");
+        Path json = directory.resolve("bundle-json.json");
+        Files.write(json, fhirContext.newJsonParser().encodeResourceToString(bundle(1)).getBytes(StandardCharsets.UTF_8));
+        Path xml = directory.resolve("bundle-xml.xml");
+        Files.write(xml, fhirContext.newXmlParser().encodeResourceToString(bundle(2)).getBytes(StandardCharsets.UTF_8));
+
+        long cacheRequests = IOUtils.getResourceCacheStats().requestCount();
+        HttpClientUtils.post(fhirUri, json.toString(), IOUtils.Encoding.JSON, fhirContext);
+        HttpClientUtils.post(fhirUri, xml.toString(), IOUtils.Encoding.JSON, fhirContext);
+        HttpClientUtils.postTaskCollection();
+        // the converted file is read without going through the resource cache
+        assertEquals(IOUtils.getResourceCacheStats().requestCount(), cacheRequests);
+
+        // the json file is sent as is, the xml file is converted while it is sent
+        server.verify(1, WireMock.postRequestedFor(WireMock.urlEqualTo("/fhir"))
+                .withRequestBody(WireMock.equalTo(new String(Files.readAllBytes(json), StandardCharsets.UTF_8))));
+        server.verify(1, WireMock.postRequestedFor(WireMock.urlEqualTo("/fhir"))
+                .withHeader("Transfer-Encoding", WireMock.equalTo("chunked"))
+                .withRequestBody(WireMock.matchingJsonPath("$.id", WireMock.equalTo("bundle-2"))));
+    }
+
+    @Test
+    public void testGzipRequests() throws Exception {
+        FhirContext fhirContext = FhirContext.forR4Cached();
+        HttpClientUtils.setGzipRequests(true);
+        HttpClientUtils.post(fhirUri, bundle(0), IOUtils.Encoding.JSON, fhirContext);
+
+        HttpClientUtils.postTaskCollection();
+
+        server.verify(1, WireMock.postRequestedFor(WireMock.urlEqualTo("/fhir"))
+                .withHeader("Content-Encoding", WireMock.equalTo("gzip")));
+    }
+
+    @Test
+    public void testTransientFailuresAreRetried() throws Exception {
+        server.stubFor(WireMock.post(WireMock.urlEqualTo("/flaky")).inScenario("flaky")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(WireMock.aResponse().withStatus(503).withHeader("Retry-After", "0"))
+                .willSetStateTo("recovering"));
+        server.stubFor(WireMock.post(WireMock.urlEqualTo("/flaky")).inScenario("flaky")
+                .whenScenarioStateIs("recovering")
+                .willReturn(WireMock.aResponse().withStatus(502))
+                .willSetStateTo("recovered"));
+        server.stubFor(WireMock.post(WireMock.urlEqualTo("/flaky")).inScenario("flaky")
+                .whenScenarioStateIs("recovered")
+                .willReturn(WireMock.aResponse().withStatus(200).withBody("{}")));
+        HttpClientUtils.setRetryPolicy(new RetryPolicy(3, 10, 50));
+
+        HttpClientUtils.post(fhirUri.replace("/fhir", "/flaky"), bundle(0), IOUtils.Encoding.JSON, FhirContext.forR4Cached());
+        HttpClientUtils.postTaskCollection();
+
+        server.verify(3, WireMock.postRequestedFor(WireMock.urlEqualTo("/flaky")));
+    }
+
+    @Test
+    public void testRetriesAreLimited() throws Exception {
+        server.stubFor(WireMock.post(WireMock.urlEqualTo("/unavailable"))
+                .willReturn(WireMock.aResponse().withStatus(429)));
+        HttpClientUtils.setRetryPolicy(new RetryPolicy(3, 10, 50));
+
+        HttpClientUtils.post(fhirUri.replace("/fhir", "/unavailable"), bundle(0), IOUtils.Encoding.JSON, FhirContext.forR4Cached());
+        HttpClientUtils.postTaskCollection();
+
+        server.verify(3, WireMock.postRequestedFor(WireMock.urlEqualTo("/unavailable")));
+    }
+
+    @Test
+    public void testPermanentFailuresAreNotRetried() throws Exception {
+        server.stubFor(WireMock.post(WireMock.urlEqualTo("/invalid"))
+                .willReturn(WireMock.aResponse().withStatus(400)));
+        HttpClientUtils.setRetryPolicy(new RetryPolicy(3, 10, 50));
+
+        HttpClientUtils.post(fhirUri.replace("/fhir", "/invalid"), bundle(0), IOUtils.Encoding.JSON, FhirContext.forR4Cached());
+        HttpClientUtils.postTaskCollection();
+
+        server.verify(1, WireMock.postRequestedFor(WireMock.urlEqualTo("/invalid")));
+    }
+
+    @Test
+    public void testUploadJournalSkipsPostedResources() throws Exception {
+        FhirContext fhirContext = FhirContext.forR4Cached();
+        Path directory = Files.createTempDirectory("bundles");
+        Path journalFile = directory.resolve("upload.journal");
+        Path[] files = new Path[3];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = directory.resolve("bundle-" + i + ".json");
+            Files.write(files[i], fhirContext.newJsonParser().encodeResourceToString(bundle(i)).getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (UploadJournal journal = new UploadJournal(journalFile.toString())) {
+            HttpClientUtils.setUploadJournal(journal);
+            for (Path file : files) {
+                HttpClientUtils.post(fhirUri, file.toString(), IOUtils.Encoding.JSON, fhirContext);
+            }
+            HttpClientUtils.postTaskCollection();
+        } finally {
+            HttpClientUtils.setUploadJournal(null);
+        }
+        assertEquals(server.getAllServeEvents().size(), 3);
+
+        // rerun with one bundle changed: only that one is posted again
+        Bundle changed = bundle(1);
+        changed.setType(Bundle.BundleType.BATCH);
+        Files.write(files[1], fhirContext.newJsonParser().encodeResourceToString(changed).getBytes(StandardCharsets.UTF_8));
+        try (UploadJournal journal = new UploadJournal(journalFile.toString())) {
+            HttpClientUtils.setUploadJournal(journal);
+            for (Path file : files) {
+                HttpClientUtils.post(fhirUri, file.toString(), IOUtils.Encoding.JSON, fhirContext);
+            }
+            HttpClientUtils.postTaskCollection();
+        } finally {
+            HttpClientUtils.setUploadJournal(null);
+        }
+        assertEquals(server.getAllServeEvents().size(), 4);
+    }
+}
@@ -1,11 +1,19 @@
 package org.opencds.cqf.tooling.utilities;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.testng.annotations.Test;
 
+import ca.uhn.fhir.context.FhirContext;
+
 public class IOUtilsTests {
 
     @Test
@@ -15,4 +23,17 @@ public class IOUtilsTests {
         String expected = basePath + File.separator + "input" + File.separator + "resources" + File.separator + "library";
         assertEquals(result, expected);
     }
+
+    @Test
+    public void TestReadResourceIsCached() throws IOException {
+        Path file = Files.createTempFile("library-", ".json");
+        Files.write(file, "{ \"resourceType\": \"Library\", \"id\": \"Cached\" }".getBytes(StandardCharsets.UTF_8));
+        FhirContext fhirContext = FhirContext.forR4Cached();
+
+        long hits = IOUtils.getResourceCacheStats().hitCount();
+        IBaseResource first = IOUtils.readResource(file.toString(), fhirContext);
+        IBaseResource second = IOUtils.readResource(file.toString(), fhirContext);
+        assertSame(second, first);
+        assertEquals(IOUtils.getResourceCacheStats().hitCount(), hits + 1);
+    }
 }
@@ -0,0 +1,56 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class LibraryDependencyGraphTests {
+
+    private static LibraryDependencyGraph<RuntimeException> graph(Map<String, List<String>> edges, AtomicInteger resolved) {
+        return new LibraryDependencyGraph<>(library -> {
+            resolved.incrementAndGet();
+            return edges.getOrDefault(library, Collections.emptyList());
+        });
+    }
+
+    @Test
+    public void TestTransitiveDependenciesAreOrderedAndMemoized() {
+        Map<String, List<String>> edges = new HashMap<>();
+        edges.put("Measure", Arrays.asList("Common", "Hospice"));
+        edges.put("Hospice", Arrays.asList("Common", "FHIRHelpers"));
+        edges.put("Common", Collections.singletonList("FHIRHelpers"));
+        AtomicInteger resolved = new AtomicInteger();
+        LibraryDependencyGraph<RuntimeException> graph = graph(edges, resolved);
+
+        assertEquals(graph.getTransitiveDependencies("Measure"), Arrays.asList("FHIRHelpers", "Common", "Hospice"));
+        assertEquals(graph.getTransitiveDependencies("Hospice"), Arrays.asList("FHIRHelpers", "Common"));
+        assertEquals(graph.getDependencies("Measure"), Arrays.asList("Common", "Hospice"));
+        // each library is resolved once, however many libraries include it
+        assertEquals(resolved.get(), 4);
+    }
+
+    @Test
+    public void TestCircularDependenciesAreReported() {
+        Map<String, List<String>> edges = new HashMap<>();
+        edges.put("Measure", Collections.singletonList("A"));
+        edges.put("A", Collections.singletonList("B"));
+        edges.put("B", Collections.singletonList("A"));
+        LibraryDependencyGraph<RuntimeException> graph = graph(edges, new AtomicInteger());
+
+        try {
+            graph.getTransitiveDependencies("Measure");
+            fail("Expected a circular dependency");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().endsWith("A -> B -> A"), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirVersionEnum;
+
+public class PersistentResourceCacheTests {
+
+    private static final String LIBRARY = "{ \"resourceType\": \"Library\", \"id\": \"A\", \"url\": \"http://example.org/Library/A\","
+            + " \"relatedArtifact\": [ { \"type\": \"depends-on\", \"resource\": \"http://example.org/Library/B\" } ] }";
+
+    @Test
+    public void TestHeaderIsReusedAcrossInstances() throws IOException {
+        Path cacheDirectory = Files.createTempDirectory("cache");
+        Path file = Files.createTempFile("library-A", ".json");
+        Files.write(file, LIBRARY.getBytes(StandardCharsets.UTF_8));
+
+        PersistentResourceCache first = new PersistentResourceCache(cacheDirectory.toString(), FhirVersionEnum.R4);
+        assertEquals(first.getHeader(file.toString()).getDependencies().get(0), "http://example.org/Library/B");
+        first.save();
+
+        PersistentResourceCache second = new PersistentResourceCache(cacheDirectory.toString(), FhirVersionEnum.R4);
+        ResourceIndex.Entry entry = second.getHeader(file.toString());
+        assertEquals(entry.getUrl(), "http://example.org/Library/A");
+        assertEquals(entry.getDependencies().get(0), "http://example.org/Library/B");
+        assertTrue(second.getSummary().contains("1 of 1 files served from cache"));
+    }
+
+    @Test
+    public void TestChangedFileIsReread() throws IOException {
+        Path cacheDirectory = Files.createTempDirectory("cache");
+        Path file = Files.createTempFile("library-A", ".json");
+        Files.write(file, LIBRARY.getBytes(StandardCharsets.UTF_8));
+
+        PersistentResourceCache first = new PersistentResourceCache(cacheDirectory.toString(), FhirVersionEnum.R4);
+        first.getHeader(file.toString());
+        first.save();
+
+        Files.write(file, "{ \"resourceType\": \"Library\", \"id\": \"A\", \"url\": \"http://example.org/Library/A2\" }"
+                .getBytes(StandardCharsets.UTF_8));
+
+        PersistentResourceCache second = new PersistentResourceCache(cacheDirectory.toString(), FhirVersionEnum.R4);
+        ResourceIndex.Entry entry = second.getHeader(file.toString());
+        assertEquals(entry.getUrl(), "http://example.org/Library/A2");
+        assertTrue(entry.getDependencies().isEmpty());
+        assertTrue(second.getSummary().contains("(1 invalidated)"));
+    }
+
+    @Test
+    public void TestCacheForOtherFhirVersionIsDiscarded() throws IOException {
+        Path cacheDirectory = Files.createTempDirectory("cache");
+        Path file = Files.createTempFile("library-A", ".json");
+        Files.write(file, LIBRARY.getBytes(StandardCharsets.UTF_8));
+
+        PersistentResourceCache first = new PersistentResourceCache(cacheDirectory.toString(), FhirVersionEnum.DSTU3);
+        first.getHeader(file.toString());
+        first.save();
+
+        PersistentResourceCache second = new PersistentResourceCache(cacheDirectory.toString(), FhirVersionEnum.R4);
+        second.getHeader(file.toString());
+        assertTrue(second.getSummary().contains("0 of 1 files served from cache"));
+    }
+}
@@ -0,0 +1,112 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import org.hl7.fhir.r4.model.Library;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class ResourceIndexTests {
+
+    @Test
+    public void TestJsonHeader() throws IOException {
+        Path file = Files.createTempFile("library-", ".json");
+        Files.write(file, ("{ \"resourceType\": \"Library\", \"id\": \"Example\", \"meta\": { \"profile\": [ \"x\" ] },"
+                + " \"url\": \"http://example.org/Library/Example\", \"version\": \"1.0.0\", \"name\": \"Example\" }")
+                .getBytes(StandardCharsets.UTF_8));
+
+        ResourceIndex.Entry entry = ResourceIndex.readHeader(file.toString());
+        assertEquals(entry.getResourceType(), "Library");
+        assertEquals(entry.getId(), "Example");
+        assertEquals(entry.getUrl(), "http://example.org/Library/Example");
+        assertEquals(entry.getVersion(), "1.0.0");
+        assertEquals(entry.getName(), "Example");
+    }
+
+    @Test
+    public void TestXmlHeader() throws IOException {
+        Path file = Files.createTempFile("measure-", ".xml");
+        Files.write(file, ("<Measure xmlns=\"http://hl7.org/fhir\"><id value=\"Example\"/>"
+                + "<text><status value=\"generated\"/></text>"
+                + "<url value=\"http://example.org/Measure/Example\"/><version value=\"1.0.0\"/></Measure>")
+                .getBytes(StandardCharsets.UTF_8));
+
+        ResourceIndex.Entry entry = ResourceIndex.readHeader(file.toString());
+        assertEquals(entry.getResourceType(), "Measure");
+        assertEquals(entry.getId(), "Example");
+        assertEquals(entry.getUrl(), "http://example.org/Measure/Example");
+        assertEquals(entry.getVersion(), "1.0.0");
+        assertNull(entry.getName());
+    }
+
+    @Test
+    public void TestNonFhirFilesAreSkipped() throws IOException {
+        Path json = Files.createTempFile("cql-options", ".json");
+        Files.write(json, "{ \"options\": [] }".getBytes(StandardCharsets.UTF_8));
+        Path xml = Files.createTempFile("pom", ".xml");
+        Files.write(xml, "<project><id value=\"x\"/></project>".getBytes(StandardCharsets.UTF_8));
+
+        assertNull(ResourceIndex.readHeader(json.toString()));
+        assertNull(ResourceIndex.readHeader(xml.toString()));
+    }
+
+    @Test
+    public void TestEntriesByType() throws IOException {
+        Path directory = Files.createTempDirectory("resources");
+        Files.write(directory.resolve("library-A.json"),
+                "{ \"resourceType\": \"Library\", \"id\": \"A\" }".getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve("measure-B.json"),
+                "{ \"resourceType\": \"Measure\", \"id\": \"B\" }".getBytes(StandardCharsets.UTF_8));
+
+        ResourceIndex index = new ResourceIndex();
+        List<ResourceIndex.Entry> libraries = index.getEntries(Collections.singletonList(directory.toString()), "Library");
+        assertEquals(libraries.size(), 1);
+        assertEquals(libraries.get(0).getId(), "A");
+    }
+
+    @Test
+    public void TestHeaderScanStopsAfterTopLevelHeader() throws IOException {
+        // the rest of the files is unreadable, so these only pass if it is never read
+        Path json = Files.createTempFile("bundle-", ".json");
+        Files.write(json, "{ \"resourceType\": \"Bundle\", \"id\": \"B\", \"type\": \"transaction\", \"entry\": [ { \"broken"
+                .getBytes(StandardCharsets.UTF_8));
+        Path xml = Files.createTempFile("bundle-", ".xml");
+        Files.write(xml, "<Bundle xmlns=\"http://hl7.org/fhir\"><id value=\"B\"/><type value=\"transaction\"/><entry><broken"
+                .getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(ResourceIndex.readHeader(json.toString()).getId(), "B");
+        assertEquals(ResourceIndex.readHeader(xml.toString()).getId(), "B");
+    }
+
+    @Test
+    public void TestWrittenFilesAreIndexed() throws IOException {
+        FhirContext fhirContext = FhirContext.forR4Cached();
+        Path directory = Files.createTempDirectory("resources");
+        List<String> directories = Collections.singletonList(directory.toString());
+        try {
+            IOUtils.writeResource(new Library().setName("A").setId("A"), directory.toString(), IOUtils.Encoding.JSON, fhirContext);
+            assertEquals(IOUtils.getResourceIndex().getEntries(directories, "Library").size(), 1);
+
+            // created after the directory was indexed
+            IOUtils.writeResource(new Library().setName("B").setId("B"), directory.toString(), IOUtils.Encoding.JSON, fhirContext);
+            // and changed
+            IOUtils.writeResource(new Library().setName("A").setVersion("2.0.0").setId("A"), directory.toString(), IOUtils.Encoding.JSON, fhirContext);
+
+            List<ResourceIndex.Entry> libraries = IOUtils.getResourceIndex().getEntries(directories, "Library");
+            assertEquals(libraries.size(), 2);
+            assertEquals(libraries.get(0).getVersion(), "2.0.0");
+            assertEquals(libraries.get(1).getName(), "B");
+        } finally {
+            IOUtils.cleanUp();
+        }
+    }
+}
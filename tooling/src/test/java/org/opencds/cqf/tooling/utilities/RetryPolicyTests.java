@@ -0,0 +1,76 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.apache.http.client.utils.DateUtils;
+import org.testng.annotations.Test;
+
+public class RetryPolicyTests {
+
+    @Test
+    public void testRetryableStatuses() {
+        RetryPolicy policy = new RetryPolicy();
+        assertTrue(policy.isRetryable(429));
+        assertTrue(policy.isRetryable(503));
+        assertTrue(policy.isRetryable(504));
+        assertFalse(policy.isRetryable(400));
+        assertFalse(policy.isRetryable(500));
+        assertTrue(policy.isOverloaded(429));
+        assertFalse(policy.isOverloaded(504));
+    }
+
+    @Test
+    public void testBackoffIsExponentialWithJitter() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+        for (int i = 0; i < 20; i++) {
+            long first = policy.getDelayMillis(1, null);
+            assertTrue(first >= 50 && first <= 100, String.valueOf(first));
+            long third = policy.getDelayMillis(3, null);
+            assertTrue(third >= 200 && third <= 400, String.valueOf(third));
+            long capped = policy.getDelayMillis(40, null);
+            assertTrue(capped >= 500 && capped <= 1000, String.valueOf(capped));
+        }
+    }
+
+    @Test
+    public void testRetryAfter() {
+        long now = System.currentTimeMillis();
+        assertEquals(RetryPolicy.parseRetryAfter("120", now), Long.valueOf(120000));
+        String date = DateUtils.formatDate(new Date(now + 60000));
+        long delay = RetryPolicy.parseRetryAfter(date, now);
+        // HTTP dates have a precision of one second
+        assertTrue(delay > 58000 && delay <= 60000, String.valueOf(delay));
+        assertNull(RetryPolicy.parseRetryAfter("soon", now));
+        assertNull(RetryPolicy.parseRetryAfter(null, now));
+        assertEquals(new RetryPolicy(3, 10, 50).getDelayMillis(1, "2"), 2000);
+    }
+
+    @Test
+    public void testConcurrencyLimitIsAdditiveIncreaseMultiplicativeDecrease() throws InterruptedException {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(8);
+        long[] permits = new long[8];
+        for (int i = 0; i < permits.length; i++) {
+            permits[i] = limit.acquire();
+        }
+        // the requests of one window all being rejected halve the limit once
+        for (long permit : permits) {
+            limit.onOverload(permit);
+        }
+        assertEquals(limit.getLimit(), 4);
+
+        limit.onOverload(limit.acquire());
+        assertEquals(limit.getLimit(), 2);
+
+        // a window of successes raises it by one
+        for (int i = 0; i < 2; i++) {
+            limit.acquire();
+            limit.onSuccess();
+        }
+        assertEquals(limit.getLimit(), 3);
+    }
+}
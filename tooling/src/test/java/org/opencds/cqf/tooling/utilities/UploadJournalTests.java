@@ -0,0 +1,78 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class UploadJournalTests {
+    private static final String SERVER = "http://localhost/fhir";
+
+    @Test
+    public void testOutcomesSurviveReopening() throws Exception {
+        Path file = Files.createTempDirectory("journal").resolve("upload.journal");
+        try (UploadJournal journal = new UploadJournal(file.toString())) {
+            journal.recordSuccess(SERVER, "a", "hash-a", 200);
+            journal.recordSuccess(SERVER, "b", "hash-b", 201);
+            journal.recordFailure(SERVER, "b", "hash-b", 400);
+            journal.recordFailure(SERVER, "c", "hash-c", 0);
+        }
+
+        try (UploadJournal journal = new UploadJournal(file.toString())) {
+            assertTrue(journal.isAcknowledged(SERVER, "a", "hash-a"));
+            // changed content, another server
+            assertFalse(journal.isAcknowledged(SERVER, "a", "hash-a2"));
+            assertFalse(journal.isAcknowledged("http://other/fhir", "a", "hash-a"));
+            // the last outcome wins
+            assertFalse(journal.isAcknowledged(SERVER, "b", "hash-b"));
+            assertFalse(journal.isAcknowledged(SERVER, "c", "hash-c"));
+        }
+    }
+
+    @Test
+    public void testTornLineIsIgnored() throws Exception {
+        Path file = Files.createTempDirectory("journal").resolve("upload.journal");
+        try (UploadJournal journal = new UploadJournal(file.toString())) {
+            journal.recordSuccess(SERVER, "a", "hash-a", 200);
+        }
+        // a crash in the middle of writing an entry
+        Files.write(file, "2024-01-01T00:00:00Z\tACK\t200\thash-b\thttp://loc".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (UploadJournal journal = new UploadJournal(file.toString())) {
+            assertTrue(journal.isAcknowledged(SERVER, "a", "hash-a"));
+            journal.recordSuccess(SERVER, "c", "hash-c", 200);
+        }
+        try (UploadJournal journal = new UploadJournal(file.toString())) {
+            assertTrue(journal.isAcknowledged(SERVER, "c", "hash-c"));
+        }
+        assertEquals(Files.readAllLines(file).size(), 3);
+    }
+
+    @Test
+    public void testKeysAndHashes() throws Exception {
+        FhirContext fhirContext = FhirContext.forR4Cached();
+        Bundle bundle = new Bundle();
+        bundle.setType(Bundle.BundleType.TRANSACTION);
+        assertNull(UploadJournal.getKey(bundle));
+        bundle.setId("example");
+        assertEquals(UploadJournal.getKey(bundle), "Bundle/example");
+
+        Path file = Files.createTempDirectory("journal").resolve("bundle.json");
+        String json = fhirContext.newJsonParser().encodeResourceToString(bundle);
+        Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+        assertEquals(UploadJournal.hash(bundle, fhirContext), UploadJournal.hash(file.toString()));
+
+        bundle.setType(Bundle.BundleType.BATCH);
+        assertFalse(UploadJournal.hash(bundle, fhirContext).equals(UploadJournal.hash(file.toString())));
+    }
+}
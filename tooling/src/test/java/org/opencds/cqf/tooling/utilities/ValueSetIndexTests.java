@@ -0,0 +1,63 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.testng.annotations.Test;
+
+public class ValueSetIndexTests {
+
+    private static final String URL = "http://cts.nlm.nih.gov/fhir/ValueSet/2.16.840.1.113883.3.464.1003.101.12.1001";
+
+    private static ValueSet valueSet(String url, String version) {
+        ValueSet valueSet = new ValueSet();
+        valueSet.setUrl(url);
+        valueSet.setVersion(version);
+        return valueSet;
+    }
+
+    @Test
+    public void TestResolution() {
+        ValueSet older = valueSet(URL, "20190315");
+        ValueSet newer = valueSet(URL, "20210220");
+        ValueSet identified = valueSet("http://example.org/fhir/ValueSet/office-visit", null);
+        identified.addIdentifier().setSystem("urn:ietf:rfc:3986").setValue("urn:oid:1.2.3.4");
+        identified.getExpansion().setIdentifier("urn:uuid:6e5f0a2c-1f1e-4bd6-9d1c-3a4b0e6f2b11");
+        Bundle bundle = new Bundle();
+        bundle.addEntry().setResource(identified);
+
+        ValueSetIndex index = new ValueSetIndex(Arrays.asList(newer, older, bundle));
+
+        assertSame(index.resolve(URL), newer);
+        assertSame(index.resolve(URL + "|20190315"), older);
+        assertNull(index.resolve(URL + "|20200101"));
+        assertSame(index.resolve("urn:oid:2.16.840.1.113883.3.464.1003.101.12.1001"), newer);
+        assertSame(index.resolve("urn:oid:1.2.3.4"), identified);
+        assertSame(index.resolve("urn:uuid:6e5f0a2c-1f1e-4bd6-9d1c-3a4b0e6f2b11"), identified);
+        assertNull(index.resolve("http://example.org/fhir/ValueSet/missing"));
+    }
+
+    @Test
+    public void TestVersionedValueSetReplacesUnversioned() {
+        ValueSet unversioned = valueSet(URL, null);
+        ValueSet versioned = valueSet(URL, "20210220");
+        ValueSet older = valueSet(URL, "20190315");
+
+        ValueSetIndex index = new ValueSetIndex(Arrays.asList(unversioned, versioned, older));
+
+        assertSame(index.resolve(URL), versioned);
+        assertSame(index.getValueSetsByUrl().get(URL), versioned);
+    }
+
+    @Test
+    public void TestCompareVersions() {
+        assertTrue(ValueSetIndex.compareVersions("1.10.0", "1.9.2") > 0);
+        assertTrue(ValueSetIndex.compareVersions("20190315", "20210220") < 0);
+        assertTrue(ValueSetIndex.compareVersions("1.0", "1.0.1") < 0);
+    }
+}